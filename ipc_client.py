@@ -189,18 +189,6 @@ def BG():
     time.sleep(1)
     os.close(rf)
 
-def BH():
-    print("Please enter a write cycle that is queued to pending, in the format: */5 * * * * ?")
-    queuedToPendingCycle = raw_input('input queuedToPendingCycle:')
-    message = json.dumps({'type':'modifyQueuedToPendingCycle','message':queuedToPendingCycle})
-    os.write(wf, message)
-    print ("sent msg: %s" % message)
-    s = os.read(rf, 1024)
-    print ("received msg: %s" % s)
-    time.sleep(1)
-    os.close(rf)
-
-
 def BI():
     print("The cleanup cycle of queued and pending, in the format: 0 */1 * * * ?")
     clearCycle = raw_input('input clearCycle:')
@@ -227,7 +215,7 @@ def B():
     print("Please choose the operation：")
     print("A:Modify version \nB:Modify whether only native clients can connect")
     print("C:Whether to support json-rpc \nD:Whether to support grpc \nE:Modify the transaction limit of the queued queue \nF:Modify the transaction limit of the pending queue")
-    print("G:Modify the transaction into the memory pool minimum fee \nH:Queued to pending write cycle \nI:Queued and pending cleaning cycles")
+    print("G:Modify the transaction into the memory pool minimum fee \nH:Queued and pending cleaning cycles")
     choice = raw_input('input A ~ L :')
     if choice not in ('A','B','C','D','E','F','G','H','I','J','K','L'):
         B()
@@ -246,8 +234,6 @@ def B():
     if choice == 'G':
         BG()
     if choice == 'H':
-        BH()
-    if choice == 'I':
         BI()
 
 def C():
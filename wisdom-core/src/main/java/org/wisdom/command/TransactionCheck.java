@@ -31,10 +31,10 @@ import org.wisdom.core.account.Transaction;
 import org.wisdom.core.incubator.Incubator;
 import org.wisdom.core.incubator.IncubatorDB;
 import org.wisdom.core.incubator.RateTable;
+import org.wisdom.core.validate.SignatureVerifier;
 import org.wisdom.crypto.ed25519.Ed25519PublicKey;
 import org.wisdom.db.StateDB;
 import org.wisdom.encoding.BigEndian;
-import org.wisdom.keystore.crypto.RipemdUtility;
 import org.wisdom.keystore.crypto.SHA3Utility;
 import org.wisdom.keystore.wallet.KeystoreAction;
 import org.wisdom.protobuf.tcp.command.HatchModel;
@@ -66,6 +66,9 @@ public class TransactionCheck {
     @Autowired
     RateTable rateTable;
 
+    @Autowired
+    SignatureVerifier signatureVerifier;
+
     public APIResult TransactionFormatCheck(byte[] transfer) {
         APIResult apiResult = new APIResult();
         try {
@@ -94,7 +97,7 @@ public class TransactionCheck {
             tranlast = ByteUtil.bytearraycopy(tranlast, 8, tranlast.length - 8);
             //frompubkey
             byte[] frompubkey = ByteUtil.bytearraycopy(tranlast, 0, 32);
-            byte[] frompubhash = RipemdUtility.ripemd160(SHA3Utility.keccak256(frompubkey));
+            byte[] frompubhash = Address.publicKeyToHash(frompubkey);
             tranlast = ByteUtil.bytearraycopy(tranlast, 32, tranlast.length - 32);
             //gasPrice
             byte[] gasbyte = ByteUtil.bytearraycopy(tranlast, 0, 8);
@@ -192,6 +195,10 @@ public class TransactionCheck {
             apiResult.setCode(2000);
             apiResult.setMessage("SUCCESS");
             Transaction transaction = Transaction.fromRPCBytes(transfer);
+            // 签名已经校验过，打包进区块后不再重复校验
+            if (Arrays.equals(nosig, transaction.getRawForSign())) {
+                signatureVerifier.markVerified(transaction);
+            }
             apiResult.setData(transaction);
             return apiResult;
         } catch (Exception e) {
@@ -204,7 +211,7 @@ public class TransactionCheck {
     public APIResult TransactionVerify(Transaction transaction, Account account, Incubator incubator) {
         APIResult apiResult = new APIResult();
         try {
-            byte[] frompubhash = RipemdUtility.ripemd160(SHA3Utility.keccak256(transaction.from));
+            byte[] frompubhash = Address.publicKeyToHash(transaction.from);
             //nonce
             long trannonce = transaction.nonce;
             long nownonce;
@@ -560,7 +567,7 @@ public class TransactionCheck {
             apiResult.setMessage("The type of withdrawal is not a vote");
             return apiResult;
         }
-        byte[] tranfrom = RipemdUtility.ripemd160(SHA3Utility.keccak256(transaction.from));
+        byte[] tranfrom = Address.publicKeyToHash(transaction.from);
         if (!Arrays.equals(tranfrom, frompubkeyhash) || !Arrays.equals(transaction.to, topubkeyhash)) {
             apiResult.setCode(5000);
             apiResult.setMessage("You have to withdraw your vote");
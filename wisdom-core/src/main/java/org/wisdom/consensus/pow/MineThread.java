@@ -25,13 +25,20 @@ import org.wisdom.core.event.NewBlockMinedEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Scope;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
+import org.wisdom.util.FastByteComparisons;
 
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 @Component
 @Scope("prototype")
@@ -39,6 +46,9 @@ public class MineThread {
     private volatile boolean terminated;
     private static final Logger logger = LoggerFactory.getLogger(Miner.class);
 
+    // 每计算这么多次哈希检查一次时间和终止标志
+    private static final int HASHES_PER_CHECK = 1024;
+
     private static SecureRandom SECURE_RANDOM;
 
     static {
@@ -48,6 +58,13 @@ public class MineThread {
     @Autowired
     private ApplicationContext ctx;
 
+    // 工作量证明的线程数，0 表示使用 cpu 核数
+    @Value("${wisdom.consensus.pow-threads}")
+    private int threads;
+
+    // 最近一次工作量证明的算力 hashes/s
+    private volatile double hashRate;
+
     @Async
     public void mine(Block block, long startTime, long endTime) {
         block.setWeight(1);
@@ -59,35 +76,125 @@ public class MineThread {
         }
     }
 
+    /**
+     * search nonce on several threads, each thread owns a disjoint range of the nonce space
+     * and a reusable header buffer, the block is updated with the nonce and time found
+     */
     public Block pow(Block block, long parentBlockTimeStamp, long endTime) {
-        byte[] nBits = block.nBits;
-        while (!terminated) {
-            byte[] tmp = new byte[32];
-            SECURE_RANDOM.nextBytes(tmp);
-            block.nNonce = tmp;
-            block.nTime = System.currentTimeMillis() / 1000;
-            if (block.nTime <= parentBlockTimeStamp) {
-                try {
-                    Thread.sleep(1000);
-                } catch (Exception e) {
-
-                }
-                continue;
-            }
-            if (block.nTime >= endTime) {
-                logger.error("mining timeout, dead line = " + new Date(endTime * 1000).toString() + "consider upgrade your hardware");
+        long now = System.currentTimeMillis() / 1000;
+        while (!terminated && now <= parentBlockTimeStamp) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
                 return null;
             }
-            byte[] hash = Block.calculatePOWHash(block);
-            if (BigEndian.compareUint256(hash, nBits) < 0) {
-                logger.info("mining success");
-                return block;
+            now = System.currentTimeMillis() / 1000;
+        }
+        if (terminated) {
+            logger.info("mining terminated");
+            return null;
+        }
+        if (now >= endTime) {
+            logger.error("mining timeout, dead line = " + new Date(endTime * 1000).toString() + "consider upgrade your hardware");
+            return null;
+        }
+        int n = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        // nonce 的前 24 字节随机，后 8 字节是各个线程交错递增的计数器
+        byte[] nonce = new byte[PowHasher.NONCE_SIZE];
+        SECURE_RANDOM.nextBytes(nonce);
+        block.nNonce = nonce;
+        block.nTime = now;
+
+        AtomicBoolean found = new AtomicBoolean();
+        AtomicBoolean timeout = new AtomicBoolean();
+        LongAdder hashes = new LongAdder();
+        ExecutorService executor = Executors.newFixedThreadPool(n, r -> {
+            Thread t = new Thread(r, "pow-" + block.nHeight);
+            t.setDaemon(true);
+            return t;
+        });
+        List<Callable<Object>> workers = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            int offset = i;
+            workers.add(() -> {
+                search(block, offset, n, endTime, found, timeout, hashes);
+                return null;
+            });
+        }
+        long start = System.nanoTime();
+        try {
+            for (Future<Object> f : executor.invokeAll(workers)) {
+                f.get();
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            terminated = true;
+        } catch (ExecutionException e) {
+            logger.error("pow failed " + e.getCause().getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+        long elapsed = Math.max(System.nanoTime() - start, 1);
+        hashRate = hashes.sum() * 1e9 / elapsed;
+        logger.info(String.format("pow at height %d computed %d hashes on %d threads, hash rate = %.0f hashes/s",
+                block.nHeight, hashes.sum(), n, hashRate));
+        if (found.get()) {
+            logger.info("mining success");
+            return block;
+        }
+        if (timeout.get()) {
+            logger.error("mining timeout, dead line = " + new Date(endTime * 1000).toString() + "consider upgrade your hardware");
+            return null;
         }
         logger.info("mining terminated");
         return null;
     }
 
+    private void search(Block block, long offset, int step, long endTime,
+                        AtomicBoolean found, AtomicBoolean timeout, LongAdder hashes) throws Exception {
+        byte[] nBits = block.nBits;
+        PowHasher hasher = new PowHasher(block);
+        long time = block.nTime;
+        long counter = offset;
+        while (!terminated && !found.get() && !timeout.get()) {
+            for (int i = 0; i < HASHES_PER_CHECK; i++) {
+                hasher.setNonceCounter(counter);
+                counter += step;
+                if (lessThan(hasher.hash(), nBits)) {
+                    hashes.add(i + 1);
+                    // 只有第一个找到的线程写入区块
+                    if (found.compareAndSet(false, true)) {
+                        block.nNonce = hasher.getNonce();
+                        block.nTime = time;
+                    }
+                    return;
+                }
+            }
+            hashes.add(HASHES_PER_CHECK);
+            long now = System.currentTimeMillis() / 1000;
+            if (now >= endTime) {
+                timeout.set(true);
+                return;
+            }
+            if (now != time) {
+                time = now;
+                hasher.setTime(time);
+            }
+        }
+    }
+
+    private static boolean lessThan(byte[] hash, byte[] nBits) {
+        if (hash.length != nBits.length) {
+            return BigEndian.compareUint256(hash, nBits) < 0;
+        }
+        return FastByteComparisons.compareTo(hash, 0, hash.length, nBits, 0, nBits.length) < 0;
+    }
+
+    public double getHashRate() {
+        return hashRate;
+    }
+
     public void terminate() {
         terminated = true;
     }
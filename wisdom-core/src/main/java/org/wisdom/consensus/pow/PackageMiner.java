@@ -1,5 +1,7 @@
 package org.wisdom.consensus.pow;
 
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.binary.Hex;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,6 +14,7 @@ import org.wisdom.core.incubator.Incubator;
 import org.wisdom.core.validate.MerkleRule;
 import org.wisdom.db.AccountState;
 import org.wisdom.db.StateDB;
+import org.wisdom.pool.FeePriorityIndex;
 import org.wisdom.pool.PeningTransPool;
 import org.wisdom.pool.TransPool;
 
@@ -38,151 +41,159 @@ public class PackageMiner {
     public List<Transaction> TransferCheck(byte[] parenthash, long height, Block block) throws DecoderException {
         List<Transaction> notWrittern = new ArrayList<>();
         IdentityHashMap<String, Long> removemap = new IdentityHashMap<>();
-        Map<String, TreeMap<Long, TransPool>> maps = peningTransPool.getAllMap();
         List<byte[]> pubhashlist = peningTransPool.getAllPubhash();
         Map<String, AccountState> accountStateMap = stateDB.getAccounts(parenthash, pubhashlist);
         if (accountStateMap.size() == 0) {
             return notWrittern;
         }
         int size = block.size();
-        boolean exit = false;
-        for (Map.Entry<String, TreeMap<Long, TransPool>> entry : maps.entrySet()) {
-            byte[] key = Hex.decodeHex(entry.getKey().toCharArray());
-            String publicKeyHash = Hex.encodeHexString(key);
-
-            TreeMap<Long, TransPool> treeMap = entry.getValue();
-            for (Map.Entry<Long, TransPool> entry1 : treeMap.entrySet()) {
-                boolean state = false;
-                TransPool transPool = entry1.getValue();
-                Transaction transaction = transPool.getTransaction();
-                if (size > Block.MAX_BLOCK_SIZE || (size + transaction.size()) > Block.MAX_BLOCK_SIZE) {
-                    exit = true;
-                    break;
-                }
-                // 防止写入重复事务
-                if (stateDB.hasTransaction(parenthash, transaction.getHash())) {
-                    continue;
-                }
+        // 按手续费优先级依次选择发送者的下一笔事务，同一发送者内按 nonce 顺序
+        PeekingIterator<FeePriorityIndex.Head> heads = Iterators.peekingIterator(peningTransPool.getPrioritySenders());
+        PriorityQueue<SenderCursor> cursors = new PriorityQueue<>();
+        while (true) {
+            SenderCursor cursor;
+            if (heads.hasNext() && (cursors.isEmpty() || heads.peek().getFeePerByte() >= cursors.peek().feePerByte)) {
+                String fromhash = heads.next().getFromhash();
                 // 没有获取到 AccountState
-                if (!accountStateMap.containsKey(publicKeyHash)) {
-                    break;
+                if (!accountStateMap.containsKey(fromhash)) {
+                    continue;
                 }
-                AccountState accountState = accountStateMap.get(publicKeyHash);
-                Account fromaccount = accountState.getAccount();
-
-                // nonce是否合法
-                if (fromaccount.getNonce() >= transaction.nonce) {
-                    removemap.put(new String(entry.getKey()), transaction.nonce);
+                cursor = new SenderCursor(fromhash, peningTransPool.getUnpackedFrom(fromhash));
+                if (cursor.current == null) {
                     continue;
                 }
-                switch (transaction.type) {
-                    case 1://转账
-                    case 2:////投票
-                        String tohash = Hex.encodeHexString(transaction.to);
-                        Account toaccount;
-                        AccountState toaccountState = new AccountState();
-                        if (accountStateMap.containsKey(tohash)) {
-                            toaccountState = accountStateMap.get(tohash);
-                            toaccount = toaccountState.getAccount();
-                        } else {
-                            toaccount = new Account(0, transaction.to, 0, 0, 0, 0, 0);
-                        }
-                        Map<String, Account> accountList = null;
-                        if (transaction.type == 1) {
-                            accountList = updateTransfer(fromaccount, toaccount, transaction);
-                        } else if (transaction.type == 2) {
-                            accountList = updateVote(fromaccount, toaccount, transaction);
-                        }
-                        if (accountList == null) {
-                            removemap.put(new String(entry.getKey()), transaction.nonce);
-                            state = true;
-                            break;
-                        }
-                        if (accountList.containsKey("fromaccount")) {
-                            accountState.setAccount(accountList.get("fromaccount"));
-                            accountStateMap.put(publicKeyHash, accountState);
-                        } else if (accountList.containsKey("toaccount")) {
-                            toaccountState.setAccount(accountList.get("toaccount"));
-                            accountStateMap.put(tohash, accountState);
-                        }
+            } else if (!cursors.isEmpty()) {
+                cursor = cursors.poll();
+            } else {
+                break;
+            }
+            String publicKeyHash = cursor.fromhash;
+            TransPool transPool = cursor.current;
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            }
+
+            boolean state = false;
+            Transaction transaction = transPool.getTransaction();
+            if (size > Block.MAX_BLOCK_SIZE || (size + transaction.size()) > Block.MAX_BLOCK_SIZE) {
+                break;
+            }
+            // 防止写入重复事务
+            if (stateDB.hasTransaction(parenthash, transaction.getHash())) {
+                continue;
+            }
+            AccountState accountState = accountStateMap.get(publicKeyHash);
+            Account fromaccount = accountState.getAccount();
+
+            // nonce是否合法
+            if (fromaccount.getNonce() >= transaction.nonce) {
+                removemap.put(new String(publicKeyHash), transaction.nonce);
+                continue;
+            }
+            switch (transaction.type) {
+                case 1://转账
+                case 2:////投票
+                    String tohash = Hex.encodeHexString(transaction.to);
+                    Account toaccount;
+                    AccountState toaccountState = new AccountState();
+                    if (accountStateMap.containsKey(tohash)) {
+                        toaccountState = accountStateMap.get(tohash);
+                        toaccount = toaccountState.getAccount();
+                    } else {
+                        toaccount = new Account(0, transaction.to, 0, 0, 0, 0, 0);
+                    }
+                    Map<String, Account> accountList = null;
+                    if (transaction.type == 1) {
+                        accountList = updateTransfer(fromaccount, toaccount, transaction);
+                    } else if (transaction.type == 2) {
+                        accountList = updateVote(fromaccount, toaccount, transaction);
+                    }
+                    if (accountList == null) {
+                        removemap.put(new String(publicKeyHash), transaction.nonce);
+                        state = true;
                         break;
-                    case 13://撤回投票
-                        Account votetoaccount;
-                        AccountState tovoteaccountState;
-                        if (accountStateMap.containsKey(Hex.encodeHexString(transaction.to))) {
-                            tovoteaccountState = accountStateMap.get(Hex.encodeHexString(transaction.to));
-                            votetoaccount = tovoteaccountState.getAccount();
-                        } else {
-                            tovoteaccountState = stateDB.getAccount(parenthash, transaction.to);
-                            votetoaccount = tovoteaccountState.getAccount();
-                        }
-                        Map<String, Account> cancelaccountList = UpdateCancelVote(fromaccount, votetoaccount, transaction);
-                        if (cancelaccountList == null) {
-                            removemap.put(new String(entry.getKey()), transaction.nonce);
-                            state = true;
-                            break;
-                        }
-                        if (cancelaccountList.containsKey("fromaccount")) {
-                            accountState.setAccount(cancelaccountList.get("fromaccount"));
-                            accountStateMap.put(publicKeyHash, accountState);
-                        } else if (cancelaccountList.containsKey("toaccount")) {
-                            tovoteaccountState.setAccount(cancelaccountList.get("toaccount"));
-                            accountStateMap.put(Hex.encodeHexString(transaction.to), accountState);
-                        }
+                    }
+                    if (accountList.containsKey("fromaccount")) {
+                        accountState.setAccount(accountList.get("fromaccount"));
+                        accountStateMap.put(publicKeyHash, accountState);
+                    } else if (accountList.containsKey("toaccount")) {
+                        toaccountState.setAccount(accountList.get("toaccount"));
+                        accountStateMap.put(tohash, accountState);
+                    }
+                    break;
+                case 13://撤回投票
+                    Account votetoaccount;
+                    AccountState tovoteaccountState;
+                    if (accountStateMap.containsKey(Hex.encodeHexString(transaction.to))) {
+                        tovoteaccountState = accountStateMap.get(Hex.encodeHexString(transaction.to));
+                        votetoaccount = tovoteaccountState.getAccount();
+                    } else {
+                        tovoteaccountState = stateDB.getAccount(parenthash, transaction.to);
+                        votetoaccount = tovoteaccountState.getAccount();
+                    }
+                    Map<String, Account> cancelaccountList = UpdateCancelVote(fromaccount, votetoaccount, transaction);
+                    if (cancelaccountList == null) {
+                        removemap.put(new String(publicKeyHash), transaction.nonce);
+                        state = true;
                         break;
-                    case 3://存证事务,只需要扣除手续费
-                    case 9://孵化事务
-                    case 10://提取利息
-                    case 11://提取分享
-                    case 12://本金
-                    case 14://抵押
-                    case 15://撤回抵押
-                        Account account = UpdateOtherAccount(fromaccount, transaction);
-                        if (account == null) {
-                            removemap.put(new String(entry.getKey()), transaction.nonce);
-                            state = true;
+                    }
+                    if (cancelaccountList.containsKey("fromaccount")) {
+                        accountState.setAccount(cancelaccountList.get("fromaccount"));
+                        accountStateMap.put(publicKeyHash, accountState);
+                    } else if (cancelaccountList.containsKey("toaccount")) {
+                        tovoteaccountState.setAccount(cancelaccountList.get("toaccount"));
+                        accountStateMap.put(Hex.encodeHexString(transaction.to), accountState);
+                    }
+                    break;
+                case 3://存证事务,只需要扣除手续费
+                case 9://孵化事务
+                case 10://提取利息
+                case 11://提取分享
+                case 12://本金
+                case 14://抵押
+                case 15://撤回抵押
+                    Account account = UpdateOtherAccount(fromaccount, transaction);
+                    if (account == null) {
+                        removemap.put(new String(publicKeyHash), transaction.nonce);
+                        state = true;
+                        break;
+                    }
+                    accountState.setAccount(account);
+
+                    Map<String, Incubator> map = null;
+                    if (transaction.type == 10) {
+                        map = accountState.getInterestMap();
+                        Incubator incubator = UpdateIncubtor(map, transaction, block.nHeight);
+                        if (incubator.getInterest_amount() < 0 || incubator.getLast_blockheight_interest() > block.nHeight) {
+                            removemap.put(new String(publicKeyHash), transaction.nonce);
                             break;
                         }
-                        accountState.setAccount(account);
-
-                        Map<String, Incubator> map = null;
-                        if (transaction.type == 10) {
-                            map = accountState.getInterestMap();
-                            Incubator incubator = UpdateIncubtor(map, transaction, block.nHeight);
-                            if (incubator.getInterest_amount() < 0 || incubator.getLast_blockheight_interest() > block.nHeight) {
-                                removemap.put(new String(entry.getKey()), transaction.nonce);
-                                break;
-                            }
-                            map.put(Hex.encodeHexString(transaction.payload), incubator);
-                            accountState.setInterestMap(map);
-                        } else if (transaction.type == 11) {
-                            map = accountState.getShareMap();
-                            Incubator incubator = UpdateIncubtor(map, transaction, block.nHeight);
-                            if (incubator.getShare_amount() < 0 || incubator.getLast_blockheight_share() > block.nHeight) {
-                                removemap.put(new String(entry.getKey()), transaction.nonce);
-                                break;
-                            }
-                            map.put(Hex.encodeHexString(transaction.payload), incubator);
-                            accountState.setShareMap(map);
-                        } else if (transaction.type == 12) {
-                            map = accountState.getInterestMap();
-                            Incubator incubator = UpdateIncubtor(map, transaction, block.nHeight);
-                            map.put(Hex.encodeHexString(transaction.payload), incubator);
-                            accountState.setInterestMap(map);
+                        map.put(Hex.encodeHexString(transaction.payload), incubator);
+                        accountState.setInterestMap(map);
+                    } else if (transaction.type == 11) {
+                        map = accountState.getShareMap();
+                        Incubator incubator = UpdateIncubtor(map, transaction, block.nHeight);
+                        if (incubator.getShare_amount() < 0 || incubator.getLast_blockheight_share() > block.nHeight) {
+                            removemap.put(new String(publicKeyHash), transaction.nonce);
+                            break;
                         }
-                        accountStateMap.put(publicKeyHash, accountState);
-                        break;
-                }
-                if (state) {
-                    continue;
-                }
-                transaction.height = height;
-                size += transaction.size();
-                notWrittern.add(transaction);
+                        map.put(Hex.encodeHexString(transaction.payload), incubator);
+                        accountState.setShareMap(map);
+                    } else if (transaction.type == 12) {
+                        map = accountState.getInterestMap();
+                        Incubator incubator = UpdateIncubtor(map, transaction, block.nHeight);
+                        map.put(Hex.encodeHexString(transaction.payload), incubator);
+                        accountState.setInterestMap(map);
+                    }
+                    accountStateMap.put(publicKeyHash, accountState);
+                    break;
             }
-            if (exit) {//退出
-                break;
+            if (state) {
+                continue;
             }
+            transaction.height = height;
+            size += transaction.size();
+            notWrittern.add(transaction);
         }
         //删除事务内存池事务
         peningTransPool.remove(removemap);
@@ -354,6 +365,35 @@ public class PackageMiner {
         return fromaccount;
     }
 
+    // 单个发送者待打包事务的游标，按当前事务的手续费排序
+    private static class SenderCursor implements Comparable<SenderCursor> {
+        private final String fromhash;
+        private final Iterator<TransPool> iterator;
+        private TransPool current;
+        private double feePerByte;
+
+        private SenderCursor(String fromhash, List<TransPool> transPools) {
+            this.fromhash = fromhash;
+            this.iterator = transPools.iterator();
+            advance();
+        }
+
+        private boolean advance() {
+            if (!iterator.hasNext()) {
+                current = null;
+                return false;
+            }
+            current = iterator.next();
+            feePerByte = FeePriorityIndex.feePerByte(current.getTransaction());
+            return true;
+        }
+
+        @Override
+        public int compareTo(SenderCursor o) {
+            return Double.compare(o.feePerByte, feePerByte);
+        }
+    }
+
     public Incubator UpdateIncubtor(Map<String, Incubator> map, Transaction transaction, long hieght) {
         Incubator incubator = map.get(Hex.encodeHexString(transaction.payload));
         if (transaction.type == 10 || transaction.type == 11) {
@@ -0,0 +1,99 @@
+package org.wisdom.consensus.pow;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.wisdom.core.Block;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+
+/**
+ * computes the same hash chain as {@link Block#calculatePOWHash(Block)} on a reusable header buffer,
+ * only the time and nonce bytes are rewritten between attempts and no memory is allocated per hash.
+ * not thread safe, each mining thread owns one instance
+ */
+public class PowHasher {
+    private static final Provider PROVIDER = new BouncyCastleProvider();
+
+    private static final String[] ALGORITHMS = {
+            "WHIRLPOOL", "RIPEMD256", "BLAKE2B-256", "SHA3-256", "KECCAK-256", "Skein-256-256"
+    };
+
+    public static final int NONCE_SIZE = 32;
+
+    private final byte[] header;
+
+    private final int timeOffset;
+
+    private final int nonceOffset;
+
+    private final MessageDigest[] digests;
+
+    // whirlpool 的输出是 64 字节，其余都是 32 字节
+    private final byte[] wide = new byte[64];
+
+    private final byte[] narrow = new byte[32];
+
+    private final byte[] result = new byte[32];
+
+    public PowHasher(Block block) throws NoSuchAlgorithmException {
+        if (block.nNonce == null || block.nNonce.length != NONCE_SIZE) {
+            block.nNonce = new byte[NONCE_SIZE];
+        }
+        this.header = Block.getHeaderRaw(block);
+        // 区块头的最后是 nTime(4), nBits, nNonce
+        this.nonceOffset = header.length - NONCE_SIZE;
+        this.timeOffset = nonceOffset - block.nBits.length - 4;
+        this.digests = new MessageDigest[ALGORITHMS.length];
+        for (int i = 0; i < ALGORITHMS.length; i++) {
+            digests[i] = MessageDigest.getInstance(ALGORITHMS[i], PROVIDER);
+        }
+    }
+
+    public void setTime(long nTime) {
+        header[timeOffset] = (byte) (nTime >>> 24);
+        header[timeOffset + 1] = (byte) (nTime >>> 16);
+        header[timeOffset + 2] = (byte) (nTime >>> 8);
+        header[timeOffset + 3] = (byte) nTime;
+    }
+
+    public void setNonce(byte[] nonce) {
+        System.arraycopy(nonce, 0, header, nonceOffset, NONCE_SIZE);
+    }
+
+    // 只改写 nonce 的最后 8 个字节
+    public void setNonceCounter(long counter) {
+        for (int i = 0; i < 8; i++) {
+            header[header.length - 1 - i] = (byte) (counter >>> (8 * i));
+        }
+    }
+
+    public byte[] getNonce() {
+        byte[] nonce = new byte[NONCE_SIZE];
+        System.arraycopy(header, nonceOffset, nonce, 0, NONCE_SIZE);
+        return nonce;
+    }
+
+    /**
+     * @return the pow hash of the current header, the returned array is overwritten by the next call
+     */
+    public byte[] hash() {
+        try {
+            digests[0].update(header);
+            digests[0].digest(wide, 0, wide.length);
+            digests[1].update(wide);
+            digests[1].digest(narrow, 0, narrow.length);
+            for (int i = 2; i < digests.length - 1; i++) {
+                digests[i].update(narrow);
+                digests[i].digest(narrow, 0, narrow.length);
+            }
+            digests[digests.length - 1].update(narrow);
+            digests[digests.length - 1].digest(result, 0, result.length);
+            return result;
+        } catch (DigestException e) {
+            // 输出缓冲区的长度固定，不会出现
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.wisdom.consensus.pow;
+
+import org.apache.commons.codec.binary.Hex;
+import org.wisdom.core.Block;
+
+import java.util.*;
+
+/**
+ * proposers of an era in proposing order, the proposer of a slot after the parent block
+ * is the next one after the parent's proposer, each slot lasts slotLength seconds
+ */
+public class ProposerSchedule {
+    private final List<String> proposers;
+
+    // 公钥哈希 -> 出块顺序
+    private final Map<String, Integer> indices;
+
+    private final long slotLength;
+
+    public ProposerSchedule(List<String> proposers, long slotLength) {
+        this.proposers = Collections.unmodifiableList(new ArrayList<>(proposers));
+        this.indices = new HashMap<>();
+        for (int i = 0; i < proposers.size(); i++) {
+            indices.putIfAbsent(proposers.get(i), i);
+        }
+        this.slotLength = slotLength;
+    }
+
+    public List<String> getProposers() {
+        return proposers;
+    }
+
+    public long getSlotLength() {
+        return slotLength;
+    }
+
+    public Optional<Proposer> getProposer(Block parentBlock, long timeStamp) {
+        if (timeStamp <= parentBlock.nTime) {
+            return Optional.empty();
+        }
+        if (parentBlock.nHeight == 0) {
+            return Optional.of(new Proposer(proposers.get(0), 0, Long.MAX_VALUE));
+        }
+        return Optional.of(getSlot(parentBlock, (timeStamp - parentBlock.nTime) / slotLength + 1));
+    }
+
+    /**
+     * @return the next round of slots after the parent block
+     */
+    public List<Proposer> getSlots(Block parentBlock) {
+        List<Proposer> res = new ArrayList<>(proposers.size());
+        for (int step = 1; step <= proposers.size(); step++) {
+            res.add(getSlot(parentBlock, step));
+        }
+        return res;
+    }
+
+    private Proposer getSlot(Block parentBlock, long step) {
+        String lastValidator = Hex.encodeHexString(parentBlock.body.get(0).to);
+        int lastValidatorIndex = indices.getOrDefault(lastValidator, -1);
+        int currentValidatorIndex = (int) ((lastValidatorIndex + step) % proposers.size());
+        long endTime = parentBlock.nTime + step * slotLength;
+        return new Proposer(proposers.get(currentValidatorIndex), endTime - slotLength, endTime);
+    }
+}
@@ -1,5 +1,6 @@
 package org.wisdom.consensus.pow;
 
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.IOUtils;
 import org.springframework.beans.factory.annotation.Value;
@@ -15,9 +16,11 @@ import org.wisdom.keystore.wallet.KeystoreAction;
 
 import java.net.URI;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -64,6 +67,14 @@ public class ProposersFactory extends EraLinkedStateFactory<ProposersState> {
     @Value("${wisdom.allow-miner-joins-era}")
     private long allowMinersJoinEra;
 
+    // 纪元头哈希 -> 出块顺序
+    private final ConcurrentMap<String, ProposerSchedule> schedules = new ConcurrentLinkedHashMap.Builder<String, ProposerSchedule>()
+            .maximumWeightedCapacity(StateDB.CACHE_SIZE).build();
+
+    // 区块哈希 -> 所在纪元的纪元头哈希
+    private final ConcurrentMap<String, String> eraHeads = new ConcurrentLinkedHashMap.Builder<String, String>()
+            .maximumWeightedCapacity(StateDB.CACHE_SIZE).build();
+
     public ProposersFactory(
             ProposersState genesisState,
             @Value("${wisdom.consensus.blocks-per-era}") int blocksPerEra,
@@ -91,6 +102,11 @@ public class ProposersFactory extends EraLinkedStateFactory<ProposersState> {
 
     }
 
+    @Override
+    protected Collection<Integer> getTransactionTypes() {
+        return ProposersState.TRANSACTION_TYPES;
+    }
+
     private long getPowWait(Block parent) {
         if (blockIntervalSwitchEra >= 0 && getEraAtBlockNumber(parent.nHeight + 1, getBlocksPerEra()) >= blockIntervalSwitchEra) {
             return blockIntervalSwitchTo * POW_WAIT_FACTOR;
@@ -99,15 +115,35 @@ public class ProposersFactory extends EraLinkedStateFactory<ProposersState> {
     }
 
     public List<String> getProposers(Block parentBlock) {
+        return getSchedule(parentBlock).getProposers();
+    }
+
+    /**
+     * the schedule is the same for every parent block in an era, it is cached by the era head
+     * so slot lookups of following blocks don't resolve the era state again
+     */
+    public ProposerSchedule getSchedule(Block parentBlock) {
         boolean enableMultiMiners = allowMinersJoinEra >= 0 &&
                 getEraAtBlockNumber(parentBlock.nHeight + 1, this.getBlocksPerEra()) >= allowMinersJoinEra;
+        long slotLength = getPowWait(parentBlock);
 
+        // 不依赖纪元状态，按出块间隔缓存
         if (!enableMultiMiners && parentBlock.nHeight >= 9235) {
-            return initialProposers.subList(0, 1);
+            return schedules.computeIfAbsent("initial-first-" + slotLength,
+                    k -> new ProposerSchedule(initialProposers.subList(0, 1), slotLength));
         }
 
         if (!enableMultiMiners) {
-            return initialProposers;
+            return schedules.computeIfAbsent("initial-" + slotLength,
+                    k -> new ProposerSchedule(initialProposers, slotLength));
+        }
+
+        boolean whiteListOnly = parentBlock.getnHeight() + 1 < ProposersState.COMMUNITY_MINER_JOINS_HEIGHT;
+        String eraHead = getEraHeadKey(parentBlock);
+        String key = whiteListOnly ? eraHead + "-white-list" : eraHead;
+        ProposerSchedule schedule = schedules.get(key);
+        if (schedule != null) {
+            return schedule;
         }
 
         List<String> res;
@@ -118,43 +154,38 @@ public class ProposersFactory extends EraLinkedStateFactory<ProposersState> {
             ProposersState state = getInstance(parentBlock);
             res = state.getProposers().stream().map(p -> p.publicKeyHash).collect(Collectors.toList());
         }
-        if (parentBlock.getnHeight() + 1 < ProposersState.COMMUNITY_MINER_JOINS_HEIGHT) {
+        if (whiteListOnly) {
             res = res.stream().filter(WHITE_LIST::contains).collect(Collectors.toList());
         }
-        if (res.size() > 0) {
-            return res;
+        if (res.isEmpty()) {
+            res = initialProposers;
         }
-        return initialProposers;
-
+        schedule = new ProposerSchedule(res, slotLength);
+        schedules.put(key, schedule);
+        return schedule;
     }
 
-    public Optional<Proposer> getProposer(Block parentBlock, long timeStamp) {
-        List<String> proposers = getProposers(parentBlock);
-
-        if (timeStamp <= parentBlock.nTime) {
-            return Optional.empty();
+    // 父区块的纪元与祖父区块相同时沿用祖父区块的纪元头，避免逐个读取区块头
+    private String getEraHeadKey(Block parentBlock) {
+        String parentHash = parentBlock.getHashHexString();
+        String res = eraHeads.get(parentHash);
+        if (res != null) {
+            return res;
         }
-
-        if (parentBlock.nHeight == 0) {
-            return Optional.of(new Proposer(proposers.get(0), 0, Long.MAX_VALUE));
+        if (parentBlock.nHeight % getBlocksPerEra() == 0) {
+            res = parentHash;
+        } else {
+            res = eraHeads.get(Hex.encodeHexString(parentBlock.hashPrevBlock));
+        }
+        if (res == null) {
+            long eraHeadHeight = getEraAtBlockNumber(parentBlock.nHeight, getBlocksPerEra()) * getBlocksPerEra();
+            res = stateDB.findAncestorHeader(parentBlock.hashPrevBlock, eraHeadHeight).getHashHexString();
         }
+        eraHeads.put(parentHash, res);
+        return res;
+    }
 
-        long step = (timeStamp - parentBlock.nTime)
-                / getPowWait(parentBlock) + 1;
-        String lastValidator = Hex
-                .encodeHexString(
-                        parentBlock.body.get(0).to
-                );
-        int lastValidatorIndex = proposers
-                .indexOf(lastValidator);
-        int currentValidatorIndex = (int) (lastValidatorIndex + step) % proposers.size();
-        long endTime = parentBlock.nTime + step * getPowWait(parentBlock);
-        long startTime = endTime - getPowWait(parentBlock);
-        String validator = proposers.get(currentValidatorIndex);
-        return Optional.of(new Proposer(
-                validator,
-                startTime,
-                endTime
-        ));
+    public Optional<Proposer> getProposer(Block parentBlock, long timeStamp) {
+        return getSchedule(parentBlock).getProposer(parentBlock, timeStamp);
     }
 }
@@ -13,9 +13,12 @@ import org.wisdom.Start;
 import org.wisdom.account.PublicKeyHash;
 import org.wisdom.core.Block;
 import org.wisdom.core.account.Transaction;
+import org.wisdom.core.state.EncodableState;
 import org.wisdom.core.state.EraLinkedStateFactory;
 import org.wisdom.core.state.State;
+import org.wisdom.util.PersistentHashMap;
 
+import java.io.*;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -28,7 +31,7 @@ import java.util.stream.Stream;
  * 2019-10-11 增加投票衰减功能
  */
 @Component
-public class ProposersState implements State<ProposersState> {
+public class ProposersState implements State<ProposersState>, EncodableState<ProposersState> {
     public static Logger logger = LoggerFactory.getLogger(ProposersState.class);
     private static final long MINIMUM_PROPOSER_MORTGAGE = 100000 * EconomicModel.WDC;
     private static final int MAXIMUM_PROPOSERS = getenv("MAXIMUM_PROPOSERS", 15);
@@ -38,6 +41,12 @@ public class ProposersState implements State<ProposersState> {
     private static final BigFraction ATTENUATION_COEFFICIENT = new BigFraction(9, 10);
     private static final long ATTENUATION_ERAS = getenv("ATTENUATION_ERAS", 2160);
 
+    // 影响状态的事务类型，coinbase 用于统计出块数量
+    public static final Set<Integer> TRANSACTION_TYPES = Collections.unmodifiableSet(Stream.of(
+            Transaction.Type.COINBASE, Transaction.Type.VOTE, Transaction.Type.EXIT_VOTE,
+            Transaction.Type.MORTGAGE, Transaction.Type.EXIT_MORTGAGE
+    ).map(Enum::ordinal).collect(Collectors.toSet()));
+
     private static int getenv(String key, int defaultValue) {
         String v = System.getenv(key);
         if (v == null || v.equals("")) return defaultValue;
@@ -56,135 +65,141 @@ public class ProposersState implements State<ProposersState> {
         public long amount;
         public long accumulated;
 
+        // 投票所在的纪元序号，用于计算衰减
+        @JsonIgnore
+        final long createdAt;
+
         public Vote(PublicKeyHash from, long amount, long accumulated) {
+            this(from, amount, accumulated, 0);
+        }
+
+        Vote(PublicKeyHash from, long amount, long accumulated, long createdAt) {
             this.from = from;
             this.amount = amount;
             this.accumulated = accumulated;
+            this.createdAt = createdAt;
         }
     }
 
+    /**
+     * proposer is never modified after created, updates return a new proposer sharing the votes,
+     * so states copied from each other can share the same proposers
+     */
     public static class Proposer {
-        public long mortgage;
+        public final long mortgage;
 
         // transaction hash -> votes
         @JsonIgnore
-        private Map<String, Vote> receivedVotes;
+        private final PersistentHashMap<String, Vote> receivedVotes;
 
+        // 投票数和衰减后投票数的累计值
         @JsonIgnore
-        // transaction hash -> count
-        private Map<String, Long> erasCounter;
+        private final long amount;
 
         @JsonIgnore
-        private Long votesCache;
+        private final long accumulated;
 
-        public String publicKeyHash;
+        public final String publicKeyHash;
 
-        Proposer() {
-            receivedVotes = new HashMap<>();
-            erasCounter = new HashMap<>();
+        Proposer(String publicKeyHash) {
+            this(0, publicKeyHash, PersistentHashMap.empty(), 0, 0);
         }
 
-        Proposer(long mortgage, String publicKeyHash, Map<String, Vote> receivedVotes, Map<String, Long> erasCounter) {
+        private Proposer(long mortgage, String publicKeyHash, PersistentHashMap<String, Vote> receivedVotes, long amount, long accumulated) {
             this.mortgage = mortgage;
             this.publicKeyHash = publicKeyHash;
             this.receivedVotes = receivedVotes;
-            this.erasCounter = erasCounter;
-        }
-
-        public Proposer copy() {
-            return new Proposer(mortgage, publicKeyHash, new HashMap<>(receivedVotes), new HashMap<>(erasCounter));
-        }
-
-        private void clearVotesCache() {
-            votesCache = null;
+            this.amount = amount;
+            this.accumulated = accumulated;
         }
 
         public long getAmount() {
-            if (votesCache != null) {
-                return votesCache;
-            }
-            this.votesCache = receivedVotes.values().stream().map(v -> v.amount).reduce(Long::sum).orElse(0L);
-            return this.votesCache;
+            return amount;
         }
 
         public long getAccumulated() {
-            return receivedVotes.values().stream().map(v -> v.accumulated).reduce(Long::sum).orElse(0L);
+            return accumulated;
         }
 
         public Map<String, Vote> getReceivedVotes() {
-            return receivedVotes;
+            return receivedVotes.asMap();
         }
 
-        void increaseEraCounters() {
-            erasCounter.replaceAll((k, v) -> v + 1);
+        private Proposer withVote(String txHash, Vote vote) {
+            Vote old = receivedVotes.get(txHash);
+            long a = amount + vote.amount - (old == null ? 0 : old.amount);
+            long acc = accumulated + vote.accumulated - (old == null ? 0 : old.accumulated);
+            return new Proposer(mortgage, publicKeyHash, receivedVotes.put(txHash, vote), a, acc);
         }
 
-        void attenuation() {
-            clearVotesCache();
-            for (String k : erasCounter.keySet()) {
-                if (erasCounter.get(k) < ATTENUATION_ERAS) {
-                    continue;
-                }
-                erasCounter.put(k, 0L);
-                Vote v = receivedVotes.get(k);
-                Vote v2 = new Vote(v.from, v.amount, new BigFraction(receivedVotes.get(k).accumulated, 1L)
-                        .multiply(ATTENUATION_COEFFICIENT)
-                        .longValue());
-                receivedVotes.put(k, v2);
+        private Proposer withoutVote(String txHash) {
+            Vote old = receivedVotes.get(txHash);
+            if (old == null) {
+                return this;
             }
+            return new Proposer(mortgage, publicKeyHash, receivedVotes.remove(txHash), amount - old.amount, accumulated - old.accumulated);
+        }
 
+        Proposer attenuation(String txHash) {
+            Vote v = receivedVotes.get(txHash);
+            Vote v2 = new Vote(v.from, v.amount, new BigFraction(v.accumulated, 1L)
+                    .multiply(ATTENUATION_COEFFICIENT)
+                    .longValue(), v.createdAt);
+            return withVote(txHash, v2);
         }
 
-        void updateTransaction(Transaction tx) {
+        Proposer updateTransaction(Transaction tx, long era) {
             switch (Transaction.TYPES_TABLE[tx.type]) {
                 // 投票
                 case VOTE: {
-                    receivedVotes.put(tx.getHashHexString(), new Vote(PublicKeyHash.fromPublicKey(tx.from), tx.amount, tx.amount));
-                    erasCounter.put(tx.getHashHexString(), 0L);
-                    clearVotesCache();
-                    return;
+                    return withVote(tx.getHashHexString(), new Vote(PublicKeyHash.fromPublicKey(tx.from), tx.amount, tx.amount, era));
                 }
                 // 撤回投票
                 case EXIT_VOTE: {
                     if (Start.ENABLE_ASSERTION) {
                         Assert.isTrue(receivedVotes.containsKey(Hex.encodeHexString(tx.payload)), "the exit vote has voted");
                     }
-                    receivedVotes.remove(Hex.encodeHexString(tx.payload));
-                    erasCounter.remove(Hex.encodeHexString(tx.payload));
-                    clearVotesCache();
-                    return;
+                    return withoutVote(Hex.encodeHexString(tx.payload));
                 }
                 // 抵押
                 case MORTGAGE: {
-                    mortgage += tx.amount;
-                    return;
+                    return new Proposer(mortgage + tx.amount, publicKeyHash, receivedVotes, amount, accumulated);
                 }
                 // 抵押撤回
                 case EXIT_MORTGAGE: {
-                    mortgage -= tx.amount;
-                    if (mortgage < 0) {
+                    if (mortgage - tx.amount < 0) {
                         logger.error("mortgage < 0");
                     }
+                    return new Proposer(mortgage - tx.amount, publicKeyHash, receivedVotes, amount, accumulated);
                 }
             }
+            return this;
         }
     }
 
     public Map<String, Proposer> getAll() {
-        return all;
+        return all.asMap();
     }
 
     public Stream<Proposer> getBlockList() {
         return blockList.stream().map(x -> all.get(x));
     }
 
-    private Map<String, Proposer> all;
+    private PersistentHashMap<String, Proposer> all;
     private List<String> proposers;
     private Set<String> blockList;
     private int allowMinersJoinEra;
     private int blockInterval;
     private List<Proposer> candidatesCache;
 
+    private final long attenuationEras;
+
+    // 已更新的纪元数
+    private long eras;
+
+    // 投票纪元序号对衰减周期取模 -> 投票事务哈希 -> 被投票者，每个纪元只衰减其中一组投票
+    private PersistentHashMap<Long, PersistentHashMap<String, String>> attenuations;
+
     private void clearCandidatesCache() {
         candidatesCache = null;
     }
@@ -194,11 +209,17 @@ public class ProposersState implements State<ProposersState> {
             @Value("${wisdom.allow-miner-joins-era}") int allowMinersJoinEra,
             @Value("${wisdom.consensus.block-interval}") int blockInterval
     ) {
-        all = new HashMap<>();
+        this(allowMinersJoinEra, blockInterval, ATTENUATION_ERAS);
+    }
+
+    ProposersState(int allowMinersJoinEra, int blockInterval, long attenuationEras) {
+        all = PersistentHashMap.empty();
+        attenuations = PersistentHashMap.empty();
         blockList = new HashSet<>();
         proposers = new ArrayList<>();
         this.allowMinersJoinEra = allowMinersJoinEra;
         this.blockInterval = blockInterval;
+        this.attenuationEras = attenuationEras;
     }
 
     public List<Proposer> getProposers() {
@@ -246,11 +267,9 @@ public class ProposersState implements State<ProposersState> {
     @Override
     public ProposersState updateBlocks(List<Block> blocks) {
         clearCandidatesCache();
+        eras++;
+        attenuation();
 
-        for (Proposer p : all.values()) {
-            p.increaseEraCounters();
-            p.attenuation();
-        }
         boolean enableMultiMiners = allowMinersJoinEra >= 0 && EraLinkedStateFactory.getEraAtBlockNumber(
                 blocks.get(0).nHeight, blockInterval
         ) >= allowMinersJoinEra;
@@ -283,7 +302,7 @@ public class ProposersState implements State<ProposersState> {
             blockList.clear();
         }
         // 重新生成 proposers
-        proposers = all.values().stream()
+        proposers = getAll().values().stream()
                 // 过滤掉黑名单中节点
                 .filter(p -> !blockList.contains(p.publicKeyHash))
                 // 过滤掉抵押数量不足的节点
@@ -301,25 +320,61 @@ public class ProposersState implements State<ProposersState> {
         return this;
     }
 
+    // 投票在创建后每经过 attenuationEras 个纪元衰减一次，只遍历本纪元需要衰减的一组投票
+    private void attenuation() {
+        long bucket = Math.floorMod(eras, attenuationEras);
+        PersistentHashMap<String, String> votes = attenuations.get(bucket);
+        if (votes == null) {
+            return;
+        }
+        PersistentHashMap<String, String> remaining = votes;
+        for (Map.Entry<String, String> e : votes.asMap().entrySet()) {
+            Proposer p = all.get(e.getValue());
+            Vote v = p == null ? null : p.receivedVotes.get(e.getKey());
+            // 投票已撤回
+            if (v == null || Math.floorMod(v.createdAt, attenuationEras) != bucket) {
+                remaining = remaining.remove(e.getKey());
+                continue;
+            }
+            if (v.createdAt >= eras) {
+                continue;
+            }
+            all = all.put(p.publicKeyHash, p.attenuation(e.getKey()));
+        }
+        attenuations = remaining.isEmpty() ? attenuations.remove(bucket) : attenuations.put(bucket, remaining);
+    }
+
+    // 其他类型的事务不改变抵押和投票，不为接收者创建记录，这样只读取相关事务重放的结果和读取全部事务相同
     @Override
     public ProposersState updateTransaction(Transaction transaction) {
-        Proposer p = all.get(Hex.encodeHexString(transaction.to));
+        if (transaction.type == Transaction.Type.COINBASE.ordinal() || !TRANSACTION_TYPES.contains(transaction.type)) {
+            return this;
+        }
+        String publicKeyHash = Hex.encodeHexString(transaction.to);
+        Proposer p = all.get(publicKeyHash);
         if (p == null) {
-            p = new Proposer();
-            p.publicKeyHash = Hex.encodeHexString(transaction.to);
+            p = new Proposer(publicKeyHash);
+        }
+        all = all.put(publicKeyHash, p.updateTransaction(transaction, eras));
+        if (transaction.type == Transaction.Type.VOTE.ordinal()) {
+            addAttenuation(transaction.getHashHexString(), publicKeyHash, eras);
         }
-        p.updateTransaction(transaction);
-        all.put(p.publicKeyHash, p);
         return this;
     }
 
+    private void addAttenuation(String txHash, String publicKeyHash, long createdAt) {
+        long bucket = Math.floorMod(createdAt, attenuationEras);
+        PersistentHashMap<String, String> votes = attenuations.get(bucket);
+        attenuations = attenuations.put(bucket, (votes == null ? PersistentHashMap.<String, String>empty() : votes).put(txHash, publicKeyHash));
+    }
+
+    // 提议者和投票在状态之间共享，只复制提议者列表和黑名单
     @Override
     public ProposersState copy() {
-        ProposersState state = new ProposersState(this.allowMinersJoinEra, this.blockInterval);
-        state.all = new HashMap<>();
-        for (String key : all.keySet()) {
-            state.all.put(key, all.get(key).copy());
-        }
+        ProposersState state = new ProposersState(this.allowMinersJoinEra, this.blockInterval, this.attenuationEras);
+        state.all = all;
+        state.attenuations = attenuations;
+        state.eras = eras;
         state.blockList = new HashSet<>(blockList);
         state.proposers = new ArrayList<>();
         if (proposers == null) {
@@ -329,9 +384,89 @@ public class ProposersState implements State<ProposersState> {
         return state;
     }
 
+    // 集合按键排序后编码，保证相同的状态编码结果相同
+    @Override
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(proposers.size());
+            for (String p : proposers) {
+                out.writeUTF(p);
+            }
+            out.writeInt(blockList.size());
+            for (String p : new TreeSet<>(blockList)) {
+                out.writeUTF(p);
+            }
+            out.writeInt(all.size());
+            for (Proposer p : new TreeMap<>(getAll()).values()) {
+                out.writeUTF(p.publicKeyHash);
+                out.writeLong(p.mortgage);
+                Map<String, Vote> votes = new TreeMap<>(p.getReceivedVotes());
+                out.writeInt(votes.size());
+                for (Map.Entry<String, Vote> e : votes.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    byte[] from = e.getValue().from.getPublicKeyHash();
+                    out.writeInt(from.length);
+                    out.write(from);
+                    out.writeLong(e.getValue().amount);
+                    out.writeLong(e.getValue().accumulated);
+                }
+                // 距离上次衰减经过的纪元数
+                out.writeInt(votes.size());
+                for (Map.Entry<String, Vote> e : votes.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.writeLong(Math.floorMod(eras - e.getValue().createdAt, attenuationEras));
+                }
+            }
+        } catch (IOException e) {
+            // 写入内存不会出现
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public ProposersState decode(byte[] encoded) throws IOException {
+        ProposersState state = new ProposersState(this.allowMinersJoinEra, this.blockInterval, this.attenuationEras);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            state.proposers.add(in.readUTF());
+        }
+        size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            state.blockList.add(in.readUTF());
+        }
+        size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            String publicKeyHash = in.readUTF();
+            long mortgage = in.readLong();
+            Map<String, Vote> votes = new HashMap<>();
+            int n = in.readInt();
+            for (int j = 0; j < n; j++) {
+                String tx = in.readUTF();
+                byte[] from = new byte[in.readInt()];
+                in.readFully(from);
+                votes.put(tx, new Vote(new PublicKeyHash(from), in.readLong(), in.readLong()));
+            }
+            // 解码后的纪元数从 0 开始，投票的纪元序号为负的计数
+            Proposer p = new Proposer(mortgage, publicKeyHash, PersistentHashMap.empty(), 0, 0);
+            n = in.readInt();
+            for (int j = 0; j < n; j++) {
+                String tx = in.readUTF();
+                long counter = in.readLong();
+                Vote v = votes.get(tx);
+                p = p.withVote(tx, new Vote(v.from, v.amount, v.accumulated, -counter));
+                state.addAttenuation(tx, publicKeyHash, -counter);
+            }
+            state.all = state.all.put(publicKeyHash, p);
+        }
+        return state;
+    }
+
     public Optional<Long> getAccumulatedByTransactionHash(byte[] transactionHash) {
         String txHash = Hex.encodeHexString(transactionHash);
-        return all.values().stream().filter(x -> x.receivedVotes.containsKey(txHash))
+        return getAll().values().stream().filter(x -> x.receivedVotes.containsKey(txHash))
                 .map(x -> x.receivedVotes.get(txHash)).findFirst().map(x -> x.accumulated);
     }
 }
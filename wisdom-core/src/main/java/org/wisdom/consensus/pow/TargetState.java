@@ -21,6 +21,7 @@ package org.wisdom.consensus.pow;
 import org.apache.commons.math3.fraction.BigFraction;
 import org.springframework.util.Assert;
 import org.wisdom.Start;
+import org.wisdom.core.state.EncodableState;
 import org.wisdom.core.state.EraLinkedStateFactory;
 import org.wisdom.encoding.BigEndian;
 import org.wisdom.core.Block;
@@ -30,6 +31,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.Arrays;
 import java.util.List;
@@ -39,7 +41,7 @@ import java.util.List;
  * adjust difficulty per era
  */
 @Component
-public class TargetState implements State<TargetState> {
+public class TargetState implements State<TargetState>, EncodableState<TargetState> {
 
     private int initialBlockInterval;
     private long blockIntervalSwitchEra;
@@ -135,6 +137,21 @@ public class TargetState implements State<TargetState> {
         return d;
     }
 
+    @Override
+    public byte[] encode() {
+        return BigEndian.encodeUint256(target);
+    }
+
+    @Override
+    public TargetState decode(byte[] encoded) throws IOException {
+        if (encoded.length != 32) {
+            throw new IOException("invalid target length " + encoded.length);
+        }
+        TargetState d = copy();
+        d.target = BigEndian.decodeUint256(encoded);
+        return d;
+    }
+
     public BigInteger getTarget() {
         return target;
     }
@@ -21,17 +21,16 @@ package org.wisdom.consensus.pow;
 import org.wisdom.crypto.HashUtil;
 import org.wisdom.core.Block;
 import org.wisdom.core.account.Transaction;
+import org.wisdom.core.state.EncodableState;
 import org.wisdom.core.state.State;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.util.Base64;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.*;
+import java.util.*;
 
 @Component
-public class ValidatorState implements State<ValidatorState> {
+public class ValidatorState implements State<ValidatorState>, EncodableState<ValidatorState> {
     static final Base64.Encoder encoder = Base64.getEncoder();
 
     // public key hash base64 -> nonce
@@ -104,6 +103,40 @@ public class ValidatorState implements State<ValidatorState> {
     }
 
 
+    @Override
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            // 查询 nonce 时会写入 0，和不存在等价，不编码
+            Map<String, Long> m = new TreeMap<>();
+            nonce.forEach((k, v) -> {
+                if (v != 0) {
+                    m.put(k, v);
+                }
+            });
+            out.writeInt(m.size());
+            for (Map.Entry<String, Long> e : m.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue());
+            }
+        } catch (IOException e) {
+            // 写入内存不会出现
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public ValidatorState decode(byte[] encoded) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        int size = in.readInt();
+        Map<String, Long> m = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            m.put(in.readUTF(), in.readLong());
+        }
+        return new ValidatorState(m);
+    }
+
     public ValidatorState(Map<String, Long> nonce) {
         this.nonce = nonce;
     }
@@ -5,20 +5,25 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.wisdom.ApiResult.APIResult;
 import org.wisdom.account.PublicKeyHash;
 import org.wisdom.consensus.pow.EconomicModel;
+import org.wisdom.consensus.pow.ProposerSchedule;
 import org.wisdom.consensus.pow.ProposersState;
 import org.wisdom.core.Block;
 import org.wisdom.db.AccountState;
+import org.wisdom.db.SparseMerkleTree;
 import org.wisdom.db.StateDB;
+import org.wisdom.db.StateTrie;
 import org.wisdom.encoding.JSONEncodeDecoder;
 import org.wisdom.p2p.Peer;
 import org.wisdom.p2p.PeerServer;
 import org.wisdom.util.Address;
 
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
@@ -52,6 +57,9 @@ public class NodeInfoController {
     @Autowired
     private JSONEncodeDecoder encodeDecoder;
 
+    @Autowired
+    private StateTrie stateTrie;
+
     @Value("${wisdom.consensus.blocks-per-era}")
     int blocksPerEra;
 
@@ -107,6 +115,13 @@ public class NodeInfoController {
         res.put("proposers", proposersState.getProposers().stream().map(p -> p.publicKeyHash).toArray());
         res.put("blockList", proposersState.getBlockList().map(this::toProposer));
         res.put("votes", proposersState.getCandidates().stream().map(this::toProposer).toArray());
+        // 当前纪元的出块顺序和最佳区块之后的出块时段
+        ProposerSchedule schedule = stateDB.getProposersFactory().getSchedule(best);
+        Map<String, Object> s = new HashMap<>();
+        s.put("proposers", schedule.getProposers());
+        s.put("slotLength", schedule.getSlotLength());
+        s.put("slots", schedule.getSlots(best));
+        res.put("schedule", s);
         return res;
     }
 
@@ -165,7 +180,11 @@ public class NodeInfoController {
         }
         PublicKeyHash publicKeyHash = o.get();
         ProposersState state = stateDB.getProposersFactory().getInstance(best);
-        return state.getAll().get(publicKeyHash.getHex()).getReceivedVotes()
+        ProposersState.Proposer proposer = state.getAll().get(publicKeyHash.getHex());
+        if (proposer == null) {
+            return Collections.emptyList();
+        }
+        return proposer.getReceivedVotes()
                 .values().stream()
                 .map(x -> new Vote(x.from.getAddress(), x.amount, x.accumulated))
                 .collect(Collectors.groupingBy(
@@ -188,6 +207,49 @@ public class NodeInfoController {
         return res;
     }
 
+    @GetMapping(value = "/state/proof/account/{account}", produces = APPLICATION_JSON_VALUE)
+    public Object getAccountProof(@PathVariable("account") String account, @RequestParam(value = "height", required = false) Long height) {
+        Optional<PublicKeyHash> publicKeyHash = PublicKeyHash.fromHex(account);
+        if (!publicKeyHash.isPresent()) {
+            return APIResult.newFailResult(5000, "invalid account");
+        }
+        byte[] key = StateTrie.accountTrieKey(publicKeyHash.get().getPublicKeyHash());
+        return getStateProof(key, height, h -> stateTrie.proveAccount(publicKeyHash.get().getPublicKeyHash(), h));
+    }
+
+    @GetMapping(value = "/state/proof/incubator/{txid}", produces = APPLICATION_JSON_VALUE)
+    public Object getIncubatorProof(@PathVariable("txid") String txid, @RequestParam(value = "height", required = false) Long height) {
+        byte[] id;
+        try {
+            id = Hex.decodeHex(txid.toCharArray());
+        } catch (Exception e) {
+            return APIResult.newFailResult(5000, "invalid txid");
+        }
+        return getStateProof(StateTrie.incubatorTrieKey(id), height, h -> stateTrie.proveIncubator(id, h));
+    }
+
+    // 默认使用最新的状态树
+    private Object getStateProof(byte[] key, Long height, Function<Long, Optional<SparseMerkleTree.Proof>> prover) {
+        if (!stateTrie.isEnabled()) {
+            return APIResult.newFailResult(5000, "state trie is not enabled");
+        }
+        long h = height == null ? stateTrie.getLatestHeight() : height;
+        Optional<SparseMerkleTree.Proof> o = prover.apply(h);
+        if (!o.isPresent()) {
+            return APIResult.newFailResult(5000, "state trie at height " + h + " not found");
+        }
+        SparseMerkleTree.Proof proof = o.get();
+        Map<String, Object> res = new HashMap<>();
+        res.put("height", h);
+        res.put("root", Hex.encodeHexString(stateTrie.getRoot(h)));
+        res.put("key", Hex.encodeHexString(key));
+        res.put("included", proof.isInclusion(key));
+        res.put("siblings", proof.siblings.stream().map(Hex::encodeHexString).toArray());
+        res.put("leafKey", proof.leafKey == null ? null : Hex.encodeHexString(proof.leafKey));
+        res.put("leafValue", proof.leafValue == null ? null : Hex.encodeHexString(proof.leafValue));
+        return APIResult.newFailResult(2000, "SUCCESS", res);
+    }
+
     private static class Account {
         public byte[] publicKeyHash;
 
@@ -12,13 +12,13 @@ import org.springframework.web.bind.annotation.RestController;
 import org.wisdom.ApiResult.APIResult;
 import org.wisdom.core.TransactionPool;
 import org.wisdom.core.account.Transaction;
-import org.wisdom.keystore.crypto.RipemdUtility;
 import org.wisdom.keystore.crypto.SHA3Utility;
 import org.wisdom.keystore.wallet.KeystoreAction;
 import org.wisdom.pool.AdoptTransPool;
 import org.wisdom.pool.PendingNonce;
 import org.wisdom.pool.PeningTransPool;
 import org.wisdom.pool.TransPool;
+import org.wisdom.util.Address;
 
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -50,7 +50,7 @@ public class PoolController {
                 json.put("tranhash",Hex.encodeHexString(transaction.getHash()));
                 json.put("type",transaction.type);
                 json.put("nonce",transaction.nonce);
-                json.put("fromhash", Hex.encodeHexString(RipemdUtility.ripemd160(SHA3Utility.keccak256(transaction.from))));
+                json.put("fromhash", Address.publicKeyToHashHex(transaction.from));
                 json.put("amount",transaction.amount);
                 json.put("fee",transaction.getFee());
                 json.put("to",Hex.encodeHexString(transaction.to));
@@ -73,7 +73,7 @@ public class PoolController {
                 json.put("tranhash",Hex.encodeHexString(transaction.getHash()));
                 json.put("type",transaction.type);
                 json.put("nonce",transaction.nonce);
-                json.put("fromhash", Hex.encodeHexString(RipemdUtility.ripemd160(SHA3Utility.keccak256(transaction.from))));
+                json.put("fromhash", Address.publicKeyToHashHex(transaction.from));
                 json.put("amount",transaction.amount);
                 json.put("fee",transaction.getFee());
                 json.put("to",Hex.encodeHexString(transaction.to));
@@ -122,7 +122,7 @@ public class PoolController {
                     json.put("tranhash",Hex.encodeHexString(transaction.getHash()));
                     json.put("type",transaction.type);
                     json.put("nonce",transaction.nonce);
-                    json.put("fromhash", Hex.encodeHexString(RipemdUtility.ripemd160(SHA3Utility.keccak256(transaction.from))));
+                    json.put("fromhash", Address.publicKeyToHashHex(transaction.from));
                     json.put("amount",transaction.amount);
                     json.put("fee",transaction.getFee());
                     json.put("to",Hex.encodeHexString(transaction.to));
@@ -145,7 +145,7 @@ public class PoolController {
                     json.put("tranhash",Hex.encodeHexString(transaction.getHash()));
                     json.put("type",transaction.type);
                     json.put("nonce",transaction.nonce);
-                    json.put("fromhash", Hex.encodeHexString(RipemdUtility.ripemd160(SHA3Utility.keccak256(transaction.from))));
+                    json.put("fromhash", Address.publicKeyToHashHex(transaction.from));
                     json.put("amount",transaction.amount);
                     json.put("fee",transaction.getFee());
                     json.put("to",Hex.encodeHexString(transaction.to));
@@ -172,9 +172,8 @@ public class PoolController {
 
     @RequestMapping(value="/getPoolCount",method = RequestMethod.GET)
     public Object getPoolCount(){
-        int adoptcount=adoptTransPool.getAllFull().size();
-        List<TransPool> pengdingcount=peningTransPool.getAllnostate();
-        int pengcount=pengdingcount.size();
+        int adoptcount=adoptTransPool.size();
+        int pengcount=peningTransPool.nostateSize();
         JSONObject json = new JSONObject();
         json.put("adoptcount",adoptcount);
         json.put("pengcount",pengcount);
@@ -213,7 +212,7 @@ public class PoolController {
             TransPool transPool=peningTransPool.getPoolTranHash(Hex.decodeHex(txhash.toCharArray()));
             if(transPool!=null){
                 Transaction transaction=transPool.getTransaction();
-                String fromhash=Hex.encodeHexString(RipemdUtility.ripemd160(SHA3Utility.keccak256(transaction.from)));
+                String fromhash=Address.publicKeyToHashHex(transaction.from);
                 peningTransPool.removeOne(fromhash,transaction.nonce);
                 return APIResult.newFailResult(2000,"SUCCESS");
             }else{
@@ -257,7 +256,7 @@ public class PoolController {
             json.put("tranhash",Hex.encodeHexString(transaction.getHash()));
             json.put("type",transaction.type);
             json.put("nonce",transaction.nonce);
-            json.put("fromhash", Hex.encodeHexString(RipemdUtility.ripemd160(SHA3Utility.keccak256(transaction.from))));
+            json.put("fromhash", Address.publicKeyToHashHex(transaction.from));
             json.put("amount",transaction.amount);
             json.put("fee",transaction.getFee());
             json.put("to",Hex.encodeHexString(transaction.to));
@@ -29,6 +29,7 @@ import org.wisdom.genesis.Genesis;
 import org.wisdom.keystore.crypto.RipemdUtility;
 import org.wisdom.keystore.crypto.SHA3Utility;
 import org.wisdom.keystore.wallet.KeystoreAction;
+import org.wisdom.merkletree.MerkleRoot;
 import org.wisdom.merkletree.MerkleTree;
 import org.wisdom.merkletree.TreeNode;
 import org.wisdom.protobuf.tcp.ProtocolModel;
@@ -101,6 +102,7 @@ public class Block {
         block.weight = b.weight;
         block.hashCache = b.hashCache;
         block.hashHexCache = b.hashHexCache;
+        block.powHashCache = b.powHashCache;
         block.hashPrevBlock = b.hashPrevBlock;
         block.hashMerkleRoot = b.hashMerkleRoot;
         block.hashMerkleState = b.hashMerkleState;
@@ -113,46 +115,15 @@ public class Block {
     }
 
     public static byte[] calculateMerkleRoot(List<Transaction> txs) {
-        List<String> hashes = new ArrayList<>();
-        for (Transaction tx : txs) {
-            hashes.add(tx.getHashHexString());
-        }
-        try {
-            return Hex.decodeHex(new MerkleTree(hashes).getRoot().getHash().toCharArray());
-        } catch (Exception e) {
-            logger.error("error occured when calculate merkle root");
-        }
-        return new byte[32];
+        return MerkleRoot.root(txs.stream().map(Transaction::getHash).collect(toList()));
     }
 
     public static byte[] calculateMerkleState(List<Account> accounts) {
-        List<String> hashes = new ArrayList<>();
-        for (Account account : accounts) {
-            hashes.add(account.getIdHexString());
-        }
-        if (hashes.size() > 0) {
-            try {
-                return Hex.decodeHex(new MerkleTree(hashes).getRoot().getHash().toCharArray());
-            } catch (Exception e) {
-                logger.error("error occured when calculate merkle state");
-            }
-        }
-        return new byte[32];
+        return MerkleRoot.root(accounts.stream().map(Account::getId).collect(toList()));
     }
 
     public static byte[] calculateMerkleIncubate(List<Incubator> incubatorList) {
-        List<String> hashes = new ArrayList<>();
-        for (Incubator incubator : incubatorList) {
-            hashes.add(incubator.getIdHexString());
-        }
-        if (hashes.size() > 0) {
-            try {
-                return Hex.decodeHex(new MerkleTree(hashes).getRoot().getHash().toCharArray());
-            } catch (Exception e) {
-                logger.error("error occured when calculate merkle incubate");
-            }
-        }
-        return new byte[32];
+        return MerkleRoot.root(incubatorList.stream().map(Incubator::getId).collect(toList()));
     }
 
     public static Block fromProto(ProtocolModel.Block block) {
@@ -210,9 +181,19 @@ public class Block {
 
     public byte[] reHash() {
         hashCache = HashUtil.keccak256(getHeaderRaw());
+        powHashCache = null;
         return hashCache;
     }
 
+    // memoized pow hash, the header must not be modified after this is called
+    @JsonIgnore
+    public byte[] getPowHash() {
+        if (powHashCache == null) {
+            powHashCache = calculatePOWHash(this);
+        }
+        return powHashCache;
+    }
+
     // 防止 jackson 解析时报错
     private int blockSize;
     private byte[] blockHash;
@@ -288,6 +269,9 @@ public class Block {
     @JsonIgnore
     private String hashHexCache;
 
+    @JsonIgnore
+    private byte[] powHashCache;
+
     @JsonIgnore
     public byte[] getHeaderRaw() {
         return getHeaderRaw(this);
@@ -409,10 +393,6 @@ public class Block {
     }
 
     public static int getMerkleRootLevel(List<Transaction> txs) {
-        List<String> hashes = new ArrayList<>();
-        for (Transaction tx : txs) {
-            hashes.add(tx.getHashHexString());
-        }
-        return new MerkleTree(hashes).getLevelSize();
+        return MerkleRoot.levels(txs.size());
     }
 }
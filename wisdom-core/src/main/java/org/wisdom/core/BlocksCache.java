@@ -76,7 +76,7 @@ public class BlocksCache {
      * @return
      */
     public BlocksCache copy() {
-        BlocksCache copied = new BlocksCache();
+        BlocksCache copied = new BlocksCache(sizeLimit);
         copied.blocks = new HashMap<>(blocks);
         copied.childrenHashes = new HashMap<>();
         for (String key : childrenHashes.keySet()) {
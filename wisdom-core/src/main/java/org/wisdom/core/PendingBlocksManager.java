@@ -54,6 +54,11 @@ public class PendingBlocksManager {
     // 区块的写入全部走这里
     @Async
     public void addPendingBlocks(BlocksCache cache) {
+        writeBlocks(cache);
+    }
+
+    // 在调用线程上同步写入，供区块导入流水线使用
+    public void writeBlocks(BlocksCache cache) {
         while (true) {
             List<Block> chain = cache.popLongestChain();
             if (chain == null || chain.size() == 0){
@@ -18,6 +18,7 @@
 
 package org.wisdom.core;
 
+import com.google.protobuf.InvalidProtocolBufferException;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.dbcp2.BasicDataSource;
 import org.springframework.beans.factory.annotation.Value;
@@ -29,9 +30,13 @@ import org.springframework.jdbc.datasource.init.ScriptUtils;
 import org.springframework.util.Assert;
 import org.wisdom.Start;
 import org.wisdom.util.Arrays;
+import org.wisdom.core.account.Account;
 import org.wisdom.core.account.Transaction;
+import org.wisdom.core.incubator.Incubator;
 import org.wisdom.core.orm.BlockMapper;
 import org.wisdom.core.orm.TransactionMapper;
+import org.wisdom.p2p.WisdomOuterClass;
+import org.wisdom.sync.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -42,6 +47,7 @@ import org.springframework.stereotype.Component;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PostConstruct;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -57,6 +63,13 @@ public class RDBMSBlockChainImpl implements WisdomBlockChain {
 
     private static final Logger logger = LoggerFactory.getLogger(RDBMSBlockChainImpl.class);
 
+    // postgres 单条语句最多 32767 个参数
+    private static final int MAX_PARAMETERS = 32767;
+    private static final int MAX_ROWS_PER_INSERT = 1000;
+
+    @Value("${wisdom.raw-block-store.enabled}")
+    private boolean enableRawBlockStore;
+
     private <T> T getOne(List<T> res) {
         if (res.size() == 0) {
             return null;
@@ -81,7 +94,9 @@ public class RDBMSBlockChainImpl implements WisdomBlockChain {
                 "drop table if exists transaction",
                 "drop table if exists transaction_index",
                 "drop table if exists account",
-                "drop table if exists incubator_state");
+                "drop table if exists account_state",
+                "drop table if exists incubator_state",
+                "drop table if exists block_raw");
     }
 
     // get block body
@@ -103,6 +118,11 @@ public class RDBMSBlockChainImpl implements WisdomBlockChain {
 
     // reduce ios
     private List<Block> getBlocksFromHeaders(List<Block> headers) {
+        return getBlocksFromHeaders(headers, null);
+    }
+
+    // types 为 null 时读取全部事务
+    private List<Block> getBlocksFromHeaders(List<Block> headers, Collection<Integer> types) {
         if (headers.size() == 0) {
             return new ArrayList<>();
         }
@@ -115,7 +135,15 @@ public class RDBMSBlockChainImpl implements WisdomBlockChain {
                 new NamedParameterJdbcTemplate(tmpl);
         Map<String, Object> paramMap = new HashMap<>();
         paramMap.put("blocksHash", headers.stream().map(Block::getHash).collect(Collectors.toList()));
-        List<Transaction> transactions = namedParameterJdbcTemplate.query("select tx.*, ti.block_hash, h.height from transaction as tx inner join transaction_index as ti on tx.tx_hash = ti.tx_hash inner join header as h on ti.block_hash = h.block_hash where ti.block_hash in (:blocksHash) order by ti.tx_index", paramMap, new TransactionMapper());
+        String sql = "select tx.*, ti.block_hash, h.height from transaction as tx inner join transaction_index as ti on tx.tx_hash = ti.tx_hash inner join header as h on ti.block_hash = h.block_hash where ti.block_hash in (:blocksHash)";
+        if (types != null) {
+            if (types.isEmpty()) {
+                return headers;
+            }
+            sql += " and tx.type in (:types)";
+            paramMap.put("types", types);
+        }
+        List<Transaction> transactions = namedParameterJdbcTemplate.query(sql + " order by ti.tx_index", paramMap, new TransactionMapper());
         for (Transaction tx : transactions) {
             cache.get(Hex.encodeHexString(tx.blockHash)).body.add(tx);
         }
@@ -151,10 +179,10 @@ public class RDBMSBlockChainImpl implements WisdomBlockChain {
         }
 
         // 写入 transaction 表
-        tmpl.batchUpdate("insert into transaction (" +
+        insertRows("insert into transaction (" +
                 "version, tx_hash, type, nonce, " +
                 "\"from\", gas_price, amount, " +
-                "payload, signature, \"to\") VALUES (?, ?,?,?,?,?,?,?,?,?) on conflict(tx_hash) do nothing", args0);
+                "payload, signature, \"to\")", " on conflict(tx_hash) do nothing", args0);
 
         List<Object[]> args = new ArrayList<>();
         for (int i = 0; i < block.body.size(); i++) {
@@ -165,7 +193,82 @@ public class RDBMSBlockChainImpl implements WisdomBlockChain {
         }
 
         // 写入 transaction_index 表
-        tmpl.batchUpdate("insert into transaction_index (block_hash, tx_hash, tx_index) values (?,?,?)", args);
+        insertRows("insert into transaction_index (block_hash, tx_hash, tx_index)", "", args);
+    }
+
+    // 写入区块的 protobuf 编码，已存在时跳过
+    private void writeRaw(List<Block> blocks, List<WisdomOuterClass.Block> encoded) {
+        List<Object[]> args = new ArrayList<>();
+        for (int i = 0; i < blocks.size(); i++) {
+            args.add(new Object[]{blocks.get(i).getHash(), blocks.get(i).nHeight, encoded.get(i).toByteArray()});
+        }
+        insertRows("insert into block_raw (block_hash, height, data)", " on conflict(block_hash) do nothing", args);
+    }
+
+    private void writeAccounts(List<Account> accounts) {
+        List<Object[]> args = new ArrayList<>();
+        for (Account account : accounts) {
+            args.add(new Object[]{
+                    account.getId(), account.getBlockHeight(), account.getPubkeyHash(), account.getNonce()
+                    , account.getBalance(), account.getIncubatecost(), account.getMortgage(), account.getVote()
+            });
+        }
+        insertRows("insert into account(id,blockheight,pubkeyhash,nonce,balance,incubatecost,mortgage,vote)",
+                " on conflict(id) do nothing", args);
+        // 同一条语句中不能两次更新同一行，每个账户只保留最高的记录
+        Map<String, Object[]> latest = new HashMap<>();
+        for (Object[] row : args) {
+            latest.merge(Hex.encodeHexString((byte[]) row[2]), row,
+                    (x, y) -> (long) x[1] > (long) y[1] ? x : y);
+        }
+        insertRows("insert into account_state(id,blockheight,pubkeyhash,nonce,balance,incubatecost,mortgage,vote)",
+                " on conflict(pubkeyhash) do update set id = excluded.id, blockheight = excluded.blockheight, " +
+                        "nonce = excluded.nonce, balance = excluded.balance, incubatecost = excluded.incubatecost, " +
+                        "mortgage = excluded.mortgage, vote = excluded.vote " +
+                        "where account_state.blockheight <= excluded.blockheight", new ArrayList<>(latest.values()));
+    }
+
+    // 从历史记录中生成账户最新状态，只在升级后第一次启动时执行
+    private void initAccountState() {
+        boolean empty = tmpl.queryForObject("select not exists(select 1 from account_state)", Boolean.class);
+        if (!empty) {
+            return;
+        }
+        tmpl.update("insert into account_state(id,blockheight,pubkeyhash,nonce,balance,incubatecost,mortgage,vote) " +
+                "select distinct on (pubkeyhash) id,blockheight,pubkeyhash,nonce,balance,incubatecost,mortgage,vote " +
+                "from account order by pubkeyhash, blockheight desc");
+    }
+
+    private void writeIncubators(List<Incubator> incubators) {
+        List<Object[]> args = new ArrayList<>();
+        for (Incubator incubator : incubators) {
+            args.add(new Object[]{
+                    incubator.getId(), incubator.getShare_pubkeyhash()
+                    , incubator.getPubkeyhash(), incubator.getTxid_issue()
+                    , incubator.getHeight(), incubator.getCost(), incubator.getInterest_amount()
+                    , incubator.getShare_amount(), incubator.getLast_blockheight_interest(), incubator.getLast_blockheight_share()
+            });
+        }
+        insertRows("insert into incubator_state(id,share_pubkeyhash,pubkeyhash,txid_issue,height,cost,interest_amount,share_amount,last_blockheight_interest,last_blockheight_share)",
+                " on conflict(id) do nothing", args);
+    }
+
+    // 多行 insert，减少和数据库之间的往返次数
+    private void insertRows(String insert, String onConflict, List<Object[]> rows) {
+        if (rows.size() == 0) {
+            return;
+        }
+        int columns = rows.get(0).length;
+        String row = "(" + String.join(",", Collections.nCopies(columns, "?")) + ")";
+        int rowsPerInsert = Math.min(MAX_ROWS_PER_INSERT, MAX_PARAMETERS / columns);
+        for (int start = 0; start < rows.size(); start += rowsPerInsert) {
+            List<Object[]> chunk = rows.subList(start, Math.min(rows.size(), start + rowsPerInsert));
+            Object[] args = new Object[chunk.size() * columns];
+            for (int i = 0; i < chunk.size(); i++) {
+                System.arraycopy(chunk.get(i), 0, args, i * columns, columns);
+            }
+            tmpl.update(insert + " values " + String.join(",", Collections.nCopies(chunk.size(), row)) + onConflict, args);
+        }
     }
 
 
@@ -218,6 +321,8 @@ public class RDBMSBlockChainImpl implements WisdomBlockChain {
 
         tmpl.execute("ALTER TABLE account ADD COLUMN IF NOT EXISTS vote int8 not null DEFAULT 0");
 
+        initAccountState();
+
         // 重构表
         // refactorTables();
 
@@ -291,6 +396,102 @@ public class RDBMSBlockChainImpl implements WisdomBlockChain {
         return blocks;
     }
 
+    private static Map<String, WisdomOuterClass.Block> encodeBlocks(List<Block> blocks) {
+        Map<String, WisdomOuterClass.Block> res = new LinkedHashMap<>();
+        for (Block b : blocks) {
+            res.put(b.getHashHexString(), Utils.encodeBlock(b));
+        }
+        return res;
+    }
+
+    /**
+     * reads the stored protobuf bytes when the raw block store is enabled, blocks not yet backfilled
+     * are encoded from the relational tables
+     */
+    @Override
+    public Map<String, WisdomOuterClass.Block> getEncodedBlocks(long startHeight, long stopHeight, int sizeLimit, boolean clipInitial) {
+        if (!enableRawBlockStore) {
+            return encodeBlocks(getBlocks(startHeight, stopHeight, sizeLimit, clipInitial));
+        }
+        // 按照 getBlocks 的裁剪方式选出区块，再按高度升序排列
+        List<byte[][]> rows = tmpl.query("select h.block_hash, r.data from header as h left join block_raw as r " +
+                        "on h.block_hash = r.block_hash where h.height >= ? and h.height <= ? order by h.height " +
+                        (clipInitial ? "desc" : "") + " limit ?",
+                new Object[]{startHeight, stopHeight, sizeLimit},
+                (rs, i) -> new byte[][]{rs.getBytes("block_hash"), rs.getBytes("data")});
+        if (clipInitial) {
+            Collections.reverse(rows);
+        }
+        Map<String, WisdomOuterClass.Block> res = new LinkedHashMap<>();
+        List<byte[]> missing = new ArrayList<>();
+        for (byte[][] row : rows) {
+            String hash = Hex.encodeHexString(row[0]);
+            if (row[1] == null) {
+                missing.add(row[0]);
+                res.put(hash, null);
+                continue;
+            }
+            try {
+                res.put(hash, WisdomOuterClass.Block.parseFrom(row[1]));
+            } catch (InvalidProtocolBufferException e) {
+                logger.error("invalid raw block " + hash);
+                return encodeBlocks(getBlocks(startHeight, stopHeight, sizeLimit, clipInitial));
+            }
+        }
+        if (missing.isEmpty()) {
+            return res;
+        }
+        NamedParameterJdbcTemplate namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(tmpl);
+        List<Block> blocks = getBlocksFromHeaders(namedParameterJdbcTemplate.query(
+                "select * from header where block_hash in (:blocksHash)",
+                Collections.singletonMap("blocksHash", missing), new BlockMapper()));
+        res.putAll(encodeBlocks(blocks));
+        return res;
+    }
+
+    // 每批补写的区块数量
+    private static final int RAW_BLOCKS_PER_BACKFILL = 1000;
+
+    // 启用之前写入的区块在后台补写一次，之后的区块在 writeBlock 中写入
+    @PostConstruct
+    public void initRawBlocks() {
+        if (!enableRawBlockStore) {
+            return;
+        }
+        Thread t = new Thread(this::backfillRawBlocks, "raw-block-backfill");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void backfillRawBlocks() {
+        long height = 0;
+        long count = 0;
+        try {
+            while (true) {
+                List<Block> headers = tmpl.query("select h.* from header as h left join block_raw as r " +
+                                "on h.block_hash = r.block_hash where r.block_hash is null and h.height >= ? order by h.height limit ?",
+                        new Object[]{height, RAW_BLOCKS_PER_BACKFILL}, new BlockMapper());
+                if (headers.isEmpty()) {
+                    break;
+                }
+                List<Block> blocks = getBlocksFromHeaders(headers);
+                // 没有可以补写的区块时停止，避免重复查询同一批
+                if (blocks.isEmpty()) {
+                    break;
+                }
+                writeRaw(blocks, Utils.encodeBlocks(blocks));
+                height = headers.get(headers.size() - 1).nHeight;
+                count += blocks.size();
+            }
+        } catch (Exception e) {
+            logger.error("backfill raw blocks failed at height " + height + " " + e.getMessage());
+            return;
+        }
+        if (count > 0) {
+            logger.info("backfill " + count + " raw blocks done");
+        }
+    }
+
     @Override
     public Block getCanonicalHeader(long num) {
         return getOne(tmpl.query("select * from header where height = ?", new Object[]{num}, new BlockMapper()));
@@ -323,7 +524,12 @@ public class RDBMSBlockChainImpl implements WisdomBlockChain {
     }
 
     @Override
-    public synchronized boolean writeBlock(Block block) {
+    public boolean writeBlock(Block block) {
+        return writeBlock(block, Collections.emptyList(), Collections.emptyList());
+    }
+
+    @Override
+    public synchronized boolean writeBlock(Block block, List<Account> accounts, List<Incubator> incubators) {
         Block parentHeader = getBlock(block.hashPrevBlock);
 
         if (parentHeader == null) {
@@ -337,6 +543,11 @@ public class RDBMSBlockChainImpl implements WisdomBlockChain {
             try {
                 writeHeader(block);
                 writeBody(block);
+                if (enableRawBlockStore) {
+                    writeRaw(Collections.singletonList(block), Collections.singletonList(Utils.encodeBlock(block)));
+                }
+                writeAccounts(accounts);
+                writeIncubators(incubators);
             } catch (Exception e) {
                 e.printStackTrace();
                 status.setRollbackOnly();
@@ -384,6 +595,11 @@ public class RDBMSBlockChainImpl implements WisdomBlockChain {
         return getBlocksFromHeaders(headers);
     }
 
+    @Override
+    public List<Block> getAncestorBlocks(byte[] blockHash, long minimumAncestorHeight, Collection<Integer> types) {
+        return getBlocksFromHeaders(getAncestorHeaders(blockHash, minimumAncestorHeight), types);
+    }
+
     @Override
     public long getCurrentTotalWeight() {
         return tmpl.queryForObject("select max(total_weight) from header", null, Long.class);
@@ -470,6 +686,26 @@ public class RDBMSBlockChainImpl implements WisdomBlockChain {
                 "on tx.tx_hash = ti.tx_hash inner join header as h on ti.block_hash = h.block_hash where tx.type =? and tx.from = ? and tx.to =? order by height, ti.tx_index offset ? limit ?", new Object[]{type, from, to, offset, limit}, new TransactionMapper());
     }
 
+    @Override
+    public long countTransactions(int type, byte[] from, byte[] to) {
+        StringBuilder sql = new StringBuilder("select count(*) from transaction as tx inner join transaction_index as ti " +
+                "on tx.tx_hash = ti.tx_hash inner join header as h on ti.block_hash = h.block_hash where true");
+        List<Object> args = new ArrayList<>();
+        if (type >= 0) {
+            sql.append(" and tx.type = ?");
+            args.add(type);
+        }
+        if (from != null) {
+            sql.append(" and tx.from = ?");
+            args.add(from);
+        }
+        if (to != null) {
+            sql.append(" and tx.to = ?");
+            args.add(to);
+        }
+        return tmpl.queryForObject(sql.toString(), args.toArray(), Long.class);
+    }
+
     @Override
     public long countBlocksAfter(long timestamp) {
         return tmpl.queryForObject("select count(*) from header where created_at > ?", new Object[]{timestamp}, Long.class);
@@ -18,6 +18,8 @@
 
 package org.wisdom.core;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.wisdom.core.account.Account;
 import org.wisdom.core.account.AccountDB;
 import org.wisdom.core.event.NewBestBlockEvent;
@@ -29,17 +31,22 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationListener;
 import org.springframework.stereotype.Component;
+import org.wisdom.db.StateTrie;
 import org.wisdom.pool.PeningTransPool;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 @Component
 public class StatetreeUpdate implements ApplicationListener<NewBestBlockEvent> {
+    private static final Logger logger = LoggerFactory.getLogger(StatetreeUpdate.class);
+
     @Autowired
     MerkleRule merkleRule;
 
+    @Autowired
+    WisdomBlockChain bc;
+
     @Autowired
     AccountDB accountDB;
 
@@ -52,38 +59,43 @@ public class StatetreeUpdate implements ApplicationListener<NewBestBlockEvent> {
     @Autowired
     PeningTransPool peningTransPool;
 
-    @Override
-    public void onApplicationEvent(NewBestBlockEvent event) {
-        Block b = event.getBlock();
-        peningTransPool.updatePool(b.body, 2, b.nHeight);
-        Map<String, Object> merklemap = null;
+    @Autowired
+    StateTrie stateTrie;
 
+    // 区块和区块产生的账户、孵化状态在同一个数据库事务中写入，不会出现只写入一部分的情况
+    public boolean writeBlock(Block b) {
         try {
-            merklemap = merkleRule.validateMerkle(b.body, b.nHeight);
+            Map<String, Object> merklemap = merkleRule.validateMerkle(b.body, b.nHeight);
             List<Account> accountList = (List<Account>) merklemap.get("account");
             List<Incubator> incubatorList = (List<Incubator>) merklemap.get("incubator");
-            List<Object[]> accountobject = new ArrayList<>();
-            List<Object[]> incubatorobjct = new ArrayList<>();
-            for (Account account : accountList) {
-                accountobject.add(new Object[]{
-                        account.getId(), account.getBlockHeight(), account.getPubkeyHash(), account.getNonce()
-                        , account.getBalance(), account.getIncubatecost(), account.getMortgage(), account.getVote()
-                });
+            if (!bc.writeBlock(b, accountList, incubatorList)) {
+                return false;
             }
-            accountDB.insertAccountList(accountobject);
-            for (Incubator incubator : incubatorList) {
-                incubatorobjct.add(new Object[]{
-                        incubator.getId(), incubator.getShare_pubkeyhash()
-                        , incubator.getPubkeyhash(), incubator.getTxid_issue()
-                        , incubator.getHeight(), incubator.getCost(), incubator.getInterest_amount()
-                        , incubator.getShare_amount(), incubator.getLast_blockheight_interest(), incubator.getLast_blockheight_share()
-                });
-            }
-            incubatorDB.insertIncubatorList(incubatorobjct);
+            // 提交成功后刷新缓存
+            accountDB.cacheAccounts(accountList);
+            incubatorDB.cacheIncubators(incubatorList);
+            updateStateTrie(b, accountList, incubatorList);
+            return true;
         } catch (Exception e) {
             e.printStackTrace();
-            return;
+            return false;
+        }
+    }
+
+    // 状态树不参与共识，更新失败只记录日志，下一个区块会重新构建
+    private void updateStateTrie(Block b, List<Account> accounts, List<Incubator> incubators) {
+        try {
+            stateTrie.update(b, accounts, incubators);
+        } catch (Exception e) {
+            logger.error("update state trie at height " + b.nHeight + " failed " + e.getMessage());
         }
+    }
+
+    // 状态已经和区块一起写入，这里只需要更新内存池并通知状态更新完成
+    @Override
+    public void onApplicationEvent(NewBestBlockEvent event) {
+        Block b = event.getBlock();
+        peningTransPool.updatePool(b.body, 2, b.nHeight);
         ctx.publishEvent(new AccountUpdatedEvent(this, b));
     }
-}
\ No newline at end of file
+}
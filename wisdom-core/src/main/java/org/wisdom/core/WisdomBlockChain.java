@@ -18,9 +18,14 @@
 
 package org.wisdom.core;
 
+import org.wisdom.core.account.Account;
 import org.wisdom.core.account.Transaction;
+import org.wisdom.core.incubator.Incubator;
+import org.wisdom.p2p.WisdomOuterClass;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface WisdomBlockChain {
 
@@ -49,6 +54,9 @@ public interface WisdomBlockChain {
 
     List<Block> getBlocks(long startHeight, long stopHeight, int sizeLimit, boolean clipInitial);
 
+    // same as getBlocks, blocks are encoded as protobuf messages for synchronizing, keyed by hex block hash in height order
+    Map<String, WisdomOuterClass.Block> getEncodedBlocks(long startHeight, long stopHeight, int sizeLimit, boolean clipInitial);
+
     // retrieves the header assigned to a canonical block number
     Block getCanonicalHeader(long height);
 
@@ -66,6 +74,9 @@ public interface WisdomBlockChain {
     // write the block to the database
     boolean writeBlock(Block block);
 
+    // write the block and the account and incubator states after it in one transaction
+    boolean writeBlock(Block block, List<Account> accounts, List<Incubator> incubators);
+
     // find b's ancestor header at height of anum
     Block findAncestorHeader(byte[] bhash, long anum);
 
@@ -77,6 +88,9 @@ public interface WisdomBlockChain {
 
     List<Block> getAncestorBlocks(byte[] bhash, long anum);
 
+    // same as getAncestorBlocks but the bodies only contain transactions of the given types
+    List<Block> getAncestorBlocks(byte[] bhash, long anum, Collection<Integer> types);
+
     long getCurrentTotalWeight();
 
     boolean hasTransaction(byte[] txHash);
@@ -101,6 +115,9 @@ public interface WisdomBlockChain {
 
     List<Transaction> getTransactionsByFromToAndType(int type, byte[] from, byte[] to, int offset, int limit);
 
+    // type < 0 matches any type, null from or to matches any address
+    long countTransactions(int type, byte[] from, byte[] to);
+
     Block getLastConfirmedBlock();
 
     long countBlocksAfter(long timestamp);
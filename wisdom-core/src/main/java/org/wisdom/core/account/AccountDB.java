@@ -21,14 +21,20 @@ package org.wisdom.core.account;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wisdom.core.orm.TransactionMapper;
+import org.wisdom.db.ConfirmedStateCache;
+import org.apache.commons.codec.binary.Hex;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Component;
 
-import java.util.List;
-import java.util.Map;
-import java.util.Optional;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Component
 public class AccountDB {
@@ -36,6 +42,86 @@ public class AccountDB {
     @Autowired
     private JdbcTemplate tmpl;
 
+    // 已确认账户的最新状态，区块写入后由 StatetreeUpdate 刷新
+    private ConfirmedStateCache<Account> cache;
+
+    public AccountDB(@Value("${account.cache-size}") int cacheSize) {
+        this.cache = new ConfirmedStateCache<>("account", cacheSize, Account::getBlockHeight, Account::copy);
+    }
+
+    // 区块和账户状态提交到数据库之后调用
+    public void cacheAccounts(List<Account> accounts) {
+        for (Account account : accounts) {
+            cache.put(Hex.encodeHexString(account.getPubkeyHash()), account);
+        }
+    }
+
+    public ConfirmedStateCache<Account> getCache() {
+        return cache;
+    }
+
+    @Scheduled(fixedRate = 60 * 1000)
+    public void logCacheStats() {
+        logger.info(cache.stats());
+    }
+
+    // 数据库异常时抛出，账户不存在时返回 null
+    private Account queryAccount(byte[] pubkeyhash) {
+        String sql = "select * from account_state b where b.pubkeyhash=?";
+        List<Account> accounts = tmpl.query(sql, new Object[]{pubkeyhash}, new BeanPropertyRowMapper<>(Account.class));
+        return accounts.size() > 0 ? accounts.get(0) : null;
+    }
+
+    private Account loadAccount(byte[] pubkeyhash) {
+        try {
+            return queryAccount(pubkeyhash);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // 每条语句最多的参数数量
+    private static final int MAX_KEYS_PER_QUERY = 10000;
+
+    private Map<String, Account> loadAccounts(Collection<byte[]> pubkeyhashes) {
+        Map<String, Account> res = new HashMap<>();
+        List<byte[]> keys = new ArrayList<>(pubkeyhashes);
+        try {
+            NamedParameterJdbcTemplate namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(tmpl);
+            for (int start = 0; start < keys.size(); start += MAX_KEYS_PER_QUERY) {
+                Map<String, Object> paramMap = new HashMap<>();
+                paramMap.put("pubkeyhashes", keys.subList(start, Math.min(keys.size(), start + MAX_KEYS_PER_QUERY)));
+                String sql = "select * from account_state b where b.pubkeyhash in (:pubkeyhashes)";
+                for (Account account : namedParameterJdbcTemplate.query(sql, paramMap, new BeanPropertyRowMapper<>(Account.class))) {
+                    res.put(Hex.encodeHexString(account.getPubkeyHash()), account);
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return res;
+    }
+
+    // 批量读取账户最新状态，以十六进制的 pubkeyhash 为键，不存在的账户不在结果中
+    public Map<String, Account> selectAccounts(Collection<byte[]> pubkeyhashes) {
+        Map<String, byte[]> keys = new HashMap<>();
+        for (byte[] pubkeyhash : pubkeyhashes) {
+            keys.put(Hex.encodeHexString(pubkeyhash), pubkeyhash);
+        }
+        return cache.getAll(keys.keySet(), missing -> loadAccounts(missing.stream().map(keys::get).collect(Collectors.toList())));
+    }
+
+    // 逐行读取所有账户的最新状态，不会把整张表加载到内存
+    public void forEachLatestAccount(Consumer<Account> consumer) {
+        BeanPropertyRowMapper<Account> mapper = new BeanPropertyRowMapper<>(Account.class);
+        tmpl.query("select * from account_state", (RowCallbackHandler) rs -> consumer.accept(mapper.mapRow(rs, 0)));
+    }
+
+    private Account getLatest(byte[] pubkeyhash) {
+        return cache.get(Hex.encodeHexString(pubkeyhash), k -> loadAccount(pubkeyhash));
+    }
+
 /*    public Account selectaccount(byte[] pubkeyhash){
         try{
             String sql="select * from account b where b.pubkeyhash=? and b.blockheight=(\n" +
@@ -46,19 +132,31 @@ public class AccountDB {
         }
     }*/
 
+    // 最新状态从缓存或 account_state 表读取，account 表只用于查询历史状态
     public Account selectaccount(byte[] pubkeyhash) {
+        return getLatest(pubkeyhash);
+    }
+
+    // 数据库异常时返回 null，和指定高度的查询一致
+    public Optional<Account> hasAccount(byte[] publicKeyHash) {
         try {
-            String sql = "select * from account b where b.pubkeyhash=? order by b.blockheight desc LIMIT 1";
-            return tmpl.queryForObject(sql, new Object[]{pubkeyhash}, new BeanPropertyRowMapper<>(Account.class));
+            return Optional.ofNullable(cache.get(Hex.encodeHexString(publicKeyHash), k -> queryAccount(publicKeyHash)));
         } catch (Exception e) {
+            e.printStackTrace();
             return null;
         }
     }
 
-    public Optional<Account> hasAccount(byte[] publicKeyHash) {
+    // 截止到某一高度（包含）的账户状态，之后写入的记录不可见
+    public Optional<Account> hasAccount(byte[] publicKeyHash, long height) {
+        // 缓存的最新状态不高于这个高度时，它就是这个高度的状态
+        Account cached = cache.getIfPresent(Hex.encodeHexString(publicKeyHash));
+        if (cached != null && cached.getBlockHeight() <= height) {
+            return Optional.of(cached);
+        }
         try {
-            String sql = "select * from account b where b.pubkeyhash=? order by b.blockheight desc LIMIT 1";
-            List<Account> accounts = tmpl.query(sql, new Object[]{publicKeyHash}, new BeanPropertyRowMapper<>(Account.class));
+            String sql = "select * from account b where b.pubkeyhash=? and b.blockheight<=? order by b.blockheight desc LIMIT 1";
+            List<Account> accounts = tmpl.query(sql, new Object[]{publicKeyHash, height}, new BeanPropertyRowMapper<>(Account.class));
             if (accounts.size() > 0) {
                 return Optional.of(accounts.get(0));
             }
@@ -90,22 +188,11 @@ public class AccountDB {
     }
 
     public long getNonce(byte[] pubkeyhash) {
-        try {
-            String sql = "select COALESCE(MAx(a.nonce),0) from account a where a.pubkeyhash=? ";
-            return tmpl.queryForObject(sql, new Object[]{pubkeyhash}, Long.class);
-        } catch (Exception e) {
-            e.printStackTrace();
-            return 0;
-        }
+        return Optional.ofNullable(getLatest(pubkeyhash)).map(Account::getNonce).orElse(0L);
     }
 
     public long getBalance(byte[] pubkeyhash) {
-        try {
-            String sql = "select b.balance from account b where b.pubkeyhash=? and b.blockheight =(select COALESCE(MAx(a.blockheight),0) from account a where a.pubkeyhash=?)";
-            return tmpl.queryForObject(sql, new Object[]{pubkeyhash, pubkeyhash}, Long.class);
-        } catch (Exception e) {
-            return 0;
-        }
+        return Optional.ofNullable(getLatest(pubkeyhash)).map(Account::getBalance).orElse(0L);
     }
 
     public int insertaccount(Account account) {
@@ -133,7 +220,13 @@ public class AccountDB {
     public int[] insertAccountList(List<Object[]> Object) {
         try {
             String sql = "insert into account(id,blockheight,pubkeyhash,nonce,balance,incubatecost,mortgage,vote) VALUES(?,?,?,?,?,?,?,?) on conflict(id) do nothing";
-            return tmpl.batchUpdate(sql, Object);
+            int[] res = tmpl.batchUpdate(sql, Object);
+            tmpl.batchUpdate("insert into account_state(id,blockheight,pubkeyhash,nonce,balance,incubatecost,mortgage,vote) VALUES(?,?,?,?,?,?,?,?) " +
+                    "on conflict(pubkeyhash) do update set id = excluded.id, blockheight = excluded.blockheight, " +
+                    "nonce = excluded.nonce, balance = excluded.balance, incubatecost = excluded.incubatecost, " +
+                    "mortgage = excluded.mortgage, vote = excluded.vote " +
+                    "where account_state.blockheight <= excluded.blockheight", Object);
+            return res;
         } catch (Exception e) {
             logger.error("FATAL DEAD LOCK !!!!!!!!!!!!!!!!!!!!!");
             e.printStackTrace();
@@ -77,6 +77,7 @@ public class InitializeAccount {
                                 "delete from transaction where 1 = 1",
                                 "delete from transaction_index where 1 = 1",
                                 "delete from account where 1 = 1",
+                                "delete from account_state where 1 = 1",
                                 "delete from incubator_state where 1 = 1");
                         initilize.setInitialize(false);
                         JSONObject jsonObj = (JSONObject) JSON.toJSON(initilize);
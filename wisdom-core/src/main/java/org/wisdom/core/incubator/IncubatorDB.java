@@ -18,15 +18,24 @@
 
 package org.wisdom.core.incubator;
 
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.wisdom.db.ConfirmedStateCache;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Component
 public class IncubatorDB {
@@ -34,6 +43,31 @@ public class IncubatorDB {
     @Autowired
     private JdbcTemplate tmpl;
 
+    private static final Logger logger = LoggerFactory.getLogger(IncubatorDB.class);
+
+    // 已确认孵化器的最新状态，以 txid_issue 为键，区块写入后由 StatetreeUpdate 刷新
+    private ConfirmedStateCache<Incubator> cache;
+
+    public IncubatorDB(@Value("${incubator.cache-size}") int cacheSize) {
+        this.cache = new ConfirmedStateCache<>("incubator", cacheSize, Incubator::getHeight, Incubator::copy);
+    }
+
+    // 区块和孵化状态提交到数据库之后调用
+    public void cacheIncubators(List<Incubator> incubators) {
+        for (Incubator incubator : incubators) {
+            cache.put(Hex.encodeHexString(incubator.getTxid_issue()), incubator);
+        }
+    }
+
+    public ConfirmedStateCache<Incubator> getCache() {
+        return cache;
+    }
+
+    @Scheduled(fixedRate = 60 * 1000)
+    public void logCacheStats() {
+        logger.info(cache.stats());
+    }
+
     public int count() {
         try {
             String sql = "select count(*) from incubator_state";
@@ -54,6 +88,10 @@ public class IncubatorDB {
     }*/
 
     public Incubator selectIncubator(byte[] tx) {
+        return cache.get(Hex.encodeHexString(tx), k -> loadIncubator(tx));
+    }
+
+    private Incubator loadIncubator(byte[] tx) {
         try {
             String sql = "select * from incubator_state s where s.txid_issue=? order by s.height desc limit 1";
             return tmpl.queryForObject(sql, new Object[]{tx}, new IncubatorRowMapper());
@@ -62,6 +100,41 @@ public class IncubatorDB {
         }
     }
 
+    // latest state of each incubator in one query, keyed by hex encoded txid_issue
+    public Map<String, Incubator> selectIncubators(Collection<byte[]> txs) {
+        Map<String, byte[]> keys = new HashMap<>();
+        for (byte[] tx : txs) {
+            keys.put(Hex.encodeHexString(tx), tx);
+        }
+        return cache.getAll(keys.keySet(), missing -> loadIncubators(missing.stream().map(keys::get).collect(Collectors.toList())));
+    }
+
+    private Map<String, Incubator> loadIncubators(Collection<byte[]> txs) {
+        Map<String, Incubator> res = new HashMap<>();
+        if (txs.isEmpty()) {
+            return res;
+        }
+        try {
+            NamedParameterJdbcTemplate namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(tmpl);
+            Map<String, Object> paramMap = new HashMap<>();
+            paramMap.put("txs", new ArrayList<>(txs));
+            String sql = "select distinct on (s.txid_issue) s.* from incubator_state s where s.txid_issue in (:txs) order by s.txid_issue, s.height desc";
+            for (Incubator incubator : namedParameterJdbcTemplate.query(sql, paramMap, new IncubatorRowMapper())) {
+                res.put(Hex.encodeHexString(incubator.getTxid_issue()), incubator);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return res;
+    }
+
+    // 逐行读取所有孵化器的最新状态，不会把整张表加载到内存
+    public void forEachLatestIncubator(Consumer<Incubator> consumer) {
+        IncubatorRowMapper mapper = new IncubatorRowMapper();
+        String sql = "select distinct on (s.txid_issue) s.* from incubator_state s order by s.txid_issue, s.height desc";
+        tmpl.query(sql, (RowCallbackHandler) rs -> consumer.accept(mapper.mapRow(rs, 0)));
+    }
+
     public List<Incubator> selectList(byte[] pubkeyhash){
         try {
             String sql = "select s.* from incubator_state s left join (\n" +
@@ -84,6 +157,29 @@ public class IncubatorDB {
         }
     }
 
+    // 截止到某一高度（包含）的孵化记录，之后写入的记录不可见
+    public List<Incubator> selectList(byte[] pubkeyhash, long height){
+        try {
+            String sql = "select s.* from incubator_state s left join (\n" +
+                    "select i.txid_issue,max(i.height) as height from incubator_state i where i.pubkeyhash=? and i.cost>=0 and i.height<=? group by i.txid_issue) aa\n" +
+                    "on s.txid_issue=aa.txid_issue where s.height=aa.height";
+            return tmpl.query(sql, new Object[]{pubkeyhash, height}, new IncubatorRowMapper());
+        } catch (Exception e) {
+            return new ArrayList<>();
+        }
+    }
+
+    public List<Incubator> selectShareList(byte[] pubkeyhash, long height){
+        try {
+            String sql = "select s.* from incubator_state s left join (\n" +
+                    "select i.txid_issue,max(i.height) as height from incubator_state i where i.share_pubkeyhash=? and i.share_amount>=0 and i.height<=? group by i.txid_issue) aa\n" +
+                    "on s.txid_issue=aa.txid_issue where s.height=aa.height";
+            return tmpl.query(sql, new Object[]{pubkeyhash, height}, new IncubatorRowMapper());
+        } catch (Exception e) {
+            return new ArrayList<>();
+        }
+    }
+
     public int insertIncubator(Incubator incubator) {
         try {
             String sql = "insert into incubator_state VALUES(?,?,?,?,?,?,?,?,?,?)";
@@ -65,6 +65,11 @@ public abstract class AbstractStateFactory<T extends State<T>> {
         );
     }
 
+    // 使用持久化的快照恢复区块之后的状态
+    public void putCache(Block block, T state) {
+        cache.put(getLRUCacheKey(block.getHash()), state);
+    }
+
     public void setStateDB(StateDB stateDB) {
         this.stateDB = stateDB;
     }
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) [2018]
+ * This file is part of the java-wisdomcore
+ *
+ * The java-wisdomcore is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The java-wisdomcore is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the java-wisdomcore. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wisdom.core.state;
+
+import java.io.IOException;
+
+/**
+ * state which can be persisted and restored, the encoding is deterministic
+ * so two states reached by the same blocks have the same bytes
+ */
+public interface EncodableState<T> {
+    // 只编码由区块产生的数据，配置参数不编码
+    byte[] encode();
+
+    // decode with the configuration of this instance
+    T decode(byte[] encoded) throws IOException;
+}
@@ -20,6 +20,9 @@ package org.wisdom.core.state;
 
 import org.wisdom.core.Block;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -27,6 +30,9 @@ import java.util.List;
  * era linked state factory, updates per era
  */
 public class EraLinkedStateFactory<T extends State<T>> extends AbstractStateFactory<T> {
+    // 缓存未命中时每次从数据库读取的纪元数量
+    private static final int ERAS_PER_QUERY = 32;
+
     private int blocksPerEra;
 
     public EraLinkedStateFactory(int cacheSize, T genesisState, int blocksPerEra) {
@@ -53,6 +59,29 @@ public class EraLinkedStateFactory<T extends State<T>> extends AbstractStateFact
         return stateDB.findAncestorHeader(target.hashPrevBlock, lastHeaderNumber);
     }
 
+    /**
+     * transaction types the state depends on, blocks read from the database only contain these transactions.
+     * null for all transactions, empty for headers only
+     */
+    protected Collection<Integer> getTransactionTypes() {
+        return null;
+    }
+
+    private List<Block> getAncestors(Block eraHead, long fromHeight) {
+        Collection<Integer> types = getTransactionTypes();
+        if (types == null) {
+            return stateDB.getAncestorBlocks(eraHead.getHash(), fromHeight);
+        }
+        if (types.isEmpty()) {
+            return stateDB.getAncestorHeaders(eraHead.getHash(), fromHeight);
+        }
+        return stateDB.getAncestorBlocks(eraHead.getHash(), fromHeight, types);
+    }
+
+    /**
+     * @param eraHead the last block of an era
+     * @return the state after the era, the returned state is shared and must not be modified
+     */
     @Override
     public T getFromCache(Block eraHead) {
         if (eraHead.nHeight == 0) {
@@ -62,15 +91,56 @@ public class EraLinkedStateFactory<T extends State<T>> extends AbstractStateFact
         if (t != null) {
             return t;
         }
-        Block parentEraHead = prevEraLast(eraHead);
-        if (parentEraHead == null) {
-            return null;
+        // 按批读取区块头向前查找最近的已缓存纪元，缺失的纪元从高到低排列
+        List<Block> missing = new ArrayList<>();
+        byte[] cursor = eraHead.getHash();
+        long cursorHeight = eraHead.nHeight;
+        Block base = null;
+        // 通常上一个纪元已缓存，先读取一个纪元，之后逐次加倍
+        int eras = 1;
+        while (base == null) {
+            long from = Math.max(0, cursorHeight - (long) eras * blocksPerEra);
+            eras = Math.min(eras * 2, ERAS_PER_QUERY);
+            List<Block> headers = stateDB.getAncestorHeaders(cursor, from);
+            if (headers.isEmpty() || headers.get(0).nHeight != from) {
+                return null;
+            }
+            for (int i = headers.size() - 1; i >= 0; i--) {
+                Block h = headers.get(i);
+                if (h.nHeight % blocksPerEra != 0) {
+                    continue;
+                }
+                if (h.nHeight == 0) {
+                    base = h;
+                    t = genesisState;
+                    break;
+                }
+                t = cache.get(getLRUCacheKey(h.getHash()));
+                if (t != null) {
+                    base = h;
+                    break;
+                }
+                missing.add(h);
+            }
+            cursor = headers.get(0).hashPrevBlock;
+            cursorHeight = from - 1;
+        }
+        // 按批重放缺失的纪元，每个纪元只复制一次状态
+        Collections.reverse(missing);
+        long baseHeight = base.nHeight;
+        for (int i = 0; i < missing.size(); i += ERAS_PER_QUERY) {
+            List<Block> heads = missing.subList(i, Math.min(missing.size(), i + ERAS_PER_QUERY));
+            List<Block> blocks = getAncestors(heads.get(heads.size() - 1), baseHeight + 1);
+            if (blocks.size() != heads.size() * blocksPerEra) {
+                return null;
+            }
+            for (int j = 0; j < heads.size(); j++) {
+                t = t.copy().updateBlocks(blocks.subList(j * blocksPerEra, (j + 1) * blocksPerEra));
+                cache.put(getLRUCacheKey(heads.get(j).getHash()), t);
+            }
+            baseHeight = heads.get(heads.size() - 1).nHeight;
         }
-        t = getFromCache(parentEraHead);
-        List<Block> blocks = stateDB.getAncestorBlocks(eraHead.getHash(), parentEraHead.nHeight + 1);
-        t = t.copy().updateBlocks(blocks);
-        cache.put(getLRUCacheKey(eraHead.getHash()), t);
-        return t.copy();
+        return t;
     }
 
     public T getInstance(Block block) {
@@ -84,18 +154,7 @@ public class EraLinkedStateFactory<T extends State<T>> extends AbstractStateFact
         if (eraHead == null) {
             return null;
         }
-        T cached = getFromCache(eraHead);
-        if (cached != null) {
-            return cached;
-        }
-        T parentEraState = getInstance(eraHead);
-        if (parentEraState == null) {
-            return null;
-        }
-        List<Block> blocks = stateDB.getAncestorBlocks(eraHead.getHash(), eraHead.nHeight - (blocksPerEra - 1));
-        T newState = parentEraState.copy().updateBlocks(blocks);
-        cache.put(getLRUCacheKey(eraHead.getHash()), newState);
-        return newState;
+        return getFromCache(eraHead);
     }
 }
 
@@ -36,9 +36,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.wisdom.db.AccountState;
 import org.wisdom.db.StateDB;
-import org.wisdom.keystore.crypto.RipemdUtility;
-import org.wisdom.keystore.crypto.SHA3Utility;
 import org.wisdom.pool.PeningTransPool;
+import org.wisdom.util.Address;
 
 import java.util.*;
 
@@ -117,7 +116,7 @@ public class AccountRule implements BlockRule {
                 if (!validateIncubator) {
                     continue;
                 }
-                byte[] pubkeyhash = RipemdUtility.ripemd160(SHA3Utility.keccak256(tx.from));
+                byte[] pubkeyhash = Address.publicKeyToHash(tx.from);
                 String publichash = Hex.encodeHexString(pubkeyhash);
                 switch (Transaction.Type.values()[tx.type]) {
                     case EXIT_VOTE: {
@@ -98,7 +98,7 @@ public class BasicRule implements BlockRule, TransactionRule {
             return Result.Error("version check fail");
         }
         // pow 校验
-        if (BigEndian.compareUint256(Block.calculatePOWHash(block), block.nBits) >= 0) {
+        if (BigEndian.compareUint256(block.getPowHash(), block.nBits) >= 0) {
             return Result.Error("pow validate fail");
         }
         for (Transaction tx : block.body) {
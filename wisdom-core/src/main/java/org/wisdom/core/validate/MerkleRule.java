@@ -28,8 +28,6 @@ import org.wisdom.command.Configuration;
 import org.wisdom.command.IncubatorAddress;
 import org.wisdom.core.Block;
 import org.wisdom.encoding.JSONEncodeDecoder;
-import org.wisdom.keystore.crypto.RipemdUtility;
-import org.wisdom.keystore.crypto.SHA3Utility;
 import org.wisdom.protobuf.tcp.command.HatchModel;
 import org.wisdom.core.WisdomBlockChain;
 import org.wisdom.core.account.Account;
@@ -38,6 +36,7 @@ import org.wisdom.core.account.Transaction;
 import org.wisdom.core.incubator.Incubator;
 import org.wisdom.core.incubator.IncubatorDB;
 import org.wisdom.core.incubator.RateTable;
+import org.wisdom.util.Address;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -98,10 +97,47 @@ public class MerkleRule implements BlockRule {
         return Result.SUCCESS;
     }
 
+    private static List<byte[]> accountKeys(List<Transaction> transactionList) {
+        List<byte[]> res = new ArrayList<>();
+        res.add(IncubatorAddress.resultpubhash());
+        for (Transaction tran : transactionList) {
+            res.add(tran.to);
+            if (tran.type != Transaction.Type.COINBASE.ordinal() && tran.from != null && tran.from.length > 0) {
+                res.add(Address.publicKeyToHash(tran.from));
+            }
+        }
+        return res;
+    }
+
+    // 提取收益和提取本金的 payload 是孵化事务的哈希
+    private static List<byte[]> incubatorKeys(List<Transaction> transactionList) {
+        List<byte[]> res = new ArrayList<>();
+        for (Transaction tran : transactionList) {
+            if (tran.type == 0x0a || tran.type == 0x0b || tran.type == 0x0c) {
+                res.add(tran.payload);
+            }
+        }
+        return res;
+    }
+
+    // 每次返回新的副本，和逐条查询数据库时的行为一致
+    private static Account getAccount(Map<String, Account> accounts, byte[] pubkeyhash) {
+        Account account = accounts.get(Hex.encodeHexString(pubkeyhash));
+        return account == null ? null : account.copy();
+    }
+
+    private static Incubator getIncubator(Map<String, Incubator> incubators, byte[] txid) {
+        Incubator incubator = incubators.get(Hex.encodeHexString(txid));
+        return incubator == null ? null : incubator.copy();
+    }
+
     public Map<String, Object> validateMerkle(List<Transaction> transactionList, long nowheight) throws InvalidProtocolBufferException, DecoderException {
         Map<String, Account> accmap = new HashMap<>();
         Map<String, Incubator> incumap = new HashMap<>();
-        Account totalaccount = accountDB.selectaccount(IncubatorAddress.resultpubhash());
+        // 预先批量读取区块涉及的账户和孵化器，之后只在内存中计算
+        Map<String, Account> preloadedAccounts = accountDB.selectAccounts(accountKeys(transactionList));
+        Map<String, Incubator> preloadedIncubators = incubatorDB.selectIncubators(incubatorKeys(transactionList));
+        Account totalaccount = getAccount(preloadedAccounts, IncubatorAddress.resultpubhash());
         long totalbalance = totalaccount.getBalance();
         boolean isdisplay = false;
         for (Transaction tran : transactionList) {
@@ -109,7 +145,7 @@ public class MerkleRule implements BlockRule {
             if (accmap.containsKey(Hex.encodeHexString(tran.to))) {
                 toaccount = accmap.get(Hex.encodeHexString(tran.to));
             } else {
-                toaccount = Optional.ofNullable(accountDB.selectaccount(tran.to))
+                toaccount = Optional.ofNullable(getAccount(preloadedAccounts, tran.to))
                         .orElse(new Account(nowheight, tran.to, 0, 0, 0, 0, 0));
             }
             switch (tran.type) {
@@ -119,31 +155,31 @@ public class MerkleRule implements BlockRule {
                     break;
                 case 0x01://transfer
                     Account fromaccount = new Account();
-                    byte[] frompubhash = RipemdUtility.ripemd160(SHA3Utility.keccak256(tran.from));
+                    byte[] frompubhash = Address.publicKeyToHash(tran.from);
                     if (accmap.containsKey(Hex.encodeHexString(frompubhash))) {
                         fromaccount = accmap.get(Hex.encodeHexString(frompubhash));
                     } else {
-                        fromaccount = accountDB.selectaccount(frompubhash);
+                        fromaccount = getAccount(preloadedAccounts, frompubhash);
                     }
                     List<Account> accountList = UpdateTransfer(tran, fromaccount, toaccount, nowheight, frompubhash);
                     accountList.stream().forEach(a -> accmap.put(Hex.encodeHexString(a.getPubkeyHash()), a));
                     break;
                 case 0x02://Vote
-                    frompubhash = RipemdUtility.ripemd160(SHA3Utility.keccak256(tran.from));
+                    frompubhash = Address.publicKeyToHash(tran.from);
                     if (accmap.containsKey(Hex.encodeHexString(frompubhash))) {
                         fromaccount = accmap.get(Hex.encodeHexString(frompubhash));
                     } else {
-                        fromaccount = accountDB.selectaccount(frompubhash);
+                        fromaccount = getAccount(preloadedAccounts, frompubhash);
                     }
                     List<Account> list = UpdateVoteAccount(tran, fromaccount, toaccount, nowheight, frompubhash);
                     list.stream().forEach(a -> accmap.put(Hex.encodeHexString(a.getPubkeyHash()), a));
                     break;
                 case 0x03://Deposit
-                    frompubhash = RipemdUtility.ripemd160(SHA3Utility.keccak256(tran.from));
+                    frompubhash = Address.publicKeyToHash(tran.from);
                     if (accmap.containsKey(Hex.encodeHexString(frompubhash))) {
                         fromaccount = accmap.get(Hex.encodeHexString(frompubhash));
                     } else {
-                        fromaccount = accountDB.selectaccount(frompubhash);
+                        fromaccount = getAccount(preloadedAccounts, frompubhash);
                     }
                     Account dopaccount = UpdateDepAccount(tran, fromaccount, nowheight);
                     accmap.put(Hex.encodeHexString(frompubhash), dopaccount);
@@ -162,7 +198,7 @@ public class MerkleRule implements BlockRule {
                     Account extractaccount = UpdateExtAccount(tran, toaccount, nowheight);
                     accmap.put(Hex.encodeHexString(tran.to), extractaccount);
                     //孵化状态
-                    Incubator incubator = incubatorDB.selectIncubator(tran.payload);
+                    Incubator incubator = getIncubator(preloadedIncubators, tran.payload);
                     if (nowheight > 30800 && nowheight < 40271) {
                         if (Arrays.equals(incubator.getPubkeyhash(), tran.to)) {
                             if (incubator.getShare_pubkeyhash() != null) {
@@ -205,7 +241,7 @@ public class MerkleRule implements BlockRule {
                     accmap.put(Hex.encodeHexString(tran.to), costaccount);
                     //孵化状态
                     byte[] playload = tran.payload;//孵化哈希
-                    incubator = incubatorDB.selectIncubator(playload);
+                    incubator = getIncubator(preloadedIncubators, playload);
                     if (nowheight > 30800 && nowheight < 40271) {
                         if (incubator.getShare_pubkeyhash() != null) {
                             if (incumap.containsKey(Hex.encodeHexString(incubator.getShare_pubkeyhash()))) {
@@ -227,31 +263,31 @@ public class MerkleRule implements BlockRule {
                     incumap.put(Hex.encodeHexString(tran.to), costIncubator);
                     break;
                 case 0x0d://Cancel Vote
-                    frompubhash = RipemdUtility.ripemd160(SHA3Utility.keccak256(tran.from));
+                    frompubhash = Address.publicKeyToHash(tran.from);
                     if (accmap.containsKey(Hex.encodeHexString(frompubhash))) {
                         fromaccount = accmap.get(Hex.encodeHexString(frompubhash));
                     } else {
-                        fromaccount = accountDB.selectaccount(frompubhash);
+                        fromaccount = getAccount(preloadedAccounts, frompubhash);
                     }
                     List<Account> celvotelist = UpdateCancelVote(tran, fromaccount, toaccount, nowheight, frompubhash);
                     celvotelist.stream().forEach(a -> accmap.put(Hex.encodeHexString(a.getPubkeyHash()), a));
                     break;
                 case 0x0e://mortgage
-                    frompubhash = RipemdUtility.ripemd160(SHA3Utility.keccak256(tran.from));
+                    frompubhash = Address.publicKeyToHash(tran.from);
                     if (accmap.containsKey(Hex.encodeHexString(frompubhash))) {
                         fromaccount = accmap.get(Hex.encodeHexString(frompubhash));
                     } else {
-                        fromaccount = accountDB.selectaccount(frompubhash);
+                        fromaccount = getAccount(preloadedAccounts, frompubhash);
                     }
                     List<Account> mortgageList = UpdateMortgageAccount(tran, fromaccount, toaccount, nowheight, frompubhash);
                     mortgageList.stream().forEach(a -> accmap.put(Hex.encodeHexString(a.getPubkeyHash()), a));
                     break;
                 case 0x0f:
-                    frompubhash = RipemdUtility.ripemd160(SHA3Utility.keccak256(tran.from));
+                    frompubhash = Address.publicKeyToHash(tran.from);
                     if (accmap.containsKey(Hex.encodeHexString(frompubhash))) {
                         fromaccount = accmap.get(Hex.encodeHexString(frompubhash));
                     } else {
-                        fromaccount = accountDB.selectaccount(frompubhash);
+                        fromaccount = getAccount(preloadedAccounts, frompubhash);
                     }
                     List<Account> celMortgageList = UpdateCancelMortgage(tran, fromaccount, toaccount, nowheight, frompubhash);
                     celMortgageList.stream().forEach(a -> accmap.put(Hex.encodeHexString(a.getPubkeyHash()), a));
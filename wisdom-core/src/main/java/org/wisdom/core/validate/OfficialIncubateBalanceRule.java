@@ -22,13 +22,12 @@ import com.google.protobuf.InvalidProtocolBufferException;
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.binary.Hex;
 import org.wisdom.command.IncubatorAddress;
-import org.wisdom.keystore.crypto.RipemdUtility;
-import org.wisdom.keystore.crypto.SHA3Utility;
 import org.wisdom.pool.PeningTransPool;
 import org.wisdom.protobuf.tcp.command.HatchModel;
 import org.wisdom.core.account.AccountDB;
 import org.wisdom.core.account.Transaction;
 import org.wisdom.core.incubator.RateTable;
+import org.wisdom.util.Address;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -66,7 +65,7 @@ public class OfficialIncubateBalanceRule {
                 long interest = tx.getInterest(height, rateTable, days);
                 long total = share + interest;
                 if (totalincubate < total) {
-                    String from=Hex.encodeHexString(RipemdUtility.ripemd160(SHA3Utility.keccak256(tx.from)));
+                    String from=Address.publicKeyToHashHex(tx.from);
                     maps.put(new String(from),tx.nonce);
                     continue;
                 }
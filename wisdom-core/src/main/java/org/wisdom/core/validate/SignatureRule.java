@@ -18,22 +18,25 @@
 
 package org.wisdom.core.validate;
 
-import org.wisdom.crypto.ed25519.Ed25519PublicKey;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.wisdom.core.Block;
 import org.wisdom.core.account.Transaction;
 import org.springframework.stereotype.Component;
-import org.wisdom.encoding.JSONEncodeDecoder;
 
 // 签名校验规则
 @Component
 public class SignatureRule implements BlockRule, TransactionRule{
+    @Autowired
+    private SignatureVerifier signatureVerifier;
+
     @Override
     public Result validateBlock(Block block) {
-        for(int i = 1; i < block.body.size(); i++){
-            Result res = validateTransaction(block.body.get(i));
-            if (!res.isSuccess()){
-                return res;
-            }
+        if (block.body.size() <= 1) {
+            return Result.SUCCESS;
+        }
+        // 并行校验，遇到第一个不合法的签名即停止
+        if (!signatureVerifier.verifyAll(block.body.subList(1, block.body.size()))) {
+            return Result.Error("signature validate fail");
         }
         return Result.SUCCESS;
     }
@@ -43,7 +46,7 @@ public class SignatureRule implements BlockRule, TransactionRule{
         if( transaction.type == Transaction.Type.COINBASE.ordinal()){
             return Result.SUCCESS;
         }
-        boolean res = new Ed25519PublicKey(transaction.from).verify(transaction.getRawForSign(), transaction.signature);
+        boolean res = signatureVerifier.verify(transaction);
         if (!res){
             return Result.Error("signature validate fail");
         }
@@ -0,0 +1,162 @@
+package org.wisdom.core.validate;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.wisdom.core.Block;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.crypto.HashUtil;
+import org.wisdom.crypto.ed25519.Ed25519PublicKey;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * verifies transaction signatures on a bounded thread pool,
+ * successfully verified transactions are remembered by hash so they are not verified twice
+ */
+@Component
+public class SignatureVerifier {
+    private static final Logger logger = LoggerFactory.getLogger(SignatureVerifier.class);
+
+    // 每个任务至少校验的签名数量，避免任务调度开销超过签名校验
+    private static final int MIN_CHUNK_SIZE = 8;
+
+    private final ConcurrentMap<String, Boolean> verified;
+
+    private final ExecutorService executor;
+
+    private final int threads;
+
+    public SignatureVerifier(
+            @Value("${transaction.verify-threads}") int threads,
+            @Value("${transaction.verified-cache-size}") int cacheSize
+    ) {
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.verified = new ConcurrentLinkedHashMap.Builder<String, Boolean>()
+                .maximumWeightedCapacity(cacheSize).build();
+        // 队列满时由调用线程执行，形成背压
+        this.executor = new ThreadPoolExecutor(
+                this.threads, this.threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(this.threads * 4),
+                r -> {
+                    Thread t = new Thread(r, "signature-verifier");
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+    }
+
+    // 哈希由原始字节重新计算，不信任事务上缓存的哈希
+    private static String key(Transaction tx) {
+        return Hex.encodeHexString(HashUtil.keccak256(tx.getRawForHash()));
+    }
+
+    public boolean verify(Transaction tx) {
+        if (tx.type == Transaction.Type.COINBASE.ordinal()) {
+            return true;
+        }
+        String k = key(tx);
+        if (verified.containsKey(k)) {
+            return true;
+        }
+        boolean res;
+        try {
+            res = new Ed25519PublicKey(tx.from).verify(tx.getRawForSign(), tx.signature);
+        } catch (Exception e) {
+            res = false;
+        }
+        if (res) {
+            verified.put(k, true);
+        }
+        return res;
+    }
+
+    // 事务在其他地方已经校验过签名，例如进入内存池时
+    public void markVerified(Transaction tx) {
+        verified.put(key(tx), true);
+    }
+
+    /**
+     * verify all the transactions in parallel, stop at the first failure
+     */
+    public boolean verifyAll(List<Transaction> txs) {
+        return verifyBodies(Collections.singletonList(txs)).get(0);
+    }
+
+    /**
+     * verify the transactions of several blocks in parallel,
+     * verification of a block stops at its first failure
+     *
+     * @return whether signatures of each block are valid, in the same order
+     */
+    public List<Boolean> verifyBlocks(List<Block> blocks) {
+        List<List<Transaction>> bodies = new ArrayList<>(blocks.size());
+        for (Block b : blocks) {
+            bodies.add(b.body == null ? Collections.emptyList() : b.body);
+        }
+        return verifyBodies(bodies);
+    }
+
+    private List<Boolean> verifyBodies(List<List<Transaction>> bodies) {
+        List<AtomicBoolean> failed = new ArrayList<>(bodies.size());
+        // block index, transaction
+        List<int[]> jobs = new ArrayList<>();
+        for (int i = 0; i < bodies.size(); i++) {
+            failed.add(new AtomicBoolean(false));
+            List<Transaction> body = bodies.get(i);
+            for (int j = 0; j < body.size(); j++) {
+                jobs.add(new int[]{i, j});
+            }
+        }
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, (jobs.size() + threads - 1) / threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int start = 0; start < jobs.size(); start += chunkSize) {
+            List<int[]> chunk = jobs.subList(start, Math.min(jobs.size(), start + chunkSize));
+            Runnable task = () -> {
+                for (int[] job : chunk) {
+                    AtomicBoolean f = failed.get(job[0]);
+                    if (f.get()) {
+                        continue;
+                    }
+                    if (!verify(bodies.get(job[0]).get(job[1]))) {
+                        f.set(true);
+                    }
+                }
+            };
+            // 只有一个任务时直接在当前线程执行
+            if (start == 0 && chunk.size() == jobs.size()) {
+                task.run();
+                break;
+            }
+            futures.add(executor.submit(task));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (Exception e) {
+                logger.error("verify signatures failed " + e.getMessage());
+                // 无法确定结果的区块按校验失败处理
+                failed.forEach(f -> f.set(true));
+            }
+        }
+        List<Boolean> res = new ArrayList<>(bodies.size());
+        for (AtomicBoolean f : failed) {
+            res.add(!f.get());
+        }
+        return res;
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -26,10 +26,14 @@ import org.slf4j.LoggerFactory;
 import org.wisdom.util.ByteUtil;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.Security;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.util.Arrays.copyOfRange;
 
@@ -45,15 +49,53 @@ public class HashUtil {
 
     public static final byte[] SIPHASH_KEY = Hex.decode("000102030405060708090a0b0c0d0e0f");
 
+    // 每个线程复用自己的摘要实例，避免每次计算都创建新的实例
+    // algorithm -> digest of the current thread
+    private static final Map<String, ThreadLocal<MessageDigest>> DIGESTS = new ConcurrentHashMap<>();
+
     static {
         Security.addProvider(new BouncyCastleProvider());
         EMPTY_DATA_HASH = sha3(ByteUtil.EMPTY_BYTE_ARRAY);
     }
 
+    private static MessageDigest digest(String algorithm) {
+        ThreadLocal<MessageDigest> digest = DIGESTS.get(algorithm);
+        if (digest == null) {
+            digest = DIGESTS.computeIfAbsent(algorithm, a -> ThreadLocal.withInitial(() -> {
+                try {
+                    return MessageDigest.getInstance(a, "BC");
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalArgumentException(e);
+                }
+            }));
+        }
+        MessageDigest d = digest.get();
+        // 上一次计算异常中断时可能残留状态
+        d.reset();
+        return d;
+    }
+
     private static byte[] hash(byte[] in, String algorithm){
+        return hash(in, 0, in.length, algorithm);
+    }
+
+    private static byte[] hash(byte[] in, int offset, int length, String algorithm){
+        try{
+            MessageDigest digest = digest(algorithm);
+            digest.update(in, offset, length);
+            return digest.digest();
+        }catch (Exception e){
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // 读取 buffer 中剩余的字节
+    private static byte[] hash(ByteBuffer in, String algorithm){
         try{
-            MessageDigest digest = MessageDigest.getInstance(algorithm, "BC");
-            return digest.digest(in);
+            MessageDigest digest = digest(algorithm);
+            digest.update(in);
+            return digest.digest();
         }catch (Exception e){
             e.printStackTrace();
         }
@@ -73,26 +115,74 @@ public class HashUtil {
         return hash(in, "KECCAK-256");
     }
 
+    public static byte[] keccak256(byte[] in, int offset, int length){
+        return hash(in, offset, length, "KECCAK-256");
+    }
+
+    public static byte[] keccak256(ByteBuffer in){
+        return hash(in, "KECCAK-256");
+    }
+
     public static byte[] whirlPool(byte[] in){
         return hash(in, "WHIRLPOOL");
     }
 
+    public static byte[] whirlPool(byte[] in, int offset, int length){
+        return hash(in, offset, length, "WHIRLPOOL");
+    }
+
+    public static byte[] whirlPool(ByteBuffer in){
+        return hash(in, "WHIRLPOOL");
+    }
+
     public static byte[] ripemd256(byte[] in){
         return hash(in, "RIPEMD256");
     }
 
+    public static byte[] ripemd256(byte[] in, int offset, int length){
+        return hash(in, offset, length, "RIPEMD256");
+    }
+
+    public static byte[] ripemd256(ByteBuffer in){
+        return hash(in, "RIPEMD256");
+    }
+
     public static byte[] blake2b256(byte[] in){
         return hash(in, "BLAKE2B-256");
     }
 
+    public static byte[] blake2b256(byte[] in, int offset, int length){
+        return hash(in, offset, length, "BLAKE2B-256");
+    }
+
+    public static byte[] blake2b256(ByteBuffer in){
+        return hash(in, "BLAKE2B-256");
+    }
+
     public static byte[] sha3256(byte[] in){
         return hash(in, "SHA3-256");
     }
 
+    public static byte[] sha3256(byte[] in, int offset, int length){
+        return hash(in, offset, length, "SHA3-256");
+    }
+
+    public static byte[] sha3256(ByteBuffer in){
+        return hash(in, "SHA3-256");
+    }
+
     public static byte[] skein256256(byte[] in){
         return hash(in, "Skein-256-256");
     }
 
+    public static byte[] skein256256(byte[] in, int offset, int length){
+        return hash(in, offset, length, "Skein-256-256");
+    }
+
+    public static byte[] skein256256(ByteBuffer in){
+        return hash(in, "Skein-256-256");
+    }
+
     public static byte[] sha3(byte[] input) {
         return hash(input, HASH_256_ALGORITHM_NAME);
     }
@@ -114,6 +204,14 @@ public class HashUtil {
         return hash(data, "RIPEMD160");
     }
 
+    public static byte[] ripemd160(byte[] data, int offset, int length) {
+        return hash(data, offset, length, "RIPEMD160");
+    }
+
+    public static byte[] ripemd160(ByteBuffer data) {
+        return hash(data, "RIPEMD160");
+    }
+
     /**
      * Calculates RIGTMOST160(SHA3(input)). This is used in address
      * calculations. *
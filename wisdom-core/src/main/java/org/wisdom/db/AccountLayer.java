@@ -0,0 +1,97 @@
+package org.wisdom.db;
+
+import org.apache.commons.codec.binary.Hex;
+import org.wisdom.command.IncubatorAddress;
+import org.wisdom.core.Block;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.protobuf.tcp.command.HatchModel;
+import org.wisdom.util.Address;
+import org.wisdom.util.PersistentHashMap;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * per block index of the unconfirmed fork, maps a public key hash to the latest block on the fork
+ * whose transactions change the account. a block shares the index of its parent and only adds its own deltas
+ */
+public class AccountLayer {
+    public static final AccountLayer EMPTY = new AccountLayer(PersistentHashMap.empty(), null);
+
+    // public key hash -> 最后一个修改该账户的区块
+    private final PersistentHashMap<String, Block> lastModified;
+
+    // 最后一个无法解析受影响账户的区块，对所有账户都视为修改
+    private final Block barrier;
+
+    private AccountLayer(PersistentHashMap<String, Block> lastModified, Block barrier) {
+        this.lastModified = lastModified;
+        this.barrier = barrier;
+    }
+
+    /**
+     * @return the latest block at or before this layer which may change the account, null if none
+     */
+    public Block getLastModified(String publicKeyHash) {
+        Block b = lastModified.get(publicKeyHash);
+        if (b == null || (barrier != null && barrier.nHeight > b.nHeight)) {
+            return barrier;
+        }
+        return b;
+    }
+
+    public AccountLayer push(Block block) {
+        Set<String> keys = new HashSet<>();
+        if (!modifiedAccounts(block, keys)) {
+            return new AccountLayer(lastModified, block);
+        }
+        PersistentHashMap<String, Block> m = lastModified;
+        for (String k : keys) {
+            m = m.put(k, block);
+        }
+        return new AccountLayer(m, barrier);
+    }
+
+    // 和 StateDB 中 apply 系列方法修改的账户保持一致，宁可多不可少
+    private static boolean modifiedAccounts(Block block, Set<String> keys) {
+        if (block.body == null) {
+            return true;
+        }
+        for (Transaction tx : block.body) {
+            if (tx.to != null) {
+                keys.add(Hex.encodeHexString(tx.to));
+            }
+            if (tx.from != null && tx.from.length > 0) {
+                keys.add(Address.publicKeyToHashHex(tx.from));
+            }
+            switch (tx.type) {
+                case 0x00:
+                case 0x01:
+                case 0x02:
+                case 0x03:
+                case 0x0a:
+                case 0x0b:
+                case 0x0c:
+                case 0x0d:
+                case 0x0e:
+                case 0x0f:
+                    break;
+                case 0x09:
+                    try {
+                        String share = HatchModel.Payload.parseFrom(tx.payload).getSharePubkeyHash();
+                        if (share != null && !share.equals("")) {
+                            keys.add(Hex.encodeHexString(Hex.decodeHex(share.toCharArray())));
+                        }
+                    } catch (Exception e) {
+                        return false;
+                    }
+                    keys.add(Hex.encodeHexString(IncubatorAddress.resultpubhash()));
+                    break;
+                default:
+                    // 不支持的事务导致所有账户的状态都无法获取
+                    return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,66 @@
+package org.wisdom.db;
+
+import org.apache.commons.codec.binary.Hex;
+import org.wisdom.core.Block;
+import org.wisdom.core.account.Transaction;
+
+import java.util.*;
+
+/**
+ * transactions of an unconfirmed block indexed by hash and by (type, from, to) keys,
+ * built once when the block enters the cache and never modified afterwards
+ */
+public class BlockTransactionIndex {
+    // matches any type
+    public static final int ANY_TYPE = -1;
+
+    // tx hash -> transaction
+    private final Map<String, Transaction> transactions;
+
+    // key -> transactions in block order
+    private final Map<String, List<Transaction>> addresses;
+
+    public BlockTransactionIndex(Block block) {
+        this.transactions = new HashMap<>();
+        this.addresses = new HashMap<>();
+        if (block.body == null) {
+            return;
+        }
+        for (Transaction t : block.body) {
+            transactions.put(t.getHashHexString(), t);
+            for (String k : keys(t)) {
+                addresses.computeIfAbsent(k, x -> new ArrayList<>()).add(t);
+            }
+        }
+    }
+
+    public boolean contains(String txHash) {
+        return transactions.containsKey(txHash);
+    }
+
+    public Transaction get(String txHash) {
+        return transactions.get(txHash);
+    }
+
+    public List<Transaction> find(String key) {
+        return addresses.getOrDefault(key, Collections.emptyList());
+    }
+
+    // null from or to matches any address
+    public static String key(int type, byte[] from, byte[] to) {
+        return (type < 0 ? "" : Integer.toString(type)) + ":" +
+                (from == null ? "" : Hex.encodeHexString(from)) + ":" +
+                (to == null ? "" : Hex.encodeHexString(to));
+    }
+
+    // 每个事务对应 to、from、from + to 以及带类型的共 6 个索引
+    private static List<String> keys(Transaction t) {
+        List<String> res = new ArrayList<>(6);
+        for (int type : new int[]{ANY_TYPE, t.type}) {
+            res.add(key(type, null, t.to));
+            res.add(key(type, t.from, null));
+            res.add(key(type, t.from, t.to));
+        }
+        return res;
+    }
+}
@@ -0,0 +1,147 @@
+package org.wisdom.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationContext;
+import org.wisdom.core.Block;
+import org.wisdom.core.event.NewBestBlockEvent;
+import org.wisdom.core.event.NewBlockEvent;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * writes confirmed blocks to the database on a single thread in the order they are submitted,
+ * a block is done after the block and the states derived from it are persisted and the cache is updated.
+ * failed writes and state updates are retried a bounded number of times, after that the block and the blocks
+ * queued behind it fail so that callers waiting for capacity are released
+ */
+public class ConfirmedBlockWriter {
+    private static final Logger logger = LoggerFactory.getLogger(ConfirmedBlockWriter.class);
+    private static final long RETRY_INTERVAL_MILLIS = 1000;
+    private static final int MAX_RETRIES = 10;
+
+    // 写入区块以及区块产生的状态，失败时返回 false
+    private final Predicate<Block> blockWriter;
+
+    private final ApplicationContext ctx;
+
+    // 更新缓存中的账户状态，已经更新完成时直接返回 true
+    private final Predicate<Block> stateUpdater;
+
+    private final ExecutorService executor;
+
+    // 已提交但未完成的区块数量
+    private final AtomicInteger pending = new AtomicInteger();
+
+    // 区块写入失败后递增，之前提交的区块不再写入
+    private final AtomicLong generation = new AtomicLong();
+
+    private final int capacity;
+
+    private final int maxRetries;
+
+    private final long retryIntervalMillis;
+
+    public ConfirmedBlockWriter(Predicate<Block> blockWriter, ApplicationContext ctx, Predicate<Block> stateUpdater, int capacity) {
+        this(blockWriter, ctx, stateUpdater, capacity, MAX_RETRIES, RETRY_INTERVAL_MILLIS);
+    }
+
+    ConfirmedBlockWriter(Predicate<Block> blockWriter, ApplicationContext ctx, Predicate<Block> stateUpdater,
+                         int capacity, int maxRetries, long retryIntervalMillis) {
+        this.blockWriter = blockWriter;
+        this.ctx = ctx;
+        this.stateUpdater = stateUpdater;
+        this.capacity = capacity;
+        this.maxRetries = maxRetries;
+        this.retryIntervalMillis = retryIntervalMillis;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "confirmed-block-writer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * @return completes after the block is persisted and the states are updated,
+     * completes exceptionally if the block or a block submitted before it fails
+     */
+    public CompletableFuture<Block> submit(Block b) {
+        CompletableFuture<Block> future = new CompletableFuture<>();
+        long submitted = generation.get();
+        pending.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                // 父区块写入失败，子区块不能写入
+                if (submitted != generation.get()) {
+                    throw new IllegalStateException("block at height " + b.nHeight + " discarded after a previous block failed");
+                }
+                write(b);
+                future.complete(b);
+            } catch (Throwable e) {
+                if (submitted == generation.get()) {
+                    generation.incrementAndGet();
+                    logger.error("write confirmed block at height " + b.nHeight + " failed " + e.getMessage());
+                }
+                future.completeExceptionally(e);
+            } finally {
+                synchronized (pending) {
+                    pending.decrementAndGet();
+                    pending.notifyAll();
+                }
+            }
+        });
+        return future;
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    // 积压的区块过多时阻塞调用者，调用者不能持有写入线程需要的锁
+    public void awaitCapacity() throws InterruptedException {
+        synchronized (pending) {
+            while (pending.get() >= capacity) {
+                pending.wait();
+            }
+        }
+    }
+
+    private void write(Block b) throws InterruptedException {
+        // 数据库 写入失败 重试写入
+        retry(b, blockWriter, "write block");
+        logger.info("write block at height " + b.nHeight + " to db success");
+        // 事件只发布一次，缓存在 NewBestBlockEvent 的处理中同步更新
+        try {
+            ctx.publishEvent(new NewBlockEvent(this, b));
+            ctx.publishEvent(new NewBestBlockEvent(this, b));
+        } catch (Exception e) {
+            logger.error("handle events of block at height " + b.nHeight + " failed " + e.getMessage());
+        }
+        // 更新失败时只重试状态更新
+        retry(b, stateUpdater, "update state");
+    }
+
+    private void retry(Block b, Predicate<Block> action, String name) throws InterruptedException {
+        for (int i = 0; ; i++) {
+            try {
+                if (action.test(b)) {
+                    return;
+                }
+            } catch (Exception e) {
+                logger.error(name + " at height " + b.nHeight + " failed " + e.getMessage());
+            }
+            if (i >= maxRetries) {
+                throw new IllegalStateException(name + " at height " + b.nHeight + " failed after " + maxRetries + " retries");
+            }
+            logger.error(name + " at height " + b.nHeight + " failed, retrying...");
+            Thread.sleep(retryIntervalMillis);
+        }
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+}
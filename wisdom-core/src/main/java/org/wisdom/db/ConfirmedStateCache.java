@@ -0,0 +1,106 @@
+package org.wisdom.db;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * bounded cache of the latest confirmed state of accounts or incubators,
+ * an entry is only replaced by a state at the same or a higher height so a slow database read
+ * never overwrites a state written by a newer block. values are copied in and out
+ */
+public class ConfirmedStateCache<T> {
+    private final String name;
+
+    private final ConcurrentMap<String, T> cache;
+
+    private final ToLongFunction<T> height;
+
+    private final UnaryOperator<T> copier;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    public ConfirmedStateCache(String name, int capacity, ToLongFunction<T> height, UnaryOperator<T> copier) {
+        this.name = name;
+        this.cache = new ConcurrentLinkedHashMap.Builder<String, T>().maximumWeightedCapacity(capacity).build();
+        this.height = height;
+        this.copier = copier;
+    }
+
+    // 不存在的记录不缓存，避免和新写入的状态竞争
+    public T get(String key, Function<String, T> loader) {
+        T v = cache.get(key);
+        if (v != null) {
+            hits.incrementAndGet();
+            return copier.apply(v);
+        }
+        misses.incrementAndGet();
+        v = loader.apply(key);
+        if (v == null) {
+            return null;
+        }
+        put(key, v);
+        return v;
+    }
+
+    /**
+     * @param loader loads the missing keys in one query, keys absent from its result do not exist
+     */
+    public Map<String, T> getAll(Collection<String> keys, Function<Collection<String>, Map<String, T>> loader) {
+        Map<String, T> res = new HashMap<>();
+        Set<String> missing = new HashSet<>();
+        for (String k : keys) {
+            T v = cache.get(k);
+            if (v != null) {
+                res.put(k, copier.apply(v));
+                continue;
+            }
+            missing.add(k);
+        }
+        hits.addAndGet(res.size());
+        if (missing.isEmpty()) {
+            return res;
+        }
+        misses.addAndGet(missing.size());
+        loader.apply(missing).forEach((k, v) -> {
+            put(k, v);
+            res.put(k, v);
+        });
+        return res;
+    }
+
+    public T getIfPresent(String key) {
+        T v = cache.get(key);
+        return v == null ? null : copier.apply(v);
+    }
+
+    public void put(String key, T value) {
+        cache.merge(key, copier.apply(value), (old, v) -> height.applyAsLong(old) > height.applyAsLong(v) ? old : v);
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public String stats() {
+        long h = hits.get();
+        long m = misses.get();
+        return String.format("%s cache size = %d, hits = %d, misses = %d, hit rate = %.2f%%",
+                name, cache.size(), h, m, h + m == 0 ? 0 : h * 100.0 / (h + m));
+    }
+}
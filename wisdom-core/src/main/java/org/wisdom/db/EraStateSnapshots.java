@@ -0,0 +1,140 @@
+package org.wisdom.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.wisdom.consensus.pow.ProposersState;
+import org.wisdom.consensus.pow.TargetState;
+import org.wisdom.consensus.pow.ValidatorState;
+import org.wisdom.core.Block;
+import org.wisdom.crypto.HashUtil;
+import org.wisdom.util.Arrays;
+
+import java.io.*;
+import java.util.Optional;
+
+/**
+ * persists the proposers, target and validator states after the last block of a confirmed era,
+ * so startup only replays the eras after the snapshot instead of the whole chain.
+ * only the latest snapshot is kept, value is checksum | height | block hash | encoded states
+ */
+@Component
+public class EraStateSnapshots {
+    private static final Logger logger = LoggerFactory.getLogger(EraStateSnapshots.class);
+
+    private static final byte[] PREFIX = "era-state-snapshot-".getBytes();
+
+    private static final byte[] LATEST_KEY = "era-state-snapshot-latest".getBytes();
+
+    private static final int CHECKSUM_SIZE = 32;
+
+    private final Leveldb leveldb;
+
+    // 创世状态，提供解码时的配置参数
+    private final ProposersState proposersState;
+
+    private final TargetState targetState;
+
+    private final ValidatorState validatorState;
+
+    public static class Snapshot {
+        public final long height;
+
+        // 纪元最后一个区块的哈希
+        public final byte[] hash;
+
+        public final ProposersState proposersState;
+
+        public final TargetState targetState;
+
+        public final ValidatorState validatorState;
+
+        private Snapshot(long height, byte[] hash, ProposersState proposersState, TargetState targetState, ValidatorState validatorState) {
+            this.height = height;
+            this.hash = hash;
+            this.proposersState = proposersState;
+            this.targetState = targetState;
+            this.validatorState = validatorState;
+        }
+    }
+
+    public EraStateSnapshots(Leveldb leveldb, ProposersState proposersState, TargetState targetState, ValidatorState validatorState) {
+        this.leveldb = leveldb;
+        this.proposersState = proposersState;
+        this.targetState = targetState;
+        this.validatorState = validatorState;
+    }
+
+    /**
+     * @param eraLast the last block of a confirmed era, the states are the ones after the block
+     * @return false if the snapshot is not written, the previous snapshot is kept then
+     */
+    public boolean save(Block eraLast, ProposersState proposers, TargetState target, ValidatorState validator) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(eraLast.nHeight);
+            out.write(eraLast.getHash());
+            for (byte[] encoded : new byte[][]{proposers.encode(), target.encode(), validator.encode()}) {
+                out.writeInt(encoded.length);
+                out.write(encoded);
+            }
+        } catch (IOException e) {
+            // 写入内存不会出现
+            throw new RuntimeException(e);
+        }
+        byte[] payload = bytes.toByteArray();
+        byte[] key = Arrays.concatenate(PREFIX, eraLast.getHash());
+        byte[] previous = leveldb.read(LATEST_KEY);
+        boolean written = leveldb.writeBatch(batch -> {
+            batch.put(key, Arrays.concatenate(HashUtil.keccak256(payload), payload));
+            batch.put(LATEST_KEY, eraLast.getHash());
+            if (previous != null && !Arrays.areEqual(previous, eraLast.getHash())) {
+                batch.delete(Arrays.concatenate(PREFIX, previous));
+            }
+        });
+        if (!written) {
+            logger.error("save era states at height " + eraLast.nHeight + " failed");
+            return false;
+        }
+        logger.info("save era states at height " + eraLast.nHeight);
+        return true;
+    }
+
+    // 快照不存在或者校验失败时返回空
+    public Optional<Snapshot> loadLatest() {
+        byte[] latest = leveldb.read(LATEST_KEY);
+        if (latest == null) {
+            return Optional.empty();
+        }
+        byte[] value = leveldb.read(Arrays.concatenate(PREFIX, latest));
+        if (value == null || value.length < CHECKSUM_SIZE) {
+            return Optional.empty();
+        }
+        byte[] payload = Arrays.copyOfRange(value, CHECKSUM_SIZE, value.length);
+        if (!Arrays.areEqual(HashUtil.keccak256(payload), Arrays.copyOfRange(value, 0, CHECKSUM_SIZE))) {
+            logger.error("era states snapshot checksum unmatched");
+            return Optional.empty();
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            long height = in.readLong();
+            byte[] hash = new byte[32];
+            in.readFully(hash);
+            return Optional.of(new Snapshot(
+                    height, hash,
+                    proposersState.decode(readBytes(in)),
+                    targetState.decode(readBytes(in)),
+                    validatorState.decode(readBytes(in))
+            ));
+        } catch (IOException e) {
+            logger.error("decode era states snapshot failed " + e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] res = new byte[in.readInt()];
+        in.readFully(res);
+        return res;
+    }
+}
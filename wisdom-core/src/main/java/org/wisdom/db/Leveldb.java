@@ -3,22 +3,37 @@ package org.wisdom.db;
 import org.iq80.leveldb.*;
 import org.iq80.leveldb.impl.Iq80DBFactory;
 import org.iq80.leveldb.util.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
 
+/**
+ * long-lived leveldb handle, opened once at startup and shared by all components,
+ * the underlying db is thread safe so no external locking is required
+ */
 @Component
 public class Leveldb {
+    private static final Logger logger = LoggerFactory.getLogger(Leveldb.class);
 
     private static final Charset CHARSET = StandardCharsets.UTF_8;
     private File file;
     private Options options;
+    private DB db;
 
-    public Leveldb(@Value("${wisdom.cache-dir}") String cacheDir, @Value("${clear-cache}") boolean clearCache) throws Exception {
+    public Leveldb(
+            @Value("${wisdom.cache-dir}") String cacheDir,
+            @Value("${clear-cache}") boolean clearCache,
+            @Value("${wisdom.leveldb.block-cache-size}") long blockCacheSize
+    ) throws Exception {
         if (cacheDir == null || cacheDir.equals("")) {
             cacheDir = System.getProperty("user.dir") + File.separator + "leveldb";
         }
@@ -32,8 +47,9 @@ public class Leveldb {
         if (clearCache) {
             FileUtils.deleteDirectoryContents(file);
         }
-        this.options = new Options();
-
+        this.options = new Options().createIfMissing(true).cacheSize(blockCacheSize);
+        DBFactory factory = new Iq80DBFactory();
+        this.db = factory.open(file, options);
     }
 
     public void addPoolDb(String key, String noncepoolval) {
@@ -43,48 +59,117 @@ public class Leveldb {
     public String readPoolDb(String key) {
         byte[] res = read(key.getBytes(CHARSET));
         if (res != null && res.length > 0) {
-            return new String(res);
+            return new String(res, CHARSET);
         }
         return "";
     }
 
     public void write(byte[] key, byte[] value) {
-        DB db = null;
         try {
-            DBFactory factory = new Iq80DBFactory();
-            db = factory.open(file, options);
-            // 会写入磁盘中
             db.put(key, value);
         } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            if (db != null) {
-                try {
-                    db.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+            logger.error("write to leveldb failed " + e.getMessage());
+        }
+    }
+
+    public void delete(byte[] key) {
+        try {
+            db.delete(key);
+        } catch (Exception e) {
+            logger.error("delete from leveldb failed " + e.getMessage());
+        }
+    }
+
+    /**
+     * apply all the puts and deletes issued by the consumer in one atomic write
+     *
+     * @return false if the batch is not written, none of the changes are applied then
+     */
+    public boolean writeBatch(Consumer<WriteBatch> consumer) {
+        try (WriteBatch batch = db.createWriteBatch()) {
+            consumer.accept(batch);
+            db.write(batch);
+            return true;
+        } catch (Exception e) {
+            logger.error("batch write to leveldb failed " + e.getMessage());
+            return false;
         }
     }
 
     public byte[] read(byte[] key) {
-        DB db = null;
         try {
-            DBFactory factory = new Iq80DBFactory();
-            db = factory.open(file, options);
             return db.get(key);
         } catch (Exception e) {
-            e.printStackTrace();
+            logger.error("read from leveldb failed " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * read several keys from the same snapshot, missing keys are mapped to null
+     *
+     * @return values in the order of keys, or null if the read failed, no partial result is returned then
+     */
+    public List<byte[]> read(List<byte[]> keys) {
+        List<byte[]> res = new ArrayList<>(keys.size());
+        try (Snapshot snapshot = db.getSnapshot()) {
+            ReadOptions opts = new ReadOptions().snapshot(snapshot);
+            for (byte[] k : keys) {
+                res.add(db.get(k, opts));
+            }
+            return res;
+        } catch (Exception e) {
+            logger.error("snapshot read from leveldb failed " + e.getMessage());
             return null;
-        } finally {
-            if (db != null) {
-                try {
-                    db.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
+        }
+    }
+
+    /**
+     * iterate over all the entries starting with prefix on a consistent snapshot
+     */
+    public Map<byte[], byte[]> readPrefix(byte[] prefix) {
+        Map<byte[], byte[]> res = new LinkedHashMap<>();
+        try (Snapshot snapshot = db.getSnapshot();
+             DBIterator it = db.iterator(new ReadOptions().snapshot(snapshot))) {
+            for (it.seek(prefix); it.hasNext(); it.next()) {
+                Map.Entry<byte[], byte[]> entry = it.peekNext();
+                if (!startsWith(entry.getKey(), prefix)) {
+                    break;
                 }
+                res.put(entry.getKey(), entry.getValue());
+            }
+        } catch (Exception e) {
+            logger.error("prefix read from leveldb failed " + e.getMessage());
+        }
+        return res;
+    }
+
+    public void compact(byte[] begin, byte[] end) {
+        try {
+            db.compactRange(begin, end);
+        } catch (Exception e) {
+            logger.error("compact leveldb failed " + e.getMessage());
+        }
+    }
+
+    private static boolean startsWith(byte[] key, byte[] prefix) {
+        if (key.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (key[i] != prefix[i]) {
+                return false;
             }
         }
+        return true;
+    }
+
+    @PreDestroy
+    public void close() {
+        try {
+            db.close();
+        } catch (IOException e) {
+            logger.error("close leveldb failed " + e.getMessage());
+        }
     }
 }
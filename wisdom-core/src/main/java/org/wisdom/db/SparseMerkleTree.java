@@ -0,0 +1,202 @@
+package org.wisdom.db;
+
+import org.apache.commons.codec.binary.Hex;
+import org.wisdom.crypto.HashUtil;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * sparse merkle tree over 32 byte keys with shortcut leaves, a subtree holding a single leaf is the leaf itself
+ * so the tree depth is O(log n). nodes are content addressed and never modified, an update creates
+ * O(k log n) new nodes and every older root stays readable. the root only depends on the set of key values
+ */
+public class SparseMerkleTree {
+    public static final int KEY_SIZE = 32;
+    public static final byte[] EMPTY = new byte[KEY_SIZE];
+
+    private static final byte LEAF = 0;
+    private static final byte INTERNAL = 1;
+
+    // node hash -> encoded node，读取已持久化的节点
+    private final Function<byte[], byte[]> store;
+
+    // 本次更新新建的节点
+    // hex node hash -> encoded node
+    private final Map<String, byte[]> created = new HashMap<>();
+
+    public SparseMerkleTree(Function<byte[], byte[]> store) {
+        this.store = store;
+    }
+
+    public static class Proof {
+        // 从根节点到叶子的兄弟节点哈希
+        public final List<byte[]> siblings;
+
+        // 路径末端的叶子，为 null 时末端是空节点
+        public final byte[] leafKey;
+
+        public final byte[] leafValue;
+
+        public Proof(List<byte[]> siblings, byte[] leafKey, byte[] leafValue) {
+            this.siblings = siblings;
+            this.leafKey = leafKey;
+            this.leafValue = leafValue;
+        }
+
+        // 证明 key 存在且值为 value
+        public boolean isInclusion(byte[] key) {
+            return leafKey != null && Arrays.equals(leafKey, key);
+        }
+    }
+
+    /**
+     * @param values hex key -> value hash
+     * @return the new root, nodes created are available from {@link #getCreated()}
+     */
+    public byte[] update(byte[] root, Map<String, byte[]> values) {
+        List<byte[][]> entries = new ArrayList<>(values.size());
+        values.forEach((k, v) -> {
+            try {
+                entries.add(new byte[][]{Hex.decodeHex(k.toCharArray()), v});
+            } catch (Exception e) {
+                throw new IllegalArgumentException("invalid key " + k);
+            }
+        });
+        return update(root, 0, entries);
+    }
+
+    public Map<String, byte[]> getCreated() {
+        return created;
+    }
+
+    public Proof prove(byte[] root, byte[] key) {
+        List<byte[]> siblings = new ArrayList<>();
+        byte[] node = root;
+        int depth = 0;
+        while (!Arrays.equals(node, EMPTY)) {
+            byte[] encoded = load(node);
+            if (encoded[0] == LEAF) {
+                return new Proof(siblings, Arrays.copyOfRange(encoded, 1, 1 + KEY_SIZE), Arrays.copyOfRange(encoded, 1 + KEY_SIZE, 1 + 2 * KEY_SIZE));
+            }
+            byte[] left = Arrays.copyOfRange(encoded, 1, 1 + KEY_SIZE);
+            byte[] right = Arrays.copyOfRange(encoded, 1 + KEY_SIZE, 1 + 2 * KEY_SIZE);
+            if (bit(key, depth) == 0) {
+                siblings.add(right);
+                node = left;
+            } else {
+                siblings.add(left);
+                node = right;
+            }
+            depth++;
+        }
+        return new Proof(siblings, null, null);
+    }
+
+    /**
+     * @param value the expected value hash, null to verify the key is absent
+     */
+    public static boolean verify(byte[] root, byte[] key, byte[] value, Proof proof) {
+        int depth = proof.siblings.size();
+        byte[] node;
+        if (proof.leafKey == null) {
+            node = EMPTY;
+        } else {
+            // 叶子必须位于 key 的路径上
+            for (int i = 0; i < depth; i++) {
+                if (bit(proof.leafKey, i) != bit(key, i)) {
+                    return false;
+                }
+            }
+            node = leafHash(proof.leafKey, proof.leafValue);
+        }
+        if (value == null ? proof.isInclusion(key) : !(proof.isInclusion(key) && Arrays.equals(proof.leafValue, value))) {
+            return false;
+        }
+        for (int i = depth - 1; i >= 0; i--) {
+            byte[] sibling = proof.siblings.get(i);
+            node = bit(key, i) == 0 ? internalHash(node, sibling) : internalHash(sibling, node);
+        }
+        return Arrays.equals(node, root);
+    }
+
+    // entries 中的 key 在 depth 之前的位都相同
+    private byte[] update(byte[] node, int depth, List<byte[][]> entries) {
+        if (entries.isEmpty()) {
+            return node;
+        }
+        if (Arrays.equals(node, EMPTY)) {
+            if (entries.size() == 1) {
+                return putLeaf(entries.get(0)[0], entries.get(0)[1]);
+            }
+            return putChildren(EMPTY, EMPTY, depth, entries);
+        }
+        byte[] encoded = load(node);
+        if (encoded[0] == LEAF) {
+            byte[] key = Arrays.copyOfRange(encoded, 1, 1 + KEY_SIZE);
+            // 已有的叶子作为一个待插入的值，除非被新的值覆盖
+            List<byte[][]> merged = new ArrayList<>(entries);
+            if (entries.stream().noneMatch(e -> Arrays.equals(e[0], key))) {
+                merged.add(new byte[][]{key, Arrays.copyOfRange(encoded, 1 + KEY_SIZE, 1 + 2 * KEY_SIZE)});
+            }
+            return update(EMPTY, depth, merged);
+        }
+        return putChildren(
+                Arrays.copyOfRange(encoded, 1, 1 + KEY_SIZE),
+                Arrays.copyOfRange(encoded, 1 + KEY_SIZE, 1 + 2 * KEY_SIZE),
+                depth, entries
+        );
+    }
+
+    private byte[] putChildren(byte[] left, byte[] right, int depth, List<byte[][]> entries) {
+        List<byte[][]> zeros = new ArrayList<>();
+        List<byte[][]> ones = new ArrayList<>();
+        for (byte[][] e : entries) {
+            (bit(e[0], depth) == 0 ? zeros : ones).add(e);
+        }
+        return putInternal(update(left, depth + 1, zeros), update(right, depth + 1, ones));
+    }
+
+    private byte[] putLeaf(byte[] key, byte[] value) {
+        byte[] hash = leafHash(key, value);
+        created.put(Hex.encodeHexString(hash), encode(LEAF, key, value));
+        return hash;
+    }
+
+    private byte[] putInternal(byte[] left, byte[] right) {
+        byte[] hash = internalHash(left, right);
+        created.put(Hex.encodeHexString(hash), encode(INTERNAL, left, right));
+        return hash;
+    }
+
+    private byte[] load(byte[] hash) {
+        byte[] encoded = created.get(Hex.encodeHexString(hash));
+        if (encoded == null) {
+            encoded = store.apply(hash);
+        }
+        if (encoded == null) {
+            throw new IllegalStateException("missing node " + Hex.encodeHexString(hash));
+        }
+        return encoded;
+    }
+
+    private static byte[] encode(byte type, byte[] a, byte[] b) {
+        byte[] res = new byte[1 + 2 * KEY_SIZE];
+        res[0] = type;
+        System.arraycopy(a, 0, res, 1, KEY_SIZE);
+        System.arraycopy(b, 0, res, 1 + KEY_SIZE, KEY_SIZE);
+        return res;
+    }
+
+    private static byte[] leafHash(byte[] key, byte[] value) {
+        return HashUtil.keccak256(encode(LEAF, key, value));
+    }
+
+    private static byte[] internalHash(byte[] left, byte[] right) {
+        return HashUtil.keccak256(encode(INTERNAL, left, right));
+    }
+
+    private static int bit(byte[] key, int i) {
+        return (key[i / 8] >>> (7 - i % 8)) & 1;
+    }
+}
@@ -17,29 +17,33 @@ import org.wisdom.command.IncubatorAddress;
 import org.wisdom.consensus.pow.ProposersFactory;
 import org.wisdom.core.Block;
 import org.wisdom.core.BlocksCache;
+import org.wisdom.core.StatetreeUpdate;
 import org.wisdom.core.WisdomBlockChain;
 import org.wisdom.core.account.Account;
 import org.wisdom.core.account.AccountDB;
 import org.wisdom.core.account.Transaction;
 import org.wisdom.core.event.AccountUpdatedEvent;
-import org.wisdom.core.event.NewBestBlockEvent;
-import org.wisdom.core.event.NewBlockEvent;
 import org.wisdom.core.incubator.Incubator;
 import org.wisdom.core.incubator.IncubatorDB;
 import org.wisdom.core.incubator.RateTable;
 import org.wisdom.core.validate.MerkleRule;
 import org.wisdom.encoding.BigEndian;
-import org.wisdom.encoding.JSONEncodeDecoder;
-import org.wisdom.keystore.crypto.RipemdUtility;
-import org.wisdom.keystore.crypto.SHA3Utility;
+import org.wisdom.p2p.WisdomOuterClass;
 import org.wisdom.protobuf.tcp.command.HatchModel;
+import org.wisdom.sync.Utils;
+import org.wisdom.util.Address;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
@@ -48,11 +52,46 @@ import static java.util.stream.Collectors.toSet;
 @Component
 public class StateDB implements ApplicationListener<AccountUpdatedEvent> {
     private static final Logger logger = LoggerFactory.getLogger(StateDB.class);
-    private static final JSONEncodeDecoder codec = new JSONEncodeDecoder();
     private static final int BLOCKS_PER_UPDATE_LOWER_BOUNDS = 4096;
 
-    // 区块相对于已持久化的账本产生状态变更的账户
+    /**
+     * immutable view of the unconfirmed fork tree, a published snapshot is never modified,
+     * writers copy the current one, apply their changes and publish the copy with a higher version
+     */
+    private static class Snapshot {
+        private final long version;
+
+        // 最新确认的区块
+        private final Block latestConfirmed;
+
+        // 写入但未确认的区块
+        private final BlocksCache blocksCache;
+
+        // 事务索引
+        // block hash -> transactions of the block indexed by hash and address
+        private final Map<String, BlockTransactionIndex> transactionIndex;
+
+        // 最佳区块，写入或删除区块时增量维护
+        private final Block bestBlock;
+
+        // 账户索引，子区块和父区块共享未修改的部分
+        // block hash -> public key hash -> latest block modifies the account
+        private final Map<String, AccountLayer> accountLayers;
+
+        private Snapshot(long version, Block latestConfirmed, BlocksCache blocksCache, Map<String, BlockTransactionIndex> transactionIndex, Block bestBlock,
+                         Map<String, AccountLayer> accountLayers) {
+            this.version = version;
+            this.latestConfirmed = latestConfirmed;
+            this.blocksCache = blocksCache;
+            this.transactionIndex = transactionIndex;
+            this.bestBlock = bestBlock;
+            this.accountLayers = accountLayers;
+        }
+    }
+
+    // 区块相对于已持久化的账本产生状态变更的账户，只缓存修改了该账户的区块
     // block hash -> public key hash -> account
+    // 某个区块之后的账户状态只取决于区块哈希，所以可以在各个快照之间共享
     private Map<String, Map<String, AccountState>> cache;
 
     // 区块的后续确认
@@ -61,13 +100,6 @@ public class StateDB implements ApplicationListener<AccountUpdatedEvent> {
     // 最少确认数量
     private Map<String, Integer> leastConfirms;
 
-    // 最新确认的区块
-    private Block latestConfirmed;
-
-    // 事务缓存
-    // block hash -> transaction hashes
-    private Map<String, Set<String>> transactionIndex;
-
     private static final Base64.Encoder encodeNr = Base64.getEncoder();
     public static final int CACHE_SIZE = 512;
 
@@ -89,6 +121,9 @@ public class StateDB implements ApplicationListener<AccountUpdatedEvent> {
     @Autowired
     private ApplicationContext ctx;
 
+    @Autowired
+    private StatetreeUpdate statetreeUpdate;
+
     @Autowired
     private Block genesis;
 
@@ -116,19 +151,45 @@ public class StateDB implements ApplicationListener<AccountUpdatedEvent> {
     @Value("${wisdom.consensus.blocks-per-era}")
     int blocksPerEra;
 
-    private ReadWriteLock readWriteLock;
+    @Autowired
+    private EraStateSnapshots eraStateSnapshots;
+
+    // 启动时从纪元状态快照恢复，只重放快照之后的区块
+    @Value("${wisdom.consensus.era-snapshots}")
+    private boolean enableEraSnapshots;
+
+    // 当前发布的快照，读操作不加锁
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
 
-    // 写入但未确认的区块
-    private BlocksCache blocksCache;
+    // 写操作之间互斥，confirms、leastConfirms 只在持有该锁时访问
+    private final ReentrantLock writeLock = new ReentrantLock();
 
-    // 正在同步状态到数据库的区块
-    private Block pendingBlock;
+    // 确认后写入数据库的区块由单独的线程按顺序写入
+    private ConfirmedBlockWriter confirmedBlockWriter;
+
+    // 最后一个提交给写入线程的区块，只在持有写锁时访问
+    private Block lastQueued;
+
+    // 写入线程放弃了已提交的区块，下次写入时从最新确认的区块重新确认
+    private volatile boolean confirmedWriteFailed;
+
+    private static final CompletableFuture<Block> NOTHING_CONFIRMED = CompletableFuture.completedFuture(null);
 
     @Override
     public void onApplicationEvent(AccountUpdatedEvent event) {
-        if (Arrays.equals(event.getBlock().getHash(), pendingBlock.getHash())) {
+        Block pendingBlock = event.getBlock();
+        writeLock.lock();
+        try {
+            Snapshot s = snapshot.get();
+            // 只接受最新确认区块的子区块
+            if (!Arrays.equals(pendingBlock.hashPrevBlock, s.latestConfirmed.getHash())) {
+                return;
+            }
             // 接收到状态更新完成事件后，将这个区块标记为状态已更新完成
             // 清除缓存
+            BlocksCache blocksCache = s.blocksCache.copy();
+            Map<String, BlockTransactionIndex> transactionIndex = new HashMap<>(s.transactionIndex);
+            Map<String, AccountLayer> accountLayers = new HashMap<>(s.accountLayers);
             blocksCache.getAll()
                     .stream().filter(b -> b.nHeight <= pendingBlock.nHeight
                     && !Arrays.equals(b.getHash(), pendingBlock.getHash()))
@@ -137,20 +198,64 @@ public class StateDB implements ApplicationListener<AccountUpdatedEvent> {
                         toDelete.add(b);
                         return toDelete;
                     })
-                    .forEach(blocks -> blocks.forEach(this::deleteCache));
-            deleteCache(pendingBlock);
-            latestConfirmed = pendingBlock;
-            pendingBlock = null;
+                    .forEach(blocks -> blocks.forEach(b -> deleteCache(blocksCache, transactionIndex, accountLayers, b)));
+            deleteCache(blocksCache, transactionIndex, accountLayers, pendingBlock);
+            // 只有最佳区块被删除时才需要重新选择
+            Block best = s.bestBlock;
+            if (!blocksCache.hasBlock(best.getHash())) {
+                best = selectBestBlock(blocksCache, pendingBlock);
+            }
+            snapshot.set(new Snapshot(s.version + 1, pendingBlock, blocksCache, transactionIndex, best, accountLayers));
             logger.info("update account at height " + event.getBlock().nHeight + " to db success");
+        } finally {
+            writeLock.unlock();
+        }
+        // 纪元的最后一个区块确认后保存快照，不持有写锁
+        if (enableEraSnapshots && pendingBlock.nHeight % blocksPerEra == 0) {
+            saveEraSnapshot(pendingBlock);
         }
     }
 
-    public void deleteCache(Block b) {
+    private void saveEraSnapshot(Block eraLast) {
+        try {
+            eraStateSnapshots.save(
+                    eraLast,
+                    proposersFactory.getFromCache(eraLast),
+                    targetStateFactory.getFromCache(eraLast),
+                    validatorStateFactory.getFromCache(eraLast)
+            );
+        } catch (Exception e) {
+            logger.error("save era states at height " + eraLast.nHeight + " failed " + e.getMessage());
+        }
+    }
+
+    // 快照必须在主链上，否则从创世区块开始重放
+    private Block restoreEraSnapshot(Block latestConfirmed) {
+        Optional<EraStateSnapshots.Snapshot> o = eraStateSnapshots.loadLatest();
+        if (!o.isPresent() || o.get().height > latestConfirmed.nHeight) {
+            return genesis;
+        }
+        EraStateSnapshots.Snapshot s = o.get();
+        Block header = bc.getCanonicalHeader(s.height);
+        if (header == null || !Arrays.equals(header.getHash(), s.hash)) {
+            logger.info("era states snapshot at height " + s.height + " is not on the canonical chain");
+            return genesis;
+        }
+        proposersFactory.putCache(header, s.proposersState);
+        targetStateFactory.putCache(header, s.targetState);
+        validatorStateFactory.putCache(header, s.validatorState);
+        logger.info("restore era states at height " + s.height);
+        return header;
+    }
+
+    private void deleteCache(BlocksCache blocksCache, Map<String, BlockTransactionIndex> transactionIndex,
+                             Map<String, AccountLayer> accountLayers, Block b) {
         blocksCache.deleteBlock(b);
         cache.remove(b.getHashHexString());
         confirms.remove(b.getHashHexString());
         leastConfirms.remove(b.getHashHexString());
         transactionIndex.remove(b.getHashHexString());
+        accountLayers.remove(b.getHashHexString());
     }
 
     public StateDB(
@@ -160,11 +265,8 @@ public class StateDB implements ApplicationListener<AccountUpdatedEvent> {
             @Value("${wisdom.block-interval-switch-era}") long blockIntervalSwitchEra,
             @Value("${wisdom.block-interval-switch-to}") int blockIntervalSwitchTo
     ) {
-        this.readWriteLock = new ReentrantReadWriteLock();
         this.cache = new ConcurrentLinkedHashMap.Builder<String, Map<String, AccountState>>()
                 .maximumWeightedCapacity(CACHE_SIZE).build();
-        this.blocksCache = new BlocksCache(CACHE_SIZE);
-        this.transactionIndex = new HashMap<>();
         this.confirms = new HashMap<>();
         this.leastConfirms = new HashMap<>();
 
@@ -181,11 +283,26 @@ public class StateDB implements ApplicationListener<AccountUpdatedEvent> {
 
     @PostConstruct
     public void init() {
-        readWriteLock.writeLock().lock();
+        writeLock.lock();
         try {
             initUnsafe();
         } finally {
-            readWriteLock.writeLock().unlock();
+            writeLock.unlock();
+        }
+    }
+
+    // 账户状态通常已经在 NewBestBlockEvent 的处理中更新，否则重新更新
+    private boolean updateConfirmedState(Block b) {
+        if (snapshot.get().latestConfirmed.nHeight < b.nHeight) {
+            onApplicationEvent(new AccountUpdatedEvent(this, b));
+        }
+        return snapshot.get().latestConfirmed.nHeight >= b.nHeight;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (confirmedBlockWriter != null) {
+            confirmedBlockWriter.close();
         }
     }
 
@@ -194,8 +311,13 @@ public class StateDB implements ApplicationListener<AccountUpdatedEvent> {
         validatorStateFactory.setStateDB(this);
         targetStateFactory.setStateDB(this);
 
-        this.latestConfirmed = bc.getLastConfirmedBlock();
-        Block last = genesis;
+        Block latestConfirmed = bc.getLastConfirmedBlock();
+        snapshot.set(new Snapshot(0, latestConfirmed, new BlocksCache(CACHE_SIZE), new HashMap<>(), latestConfirmed, new HashMap<>()));
+        lastQueued = latestConfirmed;
+        // 积压的区块不能超过缓存容量，否则未写入的区块会被淘汰
+        confirmedBlockWriter = new ConfirmedBlockWriter(statetreeUpdate::writeBlock, ctx, this::updateConfirmedState, CACHE_SIZE / 4);
+        Block last = enableEraSnapshots ? restoreEraSnapshot(latestConfirmed) : genesis;
+        long restored = last.nHeight;
         int blocksPerUpdate = 0;
         while (blocksPerUpdate < BLOCKS_PER_UPDATE_LOWER_BOUNDS) {
             blocksPerUpdate += blocksPerEra;
@@ -219,93 +341,100 @@ public class StateDB implements ApplicationListener<AccountUpdatedEvent> {
                 blocks = blocks.subList(blocksPerEra, blocks.size());
             }
         }
+        if (enableEraSnapshots && last.nHeight > restored) {
+            saveEraSnapshot(last);
+        }
+    }
+
+    // 当前快照的版本号，每次写入或确认区块后递增
+    public long getVersion() {
+        return snapshot.get().version;
     }
 
     public Block getBestBlock() {
-        this.readWriteLock.readLock().lock();
-        try {
-            return getBestBlockUnsafe();
-        } finally {
-            this.readWriteLock.readLock().unlock();
+        return getBestBlockUnsafe(snapshot.get());
+    }
+
+    private Block getBestBlockUnsafe(Snapshot s) {
+        return s.bestBlock;
+    }
+
+    // 高度更高的占优势，高度相同时 pow 更小的占优势
+    private static int compareBestBlock(Block a, Block b) {
+        if (a.nHeight != b.nHeight) {
+            return Long.compare(a.nHeight, b.nHeight);
         }
+        return -BigEndian.compareUint256(a.getPowHash(), b.getPowHash());
     }
 
-    private Block getBestBlockUnsafe() {
+    // 任何非叶子区块都有更高的子区块，所以全部区块中的最大值就是最佳的叶子
+    private static Block selectBestBlock(BlocksCache blocksCache, Block latestConfirmed) {
         return blocksCache.getLeaves().stream()
-                .max((a, b) -> {
-                    if (a.nHeight != b.nHeight) {
-                        return Long.compare(a.nHeight, b.nHeight);
-                    }
-                    // pow 更小的占优势
-                    return -BigEndian.decodeUint256(Block.calculatePOWHash(a))
-                            .compareTo(
-                                    BigEndian.decodeUint256(Block.calculatePOWHash(b))
-                            );
-                })
-                .orElse(this.latestConfirmed);
-    }
-
-    private Block getHeaderUnsafe(byte[] hash) {
-        if (Arrays.equals(latestConfirmed.getHash(), hash)) {
-            return this.latestConfirmed;
-        }
-        return Optional.ofNullable(blocksCache.getBlock(hash))
+                .max(StateDB::compareBestBlock)
+                .orElse(latestConfirmed);
+    }
+
+    private Block getHeaderUnsafe(Snapshot s, byte[] hash) {
+        if (Arrays.equals(s.latestConfirmed.getHash(), hash)) {
+            return s.latestConfirmed;
+        }
+        return Optional.ofNullable(s.blocksCache.getBlock(hash))
                 .orElseGet(() -> bc.getHeader(hash));
     }
 
     public Block getHeader(byte[] hash) {
-        this.readWriteLock.readLock().lock();
-        try {
-            return getHeaderUnsafe(hash);
-        } finally {
-            this.readWriteLock.readLock().unlock();
-        }
+        return getHeaderUnsafe(snapshot.get(), hash);
     }
 
     public Block findAncestorHeader(byte[] hash, long height) {
-        this.readWriteLock.readLock().lock();
-        try {
-            Block bHeader = getHeaderUnsafe(hash);
-            if (bHeader.nHeight < height) {
-                return null;
-            }
-            while (bHeader != null && bHeader.nHeight != height) {
-                bHeader = getHeaderUnsafe(bHeader.hashPrevBlock);
-            }
-            return bHeader;
-        } finally {
-            this.readWriteLock.readLock().unlock();
+        Snapshot s = snapshot.get();
+        Block bHeader = getHeaderUnsafe(s, hash);
+        if (bHeader.nHeight < height) {
+            return null;
         }
-
+        while (bHeader != null && bHeader.nHeight != height) {
+            bHeader = getHeaderUnsafe(s, bHeader.hashPrevBlock);
+        }
+        return bHeader;
     }
 
     public List<Block> getAncestorBlocks(byte[] bhash, long anum) {
-        this.readWriteLock.readLock().lock();
-        try {
-            Block b = blocksCache.getBlock(bhash);
-            if (Arrays.equals(bhash, this.latestConfirmed.getHash())) {
-                b = this.latestConfirmed;
-            }
-            if (b == null) {
-                return bc.getAncestorBlocks(bhash, anum);
-            }
-            BlocksCache res = new BlocksCache();
-            List<Block> blocks = blocksCache.getAncestors(b)
-                    .stream().filter(bl -> bl.nHeight >= anum).collect(toList());
-            res.addBlocks(blocks);
-            res.addBlocks(bc.getAncestorBlocks(res.getAll().get(0).hashPrevBlock, anum));
-            List<Block> all = res.getAll();
+        return getAncestors(bhash, anum, bc::getAncestorBlocks);
+    }
 
-            if (Start.ENABLE_ASSERTION) {
-                Assert.isTrue(all.size() == (b.nHeight - anum + 1) &&
-                        all.get(0).nHeight == anum &&
-                        isChain(all), "get ancestors failed"
-                );
-            }
-            return all;
-        } finally {
-            this.readWriteLock.readLock().unlock();
+    // 缓存中的区块包含全部事务，从数据库中读取的区块只包含指定类型的事务
+    public List<Block> getAncestorBlocks(byte[] bhash, long anum, Collection<Integer> types) {
+        return getAncestors(bhash, anum, (h, a) -> bc.getAncestorBlocks(h, a, types));
+    }
+
+    // 缓存中的区块包含区块体，从数据库中读取的只有区块头
+    public List<Block> getAncestorHeaders(byte[] bhash, long anum) {
+        return getAncestors(bhash, anum, bc::getAncestorHeaders);
+    }
+
+    private List<Block> getAncestors(byte[] bhash, long anum, BiFunction<byte[], Long, List<Block>> fromDB) {
+        Snapshot s = snapshot.get();
+        Block b = s.blocksCache.getBlock(bhash);
+        if (Arrays.equals(bhash, s.latestConfirmed.getHash())) {
+            b = s.latestConfirmed;
+        }
+        if (b == null) {
+            return fromDB.apply(bhash, anum);
+        }
+        BlocksCache res = new BlocksCache();
+        List<Block> blocks = s.blocksCache.getAncestors(b)
+                .stream().filter(bl -> bl.nHeight >= anum).collect(toList());
+        res.addBlocks(blocks);
+        res.addBlocks(fromDB.apply(res.getAll().get(0).hashPrevBlock, anum));
+        List<Block> all = res.getAll();
+
+        if (Start.ENABLE_ASSERTION) {
+            Assert.isTrue(all.size() == (b.nHeight - anum + 1) &&
+                    all.get(0).nHeight == anum &&
+                    isChain(all), "get ancestors failed"
+            );
         }
+        return all;
     }
 
     public static boolean isChain(List<Block> blocks) {
@@ -320,103 +449,75 @@ public class StateDB implements ApplicationListener<AccountUpdatedEvent> {
     }
 
     public boolean hasBlockInCache(byte[] hash) {
-        this.readWriteLock.readLock().lock();
-        try {
-            return blocksCache.hasBlock(hash);
-        } finally {
-            this.readWriteLock.readLock().unlock();
-        }
+        return snapshot.get().blocksCache.hasBlock(hash);
     }
 
     public Block getBlock(byte[] hash) {
-        this.readWriteLock.readLock().lock();
-        try {
-            if (Arrays.equals(latestConfirmed.getHash(), hash)) {
-                return this.latestConfirmed;
-            }
-            return Optional.ofNullable(blocksCache.getBlock(hash))
-                    .orElseGet(() -> bc.getBlock(hash));
-        } finally {
-            this.readWriteLock.readLock().unlock();
+        Snapshot s = snapshot.get();
+        if (Arrays.equals(s.latestConfirmed.getHash(), hash)) {
+            return s.latestConfirmed;
         }
-
+        return Optional.ofNullable(s.blocksCache.getBlock(hash))
+                .orElseGet(() -> bc.getBlock(hash));
     }
 
     public boolean hasBlock(byte[] hash) {
-        readWriteLock.readLock().lock();
-        try {
-            return blocksCache.hasBlock(hash) ||
-                    Arrays.equals(latestConfirmed.getHash(), hash) ||
-                    bc.hasBlock(hash);
-        } finally {
-            readWriteLock.readLock().unlock();
-        }
+        Snapshot s = snapshot.get();
+        return s.blocksCache.hasBlock(hash) ||
+                Arrays.equals(s.latestConfirmed.getHash(), hash) ||
+                bc.hasBlock(hash);
     }
 
     public boolean hasTransaction(byte[] blockHash, byte[] transactionHash) {
-        readWriteLock.readLock().lock();
-        try {
-            return hasTransactionUnsafe(blockHash, transactionHash);
-        } finally {
-            readWriteLock.readLock().unlock();
-        }
+        return hasTransactionUnsafe(snapshot.get(), blockHash, transactionHash);
     }
 
-    private boolean hasTransactionUnsafe(byte[] blockHash, byte[] transactionHash) {
-        if (Arrays.equals(latestConfirmed.getHash(), blockHash)) {
-            return bc.hasTransaction(transactionHash);
-        }
-        String key = Hex.encodeHexString(blockHash);
-        Block b = blocksCache.getBlock(blockHash);
-        if (b == null) {
-            return true;
-        }
-        if (transactionIndex.containsKey(key) && transactionIndex.get(key).contains(Hex.encodeHexString(transactionHash))) {
-            return true;
+    private boolean hasTransactionUnsafe(Snapshot s, byte[] blockHash, byte[] transactionHash) {
+        String key = Hex.encodeHexString(transactionHash);
+        while (!Arrays.equals(s.latestConfirmed.getHash(), blockHash)) {
+            Block b = s.blocksCache.getBlock(blockHash);
+            if (b == null) {
+                return true;
+            }
+            BlockTransactionIndex index = s.transactionIndex.get(b.getHashHexString());
+            if (index != null && index.contains(key)) {
+                return true;
+            }
+            blockHash = b.hashPrevBlock;
         }
-        return hasTransactionUnsafe(b.hashPrevBlock, transactionHash);
+        return bc.hasTransaction(transactionHash);
     }
 
     public Transaction getTransaction(byte[] blockHash, byte[] txHash) {
-        readWriteLock.readLock().lock();
-        try {
-            return getTransactionUnsafe(blockHash, txHash);
-        } finally {
-            readWriteLock.readLock().unlock();
-        }
+        return getTransactionUnsafe(snapshot.get(), blockHash, txHash);
     }
 
-    private Transaction getTransactionUnsafe(byte[] blockHash, byte[] txHash) {
-        if (Arrays.equals(latestConfirmed.getHash(), blockHash)) {
-            return bc.getTransaction(txHash);
-        }
-        Block b = blocksCache.getBlock(blockHash);
-        if (b == null || b.body == null) {
-            return null;
-        }
-        for (Transaction t : b.body) {
-            if (Arrays.equals(t.getHash(), txHash)) {
-                t.height = b.nHeight;
+    private Transaction getTransactionUnsafe(Snapshot s, byte[] blockHash, byte[] txHash) {
+        String key = Hex.encodeHexString(txHash);
+        while (!Arrays.equals(s.latestConfirmed.getHash(), blockHash)) {
+            Block b = s.blocksCache.getBlock(blockHash);
+            if (b == null || b.body == null) {
+                return null;
+            }
+            BlockTransactionIndex index = s.transactionIndex.get(b.getHashHexString());
+            Transaction t = index == null ? null : index.get(key);
+            if (t != null) {
                 return t;
             }
+            blockHash = b.hashPrevBlock;
         }
-        return getTransactionUnsafe(b.hashPrevBlock, txHash);
+        return bc.getTransaction(txHash);
     }
 
     public boolean hasPayload(byte[] hash, int type, byte[] payload) {
-        readWriteLock.readLock().lock();
-        try {
-            return hasPayloadUnsafe(hash, type, payload);
-        } finally {
-            readWriteLock.readLock().unlock();
-        }
+        return hasPayloadUnsafe(snapshot.get(), hash, type, payload);
     }
 
-    private boolean hasPayloadUnsafe(byte[] blockHash, int type, byte[] payload) {
-        if (Arrays.equals(latestConfirmed.getHash(), blockHash)) {
+    private boolean hasPayloadUnsafe(Snapshot s, byte[] blockHash, int type, byte[] payload) {
+        if (Arrays.equals(s.latestConfirmed.getHash(), blockHash)) {
             return bc.hasPayload(type, payload);
         }
-        Block b = blocksCache.getBlock(blockHash);
+        Block b = s.blocksCache.getBlock(blockHash);
         if (b == null) {
             return true;
         }
@@ -425,40 +526,61 @@ public class StateDB implements ApplicationListener<AccountUpdatedEvent> {
                 return true;
             }
         }
-        return hasPayloadUnsafe(b.hashPrevBlock, type, payload);
+        return hasPayloadUnsafe(s, b.hashPrevBlock, type, payload);
     }
 
     public Block getLastConfirmed() {
-        return latestConfirmed;
+        return snapshot.get().latestConfirmed;
     }
 
-    // 写入区块
-    public void writeBlock(Block block) {
-        this.readWriteLock.writeLock().lock();
+    /**
+     * write a block to the cache, confirmed ancestors are written to the database asynchronously
+     *
+     * @return completes after the newest block confirmed by this block is persisted, or with null if no block is confirmed,
+     * completes exceptionally if the writer gives up the block
+     */
+    public CompletableFuture<Block> writeBlock(Block block) {
+        // 在获取写锁之前等待，写入线程更新账户状态时也需要写锁
+        try {
+            confirmedBlockWriter.awaitCapacity();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return NOTHING_CONFIRMED;
+        }
+        writeLock.lock();
         try {
+            Snapshot s = snapshot.get();
+            if (confirmedWriteFailed) {
+                confirmedWriteFailed = false;
+                lastQueued = s.latestConfirmed;
+            }
             // 这个区块所在高度已经被确认了
-            if (block.nHeight <= latestConfirmed.nHeight) {
-                return;
+            if (block.nHeight <= lastQueued.nHeight) {
+                return NOTHING_CONFIRMED;
             }
             // 判断是否是孤块
-            if (!Arrays.equals(this.latestConfirmed.getHash(), block.hashPrevBlock) && !blocksCache.hasBlock(block.hashPrevBlock)) {
-                return;
+            if (!Arrays.equals(s.latestConfirmed.getHash(), block.hashPrevBlock) && !s.blocksCache.hasBlock(block.hashPrevBlock)) {
+                return NOTHING_CONFIRMED;
             }
             // 已经写入过的区块
-            if (blocksCache.hasBlock(block.getHash())) {
-                return;
+            if (s.blocksCache.hasBlock(block.getHash())) {
+                return NOTHING_CONFIRMED;
             }
+            BlocksCache blocksCache = s.blocksCache.copy();
             blocksCache.addBlock(block);
 
             // 写入事务索引
-            if (!transactionIndex.containsKey(block.getHashHexString())) {
-                transactionIndex.put(block.getHashHexString(), new HashSet<>());
-            }
+            Map<String, BlockTransactionIndex> transactionIndex = new HashMap<>(s.transactionIndex);
             block.body.forEach(t -> {
                 t.height = block.nHeight;
                 t.blockHash = block.getHash();
-                transactionIndex.get(block.getHashHexString()).add(t.getHashHexString());
             });
+            transactionIndex.put(block.getHashHexString(), new BlockTransactionIndex(block));
+
+            // 在父区块的账户索引上叠加这个区块修改的账户
+            Map<String, AccountLayer> accountLayers = new HashMap<>(s.accountLayers);
+            accountLayers.put(block.getHashHexString(),
+                    s.accountLayers.getOrDefault(Hex.encodeHexString(block.hashPrevBlock), AccountLayer.EMPTY).push(block));
 
             leastConfirms.put(block.getHashHexString(),
                     (int) Math.ceil(
@@ -466,6 +588,17 @@ public class StateDB implements ApplicationListener<AccountUpdatedEvent> {
                                     * 2.0 / 3
                     )
             );
+            // 新区块只需要和当前的最佳区块比较，超出容量被淘汰时重新选择
+            Block best = s.bestBlock;
+            if (!blocksCache.hasBlock(best.getHash()) && !Arrays.equals(best.getHash(), s.latestConfirmed.getHash())) {
+                best = selectBestBlock(blocksCache, s.latestConfirmed);
+            }
+            if (compareBestBlock(block, best) > 0) {
+                best = block;
+            }
+            // 发布新的快照，之后的读操作可以看到这个区块
+            snapshot.set(new Snapshot(s.version + 1, s.latestConfirmed, blocksCache, transactionIndex, best, accountLayers));
+
             List<Block> ancestors = blocksCache.getAncestors(block);
             for (Block b : ancestors) {
                 if (!confirms.containsKey(b.getHashHexString())) {
@@ -477,6 +610,17 @@ public class StateDB implements ApplicationListener<AccountUpdatedEvent> {
                 }
                 confirms.get(b.getHashHexString()).add(Hex.encodeHexString(block.body.get(0).to));
             }
+            // 只有已提交区块之后的区块可以被确认，不经过已提交区块的分叉不会被确认
+            if (blocksCache.hasBlock(lastQueued.getHash())) {
+                int i = ancestors.size() - 1;
+                while (i >= 0 && !Arrays.equals(ancestors.get(i).getHash(), lastQueued.getHash())) {
+                    i--;
+                }
+                if (i < 0) {
+                    return NOTHING_CONFIRMED;
+                }
+                ancestors = new ArrayList<>(ancestors.subList(i + 1, ancestors.size()));
+            }
             Collections.reverse(ancestors);
 
             // 试图查找被确认的区块，找到则更新到 db
@@ -496,33 +640,22 @@ public class StateDB implements ApplicationListener<AccountUpdatedEvent> {
             }
 
             if (confirmedAncestors.size() == 0) {
-                return;
+                return NOTHING_CONFIRMED;
             }
 
-            // 更新到 db
-            for (int i = 0; i < confirmedAncestors.size(); ) {
-                Block b = confirmedAncestors.get(i);
-                // CAS 锁，等待上一个区块状态更新成功
-                while (pendingBlock != null) {
-                    logger.info("wait for account at" + new String(codec.encodeBlock(pendingBlock)) + " updated...");
-                }
-                boolean writeResult = bc.writeBlock(b);
-                if (!writeResult) {
-                    // 数据库 写入失败 重试写入
-                    logger.error("write block " + new String(codec.encodeBlock(b)) + " to database failed, retrying...");
-                    continue;
-                }
-                logger.info("write block at height " + b.nHeight + " to db success");
-                pendingBlock = b;
-                ctx.publishEvent(new NewBlockEvent(this, b));
-                ctx.publishEvent(new NewBestBlockEvent(this, b));
-                i++;
-            }
-            while (pendingBlock != null) {
-                logger.info("wait for account at" + new String(codec.encodeBlock(pendingBlock)) + " updated...");
+            // 提交给写入线程后立即返回，读操作继续使用确认前的快照，直到账户状态更新完成
+            CompletableFuture<Block> res = NOTHING_CONFIRMED;
+            for (Block b : confirmedAncestors) {
+                res = confirmedBlockWriter.submit(b);
+                res.exceptionally(e -> {
+                    confirmedWriteFailed = true;
+                    return null;
+                });
             }
+            lastQueued = confirmedAncestors.get(confirmedAncestors.size() - 1);
+            return res;
         } finally {
-            this.readWriteLock.writeLock().unlock();
+            writeLock.unlock();
         }
     }
 
@@ -531,47 +664,65 @@ public class StateDB implements ApplicationListener<AccountUpdatedEvent> {
         if (sizeLimit == 0 || startHeight > stopHeight) {
             return new ArrayList<>();
         }
-        this.readWriteLock.readLock().lock();
-        try {
-            BlocksCache c = new BlocksCache();
-            // 从数据库获取一部分
-            if (startHeight < latestConfirmed.nHeight) {
-                c.addBlocks(bc.getBlocks(startHeight, stopHeight, sizeLimit, clipInitial));
-            }
-            List<Block> blocks = blocksCache.getAll();
-            blocks.add(latestConfirmed);
+        Snapshot s = snapshot.get();
+        Map<String, Block> confirmed = new LinkedHashMap<>();
+        // 从数据库获取一部分
+        if (startHeight < s.latestConfirmed.nHeight) {
+            bc.getBlocks(startHeight, stopHeight, sizeLimit, clipInitial)
+                    .forEach(b -> confirmed.put(b.getHashHexString(), b));
+        }
+        return mergeBlocks(s, confirmed, b -> b, b -> b.nHeight, startHeight, stopHeight, sizeLimit, clipInitial);
+    }
 
-            // 从 forkdb 获取一部分
-            blocks.stream().filter((b) -> b.nHeight >= startHeight && b.nHeight <= stopHeight)
-                    .forEach(c::addBlock);
+    // 同步时发送的区块，已确认的部分由数据库直接提供 protobuf 编码
+    public List<WisdomOuterClass.Block> getEncodedBlocks(long startHeight, long stopHeight, int sizeLimit, boolean clipInitial) {
+        if (sizeLimit == 0 || startHeight > stopHeight) {
+            return new ArrayList<>();
+        }
+        Snapshot s = snapshot.get();
+        Map<String, WisdomOuterClass.Block> confirmed = new LinkedHashMap<>();
+        if (startHeight < s.latestConfirmed.nHeight) {
+            confirmed.putAll(bc.getEncodedBlocks(startHeight, stopHeight, sizeLimit, clipInitial));
+        }
+        return mergeBlocks(s, confirmed, Utils::encodeBlock, b -> b.getHeight(), startHeight, stopHeight, sizeLimit, clipInitial);
+    }
 
-            // 按需进行裁剪
-            List<Block> all = c.getAll();
-            if (sizeLimit > all.size() || sizeLimit < 0) {
-                sizeLimit = all.size();
-            }
-            if (clipInitial) {
-                return all.subList(all.size() - sizeLimit, all.size());
-            }
-            return all.subList(0, sizeLimit);
-        } finally {
-            this.readWriteLock.readLock().unlock();
+    // 合并数据库和 forkdb 中的区块，按哈希去重后按高度排序并裁剪
+    private static <T> List<T> mergeBlocks(
+            Snapshot s, Map<String, T> confirmed, Function<Block, T> mapper, ToLongFunction<T> height,
+            long startHeight, long stopHeight, int sizeLimit, boolean clipInitial
+    ) {
+        Map<String, T> merged = new HashMap<>(confirmed);
+        List<Block> blocks = s.blocksCache.getAll();
+        blocks.add(s.latestConfirmed);
+
+        // 从 forkdb 获取一部分，同一高度的分叉区块都会保留
+        blocks.stream().filter((b) -> b.nHeight >= startHeight && b.nHeight <= stopHeight)
+                .forEach(b -> merged.computeIfAbsent(b.getHashHexString(), k -> mapper.apply(b)));
+
+        List<Map.Entry<String, T>> entries = new ArrayList<>(merged.entrySet());
+        entries.sort(Comparator.<Map.Entry<String, T>>comparingLong(e -> height.applyAsLong(e.getValue()))
+                .thenComparing(Map.Entry::getKey));
+        List<T> all = entries.stream().map(Map.Entry::getValue).collect(toList());
+
+        // 按需进行裁剪
+        if (sizeLimit > all.size() || sizeLimit < 0) {
+            sizeLimit = all.size();
         }
+        if (clipInitial) {
+            return all.subList(all.size() - sizeLimit, all.size());
+        }
+        return all.subList(0, sizeLimit);
     }
 
     public AccountState getAccount(byte[] blockHash, byte[] publicKeyHash) {
-        readWriteLock.readLock().lock();
-        try {
-            return getAccountUnsafe(blockHash, publicKeyHash);
-        } finally {
-            readWriteLock.readLock().unlock();
-        }
+        return getAccountUnsafe(snapshot.get(), blockHash, publicKeyHash);
     }
 
-    private Map<String, AccountState> getAccountsUnsafe(byte[] blockHash, Collection<byte[]> publicKeyHashes) {
+    private Map<String, AccountState> getAccountsUnsafe(Snapshot s, byte[] blockHash, Collection<byte[]> publicKeyHashes) {
         Map<String, AccountState> res = new HashMap<>();
         for (byte[] h : publicKeyHashes) {
-            AccountState account = getAccountUnsafe(blockHash, h);
+            AccountState account = getAccountUnsafe(s, blockHash, h);
             if (account == null) {
                 return null;
             }
@@ -581,69 +732,84 @@ public class StateDB implements ApplicationListener<AccountUpdatedEvent> {
     }
 
     public Map<String, AccountState> getAccounts(byte[] blockHash, Collection<byte[]> publicKeyHashes) {
-        readWriteLock.writeLock().lock();
-        try {
-            return getAccountsUnsafe(blockHash, publicKeyHashes);
-        } finally {
-            readWriteLock.writeLock().unlock();
-        }
+        return getAccountsUnsafe(snapshot.get(), blockHash, publicKeyHashes);
     }
 
     // 获取到某一区块（包含该区块)的某个账户的状态，用于对后续区块的事务进行验证
-    private AccountState getAccountUnsafe(byte[] blockHash, byte[] publicKeyHash) {
+    // 通过账户索引只回溯修改过该账户的区块
+    private AccountState getAccountUnsafe(Snapshot s, byte[] blockHash, byte[] publicKeyHash) {
 
-        if (Arrays.equals(blockHash, latestConfirmed.getHash())) {
-            return getAccount(publicKeyHash);
+        if (Arrays.equals(blockHash, s.latestConfirmed.getHash())) {
+            return getAccount(publicKeyHash, s.latestConfirmed.nHeight);
         }
-        Block header = blocksCache.getBlock(blockHash);
-        if (header == null || header.nHeight < latestConfirmed.nHeight) {
+        Block header = s.blocksCache.getBlock(blockHash);
+        if (header == null || header.nHeight < s.latestConfirmed.nHeight) {
             return null;
         }
-        // 判断新的区块是否在 main fork 上面;
-//        Block ancestor = blocksCache.getAncestor(header, latestConfirmed.nHeight);
-//        if (ancestor == null || !Arrays.equals(latestConfirmed.getHash(), ancestor.getHash())) {
-//            return null;
-//        }
-        // 判断是否在缓存中
-        String blockKey = Hex.encodeHexString(blockHash);
         String accountKey = Hex.encodeHexString(publicKeyHash);
-        if (cache.containsKey(blockKey) && cache.get(blockKey).containsKey(accountKey)) {
-            return cache.get(blockKey).get(accountKey).copy();
+        // 从新到旧收集需要应用的区块，直到遇到缓存或者已确认的状态
+        Deque<Block> toApply = new ArrayDeque<>();
+        AccountState account = null;
+        Block cursor = header;
+        while (true) {
+            AccountLayer layer = s.accountLayers.get(cursor.getHashHexString());
+            if (layer == null) {
+                return null;
+            }
+            Block modified = layer.getLastModified(accountKey);
+            // 已确认的区块对账户的修改已经持久化
+            if (modified == null || modified.nHeight <= s.latestConfirmed.nHeight) {
+                break;
+            }
+            Map<String, AccountState> accounts = cache.get(modified.getHashHexString());
+            AccountState cached = accounts == null ? null : accounts.get(accountKey);
+            if (cached != null) {
+                account = cached;
+                break;
+            }
+            toApply.push(modified);
+            if (Arrays.equals(modified.hashPrevBlock, s.latestConfirmed.getHash())) {
+                break;
+            }
+            cursor = s.blocksCache.getBlock(modified.hashPrevBlock);
+            if (cursor == null) {
+                return null;
+            }
         }
-        // 如果缓存不存在则进行回溯
-        AccountState account = getAccountUnsafe(header.hashPrevBlock, publicKeyHash);
         if (account == null) {
-            return null;
-        }
-        Block block = blocksCache.getBlock(blockHash);
-        // 把这个区块的事务应用到上一个区块获取的 account，生成新的 account
-        for (Transaction tx : block.body) {
-            tx.height = block.nHeight;
+            account = getAccount(publicKeyHash, s.latestConfirmed.nHeight);
         }
-        AccountState res = applyTransactions(block.body, account.copy());
-        if (!cache.containsKey(blockKey)) {
-            cache.put(blockKey, new ConcurrentHashMap<>());
+        // 把区块的事务应用到上一个修改该账户的区块获取的 account，生成新的 account
+        while (!toApply.isEmpty()) {
+            Block b = toApply.pop();
+            for (Transaction tx : b.body) {
+                tx.height = b.nHeight;
+            }
+            account = applyTransactions(b.body, account.copy());
+            if (account == null) {
+                return null;
+            }
+            cache.computeIfAbsent(b.getHashHexString(), k -> new ConcurrentHashMap<>()).put(accountKey, account);
         }
-        cache.get(blockKey).put(accountKey, res);
-        return res.copy();
+        return account.copy();
     }
 
-    // 获取已经持久化的账户
-    private AccountState getAccount(byte[] publicKeyHash) {
-        Optional<Account> account = accountDB.hasAccount(publicKeyHash);
+    // 获取已经持久化的账户，只读取确认高度及之前写入的记录，数据库正在写入更高的区块时结果不受影响
+    private AccountState getAccount(byte[] publicKeyHash, long confirmedHeight) {
+        Optional<Account> account = accountDB.hasAccount(publicKeyHash, confirmedHeight);
         AccountState accountState = account.map(x -> {
             AccountState accountState1 = new AccountState();
             accountState1.setAccount(x);
             return accountState1;
         }).orElse(new AccountState(publicKeyHash));
 
-        List<Incubator> incubatorList = incubatorDB.selectList(publicKeyHash);
+        List<Incubator> incubatorList = incubatorDB.selectList(publicKeyHash, confirmedHeight);
         Map<String, Incubator> inester = new HashMap<>();
         if (incubatorList.size() > 0) {
             inester = incubatorList.stream().collect(toMap(i -> Hex.encodeHexString(i.getTxid_issue()), i -> i));
         }
         accountState.setInterestMap(inester);
-        List<Incubator> shareList = incubatorDB.selectShareList(publicKeyHash);
+        List<Incubator> shareList = incubatorDB.selectShareList(publicKeyHash, confirmedHeight);
         Map<String, Incubator> share = new HashMap<>();
         if (shareList.size() > 0) {
             share = shareList.stream().collect(toMap(i -> Hex.encodeHexString(i.getTxid_issue()), i -> i));
@@ -653,12 +819,7 @@ public class StateDB implements ApplicationListener<AccountUpdatedEvent> {
     }
 
     public List<Block> getAll() {
-        readWriteLock.readLock().lock();
-        try {
-            return blocksCache.getAll();
-        } finally {
-            readWriteLock.readLock().unlock();
-        }
+        return snapshot.get().blocksCache.getAll();
     }
 
     public long AverageFee(){
@@ -677,47 +838,32 @@ public class StateDB implements ApplicationListener<AccountUpdatedEvent> {
 
     // get the best chain of forkdb
     public List<Block> getBestChain(int limit) {
-        readWriteLock.readLock().lock();
-        try {
-            List<Block> blocks = blocksCache.getAllForks().get(0);
-            if (blocks.size() >= limit) return blocks.subList(0, limit);
-            long toFetch = limit- blocks.size();
-            List<Block> fetched = bc.getHeaders(blocks.get(0).nHeight - toFetch, (int) toFetch);
-            fetched.addAll(blocks);
-            return fetched;
-        } finally {
-            readWriteLock.readLock().unlock();
-        }
+        List<Block> blocks = snapshot.get().blocksCache.getAllForks().get(0);
+        if (blocks.size() >= limit) return blocks.subList(0, limit);
+        long toFetch = limit- blocks.size();
+        List<Block> fetched = bc.getHeaders(blocks.get(0).nHeight - toFetch, (int) toFetch);
+        fetched.addAll(blocks);
+        return fetched;
     }
 
     // count blocks after timestamp
     public long countBlocksAfter(long timestamp) {
-        readWriteLock.readLock().lock();
-        try {
-            return blocksCache.getAll().stream().filter(x -> x.nTime >= timestamp).count() +
-                    bc.countBlocksAfter(timestamp);
-        } finally {
-            readWriteLock.readLock().unlock();
-        }
+        return snapshot.get().blocksCache.getAll().stream().filter(x -> x.nTime >= timestamp).count() +
+                bc.countBlocksAfter(timestamp);
     }
 
     // average blocks interval
     public double averageBlocksInterval() {
-        readWriteLock.readLock().lock();
-        try {
-            List<Block> best = blocksCache.getAllForks().get(0);
-            if (best.size() >= 10) {
-                best = best.subList(0, 10);
-                BigDecimal bd = new BigDecimal((best.get(best.size() - 1).nTime - best.get(0).nTime) / (9.0));
-                return bd.setScale(2,BigDecimal.ROUND_HALF_UP).doubleValue();
-            }
-            long toFetch = 10 - best.size();
-            List<Block> fetched = bc.getHeaders(best.get(0).nHeight - toFetch, (int) toFetch);
-            BigDecimal bd = new BigDecimal((best.get(best.size() - 1).nTime - fetched.get(0).nTime) / (9.0));
+        List<Block> best = snapshot.get().blocksCache.getAllForks().get(0);
+        if (best.size() >= 10) {
+            best = best.subList(0, 10);
+            BigDecimal bd = new BigDecimal((best.get(best.size() - 1).nTime - best.get(0).nTime) / (9.0));
             return bd.setScale(2,BigDecimal.ROUND_HALF_UP).doubleValue();
-        } finally {
-            readWriteLock.readLock().unlock();
         }
+        long toFetch = 10 - best.size();
+        List<Block> fetched = bc.getHeaders(best.get(0).nHeight - toFetch, (int) toFetch);
+        BigDecimal bd = new BigDecimal((best.get(best.size() - 1).nTime - fetched.get(0).nTime) / (9.0));
+        return bd.setScale(2,BigDecimal.ROUND_HALF_UP).doubleValue();
     }
 
 
@@ -739,7 +885,7 @@ public class StateDB implements ApplicationListener<AccountUpdatedEvent> {
     private AccountState applyTransfer(Transaction tx, AccountState accountState) {
         Account account = accountState.getAccount();
         long balance;
-        if (Arrays.equals(RipemdUtility.ripemd160(SHA3Utility.keccak256(tx.from)), account.getPubkeyHash())) {
+        if (Arrays.equals(Address.publicKeyToHash(tx.from), account.getPubkeyHash())) {
             balance = account.getBalance();
             balance -= tx.amount;
             balance -= tx.getFee();
@@ -930,7 +1076,7 @@ public class StateDB implements ApplicationListener<AccountUpdatedEvent> {
     private AccountState applyVote(Transaction tx, AccountState accountState) {
         Account account = accountState.getAccount();
         long balance;
-        if (Arrays.equals(RipemdUtility.ripemd160(SHA3Utility.keccak256(tx.from)), account.getPubkeyHash())) {
+        if (Arrays.equals(Address.publicKeyToHash(tx.from), account.getPubkeyHash())) {
             balance = account.getBalance();
             balance -= tx.amount;
             balance -= tx.getFee();
@@ -952,7 +1098,7 @@ public class StateDB implements ApplicationListener<AccountUpdatedEvent> {
     private AccountState applyCancelVote(Transaction tx, AccountState accountState) {
         Account account = accountState.getAccount();
         long balance;
-        if (Arrays.equals(RipemdUtility.ripemd160(SHA3Utility.keccak256(tx.from)), account.getPubkeyHash())) {
+        if (Arrays.equals(Address.publicKeyToHash(tx.from), account.getPubkeyHash())) {
             balance = account.getBalance();
             balance += tx.amount;
             balance -= tx.getFee();
@@ -1022,165 +1168,87 @@ public class StateDB implements ApplicationListener<AccountUpdatedEvent> {
     }
 
     public List<Transaction> getTransactionsByTo(byte[] publicKeyHash, int offset, int limit) {
-        readWriteLock.readLock().lock();
-        try {
-            Block best = getBestBlockUnsafe();
-            return getTransactionsByTo(best.getHash(), publicKeyHash, offset, limit).stream().limit(limit).collect(toList());
-        } finally {
-            readWriteLock.readLock().unlock();
-        }
+        return getTransactions(BlockTransactionIndex.ANY_TYPE, null, publicKeyHash, offset, limit,
+                (o, l) -> bc.getTransactionsByTo(publicKeyHash, o, l));
     }
 
     public List<Transaction> getTransactionsByFrom(byte[] publicKey, int offset, int limit) {
-        readWriteLock.readLock().lock();
-        try {
-            Block best = getBestBlockUnsafe();
-            return getTransactionsByFrom(best.getHash(), publicKey, offset, limit).stream().limit(limit).collect(toList());
-        } finally {
-            readWriteLock.readLock().unlock();
-        }
+        return getTransactions(BlockTransactionIndex.ANY_TYPE, publicKey, null, offset, limit,
+                (o, l) -> bc.getTransactionsByFrom(publicKey, o, l));
     }
 
     public List<Transaction> getTransactionsByFromAndTo(byte[] from, byte[] to, int offset, int limit) {
-        readWriteLock.readLock().lock();
-        try {
-            Block best = getBestBlockUnsafe();
-            return getTransactionsByFromAndTo(best.getHash(), from, to, offset, limit).stream().limit(limit).collect(toList());
-        } finally {
-            readWriteLock.readLock().unlock();
-        }
+        return getTransactions(BlockTransactionIndex.ANY_TYPE, from, to, offset, limit,
+                (o, l) -> bc.getTransactionsByFromAndTo(from, to, o, l));
     }
 
     public List<Transaction> getTransactionsByToAndType(int type, byte[] publicKeyHash, int offset, int limit) {
-        readWriteLock.readLock().lock();
-        try {
-            Block best = getBestBlockUnsafe();
-            return getTransactionsByToAndType(type, best.getHash(), publicKeyHash, offset, limit).stream().limit(limit).collect(toList());
-        } finally {
-            readWriteLock.readLock().unlock();
-        }
+        return getTransactions(type, null, publicKeyHash, offset, limit,
+                (o, l) -> bc.getTransactionsByToAndType(type, publicKeyHash, o, l));
     }
 
     public List<Transaction> getTransactionsByFromAndType(int type, byte[] publicKey, int offset, int limit) {
-        readWriteLock.readLock().lock();
-        try {
-            Block best = getBestBlockUnsafe();
-            return getTransactionsByFromAndType(type, best.getHash(), publicKey, offset, limit).stream().limit(limit).collect(toList());
-        } finally {
-            readWriteLock.readLock().unlock();
-        }
+        return getTransactions(type, publicKey, null, offset, limit,
+                (o, l) -> bc.getTransactionsByFromAndType(type, publicKey, o, l));
     }
 
     public List<Transaction> getTransactionsByFromToAndType(int type, byte[] from, byte[] to, int offset, int limit) {
-        readWriteLock.readLock().lock();
-        try {
-            Block best = getBestBlockUnsafe();
-            return getTransactionsByFromToAndType(type, best.getHash(), from, to, offset, limit).stream().limit(limit).collect(toList());
-        } finally {
-            readWriteLock.readLock().unlock();
-        }
-    }
-
-    private List<Transaction> getTransactionsByTo(byte[] blockHash, byte[] publicKeyHash, int offset, int limit) {
-        if (Arrays.equals(blockHash, latestConfirmed.getHash())) {
-            return bc.getTransactionsByTo(publicKeyHash, offset, limit);
-        }
-        Block b = blocksCache.getBlock(blockHash);
-        if (b == null) {
-            return new ArrayList<>();
-        }
-        if (b.body == null) {
-            return getTransactionsByTo(b.hashPrevBlock, publicKeyHash, offset, limit);
-        }
-        List<Transaction> transactions = b.body.stream().filter(tx -> Arrays.equals(tx.to, publicKeyHash)).collect(toList());
-        List<Transaction> transactionsPrevBlocks = getTransactionsByTo(b.hashPrevBlock, publicKeyHash, offset, limit);
-        transactionsPrevBlocks.addAll(transactions);
-        return transactionsPrevBlocks;
-    }
-
-    private List<Transaction> getTransactionsByFrom(byte[] blockHash, byte[] publicKey, int offset, int limit) {
-        if (Arrays.equals(blockHash, latestConfirmed.getHash())) {
-            return bc.getTransactionsByFrom(publicKey, offset, limit);
-        }
-        Block b = blocksCache.getBlock(blockHash);
-        if (b == null) {
-            return new ArrayList<>();
-        }
-        if (b.body == null) {
-            return getTransactionsByFrom(b.hashPrevBlock, publicKey, offset, limit);
-        }
-        List<Transaction> transactions = b.body.stream().filter(tx -> Arrays.equals(tx.from, publicKey)).collect(toList());
-        List<Transaction> transactionsPrevBlocks = getTransactionsByFrom(b.hashPrevBlock, publicKey, offset, limit);
-        transactionsPrevBlocks.addAll(transactions);
-        return transactionsPrevBlocks;
+        return getTransactions(type, from, to, offset, limit,
+                (o, l) -> bc.getTransactionsByFromToAndType(type, from, to, o, l));
     }
 
-    private List<Transaction> getTransactionsByFromAndTo(byte[] blockHash, byte[] from, byte[] to, int offset, int limit) {
-        if (Arrays.equals(blockHash, latestConfirmed.getHash())) {
-            return bc.getTransactionsByFromAndTo(from, to, offset, limit);
-        }
-        Block b = blocksCache.getBlock(blockHash);
-        if (b == null) {
+    /**
+     * page over the confirmed transactions followed by the transactions on the best fork, both in ascending height
+     *
+     * @param confirmed query confirmed transactions by offset and limit
+     */
+    private List<Transaction> getTransactions(int type, byte[] from, byte[] to, int offset, int limit,
+                                              BiFunction<Integer, Integer, List<Transaction>> confirmed) {
+        if (limit <= 0 || offset < 0) {
             return new ArrayList<>();
         }
-        if (b.body == null) {
-            return getTransactionsByFromAndTo(b.hashPrevBlock, from, to, offset, limit);
-        }
-        List<Transaction> transactions = b.body.stream().filter(tx -> Arrays.equals(tx.from, from) && Arrays.equals(tx.to, to)).collect(toList());
-        List<Transaction> transactionsPrevBlocks = getTransactionsByFromAndTo(b.hashPrevBlock, from, to, offset, limit);
-        transactionsPrevBlocks.addAll(transactions);
-        return transactionsPrevBlocks;
-    }
-
-    private List<Transaction> getTransactionsByToAndType(int type, byte[] blockHash, byte[] publicKeyHash, int offset, int limit) {
-        if (Arrays.equals(blockHash, latestConfirmed.getHash())) {
-            return bc.getTransactionsByToAndType(type, publicKeyHash, offset, limit);
-        }
-        Block b = blocksCache.getBlock(blockHash);
-        if (b == null) {
-            return new ArrayList<>();
-        }
-        if (b.body == null) {
-            return getTransactionsByToAndType(type, b.hashPrevBlock, publicKeyHash, offset, limit);
-        }
-        List<Transaction> transactions = b.body.stream().filter(tx -> tx.type == type && Arrays.equals(tx.to, publicKeyHash)).collect(toList());
-        List<Transaction> transactionsPrevBlocks = getTransactionsByToAndType(type, b.hashPrevBlock, publicKeyHash, offset, limit);
-        transactionsPrevBlocks.addAll(transactions);
-        return transactionsPrevBlocks;
-    }
-
-    private List<Transaction> getTransactionsByFromAndType(int type, byte[] blockHash, byte[] publicKey, int offset, int limit) {
-        if (Arrays.equals(blockHash, latestConfirmed.getHash())) {
-            return bc.getTransactionsByFromAndType(type, publicKey, offset, limit);
+        Snapshot s = snapshot.get();
+        List<Transaction> res = new ArrayList<>(confirmed.apply(offset, limit));
+        if (res.size() >= limit) {
+            return res;
         }
-        Block b = blocksCache.getBlock(blockHash);
-        if (b == null) {
-            return new ArrayList<>();
+        // 页面没有包含已确认的事务时需要知道已确认事务的总数才能确定未确认部分的起点
+        long skip = 0;
+        if (res.isEmpty() && offset > 0) {
+            skip = Math.max(0, offset - bc.countTransactions(type, from, to));
         }
-        if (b.body == null) {
-            return getTransactionsByFromAndType(type, b.hashPrevBlock, publicKey, offset, limit);
+        Set<String> returned = res.stream().map(Transaction::getHashHexString).collect(toSet());
+        for (Transaction t : getUnconfirmedTransactions(s, BlockTransactionIndex.key(type, from, to))) {
+            if (res.size() >= limit) {
+                break;
+            }
+            // 快照之后被确认的事务可能已经出现在数据库的结果中
+            if (returned.contains(t.getHashHexString())) {
+                continue;
+            }
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            res.add(t);
         }
-        List<Transaction> transactions = b.body.stream().filter(tx -> tx.type == type && Arrays.equals(tx.from, publicKey)).collect(toList());
-        List<Transaction> transactionsPrevBlocks = getTransactionsByFromAndType(type, b.hashPrevBlock, publicKey, offset, limit);
-        transactionsPrevBlocks.addAll(transactions);
-        return transactionsPrevBlocks;
+        return res;
     }
 
-    private List<Transaction> getTransactionsByFromToAndType(int type, byte[] blockHash, byte[] from, byte[] to, int offset, int limit) {
-        if (Arrays.equals(blockHash, latestConfirmed.getHash())) {
-            return bc.getTransactionsByFromToAndType(type, from, to, offset, limit);
-        }
-        Block b = blocksCache.getBlock(blockHash);
-        if (b == null) {
-            return new ArrayList<>();
-        }
-        if (b.body == null) {
-            return getTransactionsByFromToAndType(type, b.hashPrevBlock, from, to, offset, limit);
+    // 最佳分叉上未确认的事务，按高度升序
+    private List<Transaction> getUnconfirmedTransactions(Snapshot s, String key) {
+        Deque<List<Transaction>> found = new ArrayDeque<>();
+        Block b = s.bestBlock;
+        while (b != null && !Arrays.equals(b.getHash(), s.latestConfirmed.getHash())) {
+            BlockTransactionIndex index = s.transactionIndex.get(b.getHashHexString());
+            if (index != null && !index.find(key).isEmpty()) {
+                found.push(index.find(key));
+            }
+            b = s.blocksCache.getBlock(b.hashPrevBlock);
         }
-        List<Transaction> transactions = b.body.stream().filter(tx -> tx.type == type && Arrays.equals(tx.from, from) && Arrays.equals(tx.to, to)).collect(toList());
-        List<Transaction> transactionsPrevBlocks = getTransactionsByFromToAndType(type, b.hashPrevBlock, from, to, offset, limit);
-        transactionsPrevBlocks.addAll(transactions);
-        return transactionsPrevBlocks;
+        List<Transaction> res = new ArrayList<>();
+        found.forEach(res::addAll);
+        return res;
     }
 
 }
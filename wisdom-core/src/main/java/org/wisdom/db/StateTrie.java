@@ -0,0 +1,329 @@
+package org.wisdom.db;
+
+import org.apache.commons.codec.binary.Hex;
+import org.iq80.leveldb.WriteBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.wisdom.core.Block;
+import org.wisdom.core.WisdomBlockChain;
+import org.wisdom.core.account.Account;
+import org.wisdom.core.account.AccountDB;
+import org.wisdom.core.incubator.Incubator;
+import org.wisdom.core.incubator.IncubatorDB;
+import org.wisdom.crypto.HashUtil;
+import org.wisdom.encoding.BigEndian;
+import org.wisdom.util.Arrays;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * optional commitment to the confirmed accounts and incubators, a {@link SparseMerkleTree} persisted in leveldb
+ * with one root per confirmed height. each confirmed block only rewrites the paths of the states it changes.
+ * the roots are served with inclusion proofs over rpc and are not part of consensus.
+ *
+ * the tree is rebuilt from the database in the background when it is missing or behind at startup,
+ * when wisdom.state-trie.rebuild is set, or after a block fails to be written. only the roots of the last
+ * wisdom.state-trie.retained-roots heights are kept; nodes are content addressed and shared between roots,
+ * nodes no longer reachable from a retained root are not pruned
+ */
+@Component
+public class StateTrie {
+    private static final Logger logger = LoggerFactory.getLogger(StateTrie.class);
+
+    private static final byte[] NODE_PREFIX = "state-trie-node-".getBytes();
+
+    private static final byte[] ROOT_PREFIX = "state-trie-root-".getBytes();
+
+    private static final byte[] LATEST_KEY = "state-trie-latest".getBytes();
+
+    private static final byte ACCOUNT = 0;
+
+    private static final byte INCUBATOR = 1;
+
+    private static final byte[] EMPTY_PUBLIC_KEY_HASH = new byte[20];
+
+    // 重建时每次插入并写入的记录数量
+    private static final int REBUILD_CHUNK_SIZE = 10000;
+
+    @Value("${wisdom.state-trie.enabled}")
+    private boolean enabled;
+
+    // 启动时强制重建
+    @Value("${wisdom.state-trie.rebuild}")
+    private boolean rebuildOnStart;
+
+    // 保留最近多少个高度的根，0 表示全部保留
+    @Value("${wisdom.state-trie.retained-roots}")
+    private long retainedRoots;
+
+    @Autowired
+    private Leveldb leveldb;
+
+    @Autowired
+    private AccountDB accountDB;
+
+    @Autowired
+    private IncubatorDB incubatorDB;
+
+    @Autowired
+    private WisdomBlockChain bc;
+
+    private int rebuildChunkSize = REBUILD_CHUNK_SIZE;
+
+    private final ExecutorService rebuildExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "state-trie-rebuild");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // 正在进行的重建，重建期间确认的区块只记录修改的状态，只在持有对象锁时访问
+    private Rebuild rebuilding;
+
+    private static class Rebuild {
+        // 高度 -> 这个区块修改的状态
+        private final TreeMap<Long, Map<String, byte[]>> changes = new TreeMap<>();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized boolean isRebuilding() {
+        return rebuilding != null;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        long latest = getLatestHeight();
+        long confirmed = bc.getLastConfirmedBlock().nHeight;
+        if (rebuildOnStart || latest < confirmed) {
+            logger.info("state trie at height " + latest + ", last confirmed height " + confirmed + ", rebuild");
+            rebuild();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        rebuildExecutor.shutdownNow();
+    }
+
+    /**
+     * called on the block writer thread after the block and its states are committed
+     */
+    public synchronized void update(Block block, List<Account> accounts, List<Incubator> incubators) {
+        if (!enabled) {
+            return;
+        }
+        if (rebuilding != null) {
+            rebuilding.changes.put(block.nHeight, values(accounts, incubators));
+            return;
+        }
+        long latest = getLatestHeight();
+        if (latest >= block.nHeight) {
+            return;
+        }
+        // 失败的写入已经触发重建，不会出现空缺
+        if (latest != block.nHeight - 1) {
+            logger.error("state trie at height " + latest + " is behind block " + block.nHeight + ", set wisdom.state-trie.rebuild to rebuild it");
+            return;
+        }
+        SparseMerkleTree tree = new SparseMerkleTree(this::readNode);
+        byte[] root = tree.update(getRoot(latest), values(accounts, incubators));
+        if (!writeRoot(tree, block.nHeight, root)) {
+            logger.error("write state trie at height " + block.nHeight + " failed, rebuild");
+            rebuild();
+        }
+    }
+
+    /**
+     * rebuild the tree from the latest states in the database in the background,
+     * the root is written at the last height confirmed when the rebuild completes
+     */
+    public synchronized void rebuild() {
+        if (rebuilding != null) {
+            return;
+        }
+        Rebuild r = new Rebuild();
+        rebuilding = r;
+        rebuildExecutor.execute(() -> {
+            try {
+                rebuild(r);
+            } catch (Exception e) {
+                logger.error("rebuild state trie failed " + e.getMessage());
+            } finally {
+                synchronized (this) {
+                    rebuilding = null;
+                }
+            }
+        });
+    }
+
+    private void rebuild(Rebuild r) {
+        // 在开始重建之后读取，这个高度之前的状态都已经提交到数据库
+        long base = bc.getLastConfirmedBlock().nHeight;
+        logger.info("rebuild state trie from height " + base);
+        byte[][] root = new byte[][]{SparseMerkleTree.EMPTY};
+        Map<String, byte[]> chunk = new HashMap<>();
+        // 两次查询之间提交的区块也会记录在 changes 中，之后重新应用
+        accountDB.forEachLatestAccount(a -> {
+            chunk.put(accountKey(a.getPubkeyHash()), accountValue(a));
+            if (chunk.size() >= rebuildChunkSize) {
+                root[0] = insert(root[0], chunk);
+            }
+        });
+        incubatorDB.forEachLatestIncubator(i -> {
+            chunk.put(incubatorKey(i.getTxid_issue()), incubatorValue(i));
+            if (chunk.size() >= rebuildChunkSize) {
+                root[0] = insert(root[0], chunk);
+            }
+        });
+        root[0] = insert(root[0], chunk);
+
+        // 按高度重新应用重建期间确认的区块，快照中较新的状态会被之后的区块覆盖，只写入最后一个高度的根
+        synchronized (this) {
+            long height = base;
+            SparseMerkleTree tree = new SparseMerkleTree(this::readNode);
+            for (Map.Entry<Long, Map<String, byte[]>> e : r.changes.tailMap(base, false).entrySet()) {
+                root[0] = tree.update(root[0], e.getValue());
+                height = e.getKey();
+            }
+            if (!writeRoot(tree, height, root[0])) {
+                throw new RuntimeException("write state trie at height " + height + " failed");
+            }
+            logger.info("rebuild state trie at height " + height + " done");
+        }
+    }
+
+    // 插入一批记录并写入新的节点，清空 chunk
+    private byte[] insert(byte[] root, Map<String, byte[]> chunk) {
+        if (chunk.isEmpty()) {
+            return root;
+        }
+        SparseMerkleTree tree = new SparseMerkleTree(this::readNode);
+        byte[] res = tree.update(root, chunk);
+        if (!leveldb.writeBatch(batch -> putNodes(batch, tree))) {
+            throw new RuntimeException("write state trie nodes failed");
+        }
+        chunk.clear();
+        return res;
+    }
+
+    private boolean writeRoot(SparseMerkleTree tree, long height, byte[] root) {
+        return leveldb.writeBatch(batch -> {
+            putNodes(batch, tree);
+            batch.put(Arrays.concatenate(ROOT_PREFIX, BigEndian.encodeUint64(height)), root);
+            batch.put(LATEST_KEY, BigEndian.encodeUint64(height));
+            if (retainedRoots > 0 && height >= retainedRoots) {
+                batch.delete(Arrays.concatenate(ROOT_PREFIX, BigEndian.encodeUint64(height - retainedRoots)));
+            }
+        });
+    }
+
+    private static void putNodes(WriteBatch batch, SparseMerkleTree tree) {
+        tree.getCreated().forEach((k, v) -> {
+            try {
+                batch.put(Arrays.concatenate(NODE_PREFIX, Hex.decodeHex(k.toCharArray())), v);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    // 尚未生成时返回 -1
+    public long getLatestHeight() {
+        byte[] latest = leveldb.read(LATEST_KEY);
+        return latest == null ? -1 : BigEndian.decodeUint64(latest);
+    }
+
+    public byte[] getRoot(long height) {
+        return leveldb.read(Arrays.concatenate(ROOT_PREFIX, BigEndian.encodeUint64(height)));
+    }
+
+    public Optional<SparseMerkleTree.Proof> proveAccount(byte[] publicKeyHash, long height) {
+        return prove(accountTrieKey(publicKeyHash), height);
+    }
+
+    public Optional<SparseMerkleTree.Proof> proveIncubator(byte[] txid, long height) {
+        return prove(incubatorTrieKey(txid), height);
+    }
+
+    private Optional<SparseMerkleTree.Proof> prove(byte[] key, long height) {
+        byte[] root = getRoot(height);
+        if (root == null) {
+            return Optional.empty();
+        }
+        return Optional.of(new SparseMerkleTree(this::readNode).prove(root, key));
+    }
+
+    private byte[] readNode(byte[] hash) {
+        return leveldb.read(Arrays.concatenate(NODE_PREFIX, hash));
+    }
+
+    // 同一个区块中的多条记录只保留高度最高的一条
+    private static Map<String, byte[]> values(List<Account> accounts, List<Incubator> incubators) {
+        Map<String, Account> latestAccounts = new HashMap<>();
+        for (Account a : accounts) {
+            latestAccounts.merge(accountKey(a.getPubkeyHash()), a, (x, y) -> y.getBlockHeight() >= x.getBlockHeight() ? y : x);
+        }
+        Map<String, Incubator> latestIncubators = new HashMap<>();
+        for (Incubator i : incubators) {
+            latestIncubators.merge(incubatorKey(i.getTxid_issue()), i, (x, y) -> y.getHeight() >= x.getHeight() ? y : x);
+        }
+        Map<String, byte[]> values = new HashMap<>();
+        latestAccounts.forEach((k, a) -> values.put(k, accountValue(a)));
+        latestIncubators.forEach((k, i) -> values.put(k, incubatorValue(i)));
+        return values;
+    }
+
+    public static byte[] accountTrieKey(byte[] publicKeyHash) {
+        return HashUtil.keccak256(Arrays.concatenate(new byte[]{ACCOUNT}, publicKeyHash));
+    }
+
+    public static byte[] incubatorTrieKey(byte[] txid) {
+        return HashUtil.keccak256(Arrays.concatenate(new byte[]{INCUBATOR}, txid));
+    }
+
+    private static String accountKey(byte[] publicKeyHash) {
+        return Hex.encodeHexString(accountTrieKey(publicKeyHash));
+    }
+
+    private static String incubatorKey(byte[] txid) {
+        return Hex.encodeHexString(incubatorTrieKey(txid));
+    }
+
+    public static byte[] accountValue(Account a) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(a.getPubkeyHash(), 0, a.getPubkeyHash().length);
+        for (long v : new long[]{a.getNonce(), a.getBalance(), a.getIncubatecost(), a.getMortgage(), a.getVote()}) {
+            out.write(BigEndian.encodeUint64(v), 0, 8);
+        }
+        return HashUtil.keccak256(out.toByteArray());
+    }
+
+    public static byte[] incubatorValue(Incubator i) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // 只有分享者的孵化器没有 pubkeyhash
+        for (byte[] b : new byte[][]{i.getTxid_issue(), i.getPubkeyhash(), i.getShare_pubkeyhash()}) {
+            b = b == null ? EMPTY_PUBLIC_KEY_HASH : b;
+            out.write(b, 0, b.length);
+        }
+        for (long v : new long[]{
+                i.getCost(), i.getInterest_amount(), i.getShare_amount(),
+                i.getLast_blockheight_interest(), i.getLast_blockheight_share(), i.getHeight()
+        }) {
+            out.write(BigEndian.encodeUint64(v), 0, 8);
+        }
+        return HashUtil.keccak256(out.toByteArray());
+    }
+}
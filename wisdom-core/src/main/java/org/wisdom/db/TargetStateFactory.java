@@ -5,9 +5,18 @@ import org.springframework.stereotype.Component;
 import org.wisdom.consensus.pow.TargetState;
 import org.wisdom.core.state.EraLinkedStateFactory;
 
+import java.util.Collection;
+import java.util.Collections;
+
 @Component
 public class TargetStateFactory extends EraLinkedStateFactory<TargetState> {
     public TargetStateFactory(TargetState genesisState, @Value("${wisdom.consensus.blocks-per-era}") int blocksPerEra) {
         super(StateDB.CACHE_SIZE, genesisState, blocksPerEra);
     }
+
+    // 难度调整只依赖区块头
+    @Override
+    protected Collection<Integer> getTransactionTypes() {
+        return Collections.emptyList();
+    }
 }
@@ -2,10 +2,8 @@ package org.wisdom.db;
 
 import org.wisdom.core.Block;
 import org.wisdom.core.account.Transaction;
-import org.wisdom.keystore.account.Address;
-import org.wisdom.keystore.crypto.RipemdUtility;
-import org.wisdom.keystore.crypto.SHA3Utility;
 import org.wisdom.keystore.wallet.KeystoreAction;
+import org.wisdom.util.Address;
 
 import java.util.*;
 
@@ -17,7 +15,7 @@ public class Utils {
         }
         for(Transaction tx: b.body){
             if(!Arrays.equals(tx.from, new byte[tx.from.length])){
-                res.add(RipemdUtility.ripemd160(SHA3Utility.keccak256(tx.from)));
+                res.add(Address.publicKeyToHash(tx.from));
             }
             if(!Arrays.equals(tx.to, new byte[tx.to.length])){
                 res.add(tx.to);
@@ -91,6 +91,8 @@ public class Fifo implements ApplicationRunner, ApplicationListener<Fifo.FifoMes
 
     private static final String InvalidCron = "cron is invalid";
 
+    private static final String Unsupported = "queued to pending is event-driven, the cycle cannot be modified";
+
     @Override
     public void run(ApplicationArguments args) throws Exception {
         if (!isLinuxSystem()) {
@@ -205,8 +207,9 @@ public class Fifo implements ApplicationRunner, ApplicationListener<Fifo.FifoMes
                 return getTransactionBlock(message);
             case "modifyVersion":
                 return setVersion(message);
+            // queued 到 pending 由事件触发，不再有写入周期
             case "modifyQueuedToPendingCycle":
-                return modifyQueuedToPendingCycle(message);
+                return Unsupported;
             case "modifyClearCycle":
                 return modifyClearCycle(message);
             case "setIsLocalOnly":
@@ -270,14 +273,6 @@ public class Fifo implements ApplicationRunner, ApplicationListener<Fifo.FifoMes
         return ModifySuccess;
     }
 
-    private String modifyQueuedToPendingCycle(String cron) {
-        if (!validateCron(cron)) {
-            return InvalidCron;
-        }
-        ipcConfig.setQueuedToPendingCycle(cron);
-        return ModifySuccess;
-    }
-
     private boolean validateCron(String cron) {
         return CronExpression.isValidExpression(cron);
     }
@@ -20,9 +20,6 @@ public class IpcConfig {
     @Value("${wisdom.ipc-config.lifetime}")
     private long tranLifetime;
 
-    @Value("${wisdom.ipc-config.queued_to_pending_cycle}")
-    private String queuedToPendingCycle;
-
     // 格式是 cron字符串
     @Value("${wisdom.ipc-config.clear-cycle}")
     private String clearCycle;
@@ -79,14 +76,6 @@ public class IpcConfig {
         configuration.setMin_procedurefee(feeLimit);
     }
 
-    public String getQueuedToPendingCycle() {
-        return queuedToPendingCycle;
-    }
-
-    public void setQueuedToPendingCycle(String queuedToPendingCycle) {
-        this.queuedToPendingCycle = queuedToPendingCycle;
-    }
-
     public String getClearCycle() {
         return clearCycle;
     }
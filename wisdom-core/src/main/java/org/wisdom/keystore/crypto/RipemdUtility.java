@@ -25,6 +25,9 @@ import org.bouncycastle.crypto.digests.RIPEMD256Digest;
 import org.bouncycastle.crypto.digests.RIPEMD320Digest;
 
 public class RipemdUtility {
+    // 每个线程复用自己的摘要实例
+    private static final ThreadLocal<Digest> RIPEMD_160 = ThreadLocal.withInitial(RIPEMD160Digest::new);
+
     public static byte[] ripemd128(byte[] bytes) {
         Digest digest = new RIPEMD128Digest();
         digest.update(bytes, 0, bytes.length);
@@ -34,8 +37,13 @@ public class RipemdUtility {
     }
 
     public static byte[] ripemd160(byte[] bytes) {
-        Digest digest = new RIPEMD160Digest();
-        digest.update(bytes, 0, bytes.length);
+        return ripemd160(bytes, 0, bytes.length);
+    }
+
+    public static byte[] ripemd160(byte[] bytes, int offset, int length) {
+        Digest digest = RIPEMD_160.get();
+        digest.reset();
+        digest.update(bytes, offset, length);
         byte[] rsData = new byte[digest.getDigestSize()];
         digest.doFinal(rsData, 0);
         return rsData;
@@ -26,6 +26,9 @@ import org.bouncycastle.util.encoders.Hex;
 
 
 public class SHA3Utility {
+    // 每个线程复用自己的摘要实例
+    private static final ThreadLocal<Digest> KECCAK_256 = ThreadLocal.withInitial(() -> new KeccakDigest(256));
+    private static final ThreadLocal<Digest> SHA3_256 = ThreadLocal.withInitial(() -> new SHA3Digest(256));
 
     /**
      * Generate hash of the given input using the given Digest.
@@ -35,8 +38,13 @@ public class SHA3Utility {
      * @return hashed data.
      */
     public static byte[] hash(byte[] input, Digest digest) {
+        return hash(input, 0, input.length, digest);
+    }
+
+    public static byte[] hash(byte[] input, int offset, int length, Digest digest) {
         byte[] retValue = new byte[digest.getDigestSize()];
-        digest.update(input, 0, input.length);
+        digest.reset();
+        digest.update(input, offset, length);
         digest.doFinal(retValue, 0);
         return retValue;
     }
@@ -56,13 +64,15 @@ public class SHA3Utility {
     }
 
     public static byte[] keccak256(byte[] in){
-        Digest digest = new KeccakDigest(256);
-        return SHA3Utility.hash(in, digest);
+        return SHA3Utility.hash(in, KECCAK_256.get());
+    }
+
+    public static byte[] keccak256(byte[] in, int offset, int length){
+        return SHA3Utility.hash(in, offset, length, KECCAK_256.get());
     }
 
     public static byte[] sha3256(byte[] in){
-        Digest digest = new SHA3Digest(256);
-        return SHA3Utility.hash(in, digest);
+        return SHA3Utility.hash(in, SHA3_256.get());
     }
 
 
@@ -0,0 +1,134 @@
+package org.wisdom.merkletree;
+
+import org.bouncycastle.crypto.digests.KeccakDigest;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * computes the same root as {@link MerkleTree} on a flat array of 32 byte nodes without building tree nodes,
+ * levels are reduced in place and large lower levels are hashed in parallel.
+ * use {@link MerkleTree} when the nodes of the tree are needed
+ */
+public class MerkleRoot {
+    public static final int HASH_SIZE = 32;
+
+    // 节点数量超过该值的层并行计算
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    // 并行计算时每个任务处理的节点数量
+    private static final int CHUNK_SIZE = 1024;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    /**
+     * @param items raw hashes or ids, each leaf is keccak256 of the hex string of the item
+     * @return the merkle root, 32 zero bytes if items is empty
+     */
+    public static byte[] root(List<byte[]> items) {
+        int n = items.size();
+        if (n == 0) {
+            return new byte[HASH_SIZE];
+        }
+        byte[] nodes = new byte[n * HASH_SIZE];
+        if (n < PARALLEL_THRESHOLD) {
+            new Hasher().leaves(items, nodes, 0, n);
+        } else {
+            IntStream.range(0, (n + CHUNK_SIZE - 1) / CHUNK_SIZE).parallel().forEach(c ->
+                    new Hasher().leaves(items, nodes, c * CHUNK_SIZE, Math.min(n, (c + 1) * CHUNK_SIZE))
+            );
+        }
+        return rootOfLeaves(nodes, n);
+    }
+
+    /**
+     * @param nodes leaf hashes, 32 bytes each, overwritten by the intermediate levels
+     */
+    public static byte[] rootOfLeaves(byte[] nodes, int n) {
+        if (n == 0) {
+            return new byte[HASH_SIZE];
+        }
+        byte level = 1;
+        // 下层节点较多时并行计算，写入另一个数组避免读写冲突
+        while (n >= PARALLEL_THRESHOLD) {
+            int size = n;
+            int parents = (n + 1) / 2;
+            byte lv = level;
+            byte[] src = nodes;
+            byte[] dst = new byte[parents * HASH_SIZE];
+            IntStream.range(0, (parents + CHUNK_SIZE - 1) / CHUNK_SIZE).parallel().forEach(c ->
+                    new Hasher().parents(src, dst, size, lv, c * CHUNK_SIZE, Math.min(parents, (c + 1) * CHUNK_SIZE))
+            );
+            nodes = dst;
+            n = parents;
+            level++;
+        }
+        // 父节点 i 只依赖子节点 2i 和 2i + 1，可以原地覆盖
+        Hasher hasher = new Hasher();
+        do {
+            int parents = (n + 1) / 2;
+            hasher.parents(nodes, nodes, n, level, 0, parents);
+            n = parents;
+            level++;
+        } while (n > 1);
+        byte[] root = new byte[HASH_SIZE];
+        System.arraycopy(nodes, 0, root, 0, HASH_SIZE);
+        return root;
+    }
+
+    // 和 MerkleTree 的层数一致，只有一个叶子时也会生成一个父节点
+    public static int levels(int n) {
+        if (n == 0) {
+            return 0;
+        }
+        int levels = 1;
+        do {
+            n = (n + 1) / 2;
+            levels++;
+        } while (n > 1);
+        return levels;
+    }
+
+    // 每个线程一个实例，复用摘要和缓冲区
+    private static class Hasher {
+        private final KeccakDigest digest = new KeccakDigest(256);
+
+        // level(1) + left hex(64) + right hex(64)
+        private final byte[] buf = new byte[1 + 4 * HASH_SIZE];
+
+        private byte[] leafBuf = new byte[0];
+
+        private void leaves(List<byte[]> items, byte[] nodes, int from, int to) {
+            for (int i = from; i < to; i++) {
+                byte[] item = items.get(i);
+                if (leafBuf.length != item.length * 2) {
+                    leafBuf = new byte[item.length * 2];
+                }
+                hex(item, 0, item.length, leafBuf, 0);
+                digest.update(leafBuf, 0, leafBuf.length);
+                digest.doFinal(nodes, i * HASH_SIZE);
+            }
+        }
+
+        private void parents(byte[] src, byte[] dst, int n, byte level, int from, int to) {
+            buf[0] = level;
+            for (int i = from; i < to; i++) {
+                int left = 2 * i;
+                // 奇数个节点时最后一个节点和自己组合
+                int right = left + 1 < n ? left + 1 : left;
+                hex(src, left * HASH_SIZE, HASH_SIZE, buf, 1);
+                hex(src, right * HASH_SIZE, HASH_SIZE, buf, 1 + 2 * HASH_SIZE);
+                digest.update(buf, 0, buf.length);
+                digest.doFinal(dst, i * HASH_SIZE);
+            }
+        }
+
+        private static void hex(byte[] in, int offset, int length, byte[] out, int outOffset) {
+            for (int i = 0; i < length; i++) {
+                int b = in[offset + i] & 0xff;
+                out[outOffset + 2 * i] = HEX[b >>> 4];
+                out[outOffset + 2 * i + 1] = HEX[b & 0x0f];
+            }
+        }
+    }
+}
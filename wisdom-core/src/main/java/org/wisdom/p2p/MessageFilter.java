@@ -27,13 +27,6 @@ public class MessageFilter implements Plugin {
             context.exit();
             return;
         }
-        // 过滤掉签名不合法的包
-        if (!new Ed25519PublicKey(context.getPayload().getRemote().peerID).verify(
-                Util.getRawForSign(context.getPayload().getMessage()), context.getPayload().getSignature()
-        )) {
-            context.exit();
-            return;
-        }
         // 过滤掉自己发的包
         if (context.getPayload().getRemote().equals(server.getSelf())) {
             context.exit();
@@ -45,9 +38,17 @@ public class MessageFilter implements Plugin {
             return;
         }
         String k = Hex.encodeHexString(context.getPayload().getSignature());
-        // 过滤掉收到过的消息
+        // 过滤掉收到过的消息，重复的包不再校验签名
         if (msgs.containsKey(k)) {
             context.exit();
+            return;
+        }
+        // 过滤掉签名不合法的包
+        if (!new Ed25519PublicKey(context.getPayload().getRemote().peerID).verify(
+                Util.getRawForSign(context.getPayload().getMessage()), context.getPayload().getSignature()
+        )) {
+            context.exit();
+            return;
         }
         msgs.put(k, true);
     }
@@ -0,0 +1,187 @@
+package org.wisdom.pool;
+
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.wisdom.command.Configuration;
+import org.wisdom.command.TransactionCheck;
+import org.wisdom.core.Block;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.core.event.NewBestBlockEvent;
+import org.wisdom.core.event.NewQueuedTransactionEvent;
+import org.wisdom.core.incubator.Incubator;
+import org.wisdom.core.incubator.IncubatorDB;
+import org.wisdom.util.Address;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * queued -> pending promotion, triggered by new best blocks and new queued transactions,
+ * each run only visits the affected senders and the senders parked by previous runs
+ */
+@Component
+public class AdoptToPendingTask implements ApplicationListener<ApplicationEvent> {
+    private static final Logger logger = LoggerFactory.getLogger(AdoptToPendingTask.class);
+
+    // 重试被搁置的发送者的周期
+    private static final long RETRY_RATE = 5 * 1000;
+
+    @Autowired
+    AdoptTransPool adoptTransPool;
+
+    @Autowired
+    PeningTransPool peningTransPool;
+
+    @Autowired
+    Configuration configuration;
+
+    @Autowired
+    IncubatorDB incubatorDB;
+
+    @Autowired
+    TransactionCheck transactionCheck;
+
+    // senders touched by events since last run
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+
+    // senders which still have queued transactions but could not be promoted yet
+    private final Set<String> parked = ConcurrentHashMap.newKeySet();
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @Override
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (event instanceof ContextRefreshedEvent) {
+            // 启动时从 journal 恢复的事务
+            dirty.addAll(adoptTransPool.getSenders());
+            trigger();
+        }
+        if (event instanceof NewQueuedTransactionEvent) {
+            markSenders(((NewQueuedTransactionEvent) event).getTransactions());
+            trigger();
+        }
+        if (event instanceof NewBestBlockEvent) {
+            Block block = ((NewBestBlockEvent) event).getBlock();
+            if (block.body != null) {
+                markSenders(block.body);
+            }
+            trigger();
+        }
+    }
+
+    private void markSenders(List<Transaction> transactions) {
+        for (Transaction t : transactions) {
+            if (t.type == Transaction.Type.COINBASE.ordinal() || t.from == null) {
+                continue;
+            }
+            dirty.add(Address.publicKeyToHashHex(t.from));
+        }
+    }
+
+    @Scheduled(fixedDelay = RETRY_RATE)
+    public void retry() {
+        if (!parked.isEmpty()) {
+            trigger();
+        }
+    }
+
+    private void trigger() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                scheduled.set(false);
+                try {
+                    promote();
+                } catch (Exception e) {
+                    logger.error("queued to pending promotion failed " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    void promote() {
+        Set<String> senders = new HashSet<>(dirty);
+        dirty.removeAll(senders);
+        Set<String> retries = new HashSet<>(parked);
+        parked.removeAll(retries);
+        senders.addAll(retries);
+        if (senders.isEmpty()) {
+            return;
+        }
+
+        Map<String, List<TransPool>> map = adoptTransPool.getqueuedtopending(senders);
+        Map<String, Incubator> incubators = incubatorDB.selectIncubators(incubatorIds(map.values()));
+        IdentityHashMap<String, String> maps = new IdentityHashMap<>();
+        List<TransPool> newlist = new ArrayList<>();
+        int index = peningTransPool.size();
+        boolean state = false;
+        for (Map.Entry<String, List<TransPool>> entry : map.entrySet()) {
+            if (state) {
+                parked.add(entry.getKey());
+                continue;
+            }
+            //判断pendingnonce是否存在 状态不为2的地址
+            PendingNonce pendingNonce = peningTransPool.findptnonce(entry.getKey());
+            if (pendingNonce.getState() != 2) {
+                parked.add(entry.getKey());
+                continue;
+            }
+            List<TransPool> list = entry.getValue();
+            for (TransPool transPool : list) {
+                Transaction transaction = transPool.getTransaction();
+                Incubator incubator = null;
+                if ((transaction.type == 0x0a || transaction.type == 0x0b || transaction.type == 0x0c) && transaction.payload != null) {
+                    incubator = incubators.get(Hex.encodeHexString(transaction.payload));
+                }
+                if (transactionCheck.checkoutPool(transaction, incubator)) {
+                    //超过pending上限
+                    if (index > configuration.getMaxpending()) {
+                        state = true;
+                        break;
+                    }
+                    newlist.add(transPool);
+                    index++;
+                }
+                maps.put(new String(entry.getKey()), adoptTransPool.getKey(transaction));
+            }
+        }
+        adoptTransPool.remove(maps);
+        peningTransPool.add(newlist);
+        // 仍有剩余 queued 事务的发送者留待下次处理
+        for (String sender : map.keySet()) {
+            if (!adoptTransPool.hasExist(sender)) {
+                parked.add(sender);
+            }
+        }
+    }
+
+    private static List<byte[]> incubatorIds(Collection<List<TransPool>> transPools) {
+        List<byte[]> ids = new ArrayList<>();
+        for (List<TransPool> list : transPools) {
+            for (TransPool transPool : list) {
+                Transaction transaction = transPool.getTransaction();
+                if ((transaction.type == 0x0a || transaction.type == 0x0b || transaction.type == 0x0c) && transaction.payload != null) {
+                    ids.add(transaction.payload);
+                }
+            }
+        }
+        return ids;
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -1,18 +1,15 @@
 package org.wisdom.pool;
 
-import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.TypeReference;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.collections.map.LinkedMap;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.wisdom.command.Configuration;
 import org.wisdom.core.account.Transaction;
-import org.wisdom.db.Leveldb;
-import org.wisdom.keystore.crypto.RipemdUtility;
-import org.wisdom.keystore.crypto.SHA3Utility;
 import org.wisdom.pool.TransPool;
+import org.wisdom.util.Address;
 
+import javax.annotation.PostConstruct;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -23,33 +20,38 @@ public class AdoptTransPool {
     Configuration configuration;
 
     @Autowired
-    private Leveldb leveldb;
+    private PoolJournal poolJournal;
 
     // publicKeyHash -> Strings.concat(publicKeyHash, nonce) -> transaction
     private ConcurrentHashMap<String, ConcurrentHashMap<String, TransPool>> atpool;
 
+    // transaction hash -> transaction
+    private ConcurrentHashMap<String, TransPool> txhashIndex;
+
     public AdoptTransPool() {
         atpool = new ConcurrentHashMap<>();
-        try {
-            String dbdata = leveldb.readPoolDb("QueuedPool");
-            if (dbdata != null && !dbdata.equals("")) {
-                List<Transaction> list = JSON.parseObject(dbdata, new TypeReference<ArrayList<Transaction>>() {
-                });
-                add(list);
-            }
-        } catch (Exception e) {
-            atpool = new ConcurrentHashMap<>();
+        txhashIndex = new ConcurrentHashMap<>();
+    }
+
+    @PostConstruct
+    public void init() {
+        for (TransPool tp : poolJournal.replay(PoolJournal.QUEUED)) {
+            Transaction t = tp.getTransaction();
+            String from = Address.publicKeyToHashHex(t.from);
+            atpool.computeIfAbsent(from, k -> new ConcurrentHashMap<>()).put(getKeyTrans(t), tp);
+            txhashIndex.put(t.getHashHexString(), tp);
         }
     }
 
     public void add(List<Transaction> txs) {
         for (Transaction t : txs) {
-            String from = Hex.encodeHexString(RipemdUtility.ripemd160(SHA3Utility.keccak256(t.from)));
+            String from = Address.publicKeyToHashHex(t.from);
             if (hasExist(from)) {
                 ConcurrentHashMap<String, TransPool> map = new ConcurrentHashMap<>();
                 TransPool tp = new TransPool(t, 0, new Date().getTime());
-                map.put(getKeyTrans(t), tp);
+                putTransPool(from, map, tp);
                 atpool.put(from, map);
+                poolJournal.put(PoolJournal.QUEUED, from, tp);
             } else {
                 ConcurrentHashMap<String, TransPool> map = atpool.get(from);
                 if (map.containsKey(getKeyTrans(t))) {
@@ -57,26 +59,37 @@ public class AdoptTransPool {
                     Transaction transaction = transPool.getTransaction();
                     if (transaction.type == t.type) {//同一事务才可覆盖
                         TransPool tp = new TransPool(t, 0, new Date().getTime());
-                        map.put(getKeyTrans(t), tp);
+                        putTransPool(from, map, tp);
                         atpool.put(from, map);
+                        poolJournal.put(PoolJournal.QUEUED, from, tp);
                     }
                 } else {
                     TransPool tp = new TransPool(t, 0, new Date().getTime());
-                    map.put(getKeyTrans(t), tp);
+                    putTransPool(from, map, tp);
                     atpool.put(from, map);
+                    poolJournal.put(PoolJournal.QUEUED, from, tp);
                 }
             }
         }
     }
 
+    private void putTransPool(String from, Map<String, TransPool> map, TransPool tp) {
+        Transaction t = tp.getTransaction();
+        TransPool previous = map.put(getKeyTrans(t), tp);
+        if (previous != null) {
+            txhashIndex.remove(previous.getTransaction().getHashHexString());
+        }
+        txhashIndex.put(t.getHashHexString(), tp);
+    }
+
     public int size(){
-        return getAllFull().size();
+        return txhashIndex.size();
     }
 
     public String getKeyTrans(Transaction t) {
         if (t != null) {
             byte[] from = t.from;
-            String fromhash = Hex.encodeHexString(RipemdUtility.ripemd160(SHA3Utility.keccak256(from)));
+            String fromhash = Address.publicKeyToHashHex(from);
             String key = fromhash + t.nonce;
             return key;
         } else {
@@ -106,7 +119,11 @@ public class AdoptTransPool {
         if (!hasExist(key)) {
             ConcurrentHashMap<String, TransPool> map = atpool.get(key);
             if (map.containsKey(mapkey)) {
-                map.remove(mapkey);
+                TransPool removed = map.remove(mapkey);
+                if (removed != null) {
+                    txhashIndex.remove(removed.getTransaction().getHashHexString());
+                    poolJournal.remove(PoolJournal.QUEUED, key, removed.getTransaction().nonce);
+                }
                 if (map.size() == 0) {
                     atpool.remove(key);
                 } else {
@@ -130,11 +147,20 @@ public class AdoptTransPool {
 
     //转账、投票、撤回投票、(抵押、撤回抵押)可多nonce进入
     public Map<String, List<TransPool>> getqueuedtopending() {
+        return getqueuedtopending(atpool.keySet());
+    }
+
+    // 只处理指定发送者的事务
+    public Map<String, List<TransPool>> getqueuedtopending(Collection<String> senders) {
         Map<String, List<TransPool>> map = new HashMap<>();
         int index = 0;
-        for (Map.Entry<String, ConcurrentHashMap<String, TransPool>> entry : atpool.entrySet()) {
+        for (String sender : senders) {
+            ConcurrentHashMap<String, TransPool> pool = atpool.get(sender);
+            if (pool == null) {
+                continue;
+            }
             List<TransPool> transPoolList = new ArrayList<>();
-            Map<String, TransPool> maps = compare(entry.getValue());
+            Map<String, TransPool> maps = compare(pool);
             for (Map.Entry<String, TransPool> entry1 : maps.entrySet()) {
                 if (index < configuration.getMaxqpcount()) {
                     TransPool t = entry1.getValue();
@@ -149,11 +175,15 @@ public class AdoptTransPool {
                     }
                 }
             }
-            map.put(entry.getKey(), transPoolList);
+            map.put(sender, transPoolList);
         }
         return map;
     }
 
+    public Set<String> getSenders() {
+        return atpool.keySet();
+    }
+
     public List<TransPool> getAllFrom(String from) {
         List<TransPool> list = new ArrayList<>();
         if (!hasExist(from)) {
@@ -177,15 +207,7 @@ public class AdoptTransPool {
     }
 
     public TransPool getPoolTranHash(byte[] txhash) {
-        for (Map.Entry<String, ConcurrentHashMap<String, TransPool>> entry : atpool.entrySet()) {
-            for (Map.Entry<String, TransPool> entrys : entry.getValue().entrySet()) {
-                Transaction t = entrys.getValue().getTransaction();
-                if (Arrays.equals(t.getHash(), txhash)) {
-                    return entrys.getValue();
-                }
-            }
-        }
-        return null;
+        return txhashIndex.get(Hex.encodeHexString(txhash));
     }
 
     public Map<String, TransPool> compare(Map<String, TransPool> maps) {
@@ -219,7 +241,7 @@ public class AdoptTransPool {
                 TransPool transPool=entry.getValue();
                 Transaction transaction=transPool.getTransaction();
                 byte[] from=transaction.from;
-                pubhash=Hex.encodeHexString(RipemdUtility.ripemd160(SHA3Utility.keccak256(from)));
+                pubhash=Address.publicKeyToHashHex(from);
                 index++;
             }
         }
@@ -245,7 +267,7 @@ public class AdoptTransPool {
                 t.nonce=y;
                 t.gasPrice = (y+30);
                 ts.add(t);
-                String fromhash=Hex.encodeHexString(RipemdUtility.ripemd160(SHA3Utility.keccak256(t.from)));
+                String fromhash=Address.publicKeyToHashHex(t.from);
                 TransPool tp=new TransPool(t,0,new Date().getTime());
                 map.put(fromhash,tp);
             }
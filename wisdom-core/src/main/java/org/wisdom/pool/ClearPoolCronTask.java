@@ -13,8 +13,7 @@ import org.wisdom.core.WisdomBlockChain;
 import org.wisdom.core.account.AccountDB;
 import org.wisdom.core.account.Transaction;
 import org.wisdom.ipc.IpcConfig;
-import org.wisdom.keystore.crypto.RipemdUtility;
-import org.wisdom.keystore.crypto.SHA3Utility;
+import org.wisdom.util.Address;
 
 import java.util.*;
 
@@ -40,6 +39,9 @@ public class ClearPoolCronTask implements SchedulingConfigurer {
     @Autowired
     AccountDB accountDB;
 
+    @Autowired
+    PoolJournal poolJournal;
+
     @Override
     public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
         taskRegistrar.addTriggerTask(() -> {
@@ -50,7 +52,7 @@ public class ClearPoolCronTask implements SchedulingConfigurer {
                 Transaction t = transPool.getTransaction();
                 long nonce = t.nonce;
                 byte[] from = t.from;
-                byte[] frompubhash = RipemdUtility.ripemd160(SHA3Utility.keccak256(from));
+                byte[] frompubhash = Address.publicKeyToHash(from);
                 //nonce
                 long nownonce = accountDB.getNonce(frompubhash);
                 if (nownonce >= nonce) {
@@ -79,7 +81,7 @@ public class ClearPoolCronTask implements SchedulingConfigurer {
                 Transaction t = transPool.getTransaction();
                 long nonce = t.nonce;
                 byte[] from = t.from;
-                byte[] frompubhash = RipemdUtility.ripemd160(SHA3Utility.keccak256(from));
+                byte[] frompubhash = Address.publicKeyToHash(from);
                 //nonce
                 long nownonce = accountDB.getNonce(frompubhash);
                 if (nownonce >= nonce) {
@@ -124,6 +126,10 @@ public class ClearPoolCronTask implements SchedulingConfigurer {
             if (map.size() > 0) {
                 peningTransPool.remove(map);
             }
+            //持久化清理后的内存池
+            if (maps.size() > 0 || map.size() > 0 || updatelist.size() > 0) {
+                poolJournal.flush();
+            }
         }, triggerContext -> {
             //任务触发，可修改任务的执行周期
             CronTrigger trigger = new CronTrigger(ipcConfig.getClearCycle());
@@ -0,0 +1,89 @@
+package org.wisdom.pool;
+
+import org.wisdom.core.account.Transaction;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * index over the lowest-nonce unpacked transaction of each sender in pending pool,
+ * ordered by fee per byte, highest first
+ */
+public class FeePriorityIndex {
+
+    public static class Head {
+        private final String fromhash;
+        private final long nonce;
+        private final double feePerByte;
+
+        Head(String fromhash, TransPool transPool) {
+            Transaction t = transPool.getTransaction();
+            this.fromhash = fromhash;
+            this.nonce = t.nonce;
+            this.feePerByte = feePerByte(t);
+        }
+
+        public String getFromhash() {
+            return fromhash;
+        }
+
+        public long getNonce() {
+            return nonce;
+        }
+
+        public double getFeePerByte() {
+            return feePerByte;
+        }
+    }
+
+    public static double feePerByte(Transaction t) {
+        return ((double) t.getFee()) / t.size();
+    }
+
+    private static final Comparator<Head> ORDER = Comparator
+            .comparingDouble(Head::getFeePerByte).reversed()
+            .thenComparing(Head::getFromhash);
+
+    private final ConcurrentSkipListSet<Head> index = new ConcurrentSkipListSet<>(ORDER);
+
+    private final ConcurrentHashMap<String, Head> heads = new ConcurrentHashMap<>();
+
+    /**
+     * re-select the head of the sender after its transactions changed
+     *
+     * @param fromhash sender public key hash
+     * @param pending  transactions of the sender ordered by nonce, may be null
+     */
+    public void refresh(String fromhash, NavigableMap<Long, TransPool> pending) {
+        heads.compute(fromhash, (k, old) -> {
+            if (old != null) {
+                index.remove(old);
+            }
+            if (pending == null) {
+                return null;
+            }
+            for (TransPool transPool : pending.values()) {
+                if (transPool.getState() == 0) {
+                    Head head = new Head(fromhash, transPool);
+                    index.add(head);
+                    return head;
+                }
+            }
+            return null;
+        });
+    }
+
+    // senders ordered by fee per byte of their head, the iterator is weakly consistent and does not copy the index
+    public Iterator<Head> iterator() {
+        return index.iterator();
+    }
+
+    public Set<String> senders() {
+        return heads.keySet();
+    }
+
+    public int size() {
+        return heads.size();
+    }
+}
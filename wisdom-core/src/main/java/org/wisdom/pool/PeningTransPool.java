@@ -1,7 +1,5 @@
 package org.wisdom.pool;
 
-import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.TypeReference;
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.binary.Hex;
 import org.slf4j.Logger;
@@ -10,12 +8,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.wisdom.core.WisdomBlockChain;
 import org.wisdom.core.account.Transaction;
-import org.wisdom.db.Leveldb;
-import org.wisdom.keystore.crypto.RipemdUtility;
-import org.wisdom.keystore.crypto.SHA3Utility;
+import org.wisdom.util.Address;
 
+import javax.annotation.PostConstruct;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Component
 public class PeningTransPool {
@@ -29,26 +27,39 @@ public class PeningTransPool {
     WisdomBlockChain wisdomBlockChain;
 
     @Autowired
-    private Leveldb leveldb;
+    private PoolJournal poolJournal;
+
+    // replaying the journal, changes are not journaled again
+    private volatile boolean restoring;
 
     // publicKeyHash -> nonce -> transaction
     private Map<String, TreeMap<Long, TransPool>> ptpool;
 
     private Map<String, PendingNonce> ptnonce;
 
+    private FeePriorityIndex priorityIndex;
+
+    // transaction hash -> transaction
+    private Map<String, TransPool> txhashIndex;
+
+    // number of transactions in each state
+    private AtomicInteger[] stateCounters;
+
     public PeningTransPool() {
+        priorityIndex = new FeePriorityIndex();
+        txhashIndex = new ConcurrentHashMap<>();
+        stateCounters = new AtomicInteger[]{new AtomicInteger(), new AtomicInteger(), new AtomicInteger()};
         ptpool = new ConcurrentHashMap<>();
         ptnonce = new ConcurrentHashMap<>();
+    }
+
+    @PostConstruct
+    public void init() {
+        restoring = true;
         try {
-            String dbdata = leveldb.readPoolDb("PendingPool");
-            if (dbdata != null && !dbdata.equals("")) {
-                List<TransPool> transPoolList = JSON.parseObject(dbdata, new TypeReference<ArrayList<TransPool>>() {
-                });
-                add(transPoolList);
-            }
-        } catch (Exception e) {
-            ptpool = new ConcurrentHashMap<>();
-            ptnonce = new ConcurrentHashMap<>();
+            add(poolJournal.replay(PoolJournal.PENDING));
+        } finally {
+            restoring = false;
         }
     }
 
@@ -56,23 +67,46 @@ public class PeningTransPool {
         for (TransPool transPool : pools) {
             Transaction transaction = transPool.getTransaction();
             byte[] from = transaction.from;
-            String fromhash = Hex.encodeHexString(RipemdUtility.ripemd160(SHA3Utility.keccak256(from)));
+            String fromhash = Address.publicKeyToHashHex(from);
             if (ptpool.containsKey(fromhash)) {
                 TreeMap<Long, TransPool> map = ptpool.get(fromhash);
                 if(!map.containsKey(transaction.nonce)){//Pending Can't cover
                     map.put(transaction.nonce, transPool);
+                    indexTransPool(transPool);
                     ptpool.put(fromhash, map);
+                    journal(fromhash, transPool);
                     updateNonce(transaction.type, transaction.nonce, fromhash);
+                    priorityIndex.refresh(fromhash, map);
                 }
             } else {
                 TreeMap<Long, TransPool> map = new TreeMap<>();
                 map.put(transaction.nonce, transPool);
+                indexTransPool(transPool);
                 ptpool.put(fromhash, map);
+                journal(fromhash, transPool);
                 updateNonce(transaction.type, transaction.nonce, fromhash);
+                priorityIndex.refresh(fromhash, map);
             }
         }
     }
 
+    private void indexTransPool(TransPool transPool) {
+        txhashIndex.put(transPool.getTransaction().getHashHexString(), transPool);
+        countState(transPool.getState(), 1);
+    }
+
+    private void countState(int state, int delta) {
+        if (state >= 0 && state < stateCounters.length) {
+            stateCounters[state].addAndGet(delta);
+        }
+    }
+
+    private void journal(String fromhash, TransPool transPool) {
+        if (!restoring) {
+            poolJournal.put(PoolJournal.PENDING, fromhash, transPool);
+        }
+    }
+
     public void updatePtNone(String key, PendingNonce pendingNonce) {
         if (ptnonce.containsKey(key)) {
             ptnonce.put(key, pendingNonce);
@@ -80,10 +114,15 @@ public class PeningTransPool {
     }
 
     public int size() {
-        return getAll().size();
+        return txhashIndex.size();
     }
 
-    public int Unpacksize() { return getAllstate().size(); }
+    public int Unpacksize() { return size() - stateCounters[2].get(); }
+
+    // number of transactions not yet referenced by any block
+    public int nostateSize() {
+        return stateCounters[0].get();
+    }
 
     public List<TransPool> getAll() {
         List<TransPool> list = new ArrayList<>();
@@ -121,48 +160,35 @@ public class PeningTransPool {
     }
 
     public TransPool getPoolTranHash(byte[] txhash) {
-        for (Map.Entry<String, TreeMap<Long, TransPool>> entry : ptpool.entrySet()) {
-            for (Map.Entry<Long, TransPool> entrys : entry.getValue().entrySet()) {
-                Transaction t = entrys.getValue().getTransaction();
-                if (Arrays.equals(t.getHash(), txhash)) {
-                    return entrys.getValue();
-                }
-            }
-        }
-        return null;
+        return txhashIndex.get(Hex.encodeHexString(txhash));
     }
 
     public List<byte[]> getAllPubhash() throws DecoderException {
         List<byte[]> list = new ArrayList<>();
-        for (Map.Entry<String, TreeMap<Long, TransPool>> entry : ptpool.entrySet()) {
-            TreeMap<Long, TransPool> map = entry.getValue();
-            for (Map.Entry<Long, TransPool> entry1 : map.entrySet()) {
-                TransPool transPool = entry1.getValue();
-                if (transPool.getState() == 0) {
-                    String key = entry.getKey();
-                    byte[] pubkeyhash = Hex.decodeHex(key.toCharArray());
-                    list.add(pubkeyhash);
-                    break;
-                }
-            }
+        for (String key : priorityIndex.senders()) {
+            list.add(Hex.decodeHex(key.toCharArray()));
         }
         return list;
     }
 
-    public Map<String, TreeMap<Long, TransPool>> getAllMap() {
-        Map<String, TreeMap<Long, TransPool>> pendingmap = new HashMap<>();
-        for (Map.Entry<String, TreeMap<Long, TransPool>> entry : ptpool.entrySet()) {
-            Map<Long, TransPool> map = entry.getValue();
-            TreeMap<Long, TransPool> treemap = new TreeMap<>();
-            for (Map.Entry<Long, TransPool> entry1 : map.entrySet()) {
-                TransPool transPool = entry1.getValue();
-                if (transPool.getState() == 0) {
-                    treemap.put(transPool.getTransaction().nonce, transPool);
-                }
+    // senders with unpacked transactions, ordered by fee per byte of their lowest-nonce unpacked transaction
+    public Iterator<FeePriorityIndex.Head> getPrioritySenders() {
+        return priorityIndex.iterator();
+    }
+
+    // unpacked transactions of the sender ordered by nonce
+    public List<TransPool> getUnpackedFrom(String from) {
+        List<TransPool> list = new ArrayList<>();
+        TreeMap<Long, TransPool> map = ptpool.get(from);
+        if (map == null) {
+            return list;
+        }
+        for (TransPool transPool : map.values()) {
+            if (transPool.getState() == 0) {
+                list.add(transPool);
             }
-            pendingmap.put(entry.getKey(), treemap);
         }
-        return pendingmap;
+        return list;
     }
 
     public List<TransPool> getAllstate() {
@@ -197,13 +223,19 @@ public class PeningTransPool {
         if (ptpool.containsKey(key)) {
             TreeMap<Long, TransPool> map = ptpool.get(key);
             if (map.containsKey(nonce)) {
-                map.remove(nonce);
+                TransPool removed = map.remove(nonce);
+                if (removed != null) {
+                    txhashIndex.remove(removed.getTransaction().getHashHexString());
+                    countState(removed.getState(), -1);
+                }
+                poolJournal.remove(PoolJournal.PENDING, key, nonce);
             }
             if(map.size()==0){
                 ptpool.remove(key);
             }else{
                 ptpool.put(key, map);
             }
+            priorityIndex.refresh(key, ptpool.get(key));
         }
         if (ptnonce.containsKey(key)) {
             PendingNonce pendingNonce = ptnonce.get(key);
@@ -247,15 +279,19 @@ public class PeningTransPool {
 
     public void updatePool(List<Transaction> txs, int type, long height) {
         for (Transaction t : txs) {
-            String fromhash = Hex.encodeHexString(RipemdUtility.ripemd160(SHA3Utility.keccak256(t.from)));
+            String fromhash = Address.publicKeyToHashHex(t.from);
             if (ptpool.containsKey(fromhash)) {
                 TreeMap<Long, TransPool> map = ptpool.get(fromhash);
                 if (map.containsKey(t.nonce)) {
                     TransPool transPool = map.get(t.nonce);
                     transPool.setHeight(height);
+                    countState(transPool.getState(), -1);
                     transPool.setState(type);
+                    countState(type, 1);
                     map.put(t.nonce, transPool);
                     ptpool.put(fromhash, map);
+                    journal(fromhash, transPool);
+                    priorityIndex.refresh(fromhash, map);
                     if (type == 2) {//2 进db
                         if (t.type != 1 && t.type != 2 && t.type != 13) {//排除转账、投票、撤回投票
                             //ptnonce
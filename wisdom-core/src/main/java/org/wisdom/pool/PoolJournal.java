@@ -0,0 +1,219 @@
+package org.wisdom.pool;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.TypeReference;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.db.Leveldb;
+import org.wisdom.encoding.BigEndian;
+import org.wisdom.util.Address;
+import org.wisdom.util.Arrays;
+import org.wisdom.util.BytesReader;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * per-transaction journal of the transaction pools,
+ * entries are keyed by prefix | publicKeyHash | nonce, value is state | datetime | height | transaction rpc bytes
+ * changes are buffered and flushed periodically in one atomic write batch,
+ * so persistence cost is proportional to the number of changed transactions instead of pool size
+ */
+@Component
+public class PoolJournal {
+    private static final Logger logger = LoggerFactory.getLogger(PoolJournal.class);
+
+    public static final byte QUEUED = 'q';
+
+    public static final byte PENDING = 'p';
+
+    private static final byte[] PREFIX = "pool-journal-".getBytes();
+
+    private static final int KEY_SIZE = PREFIX.length + 1 + Transaction.PUBLIC_KEY_HASH_SIZE + 8;
+
+    private static final byte[] DELETED = new byte[0];
+
+    private static final long FLUSH_RATE = 5 * 1000;
+
+    private static final long COMPACT_RATE = 60 * 60 * 1000;
+
+    // legacy whole-pool json snapshots
+    private static final String LEGACY_QUEUED = "QueuedPool";
+
+    private static final String LEGACY_PENDING = "PendingPool";
+
+    // hex encoded key -> encoded entry or DELETED
+    private volatile Map<String, byte[]> dirty = new ConcurrentHashMap<>();
+
+    // writers share the read lock, flush takes the write lock to swap the buffer
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+
+    @Autowired
+    private Leveldb leveldb;
+
+    public void put(byte pool, String fromhash, TransPool transPool) {
+        record(key(pool, fromhash, transPool.getTransaction().nonce), encode(transPool));
+    }
+
+    public void remove(byte pool, String fromhash, long nonce) {
+        record(key(pool, fromhash, nonce), DELETED);
+    }
+
+    private void record(String key, byte[] value) {
+        swapLock.readLock().lock();
+        try {
+            dirty.put(key, value);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    public int dirtySize() {
+        return dirty.size();
+    }
+
+    @Scheduled(fixedDelay = FLUSH_RATE)
+    public synchronized void flush() {
+        Map<String, byte[]> changes;
+        swapLock.writeLock().lock();
+        try {
+            changes = dirty;
+            dirty = new ConcurrentHashMap<>();
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+        boolean written = leveldb.writeBatch(batch -> changes.forEach((k, v) -> {
+            byte[] key = decodeKey(k);
+            if (v == DELETED) {
+                batch.delete(key);
+            } else {
+                batch.put(key, v);
+            }
+        }));
+        if (written) {
+            return;
+        }
+        // 写入失败时放回缓冲区，交换后记录的更新较新，不覆盖
+        logger.error("flush " + changes.size() + " pool journal entries failed, retry later");
+        swapLock.readLock().lock();
+        try {
+            changes.forEach(dirty::putIfAbsent);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    // let leveldb drop overwritten and deleted entries of the journal
+    @Scheduled(fixedDelay = COMPACT_RATE, initialDelay = COMPACT_RATE)
+    public void compact() {
+        leveldb.compact(PREFIX, Arrays.concatenate(PREFIX, new byte[]{(byte) 0xff}));
+    }
+
+    /**
+     * load all the entries of the pool, entries which cannot be decoded are dropped,
+     * legacy json snapshot is migrated into the journal
+     */
+    public List<TransPool> replay(byte pool) {
+        List<TransPool> res = new ArrayList<>();
+        for (Map.Entry<byte[], byte[]> entry : leveldb.readPrefix(Arrays.concatenate(PREFIX, new byte[]{pool})).entrySet()) {
+            try {
+                res.add(decode(entry.getValue()));
+            } catch (Exception e) {
+                logger.error("drop corrupted pool journal entry " + Hex.encodeHexString(entry.getKey()));
+                leveldb.delete(entry.getKey());
+            }
+        }
+        res.addAll(migrate(pool));
+        return res;
+    }
+
+    private List<TransPool> migrate(byte pool) {
+        String legacyKey = pool == QUEUED ? LEGACY_QUEUED : LEGACY_PENDING;
+        String dbdata = leveldb.readPoolDb(legacyKey);
+        if (dbdata == null || dbdata.equals("")) {
+            return Collections.emptyList();
+        }
+        List<TransPool> res = new ArrayList<>();
+        try {
+            if (pool == QUEUED) {
+                List<Transaction> list = JSON.parseObject(dbdata, new TypeReference<ArrayList<Transaction>>() {
+                });
+                for (Transaction t : list) {
+                    res.add(new TransPool(t, 0, new Date().getTime()));
+                }
+            } else {
+                res.addAll(JSON.parseObject(dbdata, new TypeReference<ArrayList<TransPool>>() {
+                }));
+            }
+        } catch (Exception e) {
+            // 解析失败时保留旧快照，下次启动再迁移
+            logger.error("cannot migrate legacy pool snapshot " + legacyKey + " " + e.getMessage());
+            return Collections.emptyList();
+        }
+        // 迁移的条目和删除旧快照在同一批次中写入
+        boolean written = leveldb.writeBatch(batch -> {
+            for (TransPool tp : res) {
+                batch.put(decodeKey(key(pool, Address.publicKeyToHashHex(tp.getTransaction().from), tp.getTransaction().nonce)), encode(tp));
+            }
+            batch.delete(legacyKey.getBytes());
+        });
+        if (!written) {
+            logger.error("cannot write migrated pool snapshot " + legacyKey + ", retry at next startup");
+            return Collections.emptyList();
+        }
+        return res;
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+    }
+
+    static String key(byte pool, String fromhash, long nonce) {
+        return Hex.encodeHexString(new byte[]{pool}) + fromhash + Hex.encodeHexString(BigEndian.encodeUint64(nonce));
+    }
+
+    static byte[] decodeKey(String key) {
+        try {
+            byte[] res = Arrays.concatenate(PREFIX, Hex.decodeHex(key.toCharArray()));
+            if (res.length != KEY_SIZE) {
+                throw new RuntimeException("invalid pool journal key " + key);
+            }
+            return res;
+        } catch (DecoderException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static byte[] encode(TransPool transPool) {
+        return Arrays.concatenate(new byte[][]{
+                new byte[]{(byte) transPool.getState()},
+                BigEndian.encodeUint64(transPool.getDatetime()),
+                BigEndian.encodeUint64(transPool.getHeight()),
+                transPool.getTransaction().toRPCBytes()
+        });
+    }
+
+    static TransPool decode(byte[] value) {
+        BytesReader reader = new BytesReader(value);
+        int state = reader.read();
+        long datetime = BigEndian.decodeUint64(reader.read(8));
+        long height = BigEndian.decodeUint64(reader.read(8));
+        Transaction transaction = Transaction.fromRPCBytes(reader.read(value.length - 17));
+        TransPool transPool = new TransPool(transaction, state, datetime);
+        transPool.setHeight(height);
+        return transPool;
+    }
+}
@@ -1,11 +1,7 @@
 package org.wisdom.pool;
 
-import com.alibaba.fastjson.JSON;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import org.wisdom.core.account.Transaction;
-import org.wisdom.db.Leveldb;
 
 import java.util.*;
 
@@ -18,24 +14,6 @@ public class PoolTask {
     @Autowired
     PeningTransPool peningTransPool;
 
-    @Autowired
-    private Leveldb leveldb;
-
-    @Scheduled(cron = "0 0/10 * * * ?")
-    public void updatedbPool() {
-        List<TransPool> list = adoptTransPool.getAllFull();
-        List<Transaction> queuedlist = new ArrayList<>();
-        for (TransPool transPool : list) {
-            queuedlist.add(transPool.getTransaction());
-        }
-        String queuedjson = JSON.toJSONString(queuedlist, true);
-        leveldb.addPoolDb("QueuedPool", queuedjson);
-
-        List<TransPool> transPoolList = peningTransPool.getAllstate();
-        String pendingjson = JSON.toJSONString(transPoolList, true);
-        leveldb.addPoolDb("PendingPool", pendingjson);
-    }
-
 //    //pendingnonce修正
 //    @Scheduled(fixedDelay = 60000 * 1)
 //    public void correctionPtNonce(){
@@ -25,17 +25,18 @@ import org.wisdom.command.TransactionCheck;
 
 import org.wisdom.core.Block;
 import org.wisdom.core.account.Account;
+import org.wisdom.core.event.NewQueuedTransactionEvent;
 import org.wisdom.core.incubator.Incubator;
 import org.wisdom.core.incubator.IncubatorDB;
 import org.wisdom.db.StateDB;
-import org.wisdom.keystore.crypto.RipemdUtility;
-import org.wisdom.keystore.crypto.SHA3Utility;
 import org.wisdom.pool.AdoptTransPool;
 import org.wisdom.service.CommandService;
 import org.wisdom.core.account.AccountDB;
 import org.wisdom.core.account.Transaction;
 import org.wisdom.core.incubator.RateTable;
+import org.wisdom.util.Address;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
@@ -64,6 +65,9 @@ public class CommandServiceImpl implements CommandService {
     @Autowired
     StateDB stateDB;
 
+    @Autowired
+    ApplicationContext ctx;
+
 
     @Override
     public APIResult verifyTransfer(byte[] transfer) {
@@ -75,7 +79,7 @@ public class CommandServiceImpl implements CommandService {
                 return apiResult;
             }
             tran = (Transaction) apiResult.getData();
-            Account account = accountDB.selectaccount(RipemdUtility.ripemd160(SHA3Utility.keccak256(tran.from)));
+            Account account = accountDB.selectaccount(Address.publicKeyToHash(tran.from));
             if (account == null) {
                 apiResult.setCode(5000);
                 apiResult.setMessage("The from account does not exist");
@@ -84,7 +88,7 @@ public class CommandServiceImpl implements CommandService {
             if (tran.type == Transaction.Type.EXIT_MORTGAGE.ordinal()) {
                 Block block = stateDB.getBestBlock();
                 List<String> list = stateDB.getProposersFactory().getProposers(block);
-                byte[] fromPublicHash = RipemdUtility.ripemd160(SHA3Utility.keccak256(tran.from));
+                byte[] fromPublicHash = Address.publicKeyToHash(tran.from);
                 if (list.size() > 0 && list.contains(Hex.encodeHexString(fromPublicHash))) {
                     apiResult.setCode(5000);
                     apiResult.setMessage("The miner cannot withdraw the mortgage");
@@ -107,6 +111,7 @@ public class CommandServiceImpl implements CommandService {
                 return apiResult;
             }
             adoptTransPool.add(Collections.singletonList(tran));
+            ctx.publishEvent(new NewQueuedTransactionEvent(this, Collections.singletonList(tran)));
             apiResult.setData(tran);
         } catch (Exception e) {
             apiResult.setCode(5000);
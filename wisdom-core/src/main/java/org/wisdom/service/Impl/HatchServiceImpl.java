@@ -33,13 +33,12 @@ import org.wisdom.core.incubator.RateTable;
 import org.wisdom.db.AccountState;
 import org.wisdom.db.StateDB;
 import org.wisdom.encoding.BigEndian;
-import org.wisdom.keystore.crypto.RipemdUtility;
-import org.wisdom.keystore.crypto.SHA3Utility;
 import org.wisdom.keystore.wallet.KeystoreAction;
 import org.wisdom.protobuf.tcp.command.HatchModel;
 import org.wisdom.service.HatchService;
 import org.wisdom.core.account.AccountDB;
 import org.wisdom.core.account.Transaction;
+import org.wisdom.util.Address;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -101,7 +100,7 @@ public class HatchServiceImpl implements HatchService {
         for (Map<String, Object> map : list) {
             byte[] from = (byte[]) map.get("fromAddress");
             byte[] to = (byte[]) map.get("coinAddress");
-            map.put("fromAddress", KeystoreAction.pubkeyHashToAddress(RipemdUtility.ripemd160(SHA3Utility.keccak256(from)), (byte) 0x00));
+            map.put("fromAddress", KeystoreAction.pubkeyHashToAddress(Address.publicKeyToHash(from), (byte) 0x00));
             map.put("coinAddress", KeystoreAction.pubkeyHashToAddress(to, (byte) 0x00));
             jsonArray.add(map);
         }
@@ -435,7 +434,7 @@ public class HatchServiceImpl implements HatchService {
                 for (Map<String, Object> from : fromlist) {
                     Map<String, Object> maps = from;
                     String froms = maps.get("from").toString();
-                    byte[] frompubhash = RipemdUtility.ripemd160(SHA3Utility.keccak256(Hex.decodeHex(froms.toCharArray())));
+                    byte[] frompubhash = Address.publicKeyToHash(Hex.decodeHex(froms.toCharArray()));
                     if (Arrays.equals(frompubhash, pubkeyhash)) {
                         String fromaddress = KeystoreAction.pubkeyHashToAddress(frompubhash, (byte) 0x00);
                         maps.put("from", fromaddress);
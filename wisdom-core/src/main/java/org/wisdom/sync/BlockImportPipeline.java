@@ -0,0 +1,148 @@
+package org.wisdom.sync;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.wisdom.core.Block;
+import org.wisdom.core.BlocksCache;
+import org.wisdom.core.OrphanBlocksManager;
+import org.wisdom.core.PendingBlocksManager;
+import org.wisdom.core.validate.BasicRule;
+import org.wisdom.core.validate.CheckPointRule;
+import org.wisdom.core.validate.Result;
+import org.wisdom.core.validate.SignatureVerifier;
+import org.wisdom.p2p.WisdomOuterClass;
+import org.wisdom.util.ExecutorPipeline;
+
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * imports blocks received from peers in three stages: decode, stateless validate and stateful apply,
+ * decode and validate run in parallel while apply runs on a single thread in the order blocks were received.
+ * every stage has a bounded queue, pushing into a full pipeline blocks the peer's message handler
+ */
+@Component
+public class BlockImportPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(BlockImportPipeline.class);
+
+    @Autowired
+    private BasicRule rule;
+
+    @Autowired
+    private CheckPointRule checkPointRule;
+
+    @Autowired
+    private SignatureVerifier signatureVerifier;
+
+    @Autowired
+    private OrphanBlocksManager orphanBlocksManager;
+
+    @Autowired
+    private PendingBlocksManager pendingBlocksManager;
+
+    private final int queueSize;
+
+    private final ExecutorPipeline<WisdomOuterClass.Block, Block> decode;
+
+    private final ExecutorPipeline<Block, Block> validate;
+
+    private final ExecutorPipeline<Block, Void> apply;
+
+    // 上次统计时每个阶段的处理数量和耗时
+    private final long[] lastProcessed = new long[3];
+
+    private final long[] lastBusyNanos = new long[3];
+
+    private long lastReport = System.nanoTime();
+
+    public BlockImportPipeline(
+            @Value("${p2p.import-threads}") int threads,
+            @Value("${p2p.import-queue-size}") int queueSize
+    ) {
+        threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.queueSize = queueSize;
+        this.decode = new ExecutorPipeline<WisdomOuterClass.Block, Block>(
+                threads, queueSize, true, Utils::parseBlock,
+                e -> logger.error("decode block failed " + e.getMessage())
+        ).setThreadPoolName("import-decode");
+        this.validate = decode.add(threads, queueSize, true, this::validateBlock)
+                .setThreadPoolName("import-validate");
+        // 写入状态的阶段只有一个线程，保证区块按接收顺序写入
+        this.apply = validate.add(1, queueSize, this::applyBlock)
+                .setThreadPoolName("import-apply");
+    }
+
+    public void push(WisdomOuterClass.Block block) {
+        decode.push(block);
+    }
+
+    public void pushAll(List<WisdomOuterClass.Block> blocks) {
+        decode.pushAll(blocks);
+    }
+
+    // 流水线积压超过一半时不再向邻居请求新的区块
+    public boolean isBusy() {
+        return decode.getQueue().size() + validate.getQueue().size() + apply.getQueue().size() >= queueSize * 3 / 2;
+    }
+
+    private Block validateBlock(Block b) {
+        if (b == null || b.nHeight == 0) {
+            return null;
+        }
+        Result res = rule.validateBlock(b);
+        if (!res.isSuccess()) {
+            logger.error("invalid block received reason = " + res.getMessage());
+            return null;
+        }
+        res = checkPointRule.validateBlock(b);
+        if (!res.isSuccess()) {
+            logger.error("invalid block received reason = " + res.getMessage());
+            return null;
+        }
+        // 校验通过的事务签名被缓存，写入时的签名规则不再重复计算
+        if (!signatureVerifier.verifyBlocks(Collections.singletonList(b)).get(0)) {
+            logger.error("invalid block received reason = signature validate fail");
+            return null;
+        }
+        return b;
+    }
+
+    private void applyBlock(Block b) {
+        if (b == null) {
+            return;
+        }
+        BlocksCache blocksWritable = orphanBlocksManager.removeAndCacheOrphans(Collections.singletonList(b));
+        pendingBlocksManager.writeBlocks(blocksWritable);
+    }
+
+    @Scheduled(fixedRate = 30 * 1000)
+    public void reportThroughput() {
+        long now = System.nanoTime();
+        double seconds = (now - lastReport) / 1e9;
+        lastReport = now;
+        ExecutorPipeline<?, ?>[] stages = new ExecutorPipeline<?, ?>[]{decode, validate, apply};
+        for (int i = 0; i < stages.length; i++) {
+            long processed = stages[i].getProcessed();
+            long busyNanos = stages[i].getBusyNanos();
+            long n = processed - lastProcessed[i];
+            long busy = busyNanos - lastBusyNanos[i];
+            lastProcessed[i] = processed;
+            lastBusyNanos[i] = busyNanos;
+            if (n == 0) {
+                continue;
+            }
+            logger.info(String.format("%s: %d blocks, %.1f blocks/s, %.2f ms per block, queue size = %d",
+                    stages[i].getThreadPoolName(), n, n / seconds, busy / 1e6 / n, stages[i].getQueue().size()));
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        decode.shutdown();
+    }
+}
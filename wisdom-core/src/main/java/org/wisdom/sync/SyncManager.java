@@ -11,16 +11,13 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.wisdom.core.*;
 import org.wisdom.core.event.NewBlockMinedEvent;
-import org.wisdom.core.validate.BasicRule;
 import org.wisdom.core.validate.CheckPointRule;
 import org.wisdom.core.validate.Result;
 import org.wisdom.db.StateDB;
 import org.wisdom.p2p.*;
 import org.wisdom.p2p.entity.GetBlockQuery;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ThreadLocalRandom;
@@ -47,12 +44,6 @@ public class SyncManager implements Plugin, ApplicationListener<NewBlockMinedEve
     @Autowired
     private OrphanBlocksManager orphanBlocksManager;
 
-    @Autowired
-    private PendingBlocksManager pendingBlocksManager;
-
-    @Autowired
-    private BasicRule rule;
-
     @Autowired
     private StateDB stateDB;
 
@@ -65,6 +56,9 @@ public class SyncManager implements Plugin, ApplicationListener<NewBlockMinedEve
     @Autowired
     private CheckPointRule checkPointRule;
 
+    @Autowired
+    private BlockImportPipeline importPipeline;
+
     public SyncManager() {
         this.proposalCache = new ConcurrentLinkedHashMap.Builder<String, Boolean>().maximumWeightedCapacity(CACHE_SIZE).build();
     }
@@ -109,6 +103,10 @@ public class SyncManager implements Plugin, ApplicationListener<NewBlockMinedEve
         if (ps == null || ps.size() == 0) {
             return;
         }
+        if (importPipeline.isBusy()) {
+            logger.info("block import pipeline is busy, skip fetching blocks");
+            return;
+        }
         int index = Math.abs(ThreadLocalRandom.current().nextInt()) % ps.size();
 
         server.dial(ps.get(index), WisdomOuterClass.GetStatus.newBuilder().build());
@@ -131,11 +129,11 @@ public class SyncManager implements Plugin, ApplicationListener<NewBlockMinedEve
         GetBlockQuery query = new GetBlockQuery(getBlocks.getStartHeight(), getBlocks.getStopHeight()).clip(maxBlocksPerTransfer, getBlocks.getClipDirection() == WisdomOuterClass.ClipDirection.CLIP_INITIAL);
 
         logger.info("get blocks received start height = " + query.start + " stop height = " + query.stop);
-        List<Block> blocksToSend = stateDB.getBlocks(query.start, query.stop, maxBlocksPerTransfer, getBlocks.getClipDirectionValue() > 0);
+        List<WisdomOuterClass.Block> blocksToSend = stateDB.getEncodedBlocks(query.start, query.stop, maxBlocksPerTransfer, getBlocks.getClipDirectionValue() > 0);
         if (blocksToSend == null || blocksToSend.size() == 0) {
             return;
         }
-        WisdomOuterClass.Blocks resp = WisdomOuterClass.Blocks.newBuilder().addAllBlocks(Utils.encodeBlocks(blocksToSend)).build();
+        WisdomOuterClass.Blocks resp = WisdomOuterClass.Blocks.newBuilder().addAllBlocks(blocksToSend).build();
         List<WisdomOuterClass.Blocks> divided = Util.split(resp);
         if (divided.size() == 0){
             return;
@@ -145,8 +143,13 @@ public class SyncManager implements Plugin, ApplicationListener<NewBlockMinedEve
     }
 
     private void onBlocks(Context context, PeerServer server) {
-        WisdomOuterClass.Blocks blocksMessage = context.getPayload().getBlocks();
-        receiveBlocks(Utils.parseBlocks(blocksMessage.getBlocksList()));
+        List<WisdomOuterClass.Block> blocks = context.getPayload().getBlocks().getBlocksList();
+        if (blocks.size() == 0) {
+            return;
+        }
+        logger.info("blocks received start from " + blocks.get(0).getHeight() + " stop at " + blocks.get(blocks.size() - 1).getHeight());
+        // 流水线队列满时阻塞在这里，对发送方形成背压
+        importPipeline.pushAll(blocks.subList(0, Math.min(blocks.size(), maxBlocksPerTransfer)));
     }
 
     private void onProposal(Context context, PeerServer server) {
@@ -159,7 +162,7 @@ public class SyncManager implements Plugin, ApplicationListener<NewBlockMinedEve
             return;
         }
         proposalCache.put(block.getHashHexString(), true);
-        receiveBlocks(Collections.singletonList(block));
+        importPipeline.push(proposal.getBlock());
         context.relay();
     }
 
@@ -174,6 +177,10 @@ public class SyncManager implements Plugin, ApplicationListener<NewBlockMinedEve
             return;
         }
 
+        if (importPipeline.isBusy()) {
+            return;
+        }
+
         if (status.getCurrentHeight() >= best.nHeight
                 && !Arrays.equals(
                 status.getBestBlockHash().toByteArray(), best.getHash())
@@ -203,32 +210,6 @@ public class SyncManager implements Plugin, ApplicationListener<NewBlockMinedEve
         context.response(resp);
     }
 
-    private synchronized void receiveBlocks(List<Block> blocks) {
-        logger.info("blocks received start from " + blocks.get(0).nHeight + " stop at " + blocks.get(blocks.size() - 1).nHeight);
-        blocks = blocks.subList(0, maxBlocksPerTransfer > blocks.size() ? blocks.size() : maxBlocksPerTransfer);
-        List<Block> validBlocks = new ArrayList<>();
-        for (Block b : blocks) {
-            if (b == null || b.nHeight == 0) {
-                continue;
-            }
-            Result res = rule.validateBlock(b);
-            if (!res.isSuccess()) {
-                logger.error("invalid block received reason = " + res.getMessage());
-                continue;
-            }
-            Result resCheckPointRule = checkPointRule.validateBlock(b);
-            if (!resCheckPointRule.isSuccess()) {
-                logger.error("invalid block received reason = " + res.getMessage());
-                continue;
-            }
-            validBlocks.add(b);
-        }
-        if (validBlocks.size() > 0) {
-            BlocksCache blocksWritable = orphanBlocksManager.removeAndCacheOrphans(validBlocks);
-            pendingBlocksManager.addPendingBlocks(blocksWritable);
-        }
-    }
-
     @Override
     public void onApplicationEvent(NewBlockMinedEvent event) {
         if (server == null) {
@@ -1,5 +1,6 @@
 package org.wisdom.util;
 
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 import org.apache.commons.codec.binary.Hex;
 import org.wisdom.core.account.Transaction;
 import org.wisdom.keystore.crypto.RipemdUtility;
@@ -7,11 +8,29 @@ import org.wisdom.keystore.crypto.SHA3Utility;
 import org.wisdom.keystore.util.Base58Utility;
 import org.wisdom.keystore.wallet.KeystoreAction;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Map;
 
 public class Address {
+    private static final int PUBLIC_KEY_HASH_CACHE_SIZE = 1 << 16;
+
+    // 公钥 -> 公钥哈希，交易池和校验时对同一个发送者会重复计算
+    private static final Map<ByteBuffer, byte[]> publicKeyHashes = new ConcurrentLinkedHashMap.Builder<ByteBuffer, byte[]>()
+            .maximumWeightedCapacity(PUBLIC_KEY_HASH_CACHE_SIZE).build();
+
     public static byte[] publicKeyToHash(byte[] publicKey) {
-        return RipemdUtility.ripemd160(SHA3Utility.keccak256(publicKey));
+        byte[] hash = publicKeyHashes.get(ByteBuffer.wrap(publicKey));
+        if (hash == null) {
+            hash = RipemdUtility.ripemd160(SHA3Utility.keccak256(publicKey));
+            // 拷贝公钥，避免调用者修改数组后影响缓存的键
+            publicKeyHashes.put(ByteBuffer.wrap(publicKey.clone()), hash);
+        }
+        return hash.clone();
+    }
+
+    public static String publicKeyToHashHex(byte[] publicKey) {
+        return Hex.encodeHexString(publicKeyToHash(publicKey));
     }
 
     public static String publicKeyToAddress(byte[] publicKey) {
@@ -53,6 +53,10 @@ public class ExecutorPipeline <In, Out>{
     private static AtomicInteger pipeNumber = new AtomicInteger(1);
     private AtomicInteger threadNumber = new AtomicInteger(1);
 
+    // 已处理的消息数量和处理耗时，用于统计每个阶段的吞吐量
+    private AtomicLong processed = new AtomicLong();
+    private AtomicLong busyNanos = new AtomicLong();
+
     public ExecutorPipeline(int threads, int queueSize, boolean preserveOrder, Function<In, Out> processor,
                             Consumer<Throwable> exceptionHandler) {
         queue = new LimitedQueue<>(queueSize);
@@ -90,9 +94,9 @@ public class ExecutorPipeline <In, Out>{
                         next.push(res);
                         while(true) {
                             nextOutTaskNumber++;
-                            Out out = orderMap.remove(nextOutTaskNumber);
-                            if (out == null) break;
-                            next.push(out);
+                            // 处理结果可能为 null，不能用 remove 的返回值判断是否存在
+                            if (!orderMap.containsKey(nextOutTaskNumber)) break;
+                            next.push(orderMap.remove(nextOutTaskNumber));
                         }
                     } else {
                         orderMap.put(order, res);
@@ -107,11 +111,17 @@ public class ExecutorPipeline <In, Out>{
     public void push(final In in) {
         final long order = orderCounter.getAndIncrement();
         exec.execute(() -> {
+            Out res = null;
+            long start = System.nanoTime();
             try {
-                pushNext(order, processor.apply(in));
+                res = processor.apply(in);
             } catch (Throwable e) {
                 exceptionHandler.accept(e);
             }
+            busyNanos.addAndGet(System.nanoTime() - start);
+            processed.incrementAndGet();
+            // 出错的消息也要占位，否则保序时后续消息会一直等待
+            pushNext(order, res);
         });
     }
 
@@ -134,12 +144,28 @@ public class ExecutorPipeline <In, Out>{
         return orderMap;
     }
 
+    public ExecutorPipeline<Out, ?> getNext() {
+        return next;
+    }
+
+    public String getThreadPoolName() {
+        return threadPoolName;
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    public long getBusyNanos() {
+        return busyNanos.get();
+    }
+
     public void shutdown() {
         try {
             exec.shutdown();
         } catch (Exception e) {}
         if (next != null) {
-            exec.shutdown();
+            next.shutdown();
         }
     }
 
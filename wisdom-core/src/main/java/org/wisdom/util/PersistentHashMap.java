@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) [2018]
+ * This file is part of the java-wisdomcore
+ *
+ * The java-wisdomcore is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The java-wisdomcore is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the java-wisdomcore. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wisdom.util;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable hash array mapped trie, put and remove return a new map sharing every node
+ * except the path to the modified entry, lookups take at most 7 hops.
+ * null keys and values are not permitted.
+ */
+public final class PersistentHashMap<K, V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(BitmapNode.EMPTY, 0);
+
+    private final Node root;
+
+    private final int size;
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        return (V) root.get(0, key.hashCode(), key);
+    }
+
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    public PersistentHashMap<K, V> put(K key, V value) {
+        Objects.requireNonNull(value);
+        boolean[] added = new boolean[1];
+        Node n = root.put(0, key.hashCode(), key, value, added);
+        if (n == root) {
+            return this;
+        }
+        return new PersistentHashMap<>(n, added[0] ? size + 1 : size);
+    }
+
+    public PersistentHashMap<K, V> remove(K key) {
+        boolean[] removed = new boolean[1];
+        Node n = root.remove(0, key.hashCode(), key, removed);
+        if (!removed[0]) {
+            return this;
+        }
+        return new PersistentHashMap<>(n == null ? BitmapNode.EMPTY : n, size - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> consumer) {
+        root.forEach((BiConsumer<Object, Object>) consumer);
+    }
+
+    /**
+     * @return a read only view of this map
+     */
+    public Map<K, V> asMap() {
+        return new AbstractMap<K, V>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public V get(Object key) {
+                return key == null ? null : PersistentHashMap.this.get((K) key);
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return get(key) != null;
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Set<Entry<K, V>> entrySet() {
+                return new AbstractSet<Entry<K, V>>() {
+                    @Override
+                    public Iterator<Entry<K, V>> iterator() {
+                        List<Entry<K, V>> entries = new ArrayList<>(size);
+                        PersistentHashMap.this.forEach((k, v) -> entries.add(new SimpleImmutableEntry<>(k, v)));
+                        return Collections.unmodifiableList(entries).iterator();
+                    }
+
+                    @Override
+                    public int size() {
+                        return size;
+                    }
+                };
+            }
+        };
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private interface Node {
+        Object get(int shift, int hash, Object key);
+
+        Node put(int shift, int hash, Object key, Object value, boolean[] added);
+
+        // 节点为空时返回 null
+        Node remove(int shift, int hash, Object key, boolean[] removed);
+
+        void forEach(BiConsumer<Object, Object> consumer);
+    }
+
+    // 数组中每个槽位存放 key, value 或者 null, 子节点
+    private static final class BitmapNode implements Node {
+        private static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        private final int bitmap;
+
+        private final Object[] array;
+
+        private BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        public Object get(int shift, int hash, Object key) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            int i = index(bit);
+            Object k = array[2 * i];
+            Object v = array[2 * i + 1];
+            if (k == null) {
+                return ((Node) v).get(shift + BITS, hash, key);
+            }
+            return key.equals(k) ? v : null;
+        }
+
+        @Override
+        public Node put(int shift, int hash, Object key, Object value, boolean[] added) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int i = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] a = new Object[array.length + 2];
+                System.arraycopy(array, 0, a, 0, 2 * i);
+                a[2 * i] = key;
+                a[2 * i + 1] = value;
+                System.arraycopy(array, 2 * i, a, 2 * i + 2, array.length - 2 * i);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, a);
+            }
+            Object k = array[2 * i];
+            Object v = array[2 * i + 1];
+            if (k == null) {
+                Node n = ((Node) v).put(shift + BITS, hash, key, value, added);
+                return n == v ? this : with(2 * i, null, n);
+            }
+            if (key.equals(k)) {
+                return v == value ? this : with(2 * i, k, value);
+            }
+            // 槽位冲突，下沉到子节点
+            added[0] = true;
+            return with(2 * i, null, createNode(shift + BITS, k, v, hash, key, value));
+        }
+
+        @Override
+        public Node remove(int shift, int hash, Object key, boolean[] removed) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int i = index(bit);
+            Object k = array[2 * i];
+            Object v = array[2 * i + 1];
+            if (k == null) {
+                Node n = ((Node) v).remove(shift + BITS, hash, key, removed);
+                if (n == v) {
+                    return this;
+                }
+                return n == null ? without(bit, i) : with(2 * i, null, n);
+            }
+            if (!key.equals(k)) {
+                return this;
+            }
+            removed[0] = true;
+            return without(bit, i);
+        }
+
+        private Node without(int bit, int i) {
+            if (bitmap == bit) {
+                return null;
+            }
+            Object[] a = new Object[array.length - 2];
+            System.arraycopy(array, 0, a, 0, 2 * i);
+            System.arraycopy(array, 2 * i + 2, a, 2 * i, array.length - 2 * i - 2);
+            return new BitmapNode(bitmap & ~bit, a);
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> consumer) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (array[i] == null) {
+                    ((Node) array[i + 1]).forEach(consumer);
+                } else {
+                    consumer.accept(array[i], array[i + 1]);
+                }
+            }
+        }
+
+        private BitmapNode with(int keyIndex, Object key, Object value) {
+            Object[] a = array.clone();
+            a[keyIndex] = key;
+            a[keyIndex + 1] = value;
+            return new BitmapNode(bitmap, a);
+        }
+
+        private static Node createNode(int shift, Object k1, Object v1, int h2, Object k2, Object v2) {
+            int h1 = k1.hashCode();
+            if (h1 == h2) {
+                return new CollisionNode(h1, new Object[]{k1, v1, k2, v2});
+            }
+            boolean[] added = new boolean[1];
+            return EMPTY.put(shift, h1, k1, v1, added).put(shift, h2, k2, v2, added);
+        }
+    }
+
+    // 哈希值完全相同的键
+    private static final class CollisionNode implements Node {
+        private final int hash;
+
+        private final Object[] array;
+
+        private CollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        @Override
+        public Object get(int shift, int hash, Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return array[i + 1];
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Node put(int shift, int hash, Object key, Object value, boolean[] added) {
+            if (hash != this.hash) {
+                // 不同的哈希值在更高的位上一定不同，把当前节点放到新的位图节点下面
+                Node n = new BitmapNode(1 << ((this.hash >>> shift) & MASK), new Object[]{null, this});
+                return n.put(shift, hash, key, value, added);
+            }
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    if (array[i + 1] == value) {
+                        return this;
+                    }
+                    Object[] a = array.clone();
+                    a[i + 1] = value;
+                    return new CollisionNode(hash, a);
+                }
+            }
+            Object[] a = new Object[array.length + 2];
+            System.arraycopy(array, 0, a, 0, array.length);
+            a[array.length] = key;
+            a[array.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(hash, a);
+        }
+
+        @Override
+        public Node remove(int shift, int hash, Object key, boolean[] removed) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (!key.equals(array[i])) {
+                    continue;
+                }
+                removed[0] = true;
+                if (array.length == 2) {
+                    return null;
+                }
+                Object[] a = new Object[array.length - 2];
+                System.arraycopy(array, 0, a, 0, i);
+                System.arraycopy(array, i + 2, a, i, array.length - i - 2);
+                return new CollisionNode(this.hash, a);
+            }
+            return this;
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> consumer) {
+            for (int i = 0; i < array.length; i += 2) {
+                consumer.accept(array[i], array[i + 1]);
+            }
+        }
+    }
+}
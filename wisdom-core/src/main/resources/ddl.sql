@@ -57,6 +57,21 @@ CREATE TABLE if not exists account
 )
 ;
 
+-- 每个账户的最新状态，随区块确认更新，历史状态保存在 account 表
+CREATE TABLE if not exists account_state
+(
+    "id"           bytea          NOT NULL,
+    "blockheight"  int4           NOT NULL,
+    "pubkeyhash"   bytea          NOT NULL,
+    "nonce"        int8           NOT NULL,
+    "balance"      int8           NOT NULL,
+    "incubatecost" int8,
+    "mortgage"     int8,
+    "vote"         int8 DEFAULT 0 NOT NULL,
+    constraint "pk_account_state" primary key ("pubkeyhash")
+)
+;
+
 CREATE TABLE if not exists incubator_state
 (
     "id"                        bytea NOT NULL,
@@ -73,6 +88,16 @@ CREATE TABLE if not exists incubator_state
 )
 ;
 
+-- 区块的 protobuf 编码，同步时直接发送，不需要读取关系表后重新编码
+create table if not exists block_raw
+(
+    block_hash bytea  not null
+        constraint block_raw_pk
+            primary key,
+    height     bigint not null,
+    data       bytea  not null
+);
+
 create index if not exists transaction_index_block_hash on transaction_index (block_hash);
 create unique index if not exists transaction_tx_hash_uindex on transaction (tx_hash);
 create index if not exists header_height_index on header (height desc);
@@ -87,5 +112,4 @@ create index if not exists transaction_index_tx_hash_index on transaction_index
 create index if not exists transaction_type_index on transaction (type);
 create index if not exists transaction_payload_index on transaction (payload);
 create index if not exists transaction_to_index on transaction ("to");
-
-
+create index if not exists block_raw_height_index on block_raw (height);
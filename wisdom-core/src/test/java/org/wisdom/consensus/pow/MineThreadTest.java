@@ -0,0 +1,79 @@
+package org.wisdom.consensus.pow;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.wisdom.core.Block;
+import org.wisdom.encoding.BigEndian;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+public class MineThreadTest {
+    static Block header() {
+        Random random = new Random(1);
+        Block b = new Block();
+        b.nVersion = 1;
+        b.hashPrevBlock = new byte[32];
+        b.hashMerkleRoot = new byte[32];
+        b.hashMerkleState = new byte[32];
+        b.hashMerkleIncubate = new byte[32];
+        random.nextBytes(b.hashPrevBlock);
+        random.nextBytes(b.hashMerkleRoot);
+        b.nHeight = 100;
+        b.nTime = System.currentTimeMillis() / 1000;
+        b.nBits = BigEndian.encodeUint256(BigInteger.ONE.shiftLeft(250));
+        b.nNonce = new byte[32];
+        return b;
+    }
+
+    @Test
+    public void testHasherMatchesBlock() throws Exception {
+        Block b = header();
+        PowHasher hasher = new PowHasher(b);
+        Random random = new Random(2);
+        for (int i = 0; i < 100; i++) {
+            byte[] nonce = new byte[32];
+            random.nextBytes(nonce);
+            b.nNonce = nonce;
+            b.nTime += i;
+            hasher.setNonce(nonce);
+            hasher.setTime(b.nTime);
+            Assert.assertArrayEquals(Block.calculatePOWHash(b), hasher.hash());
+        }
+        hasher.setNonceCounter(0x0102030405060708L);
+        b.nNonce = hasher.getNonce();
+        Assert.assertEquals(8, b.nNonce[31]);
+        Assert.assertArrayEquals(Block.calculatePOWHash(b), hasher.hash());
+    }
+
+    @Test
+    public void testPow() {
+        Block b = header();
+        MineThread thread = new MineThread();
+        ReflectionTestUtils.setField(thread, "threads", 4);
+        long now = System.currentTimeMillis() / 1000;
+        Block mined = thread.pow(b, now - 10, now + 60);
+        Assert.assertNotNull(mined);
+        Assert.assertTrue(BigEndian.compareUint256(Block.calculatePOWHash(mined), mined.nBits) < 0);
+        Assert.assertTrue(thread.getHashRate() > 0);
+    }
+
+    @Test
+    public void testTerminate() {
+        Block b = header();
+        // 不可能达到的难度
+        b.nBits = new byte[32];
+        MineThread thread = new MineThread();
+        ReflectionTestUtils.setField(thread, "threads", 2);
+        new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException ignored) {
+            }
+            thread.terminate();
+        }).start();
+        long now = System.currentTimeMillis() / 1000;
+        Assert.assertNull(thread.pow(b, now - 10, now + 60));
+    }
+}
@@ -0,0 +1,44 @@
+package org.wisdom.consensus.pow;
+
+import org.openjdk.jmh.annotations.*;
+import org.wisdom.core.Block;
+import org.wisdom.encoding.BigEndian;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * single thread hash rate of {@link Block#calculatePOWHash(Block)} against the reusable buffers of {@link PowHasher},
+ * run with gradle jmh -PappArgs="PowHasherBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PowHasherBenchmark {
+    private Block block;
+
+    private PowHasher hasher;
+
+    private long nonce;
+
+    @Setup
+    public void setup() throws Exception {
+        block = MineThreadTest.header();
+        hasher = new PowHasher(block);
+    }
+
+    @Benchmark
+    public byte[] calculatePOWHash() {
+        block.nNonce = BigEndian.encodeUint256(BigInteger.valueOf(nonce++));
+        return Block.calculatePOWHash(block);
+    }
+
+    @Benchmark
+    public byte[] powHasher() {
+        hasher.setNonceCounter(nonce++);
+        return hasher.hash();
+    }
+}
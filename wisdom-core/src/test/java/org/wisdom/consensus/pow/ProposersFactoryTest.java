@@ -0,0 +1,177 @@
+package org.wisdom.consensus.pow;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.wisdom.core.Block;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.db.StateDB;
+
+import java.math.BigInteger;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.*;
+
+public class ProposersFactoryTest {
+    private static final int BLOCKS_PER_ERA = 4;
+    private static final int ERAS = 50;
+    private static final int BLOCK_INTERVAL = 10;
+
+    // 白名单中的节点
+    private static final String[] PROPOSERS = {
+            "552f6d4390367de2b05f4c9fc345eeaaf0750db9",
+            "5b0a4c7e31c3123db40a4c14200b54b8e358294b",
+            "08f74cb61f41f692011a5e66e3c038969eb0ec75",
+            "12acb24a3bbc5b9eaa32b6f8ae5e6c66c8c152aa"
+    };
+
+    private List<Block> chain;
+    private Map<String, Block> byHash;
+    private StateDB stateDB;
+    private ProposersFactory factory;
+
+    private static byte[] publicKeyHash(int i) throws Exception {
+        return Hex.decodeHex(PROPOSERS[i].toCharArray());
+    }
+
+    private static Transaction tx(Transaction.Type type, byte[] from, byte[] to, long amount) {
+        Transaction tx = Transaction.createEmpty();
+        tx.type = type.ordinal();
+        tx.from = from;
+        tx.to = to;
+        tx.amount = amount;
+        tx.payload = new byte[0];
+        return tx;
+    }
+
+    private static Block block(Block parent, long height, Random random) throws Exception {
+        Block b = new Block();
+        b.nVersion = 1;
+        b.hashPrevBlock = parent == null ? new byte[32] : parent.getHash();
+        b.hashMerkleRoot = new byte[32];
+        b.hashMerkleState = new byte[32];
+        b.hashMerkleIncubate = new byte[32];
+        b.nHeight = height;
+        b.nTime = height * BLOCK_INTERVAL * 2 + random.nextInt(BLOCK_INTERVAL);
+        b.nBits = new byte[32];
+        b.nNonce = BigInteger.valueOf(height).toByteArray();
+        b.body = new ArrayList<>();
+        b.body.add(tx(Transaction.Type.COINBASE, new byte[Transaction.PUBLIC_KEY_SIZE], publicKeyHash((int) (height % PROPOSERS.length)), 20));
+        if (height > 0 && height <= PROPOSERS.length) {
+            b.body.add(tx(Transaction.Type.MORTGAGE, new byte[Transaction.PUBLIC_KEY_SIZE],
+                    publicKeyHash((int) height % PROPOSERS.length), 200000 * EconomicModel.WDC));
+        }
+        byte[] from = new byte[Transaction.PUBLIC_KEY_SIZE];
+        random.nextBytes(from);
+        b.body.add(tx(Transaction.Type.VOTE, from, publicKeyHash(random.nextInt(PROPOSERS.length)), random.nextInt(1000) + 1));
+        return b;
+    }
+
+    @Before
+    public void setup() throws Exception {
+        Random random = new Random(1);
+        chain = new ArrayList<>();
+        byHash = new HashMap<>();
+        Block parent = null;
+        for (int i = 0; i <= ERAS * BLOCKS_PER_ERA; i++) {
+            parent = block(parent, i, random);
+            chain.add(parent);
+            byHash.put(parent.getHashHexString(), parent);
+        }
+
+        stateDB = Mockito.mock(StateDB.class);
+        Mockito.when(stateDB.getHeader(any())).thenAnswer(invocation -> get(invocation.getArgument(0)));
+        Mockito.when(stateDB.findAncestorHeader(any(), anyLong())).thenAnswer(invocation ->
+                chain.get(((Long) invocation.getArgument(1)).intValue()));
+        Mockito.when(stateDB.getAncestorHeaders(any(), anyLong())).thenAnswer(invocation ->
+                range(invocation.getArgument(0), invocation.getArgument(1)));
+        Mockito.when(stateDB.getAncestorBlocks(any(), anyLong(), any())).thenAnswer(invocation ->
+                range(invocation.getArgument(0), invocation.getArgument(1)));
+
+        factory = new ProposersFactory(new ProposersState(0, BLOCKS_PER_ERA), BLOCKS_PER_ERA, "genesis/validators.json");
+        ReflectionTestUtils.setField(factory, "initialBlockInterval", BLOCK_INTERVAL);
+        ReflectionTestUtils.setField(factory, "blockIntervalSwitchEra", -1L);
+        ReflectionTestUtils.setField(factory, "allowMinersJoinEra", 0L);
+        factory.setStateDB(stateDB);
+    }
+
+    private Block get(byte[] hash) {
+        return byHash.get(Hex.encodeHexString(hash));
+    }
+
+    private List<Block> range(byte[] hash, long from) {
+        return new ArrayList<>(chain.subList((int) from, (int) get(hash).nHeight + 1));
+    }
+
+    // 修改前每次调用的计算方式
+    @SuppressWarnings("unchecked")
+    private Optional<Proposer> expected(Block parentBlock, long timeStamp) {
+        ProposersState state = parentBlock.nHeight % BLOCKS_PER_ERA == 0 ?
+                factory.getFromCache(parentBlock) : factory.getInstance(parentBlock);
+        List<String> proposers = state.getProposers().stream().map(p -> p.publicKeyHash).collect(Collectors.toList());
+        if (proposers.isEmpty()) {
+            proposers = (List<String>) ReflectionTestUtils.getField(factory, "initialProposers");
+        }
+        if (timeStamp <= parentBlock.nTime) {
+            return Optional.empty();
+        }
+        if (parentBlock.nHeight == 0) {
+            return Optional.of(new Proposer(proposers.get(0), 0, Long.MAX_VALUE));
+        }
+        long powWait = BLOCK_INTERVAL * 3;
+        long step = (timeStamp - parentBlock.nTime) / powWait + 1;
+        int lastValidatorIndex = proposers.indexOf(Hex.encodeHexString(parentBlock.body.get(0).to));
+        int currentValidatorIndex = (int) (lastValidatorIndex + step) % proposers.size();
+        long endTime = parentBlock.nTime + step * powWait;
+        return Optional.of(new Proposer(proposers.get(currentValidatorIndex), endTime - powWait, endTime));
+    }
+
+    @Test
+    public void testSameAsPerCallLookup() {
+        Random random = new Random(2);
+        for (Block parent : chain) {
+            for (int i = 0; i < 10; i++) {
+                long timeStamp = parent.nTime + random.nextInt(BLOCK_INTERVAL * 30) - BLOCK_INTERVAL;
+                Optional<Proposer> e = expected(parent, timeStamp);
+                Optional<Proposer> p = factory.getProposer(parent, timeStamp);
+                Assert.assertEquals(e.isPresent(), p.isPresent());
+                if (!e.isPresent()) {
+                    continue;
+                }
+                Assert.assertEquals(e.get().pubkeyHash, p.get().pubkeyHash);
+                Assert.assertEquals(e.get().startTimeStamp, p.get().startTimeStamp);
+                Assert.assertEquals(e.get().endTimeStamp, p.get().endTimeStamp);
+            }
+        }
+    }
+
+    @Test
+    public void testScheduleCachedByEraHead() {
+        for (Block parent : chain) {
+            factory.getProposer(parent, parent.nTime + 1);
+        }
+        // 按顺序查询时沿用父区块的纪元头，不需要向前查找
+        Mockito.verify(stateDB, Mockito.never()).findAncestorHeader(any(), anyLong());
+
+        Mockito.clearInvocations(stateDB);
+        Block parent = chain.get(chain.size() - 2);
+        ProposerSchedule schedule = factory.getSchedule(parent);
+        Assert.assertEquals(new HashSet<>(Arrays.asList(PROPOSERS)), new HashSet<>(schedule.getProposers()));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertSame(schedule, factory.getSchedule(parent));
+            factory.getProposer(parent, parent.nTime + i * BLOCK_INTERVAL);
+        }
+        Mockito.verifyNoMoreInteractions(stateDB);
+
+        List<Proposer> slots = schedule.getSlots(parent);
+        Assert.assertEquals(schedule.getProposers().size(), slots.size());
+        Assert.assertEquals(new HashSet<>(schedule.getProposers()), slots.stream().map(p -> p.pubkeyHash).collect(Collectors.toSet()));
+        for (int i = 0; i < slots.size(); i++) {
+            Assert.assertEquals(parent.nTime + i * schedule.getSlotLength(), slots.get(i).startTimeStamp);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.wisdom.consensus.pow;
+
+import org.openjdk.jmh.annotations.*;
+import org.wisdom.core.Block;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * cost of copying the proposers state and of updating it by one era as the number of votes grows,
+ * run with gradle jmh -PappArgs="ProposersStateBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProposersStateBenchmark {
+    private static final int ERAS = 50;
+
+    // 每个区块中的投票数量
+    @Param({"10", "500"})
+    private int votesPerBlock;
+
+    private ProposersState state;
+
+    private List<List<Block>> next;
+
+    private int index;
+
+    @Setup
+    public void setup() {
+        state = new ProposersState(0, ProposersStateTest.BLOCKS_PER_ERA, ProposersStateTest.ATTENUATION_ERAS);
+        for (List<Block> era : ProposersStateTest.eras(new Random(3), ERAS, votesPerBlock)) {
+            state = state.copy().updateBlocks(era);
+        }
+        next = ProposersStateTest.eras(new Random(4), 100, 10);
+    }
+
+    @Benchmark
+    public ProposersState copy() {
+        return state.copy();
+    }
+
+    // 在同一个父状态上更新不同的纪元，不累积投票
+    @Benchmark
+    public ProposersState updateEra() {
+        return state.copy().updateBlocks(next.get(index++ % next.size()));
+    }
+}
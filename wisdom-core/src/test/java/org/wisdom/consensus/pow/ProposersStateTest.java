@@ -0,0 +1,156 @@
+package org.wisdom.consensus.pow;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Assert;
+import org.junit.Test;
+import org.wisdom.core.Block;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.crypto.HashUtil;
+
+import java.math.BigInteger;
+import java.util.*;
+
+public class ProposersStateTest {
+    static final int BLOCKS_PER_ERA = 4;
+    private static final int PROPOSERS = 5;
+    static final long ATTENUATION_ERAS = 3;
+
+    private static byte[] publicKeyHash(int i) {
+        byte[] res = new byte[Transaction.PUBLIC_KEY_HASH_SIZE];
+        res[0] = (byte) i;
+        return res;
+    }
+
+    private static Transaction tx(Transaction.Type type, byte[] from, byte[] to, long amount, byte[] payload) {
+        Transaction tx = Transaction.createEmpty();
+        tx.type = type.ordinal();
+        tx.from = from;
+        tx.to = to;
+        tx.amount = amount;
+        tx.payload = payload;
+        return tx;
+    }
+
+    private static Block block(long height, List<Transaction> txs) {
+        Block b = new Block();
+        b.nHeight = height;
+        b.nBits = new byte[32];
+        b.nNonce = BigInteger.valueOf(height).toByteArray();
+        b.body = new ArrayList<>();
+        b.body.add(tx(Transaction.Type.COINBASE, new byte[Transaction.PUBLIC_KEY_SIZE],
+                publicKeyHash((int) (height % PROPOSERS)), 20, new byte[0]));
+        b.body.addAll(txs);
+        return b;
+    }
+
+    // 抵押、投票、撤回投票
+    static List<List<Block>> eras(Random random, int eras, int votesPerBlock) {
+        List<Transaction> votes = new ArrayList<>();
+        List<List<Block>> res = new ArrayList<>();
+        long height = 0;
+        for (int era = 0; era < eras; era++) {
+            List<Block> blocks = new ArrayList<>();
+            for (int i = 0; i < BLOCKS_PER_ERA; i++) {
+                height++;
+                List<Transaction> txs = new ArrayList<>();
+                if (height <= PROPOSERS) {
+                    txs.add(tx(Transaction.Type.MORTGAGE, new byte[Transaction.PUBLIC_KEY_SIZE],
+                            publicKeyHash((int) height % PROPOSERS), 200000 * EconomicModel.WDC, new byte[0]));
+                }
+                for (int j = 0; j < votesPerBlock; j++) {
+                    byte[] from = new byte[Transaction.PUBLIC_KEY_SIZE];
+                    random.nextBytes(from);
+                    Transaction vote = tx(Transaction.Type.VOTE, from, publicKeyHash(random.nextInt(PROPOSERS)),
+                            (random.nextInt(1000) + 1) * EconomicModel.WDC, new byte[0]);
+                    votes.add(vote);
+                    txs.add(vote);
+                }
+                if (votes.size() > votesPerBlock + 10 && random.nextBoolean()) {
+                    Transaction vote = votes.remove(random.nextInt(votes.size() - votesPerBlock));
+                    txs.add(tx(Transaction.Type.EXIT_VOTE, vote.from, vote.to, vote.amount, vote.getHash()));
+                }
+                blocks.add(block(height, txs));
+            }
+            res.add(blocks);
+        }
+        return res;
+    }
+
+    // 每个纪元遍历全部投票的计数器衰减，与修改前的实现相同
+    private static class EagerVotes {
+        private final Map<String, long[]> votes = new HashMap<>();
+
+        private void update(List<Block> blocks) {
+            for (long[] v : votes.values()) {
+                v[2]++;
+                if (v[2] >= ATTENUATION_ERAS) {
+                    v[2] = 0;
+                    v[1] = v[1] * 9 / 10;
+                }
+            }
+            for (Block b : blocks) {
+                for (Transaction tx : b.body) {
+                    if (tx.type == Transaction.Type.VOTE.ordinal()) {
+                        votes.put(tx.getHashHexString(), new long[]{tx.amount, tx.amount, 0});
+                    }
+                    if (tx.type == Transaction.Type.EXIT_VOTE.ordinal()) {
+                        votes.remove(Hex.encodeHexString(tx.payload));
+                    }
+                }
+            }
+        }
+    }
+
+    private static String checksum(ProposersState state) {
+        return Arrays.toString(HashUtil.keccak256(state.encode()));
+    }
+
+    @Test
+    public void testLazyAttenuationSameAsEager() throws Exception {
+        List<List<Block>> eras = eras(new Random(1), 20, 3);
+        ProposersState state = new ProposersState(0, BLOCKS_PER_ERA, ATTENUATION_ERAS);
+        EagerVotes expected = new EagerVotes();
+        for (List<Block> era : eras) {
+            state = state.copy().updateBlocks(era);
+            expected.update(era);
+
+            Map<String, ProposersState.Vote> votes = new HashMap<>();
+            long amount = 0;
+            long accumulated = 0;
+            for (ProposersState.Proposer p : state.getAll().values()) {
+                votes.putAll(p.getReceivedVotes());
+                amount += p.getAmount();
+                accumulated += p.getAccumulated();
+                Assert.assertEquals(p.getReceivedVotes().values().stream().mapToLong(v -> v.accumulated).sum(), p.getAccumulated());
+            }
+            Assert.assertEquals(expected.votes.keySet(), votes.keySet());
+            for (Map.Entry<String, long[]> e : expected.votes.entrySet()) {
+                Assert.assertEquals(e.getValue()[1], votes.get(e.getKey()).accumulated);
+            }
+            Assert.assertEquals(expected.votes.values().stream().mapToLong(v -> v[0]).sum(), amount);
+            Assert.assertEquals(expected.votes.values().stream().mapToLong(v -> v[1]).sum(), accumulated);
+        }
+        Assert.assertTrue(expected.votes.values().stream().anyMatch(v -> v[1] < v[0]));
+    }
+
+    @Test
+    public void testCopyIsolated() throws Exception {
+        List<List<Block>> eras = eras(new Random(2), 10, 3);
+        ProposersState state = new ProposersState(0, BLOCKS_PER_ERA, ATTENUATION_ERAS);
+        for (int i = 0; i < 5; i++) {
+            state = state.copy().updateBlocks(eras.get(i));
+        }
+        String before = checksum(state);
+
+        // 从中间的纪元解码后继续更新，结果与直接更新相同
+        ProposersState decoded = state.decode(state.encode());
+        Assert.assertEquals(before, checksum(decoded));
+        ProposersState next = state;
+        for (int i = 5; i < eras.size(); i++) {
+            next = next.copy().updateBlocks(eras.get(i));
+            decoded = decoded.copy().updateBlocks(eras.get(i));
+        }
+        Assert.assertEquals(checksum(next), checksum(decoded));
+        Assert.assertEquals(before, checksum(state));
+    }
+}
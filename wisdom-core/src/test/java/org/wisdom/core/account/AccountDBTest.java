@@ -0,0 +1,48 @@
+package org.wisdom.core.account;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+
+import static org.mockito.ArgumentMatchers.*;
+
+public class AccountDBTest {
+    private static final byte[] PUBKEY_HASH = new byte[20];
+
+    private JdbcTemplate tmpl;
+
+    private AccountDB accountDB;
+
+    @Before
+    public void setup() {
+        tmpl = Mockito.mock(JdbcTemplate.class);
+        accountDB = new AccountDB(16);
+        ReflectionTestUtils.setField(accountDB, "tmpl", tmpl);
+    }
+
+    @Test
+    public void testDatabaseErrorReturnsNull() {
+        Mockito.when(tmpl.query(anyString(), any(Object[].class), any(RowMapper.class)))
+                .thenThrow(new DataAccessResourceFailureException("connection refused"));
+        Assert.assertNull(accountDB.hasAccount(PUBKEY_HASH));
+        Assert.assertNull(accountDB.hasAccount(PUBKEY_HASH, 1));
+    }
+
+    @Test
+    public void testLatestCached() {
+        Mockito.when(tmpl.query(anyString(), any(Object[].class), any(RowMapper.class)))
+                .thenReturn(Collections.emptyList())
+                .thenReturn(Collections.singletonList(new Account(1, PUBKEY_HASH, 1, 100, 0, 0, 0)));
+        Assert.assertFalse(accountDB.hasAccount(PUBKEY_HASH).isPresent());
+        Assert.assertEquals(100, accountDB.hasAccount(PUBKEY_HASH).get().getBalance());
+        Assert.assertEquals(100, accountDB.hasAccount(PUBKEY_HASH).get().getBalance());
+        Mockito.verify(tmpl, Mockito.times(2)).query(anyString(), any(Object[].class), any(RowMapper.class));
+    }
+}
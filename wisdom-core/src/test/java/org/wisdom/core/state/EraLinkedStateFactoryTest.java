@@ -0,0 +1,175 @@
+package org.wisdom.core.state;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.wisdom.consensus.pow.EconomicModel;
+import org.wisdom.consensus.pow.ProposersState;
+import org.wisdom.core.Block;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.crypto.HashUtil;
+import org.wisdom.db.StateDB;
+
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.*;
+
+public class EraLinkedStateFactoryTest {
+    private static final int BLOCKS_PER_ERA = 4;
+    private static final int ERAS = 1000;
+    private static final int PROPOSERS = 4;
+
+    private List<Block> chain;
+    private Map<String, Block> byHash;
+    private StateDB stateDB;
+    private ProposersState genesisState;
+
+    // 数据库查询次数
+    private AtomicInteger queries;
+
+    private static byte[] publicKeyHash(int i) {
+        byte[] res = new byte[Transaction.PUBLIC_KEY_HASH_SIZE];
+        res[0] = (byte) i;
+        return res;
+    }
+
+    private static Transaction tx(Transaction.Type type, byte[] from, byte[] to, long amount) {
+        Transaction tx = Transaction.createEmpty();
+        tx.type = type.ordinal();
+        tx.from = from;
+        tx.to = to;
+        tx.amount = amount;
+        tx.payload = new byte[0];
+        return tx;
+    }
+
+    private static Block block(Block parent, long height, Random random) {
+        Block b = new Block();
+        b.nVersion = 1;
+        b.hashPrevBlock = parent == null ? new byte[32] : parent.getHash();
+        b.hashMerkleRoot = new byte[32];
+        b.hashMerkleState = new byte[32];
+        b.hashMerkleIncubate = new byte[32];
+        b.nHeight = height;
+        b.nTime = height * 10;
+        b.nBits = new byte[32];
+        b.nNonce = BigInteger.valueOf(height).toByteArray();
+        b.body = new ArrayList<>();
+        b.body.add(tx(Transaction.Type.COINBASE, new byte[Transaction.PUBLIC_KEY_SIZE], publicKeyHash((int) (height % PROPOSERS)), 20));
+        if (height > 0 && height <= PROPOSERS) {
+            b.body.add(tx(Transaction.Type.MORTGAGE, new byte[Transaction.PUBLIC_KEY_SIZE],
+                    publicKeyHash((int) height % PROPOSERS), 200000 * EconomicModel.WDC));
+        }
+        byte[] from = new byte[Transaction.PUBLIC_KEY_SIZE];
+        random.nextBytes(from);
+        b.body.add(tx(Transaction.Type.VOTE, from, publicKeyHash(random.nextInt(PROPOSERS)), random.nextInt(1000) + 1));
+        // 不影响状态的转账
+        b.body.add(tx(Transaction.Type.TRANSFER, from, publicKeyHash(random.nextInt(100) + PROPOSERS), 1));
+        return b;
+    }
+
+    @Before
+    public void setup() {
+        Random random = new Random(1);
+        chain = new ArrayList<>();
+        byHash = new HashMap<>();
+        Block parent = null;
+        for (int i = 0; i <= ERAS * BLOCKS_PER_ERA; i++) {
+            parent = block(parent, i, random);
+            chain.add(parent);
+            byHash.put(parent.getHashHexString(), parent);
+        }
+        queries = new AtomicInteger();
+        genesisState = new ProposersState(0, BLOCKS_PER_ERA);
+
+        stateDB = Mockito.mock(StateDB.class);
+        Mockito.when(stateDB.getHeader(any())).thenAnswer(invocation -> get(invocation.getArgument(0)));
+        Mockito.when(stateDB.findAncestorHeader(any(), anyLong())).thenAnswer(invocation ->
+                chain.get(((Long) invocation.getArgument(1)).intValue()));
+        Mockito.when(stateDB.getAncestorHeaders(any(), anyLong())).thenAnswer(invocation -> {
+            queries.incrementAndGet();
+            return range(invocation.getArgument(0), invocation.getArgument(1));
+        });
+        Mockito.when(stateDB.getAncestorBlocks(any(), anyLong())).thenAnswer(invocation -> {
+            queries.incrementAndGet();
+            return range(invocation.getArgument(0), invocation.getArgument(1));
+        });
+        Mockito.when(stateDB.getAncestorBlocks(any(), anyLong(), any())).thenAnswer(invocation -> {
+            queries.incrementAndGet();
+            Collection<Integer> types = invocation.getArgument(2);
+            return range(invocation.getArgument(0), invocation.getArgument(1)).stream().map(b -> {
+                // 模拟数据库只返回指定类型的事务
+                Block copy = new Block();
+                copy.nHeight = b.nHeight;
+                copy.hashPrevBlock = b.hashPrevBlock;
+                copy.body = b.body.stream().filter(tx -> types.contains(tx.type)).collect(Collectors.toList());
+                return copy;
+            }).collect(Collectors.toList());
+        });
+    }
+
+    private Block get(byte[] hash) {
+        return byHash.get(Hex.encodeHexString(hash));
+    }
+
+    private List<Block> range(byte[] hash, long from) {
+        Block b = get(hash);
+        return new ArrayList<>(chain.subList((int) from, (int) b.nHeight + 1));
+    }
+
+    private EraLinkedStateFactory<ProposersState> factory(int cacheSize, Collection<Integer> types) {
+        EraLinkedStateFactory<ProposersState> factory = new EraLinkedStateFactory<ProposersState>(cacheSize, genesisState, BLOCKS_PER_ERA) {
+            @Override
+            protected Collection<Integer> getTransactionTypes() {
+                return types;
+            }
+        };
+        factory.setStateDB(stateDB);
+        return factory;
+    }
+
+    private ProposersState fullReplay(long eras) {
+        ProposersState state = genesisState;
+        for (int i = 0; i < eras; i++) {
+            state = state.copy().updateBlocks(chain.subList(i * BLOCKS_PER_ERA + 1, (i + 1) * BLOCKS_PER_ERA + 1));
+        }
+        return state;
+    }
+
+    private static String checksum(ProposersState state) {
+        return Arrays.toString(HashUtil.keccak256(state.encode()));
+    }
+
+    @Test
+    public void testDeepMissSameAsFullReplay() {
+        String expected = checksum(fullReplay(ERAS - 1));
+        Block tip = chain.get(chain.size() - 1);
+        for (Collection<Integer> types : Arrays.asList(null, ProposersState.TRANSACTION_TYPES)) {
+            queries.set(0);
+            // 不递归，不会栈溢出
+            ProposersState state = factory(512, types).getInstance(tip);
+            Assert.assertEquals(expected, checksum(state));
+            // 区块头按倍增的窗口读取，区块每批读取 32 个纪元
+            Assert.assertTrue("queries " + queries.get(), queries.get() < 2 * ERAS / 32 + 20);
+            Assert.assertFalse(state.getProposers().isEmpty());
+        }
+    }
+
+    @Test
+    public void testCachedAncestor() {
+        EraLinkedStateFactory<ProposersState> factory = factory(8, ProposersState.TRANSACTION_TYPES);
+        Block eraHead = chain.get(100 * BLOCKS_PER_ERA);
+        Assert.assertEquals(checksum(fullReplay(100)), checksum(factory.getFromCache(eraHead)));
+
+        // 上一个纪元已缓存时只读取一个纪元的区块头和区块
+        queries.set(0);
+        Block next = chain.get(101 * BLOCKS_PER_ERA);
+        Assert.assertEquals(checksum(fullReplay(101)), checksum(factory.getFromCache(next)));
+        Assert.assertEquals(2, queries.get());
+    }
+}
@@ -0,0 +1,79 @@
+package org.wisdom.core.validate;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.wisdom.command.IncubatorAddress;
+import org.wisdom.core.account.Account;
+import org.wisdom.core.account.AccountDB;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.core.incubator.IncubatorDB;
+import org.wisdom.crypto.ed25519.Ed25519;
+import org.wisdom.crypto.ed25519.Ed25519KeyPair;
+import org.wisdom.keystore.crypto.RipemdUtility;
+import org.wisdom.keystore.crypto.SHA3Utility;
+
+import java.util.*;
+
+import static org.mockito.ArgumentMatchers.any;
+
+public class MerkleRuleTest {
+
+    @Test
+    public void testAccountsLoadedInOneBatch() throws Exception {
+        Ed25519KeyPair keyPair = Ed25519.generateKeyPair();
+        byte[] from = keyPair.getPublicKey().getEncoded();
+        byte[] fromHash = RipemdUtility.ripemd160(SHA3Utility.keccak256(from));
+        byte[] miner = new byte[20];
+        miner[0] = 1;
+
+        List<Transaction> body = new ArrayList<>();
+        Transaction coinbase = Transaction.createEmpty();
+        coinbase.type = Transaction.Type.COINBASE.ordinal();
+        coinbase.to = miner;
+        coinbase.amount = 20;
+        body.add(coinbase);
+        long spent = 0;
+        for (int i = 0; i < 3; i++) {
+            Transaction t = Transaction.createEmpty();
+            t.type = Transaction.Type.TRANSFER.ordinal();
+            t.from = from;
+            t.nonce = i + 1;
+            t.gasPrice = 1;
+            t.amount = 100;
+            t.to = new byte[20];
+            t.to[0] = (byte) (i + 2);
+            spent += t.amount + t.getFee();
+            body.add(t);
+        }
+
+        Map<String, Account> accounts = new HashMap<>();
+        accounts.put(Hex.encodeHexString(fromHash), new Account(1, fromHash, 0, 10000000, 0, 0, 0));
+        accounts.put(Hex.encodeHexString(IncubatorAddress.resultpubhash()), new Account(0, IncubatorAddress.resultpubhash(), 0, 1000, 0, 0, 0));
+        AccountDB accountDB = Mockito.mock(AccountDB.class);
+        Mockito.when(accountDB.selectAccounts(any())).thenReturn(accounts);
+        IncubatorDB incubatorDB = Mockito.mock(IncubatorDB.class);
+        Mockito.when(incubatorDB.selectIncubators(any())).thenReturn(new HashMap<>());
+
+        MerkleRule rule = new MerkleRule("default");
+        ReflectionTestUtils.setField(rule, "accountDB", accountDB);
+        ReflectionTestUtils.setField(rule, "incubatorDB", incubatorDB);
+
+        Map<String, Object> res = rule.validateMerkle(body, 2);
+        Mockito.verify(accountDB, Mockito.times(1)).selectAccounts(any());
+        Mockito.verify(accountDB, Mockito.never()).selectaccount(any());
+
+        Map<String, Account> updated = new HashMap<>();
+        for (Account a : (List<Account>) res.get("account")) {
+            updated.put(Hex.encodeHexString(a.getPubkeyHash()), a);
+        }
+        Assert.assertEquals(5, updated.size());
+        Assert.assertEquals(10000000 - spent, updated.get(Hex.encodeHexString(fromHash)).getBalance());
+        Assert.assertEquals(3, updated.get(Hex.encodeHexString(fromHash)).getNonce());
+        Assert.assertEquals(20, updated.get(Hex.encodeHexString(miner)).getBalance());
+        // 预先读取的账户不会被修改
+        Assert.assertEquals(10000000, accounts.get(Hex.encodeHexString(fromHash)).getBalance());
+    }
+}
@@ -0,0 +1,80 @@
+package org.wisdom.core.validate;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.wisdom.core.Block;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.crypto.ed25519.Ed25519;
+import org.wisdom.crypto.ed25519.Ed25519KeyPair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SignatureVerifierTest {
+    private SignatureVerifier verifier;
+
+    private static Transaction signed(Ed25519KeyPair keyPair, long nonce) throws Exception {
+        Transaction t = Transaction.createEmpty();
+        t.type = Transaction.Type.TRANSFER.ordinal();
+        t.from = keyPair.getPublicKey().getEncoded();
+        t.payload = new byte[0];
+        t.nonce = nonce;
+        t.gasPrice = 1;
+        t.amount = 100;
+        t.signature = keyPair.getPrivateKey().sign(t.getRawForSign());
+        return t;
+    }
+
+    private static List<Transaction> signed(int n) throws Exception {
+        Ed25519KeyPair keyPair = Ed25519.generateKeyPair();
+        List<Transaction> res = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            res.add(signed(keyPair, i + 1));
+        }
+        return res;
+    }
+
+    @Before
+    public void setup() {
+        verifier = new SignatureVerifier(4, 1024);
+    }
+
+    @After
+    public void close() {
+        verifier.close();
+    }
+
+    @Test
+    public void testVerifyAll() throws Exception {
+        List<Transaction> txs = signed(100);
+        Assert.assertTrue(verifier.verifyAll(txs));
+
+        // 篡改金额后签名失效，缓存不能命中
+        txs.get(57).amount = 1;
+        Assert.assertFalse(verifier.verifyAll(txs));
+        Assert.assertFalse(verifier.verify(txs.get(57)));
+    }
+
+    @Test
+    public void testVerifyBlocks() throws Exception {
+        Block valid = new Block();
+        valid.body = signed(40);
+        Block invalid = new Block();
+        invalid.body = signed(40);
+        invalid.body.get(3).signature = new byte[Transaction.SIGNATURE_SIZE];
+        Block empty = new Block();
+        Assert.assertEquals(Arrays.asList(true, false, true), verifier.verifyBlocks(Arrays.asList(valid, invalid, empty)));
+    }
+
+    @Test
+    public void testMarkVerified() throws Exception {
+        Transaction t = signed(1).get(0);
+        t.signature = new byte[Transaction.SIGNATURE_SIZE];
+        Assert.assertFalse(verifier.verify(t));
+        verifier.markVerified(t);
+        Assert.assertTrue(verifier.verify(t));
+    }
+}
@@ -0,0 +1,87 @@
+package org.wisdom.crypto;
+
+import org.openjdk.jmh.annotations.*;
+import org.wisdom.keystore.crypto.RipemdUtility;
+import org.wisdom.keystore.crypto.SHA3Utility;
+import org.wisdom.util.Address;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * thread-local digests of {@link HashUtil} against a new digest instance per hash,
+ * run with gradle jmh -PappArgs="HashUtilBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashUtilBenchmark {
+    private static final int INPUTS = 1024;
+
+    // 只有摘要的对比按算法分别测量
+    @State(Scope.Thread)
+    public static class Algorithm {
+        @Param({"KECCAK-256", "WHIRLPOOL", "RIPEMD256", "BLAKE2B-256", "SHA3-256", "Skein-256-256", "RIPEMD160"})
+        private String name;
+    }
+
+    private byte[][] inputs;
+
+    private int index;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(3);
+        inputs = new byte[INPUTS][32];
+        for (byte[] in : inputs) {
+            random.nextBytes(in);
+        }
+    }
+
+    private byte[] next() {
+        return inputs[index++ & (INPUTS - 1)];
+    }
+
+    @Benchmark
+    public byte[] newInstance(Algorithm algorithm) {
+        return HashUtilTest.baseline(algorithm.name, next());
+    }
+
+    @Benchmark
+    public byte[] threadLocal(Algorithm algorithm) {
+        switch (algorithm.name) {
+            case "KECCAK-256":
+                return HashUtil.keccak256(next());
+            case "WHIRLPOOL":
+                return HashUtil.whirlPool(next());
+            case "RIPEMD256":
+                return HashUtil.ripemd256(next());
+            case "BLAKE2B-256":
+                return HashUtil.blake2b256(next());
+            case "SHA3-256":
+                return HashUtil.sha3256(next());
+            case "Skein-256-256":
+                return HashUtil.skein256256(next());
+            default:
+                return HashUtil.ripemd160(next());
+        }
+    }
+
+    @Benchmark
+    public byte[] publicKeyHashNewInstance() {
+        return HashUtilTest.baselinePublicKeyHash(next());
+    }
+
+    @Benchmark
+    public byte[] publicKeyHash() {
+        return RipemdUtility.ripemd160(SHA3Utility.keccak256(next()));
+    }
+
+    @Benchmark
+    public byte[] publicKeyHashCached() {
+        return Address.publicKeyToHash(next());
+    }
+}
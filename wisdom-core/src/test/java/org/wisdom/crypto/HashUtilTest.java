@@ -0,0 +1,135 @@
+package org.wisdom.crypto;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.KeccakDigest;
+import org.bouncycastle.crypto.digests.RIPEMD160Digest;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.wisdom.keystore.crypto.RipemdUtility;
+import org.wisdom.keystore.crypto.SHA3Utility;
+import org.wisdom.util.Address;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.UnaryOperator;
+
+public class HashUtilTest {
+    private static final Provider PROVIDER = new BouncyCastleProvider();
+
+    private static final String[] ALGORITHMS = {
+            "KECCAK-256", "WHIRLPOOL", "RIPEMD256", "BLAKE2B-256", "SHA3-256", "Skein-256-256", "RIPEMD160"
+    };
+
+    private static final List<UnaryOperator<byte[]>> FUNCTIONS = Arrays.asList(
+            HashUtil::keccak256, HashUtil::whirlPool, HashUtil::ripemd256, HashUtil::blake2b256,
+            HashUtil::sha3256, HashUtil::skein256256, HashUtil::ripemd160
+    );
+
+    // 修改前的实现，每次计算都创建新的摘要实例
+    static byte[] baseline(String algorithm, byte[] in) {
+        try {
+            return MessageDigest.getInstance(algorithm, PROVIDER).digest(in);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static byte[] baselinePublicKeyHash(byte[] publicKey) {
+        Digest keccak = new KeccakDigest(256);
+        byte[] h = new byte[keccak.getDigestSize()];
+        keccak.update(publicKey, 0, publicKey.length);
+        keccak.doFinal(h, 0);
+        Digest ripemd = new RIPEMD160Digest();
+        byte[] res = new byte[ripemd.getDigestSize()];
+        ripemd.update(h, 0, h.length);
+        ripemd.doFinal(res, 0);
+        return res;
+    }
+
+    private static byte[] random(Random random, int size) {
+        byte[] b = new byte[size];
+        random.nextBytes(b);
+        return b;
+    }
+
+    @Test
+    public void testSameAsBaseline() {
+        Random random = new Random(1);
+        for (int i = 0; i < 10; i++) {
+            byte[] in = random(random, i * 37);
+            byte[] padded = new byte[in.length + 8];
+            System.arraycopy(in, 0, padded, 3, in.length);
+            for (int j = 0; j < ALGORITHMS.length; j++) {
+                byte[] expected = baseline(ALGORITHMS[j], in);
+                Assert.assertArrayEquals(ALGORITHMS[j], expected, FUNCTIONS.get(j).apply(in));
+            }
+            Assert.assertArrayEquals(baseline("KECCAK-256", in), HashUtil.keccak256(padded, 3, in.length));
+            Assert.assertArrayEquals(baseline("RIPEMD160", in), HashUtil.ripemd160(ByteBuffer.wrap(padded, 3, in.length)));
+            Assert.assertArrayEquals(baseline("KECCAK-256", in), SHA3Utility.keccak256(in));
+            Assert.assertArrayEquals(baseline("KECCAK-256", in), SHA3Utility.keccak256(padded, 3, in.length));
+            Assert.assertArrayEquals(baseline("RIPEMD160", in), RipemdUtility.ripemd160(in));
+            Assert.assertArrayEquals(baseline("RIPEMD160", in), RipemdUtility.ripemd160(padded, 3, in.length));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testDigestResetBeforeReuse() {
+        Map<String, ThreadLocal<MessageDigest>> digests =
+                (Map<String, ThreadLocal<MessageDigest>>) ReflectionTestUtils.getField(HashUtil.class, "DIGESTS");
+        byte[] in = random(new Random(4), 32);
+        for (int j = 0; j < ALGORITHMS.length; j++) {
+            FUNCTIONS.get(j).apply(in);
+            // 模拟上一次计算中断后残留在线程摘要实例中的数据
+            digests.get(ALGORITHMS[j]).get().update(new byte[]{1, 2, 3});
+            Assert.assertArrayEquals(ALGORITHMS[j], baseline(ALGORITHMS[j], in), FUNCTIONS.get(j).apply(in));
+        }
+    }
+
+    @Test
+    public void testPublicKeyHashCache() {
+        byte[] publicKey = random(new Random(2), 32);
+        byte[] expected = baselinePublicKeyHash(publicKey);
+        byte[] hash = Address.publicKeyToHash(publicKey);
+        Assert.assertArrayEquals(expected, hash);
+        // 修改返回值或者公钥不影响缓存
+        hash[0]++;
+        Assert.assertArrayEquals(expected, Address.publicKeyToHash(publicKey));
+        byte[] other = publicKey.clone();
+        publicKey[0]++;
+        Assert.assertArrayEquals(expected, Address.publicKeyToHash(other));
+        Assert.assertArrayEquals(baselinePublicKeyHash(publicKey), Address.publicKeyToHash(publicKey));
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int seed = t;
+                futures.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 200; i++) {
+                        byte[] in = random(random, 1 + random.nextInt(200));
+                        if (!Arrays.equals(baseline("KECCAK-256", in), HashUtil.keccak256(in))
+                                || !Arrays.equals(baselinePublicKeyHash(in), Address.publicKeyToHash(in))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> f : futures) {
+                Assert.assertTrue(f.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
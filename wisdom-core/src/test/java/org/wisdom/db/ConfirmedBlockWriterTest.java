@@ -0,0 +1,76 @@
+package org.wisdom.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.context.ApplicationContext;
+import org.wisdom.core.Block;
+import org.wisdom.core.event.NewBestBlockEvent;
+import org.wisdom.core.event.NewBlockEvent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+
+public class ConfirmedBlockWriterTest {
+    private static final int MAX_RETRIES = 3;
+
+    private static Block block(long height) {
+        Block b = new Block();
+        b.nHeight = height;
+        return b;
+    }
+
+    @Test
+    public void testFailedWriteReleasesCapacity() throws Exception {
+        AtomicInteger writes = new AtomicInteger();
+        ApplicationContext ctx = Mockito.mock(ApplicationContext.class);
+        ConfirmedBlockWriter writer = new ConfirmedBlockWriter(b -> {
+            writes.incrementAndGet();
+            return false;
+        }, ctx, b -> true, 1, MAX_RETRIES, 1);
+        CompletableFuture<Block> first = writer.submit(block(1));
+        CompletableFuture<Block> second = writer.submit(block(2));
+        assertFailed(first);
+        assertFailed(second);
+        // 第一个区块失败后，后面的区块不再写入
+        Assert.assertEquals(MAX_RETRIES + 1, writes.get());
+        Mockito.verify(ctx, Mockito.never()).publishEvent(any());
+
+        writer.awaitCapacity();
+        Assert.assertEquals(0, writer.getPending());
+        writer.close();
+    }
+
+    @Test
+    public void testOnlyStateUpdateRetried() throws Exception {
+        AtomicInteger writes = new AtomicInteger();
+        AtomicInteger updates = new AtomicInteger();
+        ApplicationContext ctx = Mockito.mock(ApplicationContext.class);
+        ConfirmedBlockWriter writer = new ConfirmedBlockWriter(b -> writes.incrementAndGet() > 0, ctx,
+                b -> updates.incrementAndGet() > 2, 4, MAX_RETRIES, 1);
+        Assert.assertEquals(1, writer.submit(block(1)).get(10, TimeUnit.SECONDS).nHeight);
+        Assert.assertEquals(1, writes.get());
+        Assert.assertEquals(3, updates.get());
+        Mockito.verify(ctx, Mockito.times(1)).publishEvent(Mockito.isA(NewBlockEvent.class));
+        Mockito.verify(ctx, Mockito.times(1)).publishEvent(Mockito.isA(NewBestBlockEvent.class));
+
+        // 状态一直更新失败时放弃
+        ConfirmedBlockWriter failing = new ConfirmedBlockWriter(b -> true, ctx, b -> false, 4, MAX_RETRIES, 1);
+        assertFailed(failing.submit(block(2)));
+        writer.close();
+        failing.close();
+    }
+
+    private static void assertFailed(CompletableFuture<Block> future) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
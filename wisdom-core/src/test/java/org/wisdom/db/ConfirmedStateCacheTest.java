@@ -0,0 +1,66 @@
+package org.wisdom.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wisdom.core.account.Account;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConfirmedStateCacheTest {
+    private static final byte[] PUBKEY_HASH = new byte[20];
+
+    private static ConfirmedStateCache<Account> cache() {
+        return new ConfirmedStateCache<>("account", 16, Account::getBlockHeight, Account::copy);
+    }
+
+    @Test
+    public void testLoadOnce() {
+        ConfirmedStateCache<Account> cache = cache();
+        AtomicInteger loads = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            Account a = cache.get("a", k -> {
+                loads.incrementAndGet();
+                return new Account(1, PUBKEY_HASH, 1, 100, 0, 0, 0);
+            });
+            Assert.assertEquals(100, a.getBalance());
+            // 修改返回的对象不影响缓存
+            a.setBalance(0);
+        }
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        // 不存在的记录不缓存
+        Assert.assertNull(cache.get("b", k -> null));
+        Assert.assertNull(cache.getIfPresent("b"));
+    }
+
+    @Test
+    public void testStaleReadDoesNotOverwrite() {
+        ConfirmedStateCache<Account> cache = cache();
+        cache.put("a", new Account(10, PUBKEY_HASH, 3, 300, 0, 0, 0));
+        // 写入之前开始的数据库读操作带回了旧的状态
+        cache.put("a", new Account(9, PUBKEY_HASH, 2, 200, 0, 0, 0));
+        Assert.assertEquals(300, cache.getIfPresent("a").getBalance());
+        cache.put("a", new Account(11, PUBKEY_HASH, 4, 400, 0, 0, 0));
+        Assert.assertEquals(400, cache.getIfPresent("a").getBalance());
+    }
+
+    @Test
+    public void testGetAll() {
+        ConfirmedStateCache<Account> cache = cache();
+        cache.put("a", new Account(1, PUBKEY_HASH, 1, 100, 0, 0, 0));
+        Map<String, Account> res = cache.getAll(Arrays.asList("a", "b", "c"), missing -> {
+            Assert.assertEquals(2, missing.size());
+            Map<String, Account> loaded = new HashMap<>();
+            loaded.put("b", new Account(1, PUBKEY_HASH, 1, 200, 0, 0, 0));
+            return loaded;
+        });
+        Assert.assertEquals(2, res.size());
+        Assert.assertEquals(100, res.get("a").getBalance());
+        Assert.assertEquals(200, res.get("b").getBalance());
+        Assert.assertEquals(200, cache.getIfPresent("b").getBalance());
+    }
+}
@@ -0,0 +1,179 @@
+package org.wisdom.db;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.wisdom.consensus.pow.EconomicModel;
+import org.wisdom.consensus.pow.ProposersState;
+import org.wisdom.consensus.pow.TargetState;
+import org.wisdom.consensus.pow.ValidatorState;
+import org.wisdom.core.Block;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.core.state.EncodableState;
+import org.wisdom.crypto.HashUtil;
+import org.wisdom.encoding.BigEndian;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.*;
+
+public class EraStateSnapshotsTest {
+    private static final int BLOCKS_PER_ERA = 10;
+    private static final int ERAS = 6;
+    private static final int SNAPSHOT_ERA = 3;
+    private static final int PROPOSERS = 5;
+
+    private File dir;
+    private Leveldb leveldb;
+    private Block genesis;
+    private ProposersState proposersState;
+    private TargetState targetState;
+    private ValidatorState validatorState;
+    private EraStateSnapshots snapshots;
+
+    private static byte[] publicKeyHash(int i) {
+        byte[] res = new byte[Transaction.PUBLIC_KEY_HASH_SIZE];
+        res[0] = (byte) i;
+        return res;
+    }
+
+    private static Transaction tx(Transaction.Type type, byte[] from, byte[] to, long amount, byte[] payload) {
+        Transaction tx = Transaction.createEmpty();
+        tx.type = type.ordinal();
+        tx.from = from;
+        tx.to = to;
+        tx.amount = amount;
+        tx.payload = payload;
+        return tx;
+    }
+
+    private static Block block(Block parent, long height, List<Transaction> txs) {
+        Block b = new Block();
+        b.nVersion = 1;
+        b.hashPrevBlock = parent == null ? new byte[32] : parent.getHash();
+        b.hashMerkleRoot = new byte[32];
+        b.hashMerkleState = new byte[32];
+        b.hashMerkleIncubate = new byte[32];
+        b.nHeight = height;
+        b.nTime = height * 10 + (height % 3);
+        b.nBits = BigEndian.encodeUint256(BigInteger.ONE.shiftLeft(250));
+        b.nNonce = new byte[32];
+        Transaction coinbase = tx(Transaction.Type.COINBASE, new byte[Transaction.PUBLIC_KEY_SIZE],
+                publicKeyHash((int) (height % PROPOSERS)), 20 * EconomicModel.WDC, new byte[0]);
+        coinbase.nonce = height;
+        b.body = new ArrayList<>();
+        b.body.add(coinbase);
+        b.body.addAll(txs);
+        return b;
+    }
+
+    // 抵押、投票、撤回投票
+    private static List<List<Block>> chain(Block genesis) {
+        Random random = new Random(1);
+        List<Transaction> votes = new ArrayList<>();
+        List<List<Block>> eras = new ArrayList<>();
+        Block parent = genesis;
+        for (int era = 0; era < ERAS; era++) {
+            List<Block> blocks = new ArrayList<>();
+            for (int i = 0; i < BLOCKS_PER_ERA; i++) {
+                List<Transaction> txs = new ArrayList<>();
+                long height = parent.nHeight + 1;
+                if (height <= PROPOSERS) {
+                    txs.add(tx(Transaction.Type.MORTGAGE, new byte[Transaction.PUBLIC_KEY_SIZE],
+                            publicKeyHash((int) height % PROPOSERS), 200000 * EconomicModel.WDC, new byte[0]));
+                }
+                for (int j = 0; j < 3; j++) {
+                    byte[] from = new byte[Transaction.PUBLIC_KEY_SIZE];
+                    random.nextBytes(from);
+                    Transaction vote = tx(Transaction.Type.VOTE, from, publicKeyHash(random.nextInt(PROPOSERS)),
+                            (random.nextInt(1000) + 1) * EconomicModel.WDC, new byte[0]);
+                    votes.add(vote);
+                    txs.add(vote);
+                }
+                if (votes.size() > 10 && random.nextBoolean()) {
+                    Transaction vote = votes.remove(random.nextInt(votes.size() - 3));
+                    txs.add(tx(Transaction.Type.EXIT_VOTE, vote.from, vote.to, vote.amount, vote.getHash()));
+                }
+                parent = block(parent, height, txs);
+                blocks.add(parent);
+            }
+            eras.add(blocks);
+        }
+        return eras;
+    }
+
+    private static String checksum(EncodableState<?> state) {
+        return Arrays.toString(HashUtil.keccak256(state.encode()));
+    }
+
+    @Before
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("era-snapshots-test").toFile();
+        leveldb = new Leveldb(dir.getAbsolutePath(), false, 1 << 20);
+        genesis = block(null, 0, Collections.emptyList());
+        proposersState = new ProposersState(0, BLOCKS_PER_ERA);
+        targetState = new TargetState(genesis, 10, -1, 10, BLOCKS_PER_ERA);
+        validatorState = new ValidatorState(genesis);
+        snapshots = new EraStateSnapshots(leveldb, proposersState, targetState, validatorState);
+    }
+
+    @After
+    public void close() {
+        leveldb.close();
+    }
+
+    @Test
+    public void testRestoreSameAsFullReplay() {
+        List<List<Block>> eras = chain(genesis);
+        ProposersState p = proposersState;
+        TargetState t = targetState;
+        ValidatorState v = validatorState;
+        for (int i = 0; i < ERAS; i++) {
+            p = p.copy().updateBlocks(eras.get(i));
+            t = t.copy().updateBlocks(eras.get(i));
+            v = v.copy().updateBlocks(eras.get(i));
+            if (i == SNAPSHOT_ERA - 1) {
+                snapshots.save(eras.get(i).get(BLOCKS_PER_ERA - 1), p, t, v);
+            }
+        }
+        Assert.assertFalse(p.getProposers().isEmpty());
+
+        EraStateSnapshots.Snapshot s = snapshots.loadLatest().get();
+        Block eraLast = eras.get(SNAPSHOT_ERA - 1).get(BLOCKS_PER_ERA - 1);
+        Assert.assertEquals(eraLast.nHeight, s.height);
+        Assert.assertArrayEquals(eraLast.getHash(), s.hash);
+
+        // 只重放快照之后的纪元
+        ProposersState rp = s.proposersState;
+        TargetState rt = s.targetState;
+        ValidatorState rv = s.validatorState;
+        for (int i = SNAPSHOT_ERA; i < ERAS; i++) {
+            rp = rp.copy().updateBlocks(eras.get(i));
+            rt = rt.copy().updateBlocks(eras.get(i));
+            rv = rv.copy().updateBlocks(eras.get(i));
+        }
+        Assert.assertEquals(checksum(p), checksum(rp));
+        Assert.assertEquals(checksum(t), checksum(rt));
+        Assert.assertEquals(checksum(v), checksum(rv));
+        Assert.assertEquals(t.getTarget(), rt.getTarget());
+        Assert.assertEquals(p.getProposers().stream().map(x -> x.publicKeyHash).toArray(),
+                rp.getProposers().stream().map(x -> x.publicKeyHash).toArray());
+    }
+
+    @Test
+    public void testOnlyLatestKept() {
+        List<List<Block>> eras = chain(genesis);
+        Block first = eras.get(0).get(BLOCKS_PER_ERA - 1);
+        Block second = eras.get(1).get(BLOCKS_PER_ERA - 1);
+        snapshots.save(first, proposersState, targetState, validatorState);
+        snapshots.save(second, proposersState, targetState, validatorState);
+        Assert.assertEquals(second.nHeight, snapshots.loadLatest().get().height);
+        Assert.assertEquals(2, leveldb.readPrefix("era-state-snapshot-".getBytes()).size());
+
+        // 数据损坏时不使用快照
+        leveldb.write(org.wisdom.util.Arrays.concatenate("era-state-snapshot-".getBytes(), second.getHash()), new byte[40]);
+        Assert.assertFalse(snapshots.loadLatest().isPresent());
+    }
+}
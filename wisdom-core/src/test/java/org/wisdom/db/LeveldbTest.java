@@ -0,0 +1,77 @@
+package org.wisdom.db;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class LeveldbTest {
+    private File dir;
+    private Leveldb leveldb;
+
+    @Before
+    public void open() throws Exception {
+        dir = Files.createTempDirectory("leveldb-test").toFile();
+        leveldb = new Leveldb(dir.getAbsolutePath(), false, 1 << 20);
+    }
+
+    @After
+    public void close() {
+        leveldb.close();
+    }
+
+    @Test
+    public void testBatchAndSnapshotRead() {
+        leveldb.writeBatch(batch -> {
+            batch.put("QueuedPool".getBytes(), "[1]".getBytes());
+            batch.put("PendingPool".getBytes(), "[2]".getBytes());
+        });
+        Assert.assertEquals("[1]", leveldb.readPoolDb("QueuedPool"));
+        Assert.assertEquals("[2]", leveldb.readPoolDb("PendingPool"));
+
+        List<byte[]> values = leveldb.read(Arrays.asList("QueuedPool".getBytes(), "missing".getBytes()));
+        Assert.assertArrayEquals("[1]".getBytes(), values.get(0));
+        Assert.assertNull(values.get(1));
+
+        // 读取失败时不返回部分结果
+        Assert.assertNull(leveldb.read(Arrays.asList("QueuedPool".getBytes(), null)));
+    }
+
+    @Test
+    public void testReadPrefix() {
+        leveldb.writeBatch(batch -> {
+            batch.put("a1".getBytes(), new byte[]{1});
+            batch.put("a2".getBytes(), new byte[]{2});
+            batch.put("b1".getBytes(), new byte[]{3});
+        });
+        leveldb.delete("a2".getBytes());
+        Map<byte[], byte[]> res = leveldb.readPrefix("a".getBytes());
+        Assert.assertEquals(1, res.size());
+        Assert.assertArrayEquals(new byte[]{1}, res.values().iterator().next());
+    }
+
+    @Test
+    public void testFailedBatchNotApplied() {
+        boolean written = leveldb.writeBatch(batch -> {
+            batch.put("c1".getBytes(), new byte[]{1});
+            throw new RuntimeException("encode failed");
+        });
+        Assert.assertFalse(written);
+        Assert.assertNull(leveldb.read("c1".getBytes()));
+        Assert.assertTrue(leveldb.writeBatch(batch -> batch.put("c1".getBytes(), new byte[]{1})));
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        leveldb.write("peers".getBytes(), "x".getBytes());
+        leveldb.close();
+        leveldb = new Leveldb(dir.getAbsolutePath(), false, 1 << 20);
+        Assert.assertArrayEquals("x".getBytes(), leveldb.read("peers".getBytes()));
+    }
+}
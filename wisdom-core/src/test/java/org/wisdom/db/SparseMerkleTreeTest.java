@@ -0,0 +1,112 @@
+package org.wisdom.db;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+public class SparseMerkleTreeTest {
+
+    // 模拟 leveldb，只保存已提交的节点
+    private static class Store {
+        private final Map<String, byte[]> nodes = new HashMap<>();
+
+        private byte[] update(byte[] root, Map<String, byte[]> values) {
+            SparseMerkleTree tree = new SparseMerkleTree(h -> nodes.get(Hex.encodeHexString(h)));
+            byte[] res = tree.update(root, values);
+            nodes.putAll(tree.getCreated());
+            return res;
+        }
+
+        private SparseMerkleTree.Proof prove(byte[] root, byte[] key) {
+            return new SparseMerkleTree(h -> nodes.get(Hex.encodeHexString(h))).prove(root, key);
+        }
+    }
+
+    private static Map<String, byte[]> values(Random random, int n) {
+        Map<String, byte[]> values = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) {
+            values.put(Hex.encodeHexString(bytes(random)), bytes(random));
+        }
+        return values;
+    }
+
+    private static byte[] bytes(Random random) {
+        byte[] b = new byte[SparseMerkleTree.KEY_SIZE];
+        random.nextBytes(b);
+        return b;
+    }
+
+    @Test
+    public void testIncrementalSameAsRebuild() {
+        Random random = new Random(1);
+        Store store = new Store();
+        Map<String, byte[]> all = new HashMap<>();
+        byte[] root = SparseMerkleTree.EMPTY;
+        List<String> keys = new ArrayList<>();
+        for (int block = 0; block < 50; block++) {
+            Map<String, byte[]> changes = values(random, random.nextInt(20));
+            // 修改已有的值
+            for (int i = 0; i < 5 && !keys.isEmpty(); i++) {
+                changes.put(keys.get(random.nextInt(keys.size())), bytes(random));
+            }
+            keys.addAll(changes.keySet());
+            all.putAll(changes);
+            root = store.update(root, changes);
+        }
+        Assert.assertArrayEquals(root, new Store().update(SparseMerkleTree.EMPTY, all));
+
+        // 插入顺序不影响根
+        List<String> shuffled = new ArrayList<>(all.keySet());
+        Collections.shuffle(shuffled, random);
+        Store other = new Store();
+        byte[] r = SparseMerkleTree.EMPTY;
+        for (String k : shuffled) {
+            r = other.update(r, Collections.singletonMap(k, all.get(k)));
+        }
+        Assert.assertArrayEquals(root, r);
+    }
+
+    @Test
+    public void testProof() throws Exception {
+        Random random = new Random(2);
+        Store store = new Store();
+        Map<String, byte[]> values = values(random, 1000);
+        byte[] old = store.update(SparseMerkleTree.EMPTY, values);
+        for (Map.Entry<String, byte[]> e : values.entrySet()) {
+            byte[] key = Hex.decodeHex(e.getKey().toCharArray());
+            SparseMerkleTree.Proof proof = store.prove(old, key);
+            Assert.assertTrue(proof.isInclusion(key));
+            Assert.assertTrue(SparseMerkleTree.verify(old, key, e.getValue(), proof));
+            Assert.assertFalse(SparseMerkleTree.verify(old, key, bytes(random), proof));
+            Assert.assertFalse(SparseMerkleTree.verify(old, key, null, proof));
+        }
+        for (int i = 0; i < 100; i++) {
+            byte[] key = bytes(random);
+            SparseMerkleTree.Proof proof = store.prove(old, key);
+            Assert.assertFalse(proof.isInclusion(key));
+            Assert.assertTrue(SparseMerkleTree.verify(old, key, null, proof));
+            Assert.assertFalse(SparseMerkleTree.verify(old, key, bytes(random), proof));
+        }
+
+        // 旧版本的根仍然可以生成证明
+        String changed = values.keySet().iterator().next();
+        byte[] root = store.update(old, Collections.singletonMap(changed, bytes(random)));
+        Assert.assertFalse(Arrays.equals(old, root));
+        byte[] key = Hex.decodeHex(changed.toCharArray());
+        Assert.assertTrue(SparseMerkleTree.verify(old, key, values.get(changed), store.prove(old, key)));
+        Assert.assertFalse(SparseMerkleTree.verify(root, key, values.get(changed), store.prove(root, key)));
+    }
+
+    @Test
+    public void testUpdateCost() {
+        Random random = new Random(3);
+        Store store = new Store();
+        byte[] root = store.update(SparseMerkleTree.EMPTY, values(random, 100000));
+        SparseMerkleTree tree = new SparseMerkleTree(h -> store.nodes.get(Hex.encodeHexString(h)));
+        tree.update(root, values(random, 10));
+        // 每个修改的值只重写路径上的节点
+        Assert.assertTrue(tree.getCreated().size() < 10 * 40);
+    }
+}
@@ -0,0 +1,87 @@
+package org.wisdom.db;
+
+import org.mockito.MockSettings;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.wisdom.core.Block;
+import org.wisdom.core.StatetreeUpdate;
+import org.wisdom.core.WisdomBlockChain;
+import org.wisdom.core.account.Transaction;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * lookup of 10k accounts at the tip of a 500-block unconfirmed fork through the layered account index,
+ * cold lookups start from an empty per-block state cache, run with gradle jmh -PappArgs="StateDBAccountLookupBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StateDBAccountLookupBenchmark {
+    private StateDB stateDB;
+
+    private byte[] tip;
+
+    private List<byte[]> accounts;
+
+    // 每次调用前清空区块的账户状态缓存
+    @State(Scope.Benchmark)
+    public static class Cold {
+        @Setup(Level.Invocation)
+        public void clear(StateDBAccountLookupBenchmark benchmark) {
+            ((Map<?, ?>) ReflectionTestUtils.getField(benchmark.stateDB, "cache")).clear();
+        }
+    }
+
+    @Setup
+    public void setup() {
+        MockSettings settings = Mockito.withSettings().stubOnly();
+        Block genesis = StateDBTest.block(null, 0);
+        stateDB = StateDBTest.newStateDB(genesis, Mockito.mock(WisdomBlockChain.class, settings),
+                Mockito.mock(StatetreeUpdate.class, settings), 0);
+        byte[] from = new byte[Transaction.PUBLIC_KEY_SIZE];
+        from[0] = 1;
+        tip = StateDBTest.unconfirmedFork(stateDB, genesis, from, StateDBTest.UNCONFIRMED_BLOCKS, StateDBTest.ACCOUNTS).getHash();
+        accounts = StateDBTest.recipients(from, StateDBTest.ACCOUNTS);
+        // 预热缓存，冷启动的测量会先清空
+        stateDB.getAccounts(tip, accounts);
+    }
+
+    @TearDown
+    public void close() {
+        stateDB.close();
+    }
+
+    private void getAccount(Blackhole bh) {
+        for (byte[] a : accounts) {
+            bh.consume(stateDB.getAccount(tip, a));
+        }
+    }
+
+    @Benchmark
+    public void getAccountCold(Cold cold, Blackhole bh) {
+        getAccount(bh);
+    }
+
+    @Benchmark
+    public void getAccountWarm(Blackhole bh) {
+        getAccount(bh);
+    }
+
+    @Benchmark
+    public Map<String, AccountState> getAccountsCold(Cold cold) {
+        return stateDB.getAccounts(tip, accounts);
+    }
+
+    @Benchmark
+    public Map<String, AccountState> getAccountsWarm() {
+        return stateDB.getAccounts(tip, accounts);
+    }
+}
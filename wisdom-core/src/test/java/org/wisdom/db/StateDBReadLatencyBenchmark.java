@@ -0,0 +1,72 @@
+package org.wisdom.db;
+
+import org.mockito.MockSettings;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.*;
+import org.wisdom.core.Block;
+import org.wisdom.core.StatetreeUpdate;
+import org.wisdom.core.WisdomBlockChain;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+
+/**
+ * latency percentiles of {@link StateDB} reads while blocks are imported and confirmed blocks are written to a slow database,
+ * run with gradle jmh -PappArgs="StateDBReadLatencyBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class StateDBReadLatencyBenchmark {
+    // 模拟写入数据库的耗时
+    private static final long DB_WRITE_MILLIS = 10;
+
+    private StateDB stateDB;
+
+    private Thread importer;
+
+    private volatile boolean importing;
+
+    @Setup
+    public void setup() {
+        MockSettings settings = Mockito.withSettings().stubOnly();
+        Block genesis = StateDBTest.block(null, 0);
+        StatetreeUpdate statetreeUpdate = Mockito.mock(StatetreeUpdate.class, settings);
+        Mockito.when(statetreeUpdate.writeBlock(any())).thenAnswer(invocation -> {
+            Thread.sleep(DB_WRITE_MILLIS);
+            return true;
+        });
+        stateDB = StateDBTest.newStateDB(genesis, Mockito.mock(WisdomBlockChain.class, settings), statetreeUpdate, DB_WRITE_MILLIS);
+
+        // 测量期间一直导入区块，写入线程满了之后按数据库的速度导入
+        importing = true;
+        importer = new Thread(() -> {
+            Block parent = genesis;
+            while (importing) {
+                parent = StateDBTest.block(parent, parent.nHeight + 1);
+                stateDB.writeBlock(parent);
+            }
+        }, "block-importer");
+        importer.start();
+    }
+
+    @TearDown
+    public void close() throws InterruptedException {
+        importing = false;
+        importer.join();
+        stateDB.close();
+    }
+
+    @Benchmark
+    public AccountState read() {
+        Block best = stateDB.getBestBlock();
+        stateDB.getHeader(best.getHash());
+        stateDB.hasTransaction(best.getHash(), best.body.get(0).getHash());
+        return stateDB.getAccount(best.getHash(), StateDBTest.MINER);
+    }
+}
@@ -0,0 +1,348 @@
+package org.wisdom.db;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.MockSettings;
+import org.mockito.Mockito;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.wisdom.consensus.pow.ProposersFactory;
+import org.wisdom.core.Block;
+import org.wisdom.core.StatetreeUpdate;
+import org.wisdom.core.WisdomBlockChain;
+import org.wisdom.core.account.AccountDB;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.core.event.AccountUpdatedEvent;
+import org.wisdom.core.event.NewBestBlockEvent;
+import org.wisdom.core.incubator.IncubatorDB;
+import org.wisdom.encoding.BigEndian;
+import org.wisdom.keystore.crypto.RipemdUtility;
+import org.wisdom.keystore.crypto.SHA3Utility;
+import org.wisdom.p2p.WisdomOuterClass;
+import org.wisdom.sync.Utils;
+
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.*;
+
+public class StateDBTest {
+    private static final int BLOCKS = 20;
+    private static final long DB_WRITE_MILLIS = 10;
+    static final int UNCONFIRMED_BLOCKS = 500;
+    static final int ACCOUNTS = 10000;
+
+    static final byte[] MINER = new byte[Transaction.PUBLIC_KEY_HASH_SIZE];
+
+    private StateDB stateDB;
+    private Block genesis;
+    private WisdomBlockChain bc;
+    private StatetreeUpdate statetreeUpdate;
+
+    static Block block(Block parent, long height) {
+        return block(parent, height, 0);
+    }
+
+    static Block block(Block parent, long height, int fork) {
+        Block b = new Block();
+        b.nVersion = 1;
+        b.hashPrevBlock = parent == null ? new byte[32] : parent.getHash();
+        b.hashMerkleRoot = new byte[32];
+        b.hashMerkleRoot[0] = (byte) fork;
+        b.hashMerkleState = new byte[32];
+        b.hashMerkleIncubate = new byte[32];
+        b.nHeight = height;
+        b.nTime = height;
+        b.nBits = new byte[32];
+        b.nNonce = BigEndian.encodeUint256(BigInteger.valueOf(height));
+        Transaction coinbase = Transaction.createEmpty();
+        coinbase.type = Transaction.Type.COINBASE.ordinal();
+        coinbase.nonce = height;
+        coinbase.amount = 20;
+        coinbase.payload = new byte[0];
+        coinbase.to = MINER;
+        b.body = new ArrayList<>(Collections.singletonList(coinbase));
+        return b;
+    }
+
+    // 测试和基准测试共用，除了 StatetreeUpdate 之外的依赖都被模拟，账户状态在发布 NewBestBlockEvent 后更新
+    static StateDB newStateDB(Block genesis, WisdomBlockChain bc, StatetreeUpdate statetreeUpdate, long eventMillis) {
+        StateDB stateDB = new StateDB(120, -1, 10, -1, 10);
+        ReflectionTestUtils.setField(stateDB, "blocksPerEra", 120);
+        ReflectionTestUtils.setField(stateDB, "genesis", genesis);
+
+        Mockito.when(bc.getLastConfirmedBlock()).thenReturn(genesis);
+        Mockito.when(bc.getCanonicalBlocks(anyLong(), anyInt())).thenReturn(new ArrayList<>());
+        Mockito.when(bc.hasTransaction(any())).thenReturn(true);
+        ReflectionTestUtils.setField(stateDB, "bc", bc);
+        ReflectionTestUtils.setField(stateDB, "statetreeUpdate", statetreeUpdate);
+
+        // 基准测试中调用次数很多，模拟对象不记录调用
+        MockSettings settings = Mockito.withSettings().stubOnly();
+        AccountDB accountDB = Mockito.mock(AccountDB.class, settings);
+        Mockito.when(accountDB.hasAccount(any(), anyLong())).thenReturn(Optional.empty());
+        ReflectionTestUtils.setField(stateDB, "accountDB", accountDB);
+        IncubatorDB incubatorDB = Mockito.mock(IncubatorDB.class, settings);
+        Mockito.when(incubatorDB.selectList(any(), anyLong())).thenReturn(new ArrayList<>());
+        Mockito.when(incubatorDB.selectShareList(any(), anyLong())).thenReturn(new ArrayList<>());
+        ReflectionTestUtils.setField(stateDB, "incubatorDB", incubatorDB);
+
+        ProposersFactory proposersFactory = Mockito.mock(ProposersFactory.class, settings);
+        Mockito.when(proposersFactory.getProposers(any())).thenReturn(Collections.singletonList("miner"));
+        ReflectionTestUtils.setField(stateDB, "proposersFactory", proposersFactory);
+        ReflectionTestUtils.setField(stateDB, "validatorStateFactory", Mockito.mock(ValidatorStateFactory.class, settings));
+        ReflectionTestUtils.setField(stateDB, "targetStateFactory", Mockito.mock(TargetStateFactory.class, settings));
+
+        // 模拟账户状态更新，和 StatetreeUpdate 一样在同一线程中发布 AccountUpdatedEvent
+        ApplicationContext ctx = Mockito.mock(ApplicationContext.class, settings);
+        Mockito.doAnswer(invocation -> {
+            Object event = invocation.getArgument(0);
+            if (event instanceof NewBestBlockEvent) {
+                Thread.sleep(eventMillis);
+                stateDB.onApplicationEvent(new AccountUpdatedEvent(stateDB, ((NewBestBlockEvent) event).getBlock()));
+            }
+            return null;
+        }).when(ctx).publishEvent(any(ApplicationEvent.class));
+        ReflectionTestUtils.setField(stateDB, "ctx", ctx);
+
+        stateDB.init();
+        return stateDB;
+    }
+
+    @Before
+    public void setup() {
+        genesis = block(null, 0);
+        bc = Mockito.mock(WisdomBlockChain.class);
+        statetreeUpdate = Mockito.mock(StatetreeUpdate.class);
+        // 模拟写入数据库的耗时
+        Mockito.when(statetreeUpdate.writeBlock(any())).thenAnswer(invocation -> {
+            Thread.sleep(DB_WRITE_MILLIS);
+            return true;
+        });
+        stateDB = newStateDB(genesis, bc, statetreeUpdate, DB_WRITE_MILLIS);
+    }
+
+    @After
+    public void close() {
+        stateDB.close();
+    }
+
+    @Test
+    public void testBestBlockAcrossForks() {
+        Block a1 = block(genesis, 1, 1);
+        Block b1 = block(genesis, 1, 2);
+        Block a2 = block(a1, 2, 1);
+        Block b2 = block(b1, 2, 2);
+        stateDB.writeBlock(a1);
+        Assert.assertArrayEquals(a1.getHash(), stateDB.getBestBlock().getHash());
+        stateDB.writeBlock(b1);
+        stateDB.writeBlock(a2);
+        stateDB.writeBlock(b2);
+        // 高度相同时 pow 更小的占优势
+        Block expected = BigEndian.compareUint256(Block.calculatePOWHash(a2), Block.calculatePOWHash(b2)) < 0 ? a2 : b2;
+        Assert.assertArrayEquals(expected.getHash(), stateDB.getBestBlock().getHash());
+
+        Block loser = expected == a2 ? b2 : a2;
+        Block longer = block(loser, 3, loser == a2 ? 1 : 2);
+        stateDB.writeBlock(longer);
+        Assert.assertArrayEquals(longer.getHash(), stateDB.getBestBlock().getHash());
+    }
+
+    @Test
+    public void testTransactionLookupsOnFork() {
+        Block a1 = block(genesis, 1, 1);
+        Block a2 = block(a1, 2, 1);
+        Block a3 = block(a2, 3, 1);
+        Block b1 = block(genesis, 1, 2);
+        b1.body.get(0).nonce = 100;
+        Arrays.asList(a1, a2, a3, b1).forEach(stateDB::writeBlock);
+        Mockito.when(bc.hasTransaction(any())).thenReturn(false);
+        Mockito.when(bc.getTransactionsByTo(any(), anyInt(), anyInt())).thenReturn(new ArrayList<>());
+        Mockito.when(bc.countTransactions(anyInt(), any(), any())).thenReturn(2L);
+
+        byte[] tx = a2.body.get(0).getHash();
+        Assert.assertTrue(stateDB.hasTransaction(a3.getHash(), tx));
+        Assert.assertFalse(stateDB.hasTransaction(b1.getHash(), tx));
+        Assert.assertEquals(2, stateDB.getTransaction(a3.getHash(), tx).height);
+        Assert.assertNull(stateDB.getTransaction(b1.getHash(), tx));
+
+        // 2 confirmed transactions precede the 3 transactions on the best fork
+        List<Transaction> page = stateDB.getTransactionsByTo(MINER, 0, 10);
+        Assert.assertEquals(3, page.size());
+        Assert.assertEquals(1, page.get(0).height);
+        Assert.assertEquals(3, page.get(2).height);
+        page = stateDB.getTransactionsByTo(MINER, 3, 2);
+        Assert.assertEquals(2, page.size());
+        Assert.assertEquals(2, page.get(0).height);
+        Assert.assertEquals(3, page.get(1).height);
+        Assert.assertTrue(stateDB.getTransactionsByFrom(new byte[Transaction.PUBLIC_KEY_SIZE], 5, 10).isEmpty());
+    }
+
+    // 数据库写入卡住时，读操作和新区块的写入不需要等待，延迟的测量见 StateDBReadLatencyBenchmark
+    @Test
+    public void testReadsNotBlockedByDatabaseWrite() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Mockito.when(statetreeUpdate.writeBlock(any())).thenAnswer(invocation -> {
+            writing.countDown();
+            return release.await(30, TimeUnit.SECONDS);
+        });
+        Block parent = genesis;
+        CompletableFuture<Block> confirmed = null;
+        for (int i = 1; i <= BLOCKS; i++) {
+            parent = block(parent, i);
+            confirmed = stateDB.writeBlock(parent);
+        }
+        Assert.assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+        Block tip = parent;
+        CompletableFuture<Block> read = CompletableFuture.supplyAsync(() -> {
+            Block best = stateDB.getBestBlock();
+            Assert.assertNotNull(stateDB.getHeader(best.getHash()));
+            Assert.assertNotNull(stateDB.getAccount(best.getHash(), MINER));
+            Assert.assertTrue(stateDB.hasTransaction(best.getHash(), best.body.get(0).getHash()));
+            return best;
+        });
+        Assert.assertArrayEquals(tip.getHash(), read.get(10, TimeUnit.SECONDS).getHash());
+        Assert.assertFalse(confirmed.isDone());
+
+        release.countDown();
+        Assert.assertEquals(BLOCKS - 3, confirmed.get(30, TimeUnit.SECONDS).nHeight);
+        Assert.assertEquals(BLOCKS - 3, stateDB.getLastConfirmed().nHeight);
+    }
+
+    // 数据库中的区块
+    private static List<Block> range(List<Block> confirmed, long start, long stop, int sizeLimit, boolean clipInitial) {
+        List<Block> res = confirmed.stream().filter(b -> b.nHeight >= start && b.nHeight <= stop).collect(Collectors.toList());
+        int n = Math.min(res.size(), sizeLimit);
+        return clipInitial ? res.subList(res.size() - n, res.size()) : res.subList(0, n);
+    }
+
+    @Test
+    public void testEncodedBlocksSameAsBlocks() throws Exception {
+        List<Block> chain = new ArrayList<>();
+        chain.add(genesis);
+        Block parent = genesis;
+        CompletableFuture<Block> confirmed = null;
+        for (int i = 1; i <= 20; i++) {
+            parent = block(parent, i);
+            chain.add(parent);
+            confirmed = stateDB.writeBlock(parent);
+        }
+        long confirmedHeight = confirmed.get(30, TimeUnit.SECONDS).nHeight;
+        // 同一高度的分叉区块
+        Block sibling = block(chain.get(19), 20, 1);
+        stateDB.writeBlock(sibling);
+        List<Block> db = chain.subList(0, (int) confirmedHeight + 1);
+        Mockito.when(bc.getBlocks(anyLong(), anyLong(), anyInt(), anyBoolean())).thenAnswer(invocation ->
+                range(db, invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2), invocation.getArgument(3)));
+        Mockito.when(bc.getEncodedBlocks(anyLong(), anyLong(), anyInt(), anyBoolean())).thenAnswer(invocation -> {
+            Map<String, WisdomOuterClass.Block> res = new LinkedHashMap<>();
+            range(db, invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2), invocation.getArgument(3))
+                    .forEach(b -> res.put(b.getHashHexString(), Utils.encodeBlock(b)));
+            return res;
+        });
+        Assert.assertTrue(stateDB.getEncodedBlocks(20, 20, 10, false).contains(Utils.encodeBlock(sibling)));
+        Assert.assertEquals(2, stateDB.getEncodedBlocks(20, 20, 10, false).size());
+
+        for (boolean clipInitial : new boolean[]{false, true}) {
+            for (long[] query : new long[][]{{1, 20, 100}, {3, 18, 5}, {10, 19, 100}, {17, 20, 2}, {0, 30, 30}}) {
+                Assert.assertEquals(
+                        Utils.encodeBlocks(stateDB.getBlocks(query[0], query[1], (int) query[2], clipInitial)),
+                        stateDB.getEncodedBlocks(query[0], query[1], (int) query[2], clipInitial)
+                );
+            }
+        }
+    }
+
+    static Transaction transfer(byte[] from, long nonce, int to) {
+        Transaction t = Transaction.createEmpty();
+        t.type = Transaction.Type.TRANSFER.ordinal();
+        t.from = from;
+        t.nonce = nonce;
+        t.gasPrice = 1;
+        t.amount = 100;
+        t.payload = new byte[0];
+        t.to = BigEndian.encodeUint256(BigInteger.valueOf(to + 1));
+        t.to = Arrays.copyOfRange(t.to, t.to.length - Transaction.PUBLIC_KEY_HASH_SIZE, t.to.length);
+        return t;
+    }
+
+    @Test
+    public void testAccountOnForks() {
+        byte[] from = new byte[Transaction.PUBLIC_KEY_SIZE];
+        Block a1 = block(genesis, 1, 1);
+        a1.body.add(transfer(from, 1, 0));
+        Block a2 = block(a1, 2, 1);
+        Block b1 = block(genesis, 1, 2);
+        b1.body.add(transfer(from, 1, 1));
+        Arrays.asList(a1, a2, b1).forEach(stateDB::writeBlock);
+
+        byte[] to0 = a1.body.get(1).to;
+        byte[] to1 = b1.body.get(1).to;
+        Assert.assertEquals(100, stateDB.getAccount(a2.getHash(), to0).getAccount().getBalance());
+        Assert.assertEquals(0, stateDB.getAccount(a2.getHash(), to1).getAccount().getBalance());
+        Assert.assertEquals(0, stateDB.getAccount(b1.getHash(), to0).getAccount().getBalance());
+        Assert.assertEquals(100, stateDB.getAccount(b1.getHash(), to1).getAccount().getBalance());
+        Assert.assertEquals(1, stateDB.getAccount(a2.getHash(), RipemdUtility.ripemd160(SHA3Utility.keccak256(from))).getAccount().getNonce());
+        Assert.assertEquals(40, stateDB.getAccount(a2.getHash(), MINER).getAccount().getBalance());
+        Assert.assertNull(stateDB.getAccount(new byte[32], MINER));
+    }
+
+    // 写入一段不会被确认的分叉，每笔转账修改一个不同的账户，返回分叉的末端
+    static Block unconfirmedFork(StateDB stateDB, Block genesis, byte[] from, int blocks, int accounts) {
+        // 单个矿工无法确认区块，所有区块都保留在缓存中
+        ProposersFactory proposersFactory = Mockito.mock(ProposersFactory.class, Mockito.withSettings().stubOnly());
+        Mockito.when(proposersFactory.getProposers(any())).thenReturn(Arrays.asList("a", "b", "c"));
+        ReflectionTestUtils.setField(stateDB, "proposersFactory", proposersFactory);
+
+        int perBlock = accounts / blocks;
+        Block parent = genesis;
+        for (int i = 0; i < blocks; i++) {
+            Block b = block(parent, i + 1);
+            for (int j = 0; j < perBlock; j++) {
+                b.body.add(transfer(from, i * perBlock + j + 1, i * perBlock + j));
+            }
+            stateDB.writeBlock(b);
+            parent = b;
+        }
+        return parent;
+    }
+
+    // unconfirmedFork 中转账的接收方
+    static List<byte[]> recipients(byte[] from, int accounts) {
+        List<byte[]> res = new ArrayList<>();
+        for (int i = 0; i < accounts; i++) {
+            res.add(transfer(from, 0, i).to);
+        }
+        return res;
+    }
+
+    // 在 500 个未确认区块的末端查询 10000 个账户，耗时见 StateDBAccountLookupBenchmark
+    @Test
+    public void testAccountLookupAtTip() {
+        byte[] from = new byte[Transaction.PUBLIC_KEY_SIZE];
+        from[0] = 1;
+        Block tip = unconfirmedFork(stateDB, genesis, from, UNCONFIRMED_BLOCKS, ACCOUNTS);
+        Assert.assertEquals(0, stateDB.getLastConfirmed().nHeight);
+        Assert.assertEquals(UNCONFIRMED_BLOCKS, stateDB.getBestBlock().nHeight);
+
+        List<byte[]> accounts = recipients(from, ACCOUNTS);
+        for (byte[] a : accounts) {
+            Assert.assertEquals(100, stateDB.getAccount(tip.getHash(), a).getAccount().getBalance());
+        }
+        Assert.assertEquals(ACCOUNTS, stateDB.getAccounts(tip.getHash(), accounts).size());
+        Transaction t = transfer(from, 1, 0);
+        AccountState sender = stateDB.getAccount(tip.getHash(), RipemdUtility.ripemd160(SHA3Utility.keccak256(from)));
+        Assert.assertEquals(-ACCOUNTS * (t.amount + t.getFee()), sender.getAccount().getBalance());
+        Assert.assertEquals(ACCOUNTS, sender.getAccount().getNonce());
+        Assert.assertEquals(20L * UNCONFIRMED_BLOCKS, stateDB.getAccount(tip.getHash(), MINER).getAccount().getBalance());
+    }
+}
@@ -0,0 +1,177 @@
+package org.wisdom.db;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.wisdom.core.Block;
+import org.wisdom.core.WisdomBlockChain;
+import org.wisdom.core.account.Account;
+import org.wisdom.core.account.AccountDB;
+import org.wisdom.core.incubator.IncubatorDB;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+
+public class StateTrieTest {
+    private static final int ACCOUNTS = 250;
+
+    private Leveldb leveldb;
+
+    private StateTrie stateTrie;
+
+    // 数据库中的最新状态
+    private Map<String, Account> accounts;
+
+    private Block lastConfirmed;
+
+    private CountDownLatch scanStarted;
+
+    private CountDownLatch resumeScan;
+
+    @Before
+    public void setup() throws Exception {
+        File dir = Files.createTempDirectory("state-trie-test").toFile();
+        leveldb = new Leveldb(dir.getAbsolutePath(), false, 1 << 20);
+        accounts = new LinkedHashMap<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            put(account(i, 0, i));
+        }
+        lastConfirmed = block(0);
+        scanStarted = new CountDownLatch(1);
+        resumeScan = new CountDownLatch(0);
+
+        AccountDB accountDB = Mockito.mock(AccountDB.class);
+        Mockito.doAnswer(invocation -> {
+            Consumer<Account> consumer = invocation.getArgument(0);
+            List<Account> snapshot = new ArrayList<>(accounts.values());
+            scanStarted.countDown();
+            Assert.assertTrue(resumeScan.await(10, TimeUnit.SECONDS));
+            snapshot.forEach(consumer);
+            return null;
+        }).when(accountDB).forEachLatestAccount(any());
+        WisdomBlockChain bc = Mockito.mock(WisdomBlockChain.class);
+        Mockito.when(bc.getLastConfirmedBlock()).thenAnswer(invocation -> lastConfirmed);
+
+        stateTrie = new StateTrie();
+        ReflectionTestUtils.setField(stateTrie, "enabled", true);
+        ReflectionTestUtils.setField(stateTrie, "leveldb", leveldb);
+        ReflectionTestUtils.setField(stateTrie, "accountDB", accountDB);
+        ReflectionTestUtils.setField(stateTrie, "incubatorDB", Mockito.mock(IncubatorDB.class));
+        ReflectionTestUtils.setField(stateTrie, "bc", bc);
+        ReflectionTestUtils.setField(stateTrie, "rebuildChunkSize", 64);
+    }
+
+    @After
+    public void close() {
+        stateTrie.close();
+        leveldb.close();
+    }
+
+    private static Account account(int i, long height, long balance) {
+        byte[] publicKeyHash = new byte[20];
+        publicKeyHash[0] = (byte) (i >> 8);
+        publicKeyHash[1] = (byte) i;
+        return new Account(height, publicKeyHash, 0, balance, 0, 0, 0);
+    }
+
+    private static Block block(long height) {
+        Block b = new Block();
+        b.nHeight = height;
+        return b;
+    }
+
+    private void put(Account a) {
+        accounts.put(Arrays.toString(a.getPubkeyHash()), a);
+    }
+
+    // 提交一个区块，修改部分账户
+    private List<Account> commit(long height) {
+        List<Account> changed = new ArrayList<>();
+        for (int i = (int) height; i < ACCOUNTS; i += 7) {
+            changed.add(account(i, height, height * 1000 + i));
+        }
+        changed.add(account(ACCOUNTS + (int) height, height, 1));
+        changed.forEach(this::put);
+        lastConfirmed = block(height);
+        return changed;
+    }
+
+    private void awaitRebuild() throws Exception {
+        for (int i = 0; i < 1000 && stateTrie.isRebuilding(); i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(stateTrie.isRebuilding());
+    }
+
+    // 从当前状态一次性构建的根
+    private byte[] expectedRoot() {
+        Map<String, byte[]> values = new HashMap<>();
+        accounts.values().forEach(a -> values.put(
+                Hex.encodeHexString(StateTrie.accountTrieKey(a.getPubkeyHash())),
+                StateTrie.accountValue(a)));
+        return new SparseMerkleTree(h -> null).update(SparseMerkleTree.EMPTY, values);
+    }
+
+    @Test
+    public void testRebuildInChunksThenUpdate() throws Exception {
+        commit(1);
+        stateTrie.init();
+        awaitRebuild();
+        Assert.assertEquals(1, stateTrie.getLatestHeight());
+        Assert.assertArrayEquals(expectedRoot(), stateTrie.getRoot(1));
+
+        stateTrie.update(block(2), commit(2), Collections.emptyList());
+        Assert.assertEquals(2, stateTrie.getLatestHeight());
+        Assert.assertArrayEquals(expectedRoot(), stateTrie.getRoot(2));
+        Assert.assertTrue(stateTrie.proveAccount(account(ACCOUNTS + 2, 0, 0).getPubkeyHash(), 2).get()
+                .isInclusion(StateTrie.accountTrieKey(account(ACCOUNTS + 2, 0, 0).getPubkeyHash())));
+
+        // 没有显式要求时，空缺的高度不会触发重建
+        stateTrie.update(block(4), commit(4), Collections.emptyList());
+        Assert.assertFalse(stateTrie.isRebuilding());
+        Assert.assertEquals(2, stateTrie.getLatestHeight());
+    }
+
+    @Test
+    public void testBlocksConfirmedDuringRebuild() throws Exception {
+        resumeScan = new CountDownLatch(1);
+        stateTrie.init();
+        Assert.assertTrue(scanStarted.await(10, TimeUnit.SECONDS));
+        // 读取数据库期间确认的区块在重建完成后重新应用
+        for (long h = 1; h <= 3; h++) {
+            stateTrie.update(block(h), commit(h), Collections.emptyList());
+        }
+        Assert.assertTrue(stateTrie.isRebuilding());
+        resumeScan.countDown();
+        awaitRebuild();
+        Assert.assertEquals(3, stateTrie.getLatestHeight());
+        Assert.assertArrayEquals(expectedRoot(), stateTrie.getRoot(3));
+
+        stateTrie.update(block(4), commit(4), Collections.emptyList());
+        Assert.assertArrayEquals(expectedRoot(), stateTrie.getRoot(4));
+    }
+
+    @Test
+    public void testRetainedRoots() throws Exception {
+        ReflectionTestUtils.setField(stateTrie, "retainedRoots", 2L);
+        stateTrie.init();
+        awaitRebuild();
+        for (long h = 1; h <= 4; h++) {
+            stateTrie.update(block(h), commit(h), Collections.emptyList());
+        }
+        Assert.assertNull(stateTrie.getRoot(2));
+        Assert.assertNotNull(stateTrie.getRoot(3));
+        Assert.assertArrayEquals(expectedRoot(), stateTrie.getRoot(4));
+        Assert.assertTrue(stateTrie.proveAccount(account(0, 0, 0).getPubkeyHash(), 3).isPresent());
+    }
+}
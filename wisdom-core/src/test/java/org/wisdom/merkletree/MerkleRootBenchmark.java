@@ -0,0 +1,39 @@
+package org.wisdom.merkletree;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * merkle root of the hex string based {@link MerkleTree} against {@link MerkleRoot} on byte arrays,
+ * run with gradle jmh -PappArgs="MerkleRootBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MerkleRootBenchmark {
+    // 小于和超过并行计算阈值的叶子数量
+    @Param({"64", "4096", "10001"})
+    private int leaves;
+
+    private List<byte[]> items;
+
+    @Setup
+    public void setup() {
+        items = MerkleRootTest.items(leaves, 32);
+    }
+
+    @Benchmark
+    public byte[] merkleTree() throws Exception {
+        return MerkleRootTest.treeRoot(items);
+    }
+
+    @Benchmark
+    public byte[] merkleRoot() {
+        return MerkleRoot.root(items);
+    }
+}
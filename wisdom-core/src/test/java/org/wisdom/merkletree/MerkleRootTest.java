@@ -0,0 +1,53 @@
+package org.wisdom.merkletree;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.stream.Collectors.toList;
+
+public class MerkleRootTest {
+
+    static List<byte[]> items(int n, int size) {
+        Random random = new Random(n);
+        List<byte[]> items = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            byte[] item = new byte[size];
+            random.nextBytes(item);
+            items.add(item);
+        }
+        return items;
+    }
+
+    static byte[] treeRoot(List<byte[]> items) throws Exception {
+        MerkleTree tree = new MerkleTree(items.stream().map(Hex::encodeHexString).collect(toList()));
+        return Hex.decodeHex(tree.getRoot().getHash().toCharArray());
+    }
+
+    @Test
+    public void testSameAsMerkleTree() throws Exception {
+        for (int n = 1; n <= 70; n++) {
+            List<byte[]> items = items(n, 32);
+            Assert.assertArrayEquals("size " + n, treeRoot(items), MerkleRoot.root(items));
+            Assert.assertEquals(new MerkleTree(items.stream().map(Hex::encodeHexString).collect(toList())).getLevelSize(),
+                    MerkleRoot.levels(n));
+        }
+        // 账户和孵化记录的 id 是 24 字节
+        List<byte[]> ids = items(33, 24);
+        Assert.assertArrayEquals(treeRoot(ids), MerkleRoot.root(ids));
+        Assert.assertArrayEquals(new byte[32], MerkleRoot.root(new ArrayList<>()));
+    }
+
+    // 叶子数量超过阈值时并行计算下层
+    @Test
+    public void testParallel() throws Exception {
+        for (int n : new int[]{4096, 10001}) {
+            List<byte[]> items = items(n, 32);
+            Assert.assertArrayEquals("size " + n, treeRoot(items), MerkleRoot.root(items));
+        }
+    }
+}
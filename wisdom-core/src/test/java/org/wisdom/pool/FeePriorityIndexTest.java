@@ -0,0 +1,62 @@
+package org.wisdom.pool;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wisdom.core.account.Transaction;
+
+import java.util.*;
+
+public class FeePriorityIndexTest {
+
+    private static TransPool transPool(int fromSeed, long nonce, long gasPrice) {
+        Transaction t = PoolJournalTest.transaction(fromSeed, nonce);
+        t.gasPrice = gasPrice;
+        return new TransPool(t, 0, 0);
+    }
+
+    private static TreeMap<Long, TransPool> sender(TransPool... transPools) {
+        TreeMap<Long, TransPool> map = new TreeMap<>();
+        for (TransPool tp : transPools) {
+            map.put(tp.getTransaction().nonce, tp);
+        }
+        return map;
+    }
+
+    private static List<String> order(FeePriorityIndex index) {
+        List<String> res = new ArrayList<>();
+        index.iterator().forEachRemaining(h -> res.add(h.getFromhash()));
+        return res;
+    }
+
+    @Test
+    public void testOrderedByHeadFee() {
+        FeePriorityIndex index = new FeePriorityIndex();
+        index.refresh("a", sender(transPool(1, 1, 10), transPool(1, 2, 1000)));
+        index.refresh("b", sender(transPool(2, 1, 100)));
+        index.refresh("c", sender(transPool(3, 1, 50)));
+        Assert.assertEquals(Arrays.asList("b", "c", "a"), order(index));
+        Assert.assertEquals(3, index.size());
+    }
+
+    @Test
+    public void testHeadSkipsPackedAndRemovedSenders() {
+        FeePriorityIndex index = new FeePriorityIndex();
+        TreeMap<Long, TransPool> a = sender(transPool(1, 1, 10), transPool(1, 2, 1000));
+        index.refresh("a", a);
+        index.refresh("b", sender(transPool(2, 1, 100)));
+
+        // head of a is packed, the next nonce becomes its head
+        a.get(1L).setState(1);
+        index.refresh("a", a);
+        Assert.assertEquals(Arrays.asList("a", "b"), order(index));
+        Assert.assertEquals(2, index.size());
+
+        index.refresh("b", null);
+        Assert.assertEquals(Collections.singletonList("a"), order(index));
+
+        a.get(2L).setState(1);
+        index.refresh("a", a);
+        Assert.assertEquals(0, index.size());
+        Assert.assertFalse(index.iterator().hasNext());
+    }
+}
@@ -0,0 +1,112 @@
+package org.wisdom.pool;
+
+import com.alibaba.fastjson.JSON;
+import org.apache.commons.codec.binary.Hex;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.db.Leveldb;
+import org.wisdom.keystore.crypto.RipemdUtility;
+import org.wisdom.keystore.crypto.SHA3Utility;
+
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+public class PoolJournalTest {
+    private String dir;
+    private Leveldb leveldb;
+    private PoolJournal journal;
+
+    static Transaction transaction(int fromSeed, long nonce) {
+        Transaction t = Transaction.createEmpty();
+        t.from = new byte[Transaction.PUBLIC_KEY_SIZE];
+        t.from[0] = (byte) fromSeed;
+        t.to = new byte[Transaction.PUBLIC_KEY_HASH_SIZE];
+        t.signature = new byte[Transaction.SIGNATURE_SIZE];
+        t.payload = new byte[0];
+        t.nonce = nonce;
+        t.gasPrice = 50000;
+        t.amount = 100;
+        t.type = Transaction.Type.TRANSFER.ordinal();
+        return t;
+    }
+
+    static String fromhash(Transaction t) {
+        return Hex.encodeHexString(RipemdUtility.ripemd160(SHA3Utility.keccak256(t.from)));
+    }
+
+    private PoolJournal newJournal() {
+        PoolJournal j = new PoolJournal();
+        ReflectionTestUtils.setField(j, "leveldb", leveldb);
+        return j;
+    }
+
+    @Before
+    public void open() throws Exception {
+        dir = Files.createTempDirectory("pool-journal-test").toFile().getAbsolutePath();
+        leveldb = new Leveldb(dir, false, 1 << 20);
+        journal = newJournal();
+    }
+
+    @After
+    public void close() {
+        leveldb.close();
+    }
+
+    @Test
+    public void testEncodeDecode() {
+        Transaction t = transaction(1, 7);
+        TransPool tp = new TransPool(t, 1, 123456L);
+        tp.setHeight(99);
+        TransPool decoded = PoolJournal.decode(PoolJournal.encode(tp));
+        Assert.assertEquals(1, decoded.getState());
+        Assert.assertEquals(123456L, decoded.getDatetime());
+        Assert.assertEquals(99, decoded.getHeight());
+        Assert.assertArrayEquals(t.getHash(), decoded.getTransaction().getHash());
+    }
+
+    @Test
+    public void testReplayAfterRestart() throws Exception {
+        Transaction t1 = transaction(1, 1);
+        Transaction t2 = transaction(1, 2);
+        Transaction t3 = transaction(2, 1);
+        journal.put(PoolJournal.QUEUED, fromhash(t1), new TransPool(t1, 0, 1));
+        journal.put(PoolJournal.QUEUED, fromhash(t2), new TransPool(t2, 0, 1));
+        journal.put(PoolJournal.PENDING, fromhash(t3), new TransPool(t3, 0, 1));
+        journal.flush();
+        journal.remove(PoolJournal.QUEUED, fromhash(t1), 1);
+        Assert.assertEquals(1, journal.dirtySize());
+        journal.close();
+        leveldb.close();
+
+        leveldb = new Leveldb(dir, false, 1 << 20);
+        journal = newJournal();
+        List<TransPool> queued = journal.replay(PoolJournal.QUEUED);
+        Assert.assertEquals(1, queued.size());
+        Assert.assertArrayEquals(t2.getHash(), queued.get(0).getTransaction().getHash());
+        List<TransPool> pending = journal.replay(PoolJournal.PENDING);
+        Assert.assertEquals(1, pending.size());
+        Assert.assertArrayEquals(t3.getHash(), pending.get(0).getTransaction().getHash());
+    }
+
+    @Test
+    public void testMigrateLegacySnapshot() {
+        Transaction t = transaction(3, 1);
+        t.gasPrice = 1;
+        leveldb.addPoolDb("QueuedPool", JSON.toJSONString(Collections.singletonList(t)));
+        Assert.assertEquals(1, journal.replay(PoolJournal.QUEUED).size());
+        Assert.assertEquals("", leveldb.readPoolDb("QueuedPool"));
+        Assert.assertEquals(1, journal.replay(PoolJournal.QUEUED).size());
+    }
+
+    @Test
+    public void testUnparsableLegacySnapshotKept() {
+        leveldb.addPoolDb("PendingPool", "[{\"transaction\":");
+        Assert.assertTrue(journal.replay(PoolJournal.PENDING).isEmpty());
+        Assert.assertEquals("[{\"transaction\":", leveldb.readPoolDb("PendingPool"));
+    }
+}
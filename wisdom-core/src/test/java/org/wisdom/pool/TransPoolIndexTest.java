@@ -0,0 +1,74 @@
+package org.wisdom.pool;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.wisdom.core.account.Transaction;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+
+public class TransPoolIndexTest {
+
+    private static AdoptTransPool adoptTransPool() {
+        AdoptTransPool pool = new AdoptTransPool();
+        ReflectionTestUtils.setField(pool, "poolJournal", new PoolJournal());
+        return pool;
+    }
+
+    private static PeningTransPool peningTransPool() {
+        PeningTransPool pool = new PeningTransPool();
+        ReflectionTestUtils.setField(pool, "poolJournal", new PoolJournal());
+        return pool;
+    }
+
+    @Test
+    public void testAdoptTransPoolIndex() {
+        AdoptTransPool pool = adoptTransPool();
+        Transaction t1 = PoolJournalTest.transaction(1, 1);
+        Transaction t2 = PoolJournalTest.transaction(1, 2);
+        pool.add(Arrays.asList(t1, t2));
+        Assert.assertEquals(2, pool.size());
+        Assert.assertSame(t1, pool.getPoolTranHash(t1.getHash()).getTransaction());
+
+        // same nonce and type replaces the transaction
+        Transaction t3 = PoolJournalTest.transaction(1, 2);
+        t3.amount = 200;
+        pool.add(Collections.singletonList(t3));
+        Assert.assertEquals(2, pool.size());
+        Assert.assertNull(pool.getPoolTranHash(t2.getHash()));
+        Assert.assertSame(t3, pool.getPoolTranHash(t3.getHash()).getTransaction());
+
+        IdentityHashMap<String, String> removes = new IdentityHashMap<>();
+        removes.put(PoolJournalTest.fromhash(t1), pool.getKeyTrans(t1));
+        pool.remove(removes);
+        Assert.assertEquals(1, pool.size());
+        Assert.assertNull(pool.getPoolTranHash(t1.getHash()));
+    }
+
+    @Test
+    public void testPeningTransPoolIndex() {
+        PeningTransPool pool = peningTransPool();
+        Transaction t1 = PoolJournalTest.transaction(1, 1);
+        Transaction t2 = PoolJournalTest.transaction(1, 2);
+        Transaction t3 = PoolJournalTest.transaction(2, 1);
+        pool.add(Arrays.asList(new TransPool(t1, 0, 0), new TransPool(t2, 0, 0), new TransPool(t3, 0, 0)));
+        Assert.assertEquals(3, pool.size());
+        Assert.assertEquals(3, pool.nostateSize());
+        Assert.assertEquals(3, pool.Unpacksize());
+        Assert.assertSame(t2, pool.getPoolTranHash(t2.getHash()).getTransaction());
+
+        pool.updatePool(Collections.singletonList(t1), 1, 10);
+        pool.updatePool(Collections.singletonList(t3), 2, 10);
+        Assert.assertEquals(1, pool.nostateSize());
+        Assert.assertEquals(2, pool.Unpacksize());
+        Assert.assertEquals(pool.getAllnostate().size(), pool.nostateSize());
+        Assert.assertEquals(pool.getAllstate().size(), pool.Unpacksize());
+
+        pool.removeOne(PoolJournalTest.fromhash(t3), t3.nonce);
+        Assert.assertEquals(2, pool.size());
+        Assert.assertEquals(2, pool.Unpacksize());
+        Assert.assertNull(pool.getPoolTranHash(t3.getHash()));
+    }
+}
@@ -0,0 +1,92 @@
+package org.wisdom.sync;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.wisdom.core.Block;
+import org.wisdom.core.BlocksCache;
+import org.wisdom.core.OrphanBlocksManager;
+import org.wisdom.core.PendingBlocksManager;
+import org.wisdom.core.validate.BasicRule;
+import org.wisdom.core.validate.CheckPointRule;
+import org.wisdom.core.validate.Result;
+import org.wisdom.core.validate.SignatureVerifier;
+import org.wisdom.p2p.WisdomOuterClass;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+
+public class BlockImportPipelineTest {
+    private BlockImportPipeline pipeline;
+
+    private SignatureVerifier signatureVerifier;
+
+    private final List<Long> applied = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setup() {
+        pipeline = new BlockImportPipeline(4, 8);
+        signatureVerifier = new SignatureVerifier(2, 1024);
+
+        // 高度为 7 的倍数的区块校验失败，偶数高度的区块校验较慢，打乱各线程的完成顺序
+        BasicRule rule = Mockito.mock(BasicRule.class);
+        Mockito.when(rule.validateBlock(any())).then(invocation -> {
+            Block b = invocation.getArgument(0);
+            if (b.nHeight % 2 == 0) {
+                Thread.sleep(2);
+            }
+            return b.nHeight % 7 == 0 ? Result.Error("rejected") : Result.SUCCESS;
+        });
+        CheckPointRule checkPointRule = Mockito.mock(CheckPointRule.class);
+        Mockito.when(checkPointRule.validateBlock(any())).thenReturn(Result.SUCCESS);
+        OrphanBlocksManager orphanBlocksManager = Mockito.mock(OrphanBlocksManager.class);
+        Mockito.when(orphanBlocksManager.removeAndCacheOrphans(any())).then(invocation -> new BlocksCache((List<Block>) invocation.getArgument(0)));
+        PendingBlocksManager pendingBlocksManager = Mockito.mock(PendingBlocksManager.class);
+        Mockito.doAnswer(invocation -> {
+            BlocksCache cache = invocation.getArgument(0);
+            cache.getAll().forEach(b -> applied.add(b.nHeight));
+            return null;
+        }).when(pendingBlocksManager).writeBlocks(any());
+
+        ReflectionTestUtils.setField(pipeline, "rule", rule);
+        ReflectionTestUtils.setField(pipeline, "checkPointRule", checkPointRule);
+        ReflectionTestUtils.setField(pipeline, "signatureVerifier", signatureVerifier);
+        ReflectionTestUtils.setField(pipeline, "orphanBlocksManager", orphanBlocksManager);
+        ReflectionTestUtils.setField(pipeline, "pendingBlocksManager", pendingBlocksManager);
+    }
+
+    @After
+    public void close() {
+        pipeline.close();
+        signatureVerifier.close();
+    }
+
+    @Test
+    public void testApplyInReceivedOrder() throws Exception {
+        List<WisdomOuterClass.Block> blocks = new ArrayList<>();
+        List<Long> expected = new ArrayList<>();
+        for (long i = 1; i <= 200; i++) {
+            Block b = new Block();
+            b.nHeight = i;
+            b.nTime = i;
+            blocks.add(Utils.encodeBlock(b));
+            if (i % 7 != 0) {
+                expected.add(i);
+            }
+        }
+        // 队列长度远小于区块数量，推送时会被阻塞
+        pipeline.pushAll(blocks);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (applied.size() < expected.size() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(expected, new ArrayList<>(applied));
+        Assert.assertFalse(pipeline.isBusy());
+    }
+}